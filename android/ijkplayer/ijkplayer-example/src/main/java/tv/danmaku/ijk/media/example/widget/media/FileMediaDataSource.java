@@ -22,10 +22,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
-import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource2;
 
-public class FileMediaDataSource implements IMediaDataSource {
+public class FileMediaDataSource implements IMediaDataSource2 {
     private RandomAccessFile mFile;
     private long mFileSize;
 
@@ -45,6 +46,14 @@ public class FileMediaDataSource implements IMediaDataSource {
         return mFile.read(buffer, 0, size);
     }
 
+    @Override
+    public int readAt(long position, ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining())
+            return 0;
+
+        return mFile.getChannel().read(buffer, position);
+    }
+
     @Override
     public long getSize() throws IOException {
         return mFileSize;
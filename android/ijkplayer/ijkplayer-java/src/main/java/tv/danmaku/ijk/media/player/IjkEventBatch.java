@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Bilibili
+ * Copyright (C) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * The http and tcp events recorded by the native player since the last batch,
+ * read in place from a direct buffer owned by the player.
+ * <p>
+ * The same instance is passed to every
+ * {@link IjkMediaPlayer.OnNativeEventBatchListener#onNativeEventBatch(IjkMediaPlayer, IjkEventBatch)}
+ * call and is only valid during it. Nothing but {@link #getText()} allocates.
+ *
+ * <pre>
+ * while (batch.next()) {
+ *     switch (batch.getWhat()) {
+ *         case IjkMediaPlayer.OnNativeInvokeListener.EVENT_DID_HTTP_OPEN:
+ *             onHttpOpen(batch.getHttpCode(), batch.getTimeUs());
+ *             break;
+ *     }
+ * }
+ * </pre>
+ */
+public final class IjkEventBatch {
+    // keep in sync with ff_event_batch.h
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_SIZE = 0;
+    private static final int OFFSET_WHAT = 4;
+    private static final int OFFSET_INT_ARGS = 8;
+    private static final int OFFSET_TEXT_SIZE = 24;
+    private static final int OFFSET_LONG_ARGS = 32;
+    private static final int OFFSET_TIME_US = 48;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private int mStart;
+    private int mEnd;
+    private int mCount;
+    private long mDroppedCount;
+    private int mRecord;
+    private int mNext;
+
+    IjkEventBatch(ByteBuffer buffer) {
+        mBuffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    void reset(int offset, int length, int count, long droppedCount) {
+        mStart = offset;
+        mEnd = offset + length;
+        mCount = count;
+        mDroppedCount = droppedCount;
+        rewind();
+    }
+
+    /** @return the number of records in the batch */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** @return the events lost since the previous batch because the buffer was full */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /** Moves back before the first record. */
+    public void rewind() {
+        mRecord = -1;
+        mNext = mStart;
+    }
+
+    /** Moves to the next record, @return false after the last one */
+    public boolean next() {
+        if (mNext + HEADER_SIZE > mEnd) {
+            mRecord = -1;
+            return false;
+        }
+
+        mRecord = mNext;
+        mNext += mBuffer.getInt(mRecord + OFFSET_SIZE);
+        return true;
+    }
+
+    /** @return one of the EVENT_xxx or CTRL_xxx_TCP_OPEN constants of {@link IjkMediaPlayer.OnNativeInvokeListener} */
+    public int getWhat() {
+        return mBuffer.getInt(record() + OFFSET_WHAT);
+    }
+
+    /** @return when the native player recorded the event, in microseconds since the epoch */
+    public long getTimeUs() {
+        return mBuffer.getLong(record() + OFFSET_TIME_US);
+    }
+
+    public int getIntArg(int index) {
+        if (index < 0 || index >= 4)
+            throw new IndexOutOfBoundsException("int arg " + index);
+        return mBuffer.getInt(record() + OFFSET_INT_ARGS + index * 4);
+    }
+
+    public long getLongArg(int index) {
+        if (index < 0 || index >= 2)
+            throw new IndexOutOfBoundsException("long arg " + index);
+        return mBuffer.getLong(record() + OFFSET_LONG_ARGS + index * 8);
+    }
+
+    /** http and tcp events */
+    public int getError() {
+        return getIntArg(0);
+    }
+
+    /** http events */
+    public int getHttpCode() {
+        return getIntArg(1);
+    }
+
+    /** http events */
+    public long getOffset() {
+        return getLongArg(0);
+    }
+
+    /** http events */
+    public long getFileSize() {
+        return getLongArg(1);
+    }
+
+    /** tcp events */
+    public int getFamily() {
+        return getIntArg(1);
+    }
+
+    /** tcp events */
+    public int getPort() {
+        return getIntArg(2);
+    }
+
+    /** tcp events */
+    public int getFd() {
+        return getIntArg(3);
+    }
+
+    /** @return bytes of the UTF-8 text, the url of http events or the ip of tcp events */
+    public int getTextSize() {
+        return mBuffer.getInt(record() + OFFSET_TEXT_SIZE);
+    }
+
+    /**
+     * Copies the UTF-8 text into dst.
+     *
+     * @return bytes copied, at most dst.length - offset
+     */
+    public int getText(byte[] dst, int offset) {
+        int record = record();
+        int size = Math.min(getTextSize(), dst.length - offset);
+        for (int i = 0; i < size; i++)
+            dst[offset + i] = mBuffer.get(record + HEADER_SIZE + i);
+        return size;
+    }
+
+    /** Decodes the text into a new String. */
+    public String getText() {
+        byte[] text = new byte[getTextSize()];
+        getText(text, 0);
+        return new String(text, UTF_8);
+    }
+
+    private int record() {
+        if (mRecord < 0)
+            throw new IllegalStateException("no current record, call next()");
+        return mRecord;
+    }
+}
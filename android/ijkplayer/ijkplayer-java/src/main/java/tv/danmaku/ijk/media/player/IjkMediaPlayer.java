@@ -47,6 +47,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Locale;
@@ -74,6 +75,7 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     private static final int MEDIA_BUFFERING_UPDATE = 3;
     private static final int MEDIA_SEEK_COMPLETE = 4;
     private static final int MEDIA_SET_VIDEO_SIZE = 5;
+    private static final int MEDIA_GET_IMG_STATE = 6;
     private static final int MEDIA_TIMED_TEXT = 99;
     private static final int MEDIA_ERROR = 100;
     private static final int MEDIA_INFO = 200;
@@ -140,6 +142,21 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     public static final int FFP_PROP_INT64_TCP_SPEED                        = 20200;
     public static final int FFP_PROP_INT64_LATEST_SEEK_LOAD_DURATION        = 20300;
     public static final int FFP_PROP_INT64_IMMEDIATE_RECONNECT              = 20211;
+    public static final int FFP_PROP_INT64_CACHE_DIR_MAX_SIZE               = 20212;
+    public static final int FFP_PROP_INT64_CACHE_DIR_USAGE                  = 20213;
+    public static final int FFP_PROP_INT64_PARKED_READER_HITS               = 20214;
+    public static final int FFP_PROP_INT64_PARKED_READER_MISSES             = 20215;
+    public static final int FFP_PROP_INT64_PACKET_ARENA_ALLOCS              = 20216;
+    public static final int FFP_PROP_INT64_PACKET_ARENA_RECYCLES            = 20217;
+    public static final int FFP_PROP_INT64_PACKET_ARENA_BYTES               = 20218;
+    public static final int FFP_PROP_INT64_MEDIACODEC_REUSE_HITS            = 20219;
+    public static final int FFP_PROP_INT64_MEDIACODEC_REUSE_MISSES          = 20220;
+    public static final int FFP_PROP_INT64_THUMBNAIL_CACHE_HITS             = 20221;
+    public static final int FFP_PROP_INT64_THUMBNAIL_CACHE_MISSES           = 20222;
+    public static final int FFP_PROP_INT64_AUDIO_UNDERRUNS                  = 20223;
+    public static final int FFP_PROP_INT64_AUDIO_OUTPUT_CPU_US              = 20224;
+    public static final int FFP_PROP_INT64_AUDIO_OUTPUT_LATENCY_US          = 20225;
+    public static final int FFP_PROP_INT64_AUDIO_OUTPUT_BUFFER_US           = 20226;
     //----------------------------------------
 
     @AccessedByNative
@@ -250,6 +267,10 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     private native void _setFrameAtTime(String imgCachePath, long startTime, long endTime, int num, int imgDefinition)
             throws IllegalArgumentException, IllegalStateException;
 
+    private native void _setSpriteFrameAtTime(String dirPath, long startTime, long endTime, int num,
+                                              int format, int tileWidth, int tileHeight, int columns, int rows, int quality)
+            throws IllegalStateException;
+
     /*
      * Update the IjkMediaPlayer SurfaceTexture. Call after setting a new
      * display surface.
@@ -713,12 +734,52 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         // make sure none of the listeners get called anymore
         mEventHandler.removeCallbacksAndMessages(null);
 
+        // the new native player has no event batch, the listener is kept
+        if (mEventBatch != null) {
+            mEventBatch = null;
+            if (mOnNativeEventBatchListener != null)
+                setOnNativeEventBatchListener(mOnNativeEventBatchListener, mEventBatchCapacity);
+        }
+
         mVideoWidth = 0;
         mVideoHeight = 0;
     }
 
     private native void _reset();
 
+    /**
+     * Like {@link #reset()}, but keeps the native player, its video output
+     * and decoder pipeline instead of creating new ones, and drops the
+     * listeners. Options are back to their defaults. Used by
+     * {@link IjkMediaPlayerPool}.
+     * <p>
+     * Only the video output and the decoder pipeline are kept warm: the
+     * read, decode and message threads are joined, the codecs are closed and
+     * the audio output is freed, all of them come back with the next
+     * prepareAsync(). May block until those threads are gone.
+     */
+    void recycle() {
+        stayAwake(false);
+        updateSurfaceScreenOn();
+        mSurfaceHolder = null;
+        resetListeners();
+        mOnNativeInvokeListener = null;
+        mOnControlMessageListener = null;
+        _recycle();
+        // freed by the native recycle
+        mEventBatch = null;
+        // make sure none of the listeners get called anymore
+        mEventHandler.removeCallbacksAndMessages(null);
+
+        mVideoWidth = 0;
+        mVideoHeight = 0;
+        mVideoSarNum = 0;
+        mVideoSarDen = 0;
+        mDataSource = null;
+    }
+
+    private native void _recycle();
+
     /**
      * Sets the player to be looping or non-looping.
      *
@@ -826,6 +887,72 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         return _getPropertyLong(FFP_PROP_INT64_LOGICAL_FILE_SIZE, 0);
     }
 
+    public long getCacheDirMaxSize() {
+        return _getPropertyLong(FFP_PROP_INT64_CACHE_DIR_MAX_SIZE, 0);
+    }
+
+    public long getCacheDirUsage() {
+        return _getPropertyLong(FFP_PROP_INT64_CACHE_DIR_USAGE, 0);
+    }
+
+    public long getParkedReaderHits() {
+        return _getPropertyLong(FFP_PROP_INT64_PARKED_READER_HITS, 0);
+    }
+
+    public long getParkedReaderMisses() {
+        return _getPropertyLong(FFP_PROP_INT64_PARKED_READER_MISSES, 0);
+    }
+
+    public long getPacketArenaAllocs() {
+        return _getPropertyLong(FFP_PROP_INT64_PACKET_ARENA_ALLOCS, 0);
+    }
+
+    public long getPacketArenaRecycles() {
+        return _getPropertyLong(FFP_PROP_INT64_PACKET_ARENA_RECYCLES, 0);
+    }
+
+    public long getPacketArenaBytes() {
+        return _getPropertyLong(FFP_PROP_INT64_PACKET_ARENA_BYTES, 0);
+    }
+
+    /** @return decoders taken back from a previous stream, with the "mediacodec-reuse" option */
+    public long getMediaCodecReuseHits() {
+        return _getPropertyLong(FFP_PROP_INT64_MEDIACODEC_REUSE_HITS, 0);
+    }
+
+    public long getMediaCodecReuseMisses() {
+        return _getPropertyLong(FFP_PROP_INT64_MEDIACODEC_REUSE_MISSES, 0);
+    }
+
+    /** @return frames got at time from the thumbnail cache, with the "thumbnail-cache" option */
+    public long getThumbnailCacheHits() {
+        return _getPropertyLong(FFP_PROP_INT64_THUMBNAIL_CACHE_HITS, 0);
+    }
+
+    public long getThumbnailCacheMisses() {
+        return _getPropertyLong(FFP_PROP_INT64_THUMBNAIL_CACHE_MISSES, 0);
+    }
+
+    /** @return underruns reported by AudioTrack, API 24 or above, -1 if unknown */
+    public long getAudioUnderruns() {
+        return _getPropertyLong(FFP_PROP_INT64_AUDIO_UNDERRUNS, -1);
+    }
+
+    /** @return cpu time of the audio output thread, -1 if unknown */
+    public long getAudioOutputCpuUs() {
+        return _getPropertyLong(FFP_PROP_INT64_AUDIO_OUTPUT_CPU_US, -1);
+    }
+
+    /** @return time until a sample written now is heard, -1 if unknown */
+    public long getAudioOutputLatencyUs() {
+        return _getPropertyLong(FFP_PROP_INT64_AUDIO_OUTPUT_LATENCY_US, -1);
+    }
+
+    /** @return size of the audio device buffer, -1 if unknown */
+    public long getAudioOutputBufferUs() {
+        return _getPropertyLong(FFP_PROP_INT64_AUDIO_OUTPUT_BUFFER_US, -1);
+    }
+
     public long getBitRate() {
         return _getPropertyLong(FFP_PROP_INT64_BIT_RATE, 0);
     }
@@ -958,6 +1085,17 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         _setPropertyLong(FFP_PROP_INT64_SHARE_CACHE_DATA, (long)share);
     }
 
+    /**
+     * Limit the total size of all ijkio cache files, shared by every player in
+     * the process. Least recently used caches that are not being played are
+     * evicted once the limit is exceeded; 0 disables the limit.
+     *
+     * Same as setting the format option "cache_dir_max_size".
+     */
+    public void setCacheDirMaxSize(long maxSize) {
+        _setPropertyLong(FFP_PROP_INT64_CACHE_DIR_MAX_SIZE, maxSize);
+    }
+
     private static class EventHandler extends Handler {
         private final WeakReference<IjkMediaPlayer> mWeakPlayer;
 
@@ -1040,6 +1178,11 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
                     player.notifyOnTimedText(text);
                 }
                 return;
+            case MEDIA_GET_IMG_STATE:
+                OnSpriteSheetListener spriteListener = player.mOnSpriteSheetListener;
+                if (spriteListener != null && (player.mSpriteSheetToFiles || msg.arg2 < 0))
+                    spriteListener.onSpriteSheetWritten(player, msg.arg1, (String) msg.obj, msg.arg2);
+                return;
             case MEDIA_NOP: // interface test message - ignore
                 break;
 
@@ -1086,6 +1229,20 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         }
     }
 
+    /*
+     * Messages queued while the previous ones were delivered, in one crossing:
+     * events holds (what, arg1, arg2) for each of the first count messages.
+     */
+    @CalledByNative
+    private static void postEventsFromNative(Object weakThiz, int[] events, int count) {
+        if (weakThiz == null || events == null)
+            return;
+
+        for (int i = 0; i < count && i * 3 + 2 < events.length; i++) {
+            postEventFromNative(weakThiz, events[i * 3], events[i * 3 + 1], events[i * 3 + 2], null);
+        }
+    }
+
     /*
      * ControlMessage
      */
@@ -1116,6 +1273,7 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         int CTRL_WILL_HTTP_OPEN = 0x20003;              // ARG_URL, ARG_SEGMENT_INDEX, ARG_RETRY_COUNTER
         int CTRL_WILL_LIVE_OPEN = 0x20005;              // ARG_URL, ARG_RETRY_COUNTER
         int CTRL_WILL_CONCAT_RESOLVE_SEGMENT = 0x20007; // ARG_URL, ARG_SEGMENT_INDEX, ARG_RETRY_COUNTER
+        int CTRL_WILL_CACHE_OPEN = 0x20101;             // ARG_URL, ARG_CACHE_KEY, only with the "cache_key_dir" format option
 
         int EVENT_WILL_HTTP_OPEN = 0x1;                 // ARG_URL
         int EVENT_DID_HTTP_OPEN = 0x2;                  // ARG_URL, ARG_ERROR, ARG_HTTP_CODE
@@ -1136,6 +1294,9 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         String ARG_HTTP_CODE = "http_code";
         String ARG_FILE_SIZE = "file_size";
 
+        // return true and put a new ARG_CACHE_KEY to override the derived key, a null key disables the cache
+        String ARG_CACHE_KEY = "cache_key";
+
         /*
          * @return true if invoke is handled
          * @throws Exception on any error
@@ -1181,6 +1342,139 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         }
     }
 
+    /*
+     * NativeEventBatch
+     */
+
+    public static final int DEFAULT_EVENT_BATCH_CAPACITY = 64 * 1024;
+
+    private OnNativeEventBatchListener mOnNativeEventBatchListener;
+    private IjkEventBatch mEventBatch;
+    private int mEventBatchCapacity = DEFAULT_EVENT_BATCH_CAPACITY;
+
+    /**
+     * Delivers the EVENT_xxx_HTTP_xxx and CTRL_xxx_TCP_OPEN events of
+     * {@link OnNativeInvokeListener} in batches, read in place from a direct
+     * buffer, instead of one Bundle per event. While a listener is set, those
+     * events no longer reach the OnNativeInvokeListener; a null listener sends
+     * them back to it. Call before prepareAsync().
+     *
+     * @param capacity bytes buffered between two batches, events past it are dropped and counted
+     */
+    public void setOnNativeEventBatchListener(OnNativeEventBatchListener listener, int capacity) {
+        if (listener != null && mEventBatch == null) {
+            ByteBuffer buffer = _enableEventBatch(capacity);
+            if (buffer == null)
+                throw new IllegalStateException("setOnNativeEventBatchListener: no buffer");
+            mEventBatch = new IjkEventBatch(buffer);
+            mEventBatchCapacity = capacity;
+        } else if (listener == null && mEventBatch != null) {
+            _disableEventBatch();
+            mEventBatch = null;
+        }
+        mOnNativeEventBatchListener = listener;
+    }
+
+    public void setOnNativeEventBatchListener(OnNativeEventBatchListener listener) {
+        setOnNativeEventBatchListener(listener, DEFAULT_EVENT_BATCH_CAPACITY);
+    }
+
+    private native ByteBuffer _enableEventBatch(int capacity);
+    private native void _disableEventBatch();
+
+    public interface OnNativeEventBatchListener {
+        /*
+         * Called on the native message thread, batch is only valid during the call.
+         */
+        void onNativeEventBatch(IjkMediaPlayer mp, IjkEventBatch batch);
+    }
+
+    @CalledByNative
+    private static void onNativeEventBatch(Object weakThiz, int offset, int length, int count, long dropped) {
+        if (weakThiz == null || !(weakThiz instanceof WeakReference<?>))
+            return;
+
+        @SuppressWarnings("unchecked")
+        WeakReference<IjkMediaPlayer> weakPlayer = (WeakReference<IjkMediaPlayer>) weakThiz;
+        IjkMediaPlayer player = weakPlayer.get();
+        if (player == null)
+            return;
+
+        OnNativeEventBatchListener listener = player.mOnNativeEventBatchListener;
+        IjkEventBatch batch = player.mEventBatch;
+        if (listener == null || batch == null)
+            return;
+
+        batch.reset(offset, length, count, dropped);
+        listener.onNativeEventBatch(player, batch);
+    }
+
+    /*
+     * Sprite sheets
+     */
+
+    private OnSpriteSheetListener mOnSpriteSheetListener;
+    private IjkSpriteSheet mSpriteSheet;
+    private boolean mSpriteSheetToFiles;
+
+    public interface OnSpriteSheetListener {
+        /*
+         * Sheets kept in memory, called on the native message thread,
+         * sheet is only valid during the call.
+         */
+        void onSpriteSheet(IjkMediaPlayer mp, IjkSpriteSheet sheet);
+
+        /*
+         * Sheets written to a directory, and errors of both modes, called on
+         * the looper of the player.
+         *
+         * @param result 1 for the last sheet, 0 if more follow, < 0 on error
+         */
+        void onSpriteSheetWritten(IjkMediaPlayer mp, int sheet, String fileName, int result);
+    }
+
+    public void setOnSpriteSheetListener(OnSpriteSheetListener listener) {
+        mOnSpriteSheetListener = listener;
+    }
+
+    /**
+     * Packs num frames evenly spaced from startTimeMs to endTimeMs into sprite
+     * sheets, with the player option "get-frame-mode" set to 1.
+     *
+     * @param dirPath where sprite_&lt;sheet&gt;.&lt;ext&gt; and {@link IjkSpriteSheet#INDEX_FILE_NAME}
+     *                are written, null to get the sheets in memory
+     */
+    public void setSpriteFrameAtTime(String dirPath, long startTimeMs, long endTimeMs, int num,
+                                     IjkSpriteSheet.Options options) throws IllegalStateException {
+        if (options == null)
+            options = new IjkSpriteSheet.Options();
+        mSpriteSheetToFiles = dirPath != null;
+        _setSpriteFrameAtTime(dirPath, startTimeMs, endTimeMs, num, options.mFormat,
+                options.mTileWidth, options.mTileHeight, options.mColumns, options.mRows, options.mQuality);
+    }
+
+    @CalledByNative
+    private static void onNativeSpriteSheet(Object weakThiz, int sheet, int format, int width, int height,
+                                            boolean last, ByteBuffer data, ByteBuffer index) {
+        if (weakThiz == null || !(weakThiz instanceof WeakReference<?>))
+            return;
+
+        @SuppressWarnings("unchecked")
+        WeakReference<IjkMediaPlayer> weakPlayer = (WeakReference<IjkMediaPlayer>) weakThiz;
+        IjkMediaPlayer player = weakPlayer.get();
+        if (player == null)
+            return;
+
+        OnSpriteSheetListener listener = player.mOnSpriteSheetListener;
+        if (listener == null)
+            return;
+
+        if (player.mSpriteSheet == null)
+            player.mSpriteSheet = new IjkSpriteSheet();
+        player.mSpriteSheet.reset(sheet, format, width, height, last, data, index);
+        listener.onSpriteSheet(player, player.mSpriteSheet);
+    }
+
     /*
      * MediaCodec select
      */
@@ -1196,6 +1490,9 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     public void resetListeners() {
         super.resetListeners();
         mOnMediaCodecSelectListener = null;
+        // turns the native batching off as well
+        setOnNativeEventBatchListener(null);
+        mOnSpriteSheetListener = null;
     }
 
     @CalledByNative
@@ -1284,4 +1581,11 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     public static native void native_profileBegin(String libName);
     public static native void native_profileEnd();
     public static native void native_setLogLevel(int level);
+    /** Bytes of thumbnails the process keeps in memory, shared by all players. */
+    public static native void native_setThumbnailCacheMemorySize(long bytes);
+    /**
+     * Bytes of thumbnails kept in the thumbnail-cache-dir, 32 MiB by default,
+     * the least recently used are deleted first. 0 or less keeps them all.
+     */
+    public static native void native_setThumbnailCacheDiskSize(long bytes);
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 Bilibili
+ * Copyright (C) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import tv.danmaku.ijk.media.player.pragma.DebugLog;
+
+/**
+ * Keeps idle {@link IjkMediaPlayer}s ready to play, for screens that open
+ * and close players all the time.
+ * <p>
+ * A recycled player keeps its native player, video output and decoder
+ * pipeline. The stream, the options, the codecs, the audio output and the
+ * playback and message threads go away, and come back on prepareAsync().
+ * Recycling waits for the playback threads, so it runs on a thread of the
+ * pool. Options are back to their defaults after a recycle: the default
+ * options of the pool and the overrides of each {@link #acquire(Options)}
+ * are applied on every acquire.
+ * </p>
+ * Players built by the pool post their events to the main looper.
+ */
+public final class IjkMediaPlayerPool {
+    private final static String TAG = IjkMediaPlayerPool.class.getName();
+
+    public static final class Options {
+        private final ArrayList<Object[]> mOptions = new ArrayList<Object[]>();
+
+        public Options setOption(int category, String name, String value) {
+            mOptions.add(new Object[] {category, name, value});
+            return this;
+        }
+
+        public Options setOption(int category, String name, long value) {
+            mOptions.add(new Object[] {category, name, value});
+            return this;
+        }
+
+        void applyTo(IjkMediaPlayer mp) {
+            for (Object[] option : mOptions) {
+                if (option[2] instanceof String)
+                    mp.setOption((Integer) option[0], (String) option[1], (String) option[2]);
+                else
+                    mp.setOption((Integer) option[0], (String) option[1], (Long) option[2]);
+            }
+        }
+    }
+
+    private final int mMaxIdle;
+    private final IjkLibLoader mLibLoader;
+    private final ArrayDeque<IjkMediaPlayer> mIdlePlayers = new ArrayDeque<IjkMediaPlayer>();
+    private final ExecutorService mExecutor;
+    private Options mDefaultOptions;
+    private int mPending;
+    private boolean mCleared;
+
+    private long mCreatedCount;
+    private long mReusedCount;
+
+    public IjkMediaPlayerPool(int maxIdle) {
+        this(maxIdle, null);
+    }
+
+    /**
+     * @param maxIdle   idle players kept at most
+     * @param libLoader custom library loader, can be null.
+     */
+    public IjkMediaPlayerPool(int maxIdle, IjkLibLoader libLoader) {
+        mMaxIdle = maxIdle;
+        mLibLoader = libLoader;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "IjkMediaPlayerPool");
+            }
+        });
+    }
+
+    /**
+     * Options applied to every player handed out, before the overrides of {@link #acquire(Options)}.
+     */
+    public synchronized void setDefaultOptions(Options options) {
+        mDefaultOptions = options;
+    }
+
+    /**
+     * Builds players on the pool thread until count of them are idle or on their way.
+     */
+    public synchronized void prewarm(int count) {
+        count = Math.min(count, mMaxIdle) - mIdlePlayers.size() - mPending;
+        if (mCleared || count <= 0)
+            return;
+
+        mPending += count;
+        for (int i = 0; i < count; i++) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    IjkMediaPlayer mp = newPlayer();
+                    synchronized (IjkMediaPlayerPool.this) {
+                        mPending--;
+                        if (!mCleared && mIdlePlayers.size() < mMaxIdle) {
+                            mIdlePlayers.addLast(mp);
+                            return;
+                        }
+                    }
+                    mp.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * @param overrides options of this playback, can be null.
+     * @return an idle player, or a new one if none is left, in the idle state
+     */
+    public IjkMediaPlayer acquire(Options overrides) {
+        IjkMediaPlayer mp;
+        Options defaultOptions;
+
+        synchronized (this) {
+            mp = mIdlePlayers.pollFirst();
+            if (mp != null)
+                mReusedCount++;
+            defaultOptions = mDefaultOptions;
+        }
+
+        if (mp == null)
+            mp = newPlayer();
+
+        if (defaultOptions != null)
+            defaultOptions.applyTo(mp);
+        if (overrides != null)
+            overrides.applyTo(mp);
+        return mp;
+    }
+
+    public IjkMediaPlayer acquire() {
+        return acquire(null);
+    }
+
+    /**
+     * Takes back a player from {@link #acquire(Options)}, which must not be
+     * used by the caller anymore. It is recycled on the pool thread, or
+     * released when the pool is full.
+     */
+    public void recycle(IjkMediaPlayer mp) {
+        if (mp == null)
+            return;
+
+        synchronized (this) {
+            if (!mCleared) {
+                mExecutor.execute(newRecycleTask(mp));
+                return;
+            }
+        }
+        mp.release();
+    }
+
+    private Runnable newRecycleTask(final IjkMediaPlayer mp) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                boolean keep;
+                synchronized (IjkMediaPlayerPool.this) {
+                    keep = !mCleared && mIdlePlayers.size() + mPending < mMaxIdle;
+                    if (keep)
+                        mPending++;
+                }
+                if (!keep) {
+                    mp.release();
+                    return;
+                }
+
+                boolean recycled = false;
+                try {
+                    mp.recycle();
+                    recycled = true;
+                } catch (RuntimeException e) {
+                    DebugLog.e(TAG, "recycle failed", e);
+                }
+
+                synchronized (IjkMediaPlayerPool.this) {
+                    mPending--;
+                    if (recycled && !mCleared && mIdlePlayers.size() < mMaxIdle) {
+                        mIdlePlayers.addLast(mp);
+                        return;
+                    }
+                }
+                mp.release();
+            }
+        };
+    }
+
+    /**
+     * Releases the idle players and stops the pool, acquire() keeps working
+     * without reuse.
+     */
+    public synchronized void clear() {
+        if (mCleared)
+            return;
+
+        final ArrayList<IjkMediaPlayer> players = new ArrayList<IjkMediaPlayer>(mIdlePlayers);
+        mCleared = true;
+        mIdlePlayers.clear();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (IjkMediaPlayer mp : players)
+                    mp.release();
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdlePlayers.size();
+    }
+
+    /** @return players built by the pool, at prewarm() or on an empty acquire() */
+    public synchronized long getCreatedCount() {
+        return mCreatedCount;
+    }
+
+    /** @return acquire() calls served by an idle player */
+    public synchronized long getReusedCount() {
+        return mReusedCount;
+    }
+
+    private IjkMediaPlayer newPlayer() {
+        IjkMediaPlayer mp = new IjkMediaPlayer(mLibLoader);
+        synchronized (this) {
+            mCreatedCount++;
+        }
+        return mp;
+    }
+}
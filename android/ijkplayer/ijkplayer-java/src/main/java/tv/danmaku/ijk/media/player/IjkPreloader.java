@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 Bilibili
+ * Copyright (C) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.lang.ref.WeakReference;
+
+import tv.danmaku.ijk.media.player.annotations.AccessedByNative;
+import tv.danmaku.ijk.media.player.annotations.CalledByNative;
+import tv.danmaku.ijk.media.player.pragma.DebugLog;
+
+/**
+ * Fills an ijkio cache file without creating a player.
+ * <p>
+ * A later {@link IjkMediaPlayer} opened on {@code "ijkio:cache:ffio:" + url} with the same
+ * {@code cache_file_path}/{@code cache_map_path} format options and {@code parse_cache_map=1}
+ * reads the preloaded range from disk. Do not preload a pair of paths while a player has
+ * them open.
+ * </p>
+ */
+public final class IjkPreloader {
+    private final static String TAG = IjkPreloader.class.getName();
+
+    public static final int PRELOAD_PROGRESS = 1;
+    public static final int PRELOAD_COMPLETED = 2;
+    public static final int PRELOAD_CANCELLED = 3;
+    public static final int PRELOAD_ERROR = 4;
+
+    public interface OnPreloadListener {
+        /**
+         * @param cachedBytes bytes read through the cache so far
+         * @param target      requested size in bytes, or duration in ms, <= 0 if unbounded
+         */
+        void onPreloadProgress(IjkPreloader preloader, long taskId, long cachedBytes, long target);
+
+        void onPreloadCompleted(IjkPreloader preloader, long taskId, long cachedBytes);
+
+        void onPreloadCancelled(IjkPreloader preloader, long taskId, long cachedBytes);
+
+        void onPreloadError(IjkPreloader preloader, long taskId, int error);
+    }
+
+    @AccessedByNative
+    private long mNativePreloader;
+
+    private final EventHandler mEventHandler;
+    private OnPreloadListener mOnPreloadListener;
+
+    public IjkPreloader(int maxConcurrent) {
+        this(maxConcurrent, null);
+    }
+
+    /**
+     * @param maxConcurrent number of tasks downloading at the same time
+     * @param libLoader     custom library loader, can be null.
+     */
+    public IjkPreloader(int maxConcurrent, IjkLibLoader libLoader) {
+        IjkMediaPlayer.loadLibrariesOnce(libLoader);
+
+        Looper looper;
+        if ((looper = Looper.myLooper()) != null) {
+            mEventHandler = new EventHandler(this, looper);
+        } else if ((looper = Looper.getMainLooper()) != null) {
+            mEventHandler = new EventHandler(this, looper);
+        } else {
+            mEventHandler = null;
+        }
+
+        native_setup(new WeakReference<IjkPreloader>(this), maxConcurrent);
+    }
+
+    public void setOnPreloadListener(OnPreloadListener listener) {
+        mOnPreloadListener = listener;
+    }
+
+    /**
+     * Options forwarded to the cache/ffio protocols of every task added afterwards,
+     * e.g. "user_agent", "headers", "cache_max_capacity".
+     */
+    public synchronized void setOption(String name, String value) {
+        _setOption(name, value);
+    }
+
+    public void setOption(String name, long value) {
+        setOption(name, String.valueOf(value));
+    }
+
+    /**
+     * Cache {@code size} bytes of {@code url} starting at {@code offset}.
+     *
+     * @param size bytes to cache, <= 0 to cache up to the end of the resource
+     * @return task id, or a negative error code if the task was rejected
+     */
+    public synchronized long preloadBytes(String url, String cacheFilePath, String cacheMapPath,
+                                          long offset, long size) {
+        return _preload(url, cacheFilePath, cacheMapPath, offset, size, 0);
+    }
+
+    /**
+     * Cache the first {@code durationMs} of {@code url}, container header included.
+     *
+     * @return task id, or a negative error code if the task was rejected
+     */
+    public synchronized long preloadDuration(String url, String cacheFilePath, String cacheMapPath,
+                                             long durationMs) {
+        if (durationMs <= 0)
+            throw new IllegalArgumentException("durationMs must be positive");
+        return _preload(url, cacheFilePath, cacheMapPath, 0, 0, durationMs);
+    }
+
+    /**
+     * @return false if the task is unknown or already finished
+     */
+    public synchronized boolean cancel(long taskId) {
+        return _cancel(taskId);
+    }
+
+    /**
+     * Cancels all tasks and waits for them to stop.
+     */
+    public synchronized void release() {
+        _release();
+        if (mEventHandler != null)
+            mEventHandler.removeCallbacksAndMessages(null);
+        mOnPreloadListener = null;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        _release();
+    }
+
+    private native void native_setup(Object weakThis, int maxConcurrent);
+    private native void _release();
+    private native void _setOption(String name, String value);
+    private native long _preload(String url, String cacheFilePath, String cacheMapPath,
+                                 long offset, long size, long durationMs);
+    private native boolean _cancel(long taskId);
+
+    private static class PreloadEvent {
+        final long taskId;
+        final long arg1;
+        final long arg2;
+
+        PreloadEvent(long taskId, long arg1, long arg2) {
+            this.taskId = taskId;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+    }
+
+    @CalledByNative
+    private static void postEventFromNative(Object weakThiz, int what, long taskId, long arg1, long arg2) {
+        if (weakThiz == null)
+            return;
+
+        @SuppressWarnings("rawtypes")
+        IjkPreloader preloader = (IjkPreloader) ((WeakReference) weakThiz).get();
+        if (preloader == null || preloader.mEventHandler == null)
+            return;
+
+        Message m = preloader.mEventHandler.obtainMessage(what, new PreloadEvent(taskId, arg1, arg2));
+        preloader.mEventHandler.sendMessage(m);
+    }
+
+    private static class EventHandler extends Handler {
+        private final WeakReference<IjkPreloader> mWeakPreloader;
+
+        public EventHandler(IjkPreloader preloader, Looper looper) {
+            super(looper);
+            mWeakPreloader = new WeakReference<IjkPreloader>(preloader);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            IjkPreloader preloader = mWeakPreloader.get();
+            if (preloader == null)
+                return;
+
+            OnPreloadListener listener = preloader.mOnPreloadListener;
+            if (listener == null)
+                return;
+
+            PreloadEvent event = (PreloadEvent) msg.obj;
+            switch (msg.what) {
+                case PRELOAD_PROGRESS:
+                    listener.onPreloadProgress(preloader, event.taskId, event.arg1, event.arg2);
+                    break;
+                case PRELOAD_COMPLETED:
+                    listener.onPreloadCompleted(preloader, event.taskId, event.arg1);
+                    break;
+                case PRELOAD_CANCELLED:
+                    listener.onPreloadCancelled(preloader, event.taskId, event.arg1);
+                    break;
+                case PRELOAD_ERROR:
+                    listener.onPreloadError(preloader, event.taskId, (int) event.arg1);
+                    break;
+                default:
+                    DebugLog.e(TAG, "Unknown message type " + msg.what);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Bilibili
+ * Copyright (C) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import android.graphics.Rect;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A sheet of thumbnails from
+ * {@link IjkMediaPlayer#setSpriteFrameAtTime(String, long, long, int, Options)},
+ * tiles packed row by row, with the index of its tiles.
+ * <p>
+ * Sheets delivered in memory to
+ * {@link IjkMediaPlayer.OnSpriteSheetListener#onSpriteSheet(IjkMediaPlayer, IjkSpriteSheet)}
+ * read the native buffers in place and are only valid during the call.
+ * </p>
+ */
+public final class IjkSpriteSheet {
+    // keep in sync with ff_sprite_sheet.h
+    public static final int FORMAT_JPEG = 0;
+    public static final int FORMAT_WEBP = 1;    // needs an ffmpeg built with libwebp
+    public static final int FORMAT_RGB565 = 2;  // raw pixels, width * 2 bytes per line
+
+    public static final String INDEX_FILE_NAME = "sprite.idx";
+
+    public static final class Options {
+        int mFormat = FORMAT_JPEG;
+        int mTileWidth = 160;
+        int mTileHeight = 90;
+        int mColumns = 10;
+        int mRows = 10;
+        int mQuality = 75;
+
+        public Options setFormat(int format) {
+            mFormat = format;
+            return this;
+        }
+
+        /**
+         * Frames are scaled to fit, keeping their display aspect ratio.
+         */
+        public Options setTileSize(int maxWidth, int maxHeight) {
+            mTileWidth = maxWidth;
+            mTileHeight = maxHeight;
+            return this;
+        }
+
+        public Options setLayout(int columns, int rows) {
+            mColumns = columns;
+            mRows = rows;
+            return this;
+        }
+
+        /**
+         * @param quality 1 - 100, JPEG and WebP
+         */
+        public Options setQuality(int quality) {
+            mQuality = quality;
+            return this;
+        }
+    }
+
+    /**
+     * The index of a sheet, or of every sheet when read from {@link #INDEX_FILE_NAME}:
+     * tiles in pts order with the sheet and the rectangle they are in.
+     */
+    public static final class Index {
+        private static final int HEADER_SIZE = 32;
+        private static final int RECORD_SIZE = 24;
+
+        private final ByteBuffer mBuffer;
+        private final int mCount;
+
+        public Index(ByteBuffer buffer) {
+            mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (mBuffer.limit() < HEADER_SIZE || mBuffer.get(0) != 'I' || mBuffer.get(1) != 'J'
+                    || mBuffer.get(2) != 'K' || mBuffer.get(3) != 'S')
+                throw new IllegalArgumentException("not a sprite index");
+            mCount = Math.min(mBuffer.getInt(16), (mBuffer.limit() - HEADER_SIZE) / RECORD_SIZE);
+        }
+
+        public static Index read(File file) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] data = new byte[(int) file.length()];
+                int size = 0;
+                while (size < data.length) {
+                    int read = in.read(data, size, data.length - size);
+                    if (read < 0)
+                        break;
+                    size += read;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, size);
+                return new Index(buffer.slice());
+            } finally {
+                in.close();
+            }
+        }
+
+        public int getFormat() {
+            return mBuffer.getShort(6) & 0xffff;
+        }
+
+        public int getSheetWidth() {
+            return mBuffer.getShort(8) & 0xffff;
+        }
+
+        public int getSheetHeight() {
+            return mBuffer.getShort(10) & 0xffff;
+        }
+
+        public int getColumns() {
+            return mBuffer.getShort(12) & 0xffff;
+        }
+
+        public int getRows() {
+            return mBuffer.getShort(14) & 0xffff;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getPtsMs(int tile) {
+            return mBuffer.getLong(record(tile));
+        }
+
+        public int getSheet(int tile) {
+            return mBuffer.getInt(record(tile) + 8);
+        }
+
+        public Rect getRect(int tile, Rect outRect) {
+            int record = record(tile);
+            int x = mBuffer.getShort(record + 12) & 0xffff;
+            int y = mBuffer.getShort(record + 14) & 0xffff;
+            outRect.set(x, y,
+                    x + (mBuffer.getShort(record + 16) & 0xffff),
+                    y + (mBuffer.getShort(record + 18) & 0xffff));
+            return outRect;
+        }
+
+        /**
+         * @return the last tile at or before ptsMs, the first one if none, -1 if the index is empty
+         */
+        public int find(long ptsMs) {
+            int low = 0;
+            int high = mCount - 1;
+            if (high < 0)
+                return -1;
+
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (getPtsMs(mid) <= ptsMs)
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            return low;
+        }
+
+        private int record(int tile) {
+            if (tile < 0 || tile >= mCount)
+                throw new IndexOutOfBoundsException("tile " + tile);
+            return HEADER_SIZE + tile * RECORD_SIZE;
+        }
+    }
+
+    private int mSheet;
+    private int mFormat;
+    private int mWidth;
+    private int mHeight;
+    private boolean mLast;
+    private ByteBuffer mData;
+    private Index mIndex;
+
+    IjkSpriteSheet() {
+    }
+
+    void reset(int sheet, int format, int width, int height, boolean last, ByteBuffer data, ByteBuffer index) {
+        mSheet = sheet;
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mLast = last;
+        mData = data;
+        mIndex = new Index(index);
+    }
+
+    /** @return number of the sheet, from 0 */
+    public int getSheet() {
+        return mSheet;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** @return true for the last sheet of the request */
+    public boolean isLast() {
+        return mLast;
+    }
+
+    /**
+     * @return the encoded sheet, or its RGB565 pixels, see
+     *         {@link android.graphics.Bitmap#copyPixelsFromBuffer(java.nio.Buffer)}
+     */
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    /** @return the tiles of this sheet */
+    public Index getIndex() {
+        return mIndex;
+    }
+}
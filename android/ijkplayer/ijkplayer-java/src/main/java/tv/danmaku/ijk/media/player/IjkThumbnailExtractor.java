@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2015 Bilibili
+ * Copyright (C) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+
+import tv.danmaku.ijk.media.player.annotations.AccessedByNative;
+import tv.danmaku.ijk.media.player.annotations.CalledByNative;
+import tv.danmaku.ijk.media.player.pragma.DebugLog;
+
+/**
+ * Extracts frames of a media at evenly spaced times without creating a player,
+ * for seek bar previews and timelines.
+ * <p>
+ * By default each time gives the keyframe at or before it and only keyframes
+ * are decoded. {@link Request#setExact(boolean)} gives the first frame at or
+ * after each time instead, at the cost of decoding the frames in between.
+ * {@link Request#setSegments(int)} splits the times into runs extracted in
+ * parallel, each with its own demuxer and decoder.
+ * </p>
+ */
+public final class IjkThumbnailExtractor {
+    private final static String TAG = IjkThumbnailExtractor.class.getName();
+
+    public static final int EXTRACT_COMPLETED = 1;
+    public static final int EXTRACT_CANCELLED = 2;
+    public static final int EXTRACT_ERROR = 3;
+
+    public static final int MAX_SEGMENTS = 8;
+
+    public static final class Request {
+        private final String mUrl;
+        private final long mStartMs;
+        private final long mEndMs;
+        private final int mCount;
+        private int mMaxWidth;
+        private int mMaxHeight;
+        private boolean mExact;
+        private int mSegments = 1;
+
+        /**
+         * @param count times from startMs to endMs, both included
+         */
+        public Request(String url, long startMs, long endMs, int count) {
+            if (url == null)
+                throw new IllegalArgumentException("null url");
+            if (startMs < 0 || endMs < startMs || count <= 0)
+                throw new IllegalArgumentException("invalid range");
+            mUrl = url;
+            mStartMs = startMs;
+            mEndMs = endMs;
+            mCount = count;
+        }
+
+        /**
+         * Frames are scaled down to fit, keeping their display aspect ratio; 0 for no bound.
+         */
+        public Request setSize(int maxWidth, int maxHeight) {
+            mMaxWidth = Math.max(maxWidth, 0);
+            mMaxHeight = Math.max(maxHeight, 0);
+            return this;
+        }
+
+        public Request setExact(boolean exact) {
+            mExact = exact;
+            return this;
+        }
+
+        /**
+         * @param segments 1 to {@link #MAX_SEGMENTS}
+         */
+        public Request setSegments(int segments) {
+            mSegments = Math.max(1, Math.min(segments, MAX_SEGMENTS));
+            return this;
+        }
+    }
+
+    public interface FrameSink {
+        /**
+         * Called on a worker thread, by several threads at once when the request has segments.
+         *
+         * @param timeMs     time asked for
+         * @param ptsMs      time of the frame
+         * @param rgbaPixels width * height RGBA pixels, tightly packed, only valid during the call;
+         *                   see {@link android.graphics.Bitmap#copyPixelsFromBuffer(java.nio.Buffer)}
+         * @return false to cancel the request
+         */
+        boolean onFrame(long taskId, int index, long timeMs, long ptsMs, int width, int height, ByteBuffer rgbaPixels);
+    }
+
+    public interface OnExtractListener {
+        /**
+         * @param elapsedUs time from {@link #extract(Request, FrameSink)} to the last frame
+         */
+        void onExtractCompleted(IjkThumbnailExtractor extractor, long taskId, int frames, long elapsedUs);
+
+        void onExtractCancelled(IjkThumbnailExtractor extractor, long taskId, int frames);
+
+        void onExtractError(IjkThumbnailExtractor extractor, long taskId, int error);
+    }
+
+    @AccessedByNative
+    private long mNativeExtractor;
+
+    private final EventHandler mEventHandler;
+    private OnExtractListener mOnExtractListener;
+
+    public IjkThumbnailExtractor(int maxThreads) {
+        this(maxThreads, null);
+    }
+
+    /**
+     * @param maxThreads segments extracted at the same time
+     * @param libLoader  custom library loader, can be null.
+     */
+    public IjkThumbnailExtractor(int maxThreads, IjkLibLoader libLoader) {
+        IjkMediaPlayer.loadLibrariesOnce(libLoader);
+
+        Looper looper;
+        if ((looper = Looper.myLooper()) != null) {
+            mEventHandler = new EventHandler(this, looper);
+        } else if ((looper = Looper.getMainLooper()) != null) {
+            mEventHandler = new EventHandler(this, looper);
+        } else {
+            mEventHandler = null;
+        }
+
+        native_setup(new WeakReference<IjkThumbnailExtractor>(this), maxThreads);
+    }
+
+    public void setOnExtractListener(OnExtractListener listener) {
+        mOnExtractListener = listener;
+    }
+
+    /**
+     * Format options of every request added afterwards, e.g. "user_agent", "headers".
+     */
+    public synchronized void setOption(String name, String value) {
+        _setOption(name, value);
+    }
+
+    public void setOption(String name, long value) {
+        setOption(name, String.valueOf(value));
+    }
+
+    /**
+     * @return task id, or a negative error code if the request was rejected
+     */
+    public synchronized long extract(Request request, FrameSink sink) {
+        if (sink == null)
+            throw new IllegalArgumentException("null sink");
+        return _extract(request.mUrl, request.mStartMs, request.mEndMs, request.mCount,
+                request.mMaxWidth, request.mMaxHeight, request.mExact, request.mSegments, sink);
+    }
+
+    /**
+     * @return false if the task is unknown or already finished
+     */
+    public synchronized boolean cancel(long taskId) {
+        return _cancel(taskId);
+    }
+
+    /**
+     * Cancels all requests and waits for the workers to stop.
+     * Must not be called from {@link FrameSink#onFrame}.
+     */
+    public synchronized void release() {
+        _release();
+        if (mEventHandler != null)
+            mEventHandler.removeCallbacksAndMessages(null);
+        mOnExtractListener = null;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        _release();
+    }
+
+    private native void native_setup(Object weakThis, int maxThreads);
+    private native void _release();
+    private native void _setOption(String name, String value);
+    private native long _extract(String url, long startMs, long endMs, int count,
+                                 int maxWidth, int maxHeight, boolean exact, int segments, FrameSink sink);
+    private native boolean _cancel(long taskId);
+
+    private static class ExtractEvent {
+        final long taskId;
+        final long arg1;
+        final long arg2;
+
+        ExtractEvent(long taskId, long arg1, long arg2) {
+            this.taskId = taskId;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+    }
+
+    @CalledByNative
+    private static void postEventFromNative(Object weakThiz, int what, long taskId, long arg1, long arg2) {
+        if (weakThiz == null)
+            return;
+
+        @SuppressWarnings("rawtypes")
+        IjkThumbnailExtractor extractor = (IjkThumbnailExtractor) ((WeakReference) weakThiz).get();
+        if (extractor == null || extractor.mEventHandler == null)
+            return;
+
+        Message m = extractor.mEventHandler.obtainMessage(what, new ExtractEvent(taskId, arg1, arg2));
+        extractor.mEventHandler.sendMessage(m);
+    }
+
+    private static class EventHandler extends Handler {
+        private final WeakReference<IjkThumbnailExtractor> mWeakExtractor;
+
+        public EventHandler(IjkThumbnailExtractor extractor, Looper looper) {
+            super(looper);
+            mWeakExtractor = new WeakReference<IjkThumbnailExtractor>(extractor);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            IjkThumbnailExtractor extractor = mWeakExtractor.get();
+            if (extractor == null)
+                return;
+
+            OnExtractListener listener = extractor.mOnExtractListener;
+            if (listener == null)
+                return;
+
+            ExtractEvent event = (ExtractEvent) msg.obj;
+            switch (msg.what) {
+                case EXTRACT_COMPLETED:
+                    listener.onExtractCompleted(extractor, event.taskId, (int) event.arg1, event.arg2);
+                    break;
+                case EXTRACT_CANCELLED:
+                    listener.onExtractCancelled(extractor, event.taskId, (int) event.arg1);
+                    break;
+                case EXTRACT_ERROR:
+                    listener.onExtractError(extractor, event.taskId, (int) event.arg1);
+                    break;
+                default:
+                    DebugLog.e(TAG, "Unknown message type " + msg.what);
+                    break;
+            }
+        }
+    }
+}
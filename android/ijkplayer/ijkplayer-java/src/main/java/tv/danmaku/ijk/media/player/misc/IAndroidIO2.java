@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Bilibili
+ * Copyright (C) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player.misc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link IAndroidIO} that writes into native memory directly.
+ * <p>
+ * When passed to {@link tv.danmaku.ijk.media.player.IjkMediaPlayer#setAndroidIOCallback}
+ * only {@link #read(ByteBuffer)} is called for reads.
+ * </p>
+ */
+@SuppressWarnings("RedundantThrows")
+public interface IAndroidIO2 extends IAndroidIO {
+    /**
+     * @param buffer direct buffer wrapping native memory, valid only during the call.
+     *               Write at most {@code buffer.remaining()} bytes starting at its position.
+     * @return number of bytes written, 0 if none are available yet, -1 at end of stream
+     */
+    int read(ByteBuffer buffer) throws IOException;
+}
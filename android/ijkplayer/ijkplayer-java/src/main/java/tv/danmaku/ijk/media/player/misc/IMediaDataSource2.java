@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 Bilibili
+ * Copyright (C) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player.misc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link IMediaDataSource} that is read without an intermediate byte[].
+ * <p>
+ * {@link tv.danmaku.ijk.media.player.IjkMediaPlayer} detects this interface in
+ * setDataSource and only calls {@link #readAt(long, ByteBuffer)}. The byte[]
+ * variant is still required for players that do not support it.
+ * </p>
+ */
+@SuppressWarnings("RedundantThrows")
+public interface IMediaDataSource2 extends IMediaDataSource {
+    /**
+     * @param buffer direct buffer wrapping native memory, valid only during the call.
+     *               Write at most {@code buffer.remaining()} bytes starting at its
+     *               position; a {@code buffer.remaining()} of 0 only checks that
+     *               {@code position} is readable.
+     * @return number of bytes written, 0 if none are available yet, -1 at end of stream
+     */
+    int readAt(long position, ByteBuffer buffer) throws IOException;
+}
@@ -37,6 +37,7 @@ typedef struct J4AC_android_media_AudioTrack {
     jmethodID method_write;
     jmethodID method_setStereoVolume;
     jmethodID method_getAudioSessionId;
+    jmethodID method_getUnderrunCount;
     jmethodID method_getPlaybackParams;
     jmethodID method_setPlaybackParams;
     jmethodID method_getStreamType;
@@ -241,6 +242,21 @@ jint J4AC_android_media_AudioTrack__getAudioSessionId__catchAll(JNIEnv *env, job
     return ret_value;
 }
 
+jint J4AC_android_media_AudioTrack__getUnderrunCount(JNIEnv *env, jobject thiz)
+{
+    return (*env)->CallIntMethod(env, thiz, class_J4AC_android_media_AudioTrack.method_getUnderrunCount);
+}
+
+jint J4AC_android_media_AudioTrack__getUnderrunCount__catchAll(JNIEnv *env, jobject thiz)
+{
+    jint ret_value = J4AC_android_media_AudioTrack__getUnderrunCount(env, thiz);
+    if (J4A_ExceptionCheck__catchAll(env)) {
+        return 0;
+    }
+
+    return ret_value;
+}
+
 jobject J4AC_android_media_AudioTrack__getPlaybackParams(JNIEnv *env, jobject thiz)
 {
     return (*env)->CallObjectMethod(env, thiz, class_J4AC_android_media_AudioTrack.method_getPlaybackParams);
@@ -454,6 +470,15 @@ int J4A_loadClass__J4AC_android_media_AudioTrack(JNIEnv *env)
     if (class_J4AC_android_media_AudioTrack.method_getAudioSessionId == NULL)
         goto fail;
 
+    if (J4A_GetSystemAndroidApiLevel(env) >= 24) {
+        class_id = class_J4AC_android_media_AudioTrack.id;
+        name     = "getUnderrunCount";
+        sign     = "()I";
+        class_J4AC_android_media_AudioTrack.method_getUnderrunCount = J4A_GetMethodID__catchAll(env, class_id, name, sign);
+        if (class_J4AC_android_media_AudioTrack.method_getUnderrunCount == NULL)
+            goto fail;
+    }
+
     if (J4A_GetSystemAndroidApiLevel(env) >= 23) {
         class_id = class_J4AC_android_media_AudioTrack.id;
         name     = "getPlaybackParams";
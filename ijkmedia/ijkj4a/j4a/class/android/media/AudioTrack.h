@@ -51,6 +51,8 @@ jint J4AC_android_media_AudioTrack__setStereoVolume(JNIEnv *env, jobject thiz, j
 jint J4AC_android_media_AudioTrack__setStereoVolume__catchAll(JNIEnv *env, jobject thiz, jfloat leftGain, jfloat rightGain);
 jint J4AC_android_media_AudioTrack__getAudioSessionId(JNIEnv *env, jobject thiz);
 jint J4AC_android_media_AudioTrack__getAudioSessionId__catchAll(JNIEnv *env, jobject thiz);
+jint J4AC_android_media_AudioTrack__getUnderrunCount(JNIEnv *env, jobject thiz);
+jint J4AC_android_media_AudioTrack__getUnderrunCount__catchAll(JNIEnv *env, jobject thiz);
 jobject J4AC_android_media_AudioTrack__getPlaybackParams(JNIEnv *env, jobject thiz);
 jobject J4AC_android_media_AudioTrack__getPlaybackParams__catchAll(JNIEnv *env, jobject thiz);
 jobject J4AC_android_media_AudioTrack__getPlaybackParams__asGlobalRef__catchAll(JNIEnv *env, jobject thiz);
@@ -95,6 +97,8 @@ int J4A_loadClass__J4AC_android_media_AudioTrack(JNIEnv *env);
 #define J4AC_AudioTrack__setStereoVolume__catchAll J4AC_android_media_AudioTrack__setStereoVolume__catchAll
 #define J4AC_AudioTrack__getAudioSessionId J4AC_android_media_AudioTrack__getAudioSessionId
 #define J4AC_AudioTrack__getAudioSessionId__catchAll J4AC_android_media_AudioTrack__getAudioSessionId__catchAll
+#define J4AC_AudioTrack__getUnderrunCount J4AC_android_media_AudioTrack__getUnderrunCount
+#define J4AC_AudioTrack__getUnderrunCount__catchAll J4AC_android_media_AudioTrack__getUnderrunCount__catchAll
 #define J4AC_AudioTrack__getPlaybackParams J4AC_android_media_AudioTrack__getPlaybackParams
 #define J4AC_AudioTrack__getPlaybackParams__asGlobalRef__catchAll J4AC_android_media_AudioTrack__getPlaybackParams__asGlobalRef__catchAll
 #define J4AC_AudioTrack__getPlaybackParams__catchAll J4AC_android_media_AudioTrack__getPlaybackParams__catchAll
@@ -27,6 +27,7 @@ typedef struct J4AC_java_nio_ByteBuffer {
     jmethodID method_allocate;
     jmethodID method_allocateDirect;
     jmethodID method_limit;
+    jmethodID method_clear;
 } J4AC_java_nio_ByteBuffer;
 static J4AC_java_nio_ByteBuffer class_J4AC_java_nio_ByteBuffer;
 
@@ -135,6 +136,41 @@ fail:
     return ret_object;
 }
 
+jobject J4AC_java_nio_ByteBuffer__clear(JNIEnv *env, jobject thiz)
+{
+    return (*env)->CallObjectMethod(env, thiz, class_J4AC_java_nio_ByteBuffer.method_clear);
+}
+
+jobject J4AC_java_nio_ByteBuffer__clear__catchAll(JNIEnv *env, jobject thiz)
+{
+    jobject ret_object = J4AC_java_nio_ByteBuffer__clear(env, thiz);
+    if (J4A_ExceptionCheck__catchAll(env) || !ret_object) {
+        return NULL;
+    }
+
+    return ret_object;
+}
+
+jobject J4AC_java_nio_ByteBuffer__clear__asGlobalRef__catchAll(JNIEnv *env, jobject thiz)
+{
+    jobject ret_object   = NULL;
+    jobject local_object = J4AC_java_nio_ByteBuffer__clear__catchAll(env, thiz);
+    if (J4A_ExceptionCheck__catchAll(env) || !local_object) {
+        ret_object = NULL;
+        goto fail;
+    }
+
+    ret_object = J4A_NewGlobalRef__catchAll(env, local_object);
+    if (!ret_object) {
+        ret_object = NULL;
+        goto fail;
+    }
+
+fail:
+    J4A_DeleteLocalRef__p(env, &local_object);
+    return ret_object;
+}
+
 int J4A_loadClass__J4AC_java_nio_ByteBuffer(JNIEnv *env)
 {
     int         ret                   = -1;
@@ -172,6 +208,13 @@ int J4A_loadClass__J4AC_java_nio_ByteBuffer(JNIEnv *env)
     if (class_J4AC_java_nio_ByteBuffer.method_limit == NULL)
         goto fail;
 
+    class_id = class_J4AC_java_nio_ByteBuffer.id;
+    name     = "clear";
+    sign     = "()Ljava/nio/Buffer;";
+    class_J4AC_java_nio_ByteBuffer.method_clear = J4A_GetMethodID__catchAll(env, class_id, name, sign);
+    if (class_J4AC_java_nio_ByteBuffer.method_clear == NULL)
+        goto fail;
+
     J4A_ALOGD("J4ALoader: OK: '%s' loaded\n", "java.nio.ByteBuffer");
     ret = 0;
 fail:
@@ -28,8 +28,11 @@ typedef struct J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer {
     jfieldID field_mNativeMediaDataSource;
     jfieldID field_mNativeAndroidIO;
     jmethodID method_postEventFromNative;
+    jmethodID method_postEventsFromNative;
     jmethodID method_onSelectCodec;
     jmethodID method_onNativeInvoke;
+    jmethodID method_onNativeEventBatch;
+    jmethodID method_onNativeSpriteSheet;
 } J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer;
 static J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer;
 
@@ -122,6 +125,17 @@ void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventFromNative__catch
     J4A_ExceptionCheck__catchAll(env);
 }
 
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventsFromNative(JNIEnv *env, jobject weakThiz, jintArray events, jint count)
+{
+    (*env)->CallStaticVoidMethod(env, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_postEventsFromNative, weakThiz, events, count);
+}
+
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventsFromNative__catchAll(JNIEnv *env, jobject weakThiz, jintArray events, jint count)
+{
+    J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventsFromNative(env, weakThiz, events, count);
+    J4A_ExceptionCheck__catchAll(env);
+}
+
 jstring J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec(JNIEnv *env, jobject weakThiz, jstring mimeType, jint profile, jint level)
 {
     return (*env)->CallStaticObjectMethod(env, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onSelectCodec, weakThiz, mimeType, profile, level);
@@ -324,6 +338,28 @@ jboolean J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeInvoke__catchA
     return ret_value;
 }
 
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeEventBatch(JNIEnv *env, jobject weakThiz, jint offset, jint length, jint count, jlong dropped)
+{
+    (*env)->CallStaticVoidMethod(env, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onNativeEventBatch, weakThiz, offset, length, count, dropped);
+}
+
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeEventBatch__catchAll(JNIEnv *env, jobject weakThiz, jint offset, jint length, jint count, jlong dropped)
+{
+    J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeEventBatch(env, weakThiz, offset, length, count, dropped);
+    J4A_ExceptionCheck__catchAll(env);
+}
+
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeSpriteSheet(JNIEnv *env, jobject weakThiz, jint sheet, jint format, jint width, jint height, jboolean last, jobject data, jobject index)
+{
+    (*env)->CallStaticVoidMethod(env, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id, class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onNativeSpriteSheet, weakThiz, sheet, format, width, height, last, data, index);
+}
+
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeSpriteSheet__catchAll(JNIEnv *env, jobject weakThiz, jint sheet, jint format, jint width, jint height, jboolean last, jobject data, jobject index)
+{
+    J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeSpriteSheet(env, weakThiz, sheet, format, width, height, last, data, index);
+    J4A_ExceptionCheck__catchAll(env);
+}
+
 int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer(JNIEnv *env)
 {
     int         ret                   = -1;
@@ -368,6 +404,13 @@ int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer(JNIEnv *env)
     if (class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_postEventFromNative == NULL)
         goto fail;
 
+    class_id = class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id;
+    name     = "postEventsFromNative";
+    sign     = "(Ljava/lang/Object;[II)V";
+    class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_postEventsFromNative = J4A_GetStaticMethodID__catchAll(env, class_id, name, sign);
+    if (class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_postEventsFromNative == NULL)
+        goto fail;
+
     class_id = class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id;
     name     = "onSelectCodec";
     sign     = "(Ljava/lang/Object;Ljava/lang/String;II)Ljava/lang/String;";
@@ -382,6 +425,20 @@ int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer(JNIEnv *env)
     if (class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onNativeInvoke == NULL)
         goto fail;
 
+    class_id = class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id;
+    name     = "onNativeEventBatch";
+    sign     = "(Ljava/lang/Object;IIIJ)V";
+    class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onNativeEventBatch = J4A_GetStaticMethodID__catchAll(env, class_id, name, sign);
+    if (class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onNativeEventBatch == NULL)
+        goto fail;
+
+    class_id = class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.id;
+    name     = "onNativeSpriteSheet";
+    sign     = "(Ljava/lang/Object;IIIIZLjava/nio/ByteBuffer;Ljava/nio/ByteBuffer;)V";
+    class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onNativeSpriteSheet = J4A_GetStaticMethodID__catchAll(env, class_id, name, sign);
+    if (class_J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer.method_onNativeSpriteSheet == NULL)
+        goto fail;
+
     J4A_ALOGD("J4ALoader: OK: '%s' loaded\n", "tv.danmaku.ijk.media.player.IjkMediaPlayer");
     ret = 0;
 fail:
@@ -38,6 +38,8 @@ void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__mNativeAndroidIO__set(JNIE
 void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__mNativeAndroidIO__set__catchAll(JNIEnv *env, jobject thiz, jlong value);
 void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventFromNative(JNIEnv *env, jobject weakThiz, jint what, jint arg1, jint arg2, jobject obj);
 void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventFromNative__catchAll(JNIEnv *env, jobject weakThiz, jint what, jint arg1, jint arg2, jobject obj);
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventsFromNative(JNIEnv *env, jobject weakThiz, jintArray events, jint count);
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventsFromNative__catchAll(JNIEnv *env, jobject weakThiz, jintArray events, jint count);
 jstring J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec(JNIEnv *env, jobject weakThiz, jstring mimeType, jint profile, jint level);
 jstring J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec__catchAll(JNIEnv *env, jobject weakThiz, jstring mimeType, jint profile, jint level);
 jstring J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec__asGlobalRef__catchAll(JNIEnv *env, jobject weakThiz, jstring mimeType, jint profile, jint level);
@@ -50,6 +52,10 @@ const char *J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec__with
 const char *J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec__withCString__asCBuffer__catchAll(JNIEnv *env, jobject weakThiz, const char *mimeType_cstr__, jint profile, jint level, char *out_buf, int out_len);
 jboolean J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeInvoke(JNIEnv *env, jobject weakThiz, jint what, jobject args);
 jboolean J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeInvoke__catchAll(JNIEnv *env, jobject weakThiz, jint what, jobject args);
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeEventBatch(JNIEnv *env, jobject weakThiz, jint offset, jint length, jint count, jlong dropped);
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeEventBatch__catchAll(JNIEnv *env, jobject weakThiz, jint offset, jint length, jint count, jlong dropped);
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeSpriteSheet(JNIEnv *env, jobject weakThiz, jint sheet, jint format, jint width, jint height, jboolean last, jobject data, jobject index);
+void J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeSpriteSheet__catchAll(JNIEnv *env, jobject weakThiz, jint sheet, jint format, jint width, jint height, jboolean last, jobject data, jobject index);
 int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer(JNIEnv *env);
 
 #define J4A_HAVE_SIMPLE__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer
@@ -68,6 +74,8 @@ int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer(JNIEnv *env);
 #define J4AC_IjkMediaPlayer__mNativeAndroidIO__set__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__mNativeAndroidIO__set__catchAll
 #define J4AC_IjkMediaPlayer__postEventFromNative J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventFromNative
 #define J4AC_IjkMediaPlayer__postEventFromNative__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventFromNative__catchAll
+#define J4AC_IjkMediaPlayer__postEventsFromNative J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventsFromNative
+#define J4AC_IjkMediaPlayer__postEventsFromNative__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__postEventsFromNative__catchAll
 #define J4AC_IjkMediaPlayer__onSelectCodec J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec
 #define J4AC_IjkMediaPlayer__onSelectCodec__asCBuffer J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec__asCBuffer
 #define J4AC_IjkMediaPlayer__onSelectCodec__asCBuffer__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec__asCBuffer__catchAll
@@ -80,6 +88,10 @@ int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer(JNIEnv *env);
 #define J4AC_IjkMediaPlayer__onSelectCodec__withCString__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onSelectCodec__withCString__catchAll
 #define J4AC_IjkMediaPlayer__onNativeInvoke J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeInvoke
 #define J4AC_IjkMediaPlayer__onNativeInvoke__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeInvoke__catchAll
+#define J4AC_IjkMediaPlayer__onNativeEventBatch J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeEventBatch
+#define J4AC_IjkMediaPlayer__onNativeEventBatch__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeEventBatch__catchAll
+#define J4AC_IjkMediaPlayer__onNativeSpriteSheet J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeSpriteSheet
+#define J4AC_IjkMediaPlayer__onNativeSpriteSheet__catchAll J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer__onNativeSpriteSheet__catchAll
 #define J4A_loadClass__J4AC_IjkMediaPlayer J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_IjkMediaPlayer
 
 #endif//J4A__tv_danmaku_ijk_media_player_IjkMediaPlayer__H
@@ -64,3 +64,57 @@ void J4AC_android_media_AudioTrack__setSpeed__catchAll(JNIEnv *env, jobject thiz
 
     return;
 }
+
+static jmethodID g_method_writeByteBuffer;
+
+jint J4AC_android_media_AudioTrack__writeByteBuffer(JNIEnv *env, jobject thiz, jobject audioData, jint sizeInBytes, jint writeMode)
+{
+    if (!g_method_writeByteBuffer) {
+        jclass class_id = (*env)->GetObjectClass(env, thiz);
+        if (!class_id)
+            return -1;
+        g_method_writeByteBuffer = J4A_GetMethodID__catchAll(env, class_id, "write", "(Ljava/nio/ByteBuffer;II)I");
+        J4A_DeleteLocalRef__p(env, (jobject *)&class_id);
+        if (!g_method_writeByteBuffer)
+            return -1;
+    }
+
+    return (*env)->CallIntMethod(env, thiz, g_method_writeByteBuffer, audioData, sizeInBytes, writeMode);
+}
+
+jint J4AC_android_media_AudioTrack__writeByteBuffer__catchAll(JNIEnv *env, jobject thiz, jobject audioData, jint sizeInBytes, jint writeMode)
+{
+    jint ret_value = J4AC_android_media_AudioTrack__writeByteBuffer(env, thiz, audioData, sizeInBytes, writeMode);
+    if (J4A_ExceptionCheck__catchAll(env)) {
+        return -1;
+    }
+
+    return ret_value;
+}
+
+static jmethodID g_method_writeFloatArray;
+
+jint J4AC_android_media_AudioTrack__writeFloatArray(JNIEnv *env, jobject thiz, jfloatArray audioData, jint offsetInFloats, jint sizeInFloats, jint writeMode)
+{
+    if (!g_method_writeFloatArray) {
+        jclass class_id = (*env)->GetObjectClass(env, thiz);
+        if (!class_id)
+            return -1;
+        g_method_writeFloatArray = J4A_GetMethodID__catchAll(env, class_id, "write", "([FIII)I");
+        J4A_DeleteLocalRef__p(env, (jobject *)&class_id);
+        if (!g_method_writeFloatArray)
+            return -1;
+    }
+
+    return (*env)->CallIntMethod(env, thiz, g_method_writeFloatArray, audioData, offsetInFloats, sizeInFloats, writeMode);
+}
+
+jint J4AC_android_media_AudioTrack__writeFloatArray__catchAll(JNIEnv *env, jobject thiz, jfloatArray audioData, jint offsetInFloats, jint sizeInFloats, jint writeMode)
+{
+    jint ret_value = J4AC_android_media_AudioTrack__writeFloatArray(env, thiz, audioData, offsetInFloats, sizeInFloats, writeMode);
+    if (J4A_ExceptionCheck__catchAll(env)) {
+        return -1;
+    }
+
+    return ret_value;
+}
@@ -27,9 +27,21 @@
 void J4AC_android_media_AudioTrack__setSpeed(JNIEnv *env, jobject thiz, jfloat speed);
 void J4AC_android_media_AudioTrack__setSpeed__catchAll(JNIEnv *env, jobject thiz, jfloat speed);
 
+// write(ByteBuffer, int, int), API 21, an overload j4a cannot declare
+jint J4AC_android_media_AudioTrack__writeByteBuffer(JNIEnv *env, jobject thiz, jobject audioData, jint sizeInBytes, jint writeMode);
+jint J4AC_android_media_AudioTrack__writeByteBuffer__catchAll(JNIEnv *env, jobject thiz, jobject audioData, jint sizeInBytes, jint writeMode);
+
+// write(float[], int, int, int), API 21, the only array a ENCODING_PCM_FLOAT track accepts
+jint J4AC_android_media_AudioTrack__writeFloatArray(JNIEnv *env, jobject thiz, jfloatArray audioData, jint offsetInFloats, jint sizeInFloats, jint writeMode);
+jint J4AC_android_media_AudioTrack__writeFloatArray__catchAll(JNIEnv *env, jobject thiz, jfloatArray audioData, jint offsetInFloats, jint sizeInFloats, jint writeMode);
+
 #ifdef J4A_HAVE_SIMPLE__J4AC_android_media_AudioTrack
 #define J4AC_AudioTrack__setSpeed           J4AC_android_media_AudioTrack__setSpeed
 #define J4AC_AudioTrack__setSpeed__catchAll J4AC_android_media_AudioTrack__setSpeed__catchAll
+#define J4AC_AudioTrack__writeByteBuffer           J4AC_android_media_AudioTrack__writeByteBuffer
+#define J4AC_AudioTrack__writeByteBuffer__catchAll J4AC_android_media_AudioTrack__writeByteBuffer__catchAll
+#define J4AC_AudioTrack__writeFloatArray           J4AC_android_media_AudioTrack__writeFloatArray
+#define J4AC_AudioTrack__writeFloatArray__catchAll J4AC_android_media_AudioTrack__writeFloatArray__catchAll
 #endif
 
 #endif
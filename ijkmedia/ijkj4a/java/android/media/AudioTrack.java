@@ -20,6 +20,8 @@ public class AudioTrack {
 
     public int setStereoVolume(float leftGain, float rightGain);
     public int getAudioSessionId();
+    @MinApi(24)
+    public int getUnderrunCount();
 
     @MinApi(23)
     public PlaybackParams getPlaybackParams();
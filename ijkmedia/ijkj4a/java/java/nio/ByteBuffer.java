@@ -8,4 +8,5 @@ public class ByteBuffer {
     public static ByteBuffer allocate(int capacity);
     public static ByteBuffer allocateDirect(int capacity);
     public final  Buffer     limit(int newLimit);
+    public final  Buffer     clear();
 }
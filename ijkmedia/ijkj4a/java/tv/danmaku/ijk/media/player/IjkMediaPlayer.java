@@ -1,6 +1,7 @@
 package tv.danmaku.ijk.media.player;
 
 import android.os.Bundle;
+import java.nio.ByteBuffer;
 
 @SimpleCClassName
 public class IjkMediaPlayer {
@@ -9,6 +10,9 @@ public class IjkMediaPlayer {
     private long mNativeAndroidIO;
 
     private static void postEventFromNative(Object weakThiz, int what, int arg1, int arg2, Object obj);
+    private static void postEventsFromNative(Object weakThiz, int[] events, int count);
     private static String onSelectCodec(Object weakThiz, String mimeType, int profile, int level);
     private static boolean onNativeInvoke(Object weakThiz, int what, Bundle args);
+    private static void onNativeEventBatch(Object weakThiz, int offset, int length, int count, long dropped);
+    private static void onNativeSpriteSheet(Object weakThiz, int sheet, int format, int width, int height, boolean last, ByteBuffer data, ByteBuffer index);
 }
@@ -38,8 +38,13 @@ LOCAL_SRC_FILES += ff_cmdutils.c
 LOCAL_SRC_FILES += ff_ffplay.c
 LOCAL_SRC_FILES += ff_ffpipeline.c
 LOCAL_SRC_FILES += ff_ffpipenode.c
+LOCAL_SRC_FILES += ff_packet_arena.c
+LOCAL_SRC_FILES += ff_event_batch.c
+LOCAL_SRC_FILES += ff_sprite_sheet.c
 LOCAL_SRC_FILES += ijkmeta.c
 LOCAL_SRC_FILES += ijkplayer.c
+LOCAL_SRC_FILES += ijkthumbnail.c
+LOCAL_SRC_FILES += ijkthumbnailcache.c
 
 LOCAL_SRC_FILES += pipeline/ffpipeline_ffplay.c
 LOCAL_SRC_FILES += pipeline/ffpipenode_ffplay_vdec.c
@@ -47,6 +52,8 @@ LOCAL_SRC_FILES += pipeline/ffpipenode_ffplay_vdec.c
 LOCAL_SRC_FILES += android/ffmpeg_api_jni.c
 LOCAL_SRC_FILES += android/ijkplayer_android.c
 LOCAL_SRC_FILES += android/ijkplayer_jni.c
+LOCAL_SRC_FILES += android/ijkpreloader_jni.c
+LOCAL_SRC_FILES += android/ijkthumbnail_jni.c
 
 LOCAL_SRC_FILES += android/pipeline/ffpipeline_android.c
 LOCAL_SRC_FILES += android/pipeline/ffpipenode_android_mediacodec_vdec.c
@@ -56,6 +63,11 @@ LOCAL_SRC_FILES += ijkavformat/ijklivehook.c
 LOCAL_SRC_FILES += ijkavformat/ijkmediadatasource.c
 LOCAL_SRC_FILES += ijkavformat/ijkio.c
 LOCAL_SRC_FILES += ijkavformat/ijkiomanager.c
+LOCAL_SRC_FILES += ijkavformat/ijkiocachemap.c
+LOCAL_SRC_FILES += ijkavformat/ijkiocachedir.c
+LOCAL_SRC_FILES += ijkavformat/ijkiocacheshare.c
+LOCAL_SRC_FILES += ijkavformat/ijkiocachekey.c
+LOCAL_SRC_FILES += ijkavformat/ijkiopreload.c
 LOCAL_SRC_FILES += ijkavformat/ijkiocache.c
 LOCAL_SRC_FILES += ijkavformat/ijkioffio.c
 LOCAL_SRC_FILES += ijkavformat/ijkioandroidio.c
@@ -65,6 +77,7 @@ LOCAL_SRC_FILES += ijkavformat/ijkiourlhook.c
 
 LOCAL_SRC_FILES  += ijkavformat/ijkasync.c
 LOCAL_SRC_FILES  += ijkavformat/ijkurlhook.c
+LOCAL_SRC_FILES  += ijkavformat/ijkurlpark.c
 LOCAL_SRC_FILES  += ijkavformat/ijklongurl.c
 LOCAL_SRC_FILES  += ijkavformat/ijksegment.c
 
@@ -74,6 +87,7 @@ LOCAL_SRC_FILES += ijkavutil/ijkthreadpool.c
 LOCAL_SRC_FILES += ijkavutil/ijktree.c
 LOCAL_SRC_FILES += ijkavutil/ijkfifo.c
 LOCAL_SRC_FILES += ijkavutil/ijkstl.cpp
+LOCAL_SRC_FILES += ijkavutil/ijkmap.c
 
 LOCAL_SHARED_LIBRARIES := ijkffmpeg ijksdl
 LOCAL_STATIC_LIBRARIES := android-ndk-profiler ijksoundtouch
@@ -33,12 +33,16 @@
 #include "j4a/class/tv/danmaku/ijk/media/player/misc/IAndroidIO.h"
 #include "ijksdl/ijksdl_log.h"
 #include "../ff_ffplay.h"
+#include "../ijkthumbnailcache.h"
 #include "ffmpeg_api_jni.h"
+#include "ijkpreloader_jni.h"
+#include "ijkthumbnail_jni.h"
 #include "ijkplayer_android_def.h"
 #include "ijkplayer_android.h"
 #include "ijksdl/android/ijksdl_android_jni.h"
 #include "ijksdl/android/ijksdl_codec_android_mediadef.h"
 #include "ijkavformat/ijkavformat.h"
+#include "ijkavformat/ijkioapplication.h"
 
 #define JNI_MODULE_PACKAGE      "tv/danmaku/ijk/media/player"
 #define JNI_CLASS_IJKPLAYER     "tv/danmaku/ijk/media/player/IjkMediaPlayer"
@@ -197,6 +201,18 @@ LABEL_RETURN:
     ijkmp_dec_ref_p(&mp);
 }
 
+static int jni_is_instance_of(JNIEnv *env, jobject obj, const char *class_name)
+{
+    jboolean ret = JNI_FALSE;
+    jclass   clazz = (*env)->FindClass(env, class_name);
+    if (J4A_ExceptionCheck__catchAll(env) || !clazz)
+        return 0;
+
+    ret = (*env)->IsInstanceOf(env, obj, clazz);
+    (*env)->DeleteLocalRef(env, clazz);
+    return ret == JNI_TRUE;
+}
+
 static void
 IjkMediaPlayer_setDataSourceCallback(JNIEnv *env, jobject thiz, jobject callback)
 {
@@ -214,6 +230,10 @@ IjkMediaPlayer_setDataSourceCallback(JNIEnv *env, jobject thiz, jobject callback
     ALOGV("setDataSourceCallback: %"PRId64"\n", nativeMediaDataSource);
     snprintf(uri, sizeof(uri), "ijkmediadatasource:%"PRId64, nativeMediaDataSource);
 
+    // IMediaDataSource2 is read through a direct ByteBuffer, see ijkmediadatasource.c
+    ijkmp_set_option_int(mp, FFP_OPT_CATEGORY_FORMAT, "ijkmds-direct-buffer",
+                         jni_is_instance_of(env, callback, "tv/danmaku/ijk/media/player/misc/IMediaDataSource2"));
+
     retval = ijkmp_set_data_source(mp, uri);
 
     IJK_CHECK_MPRET_GOTO(retval, env, LABEL_RETURN);
@@ -235,6 +255,9 @@ IjkMediaPlayer_setAndroidIOCallback(JNIEnv *env, jobject thiz, jobject callback)
     JNI_CHECK_GOTO(nativeAndroidIO, env, "java/lang/IllegalStateException", "mpjni: jni_set_ijkio_androidio: NewGlobalRef", LABEL_RETURN);
 
     ijkmp_set_option_int(mp, FFP_OPT_CATEGORY_FORMAT, "androidio-inject-callback", nativeAndroidIO);
+    // IAndroidIO2 is read through a direct ByteBuffer, see ijkioandroidio.c
+    ijkmp_set_option_int(mp, FFP_OPT_CATEGORY_FORMAT, "androidio-direct-buffer",
+                         jni_is_instance_of(env, callback, "tv/danmaku/ijk/media/player/misc/IAndroidIO2"));
 
 LABEL_RETURN:
     ijkmp_dec_ref_p(&mp);
@@ -394,6 +417,24 @@ IjkMediaPlayer_reset(JNIEnv *env, jobject thiz)
 
     IjkMediaPlayer_release(env, thiz);
     IjkMediaPlayer_native_setup(env, thiz, weak_thiz);
+    // native_setup() took its own global ref
+    (*env)->DeleteGlobalRef(env, weak_thiz);
+
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_recycle(JNIEnv *env, jobject thiz)
+{
+    MPTRACE("%s\n", __func__);
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    if (!mp)
+        return;
+
+    ijkmp_android_set_surface(env, mp, NULL);
+    ijkmp_recycle(mp);
+    jni_set_media_data_source(env, thiz, NULL);
+    jni_set_ijkio_androidio(env, thiz, NULL);
 
     ijkmp_dec_ref_p(&mp);
 }
@@ -830,6 +871,33 @@ inject_callback(void *opaque, int what, void *data, size_t data_size)
             ret = 0;
             break;
         }
+        case IJKIOAPP_CTRL_WILL_CACHE_OPEN: {
+            IjkIOAppCacheKeyControl *real_data = (IjkIOAppCacheKeyControl *)data;
+            real_data->is_handled = 0;
+
+            jbundle = J4AC_Bundle__Bundle__catchAll(env);
+            if (!jbundle) {
+                ALOGE("%s: J4AC_Bundle__Bundle__catchAll failed for case %d\n", __func__, what);
+                goto fail;
+            }
+            J4AC_Bundle__putString__withCString__catchAll(env, jbundle, "url", real_data->url);
+            J4AC_Bundle__putString__withCString__catchAll(env, jbundle, "cache_key", real_data->cache_key);
+            real_data->is_handled = J4AC_IjkMediaPlayer__onNativeInvoke(env, weak_thiz, what, jbundle);
+            if (J4A_ExceptionCheck__catchAll(env)) {
+                goto fail;
+            }
+
+            if (real_data->is_handled) {
+                // a null key disables the cache for this url
+                if (!J4AC_Bundle__getString__withCString__asCBuffer(env, jbundle, "cache_key", real_data->cache_key, sizeof(real_data->cache_key)))
+                    real_data->cache_key[0] = '\0';
+                if (J4A_ExceptionCheck__catchAll(env)) {
+                    goto fail;
+                }
+            }
+            ret = 0;
+            break;
+        }
         case AVAPP_CTRL_DID_TCP_OPEN:
         case AVAPP_CTRL_WILL_TCP_OPEN: {
             AVAppTcpIOControl *real_data = (AVAppTcpIOControl *)data;
@@ -879,29 +947,111 @@ fail:
     return found_codec_name;
 }
 
-inline static void post_event(JNIEnv *env, jobject weak_this, int what, int arg1, int arg2)
+#define MESSAGE_BATCH_MAX (64)
+
+// messages without an object, held back until the queue runs dry
+typedef struct MessageBatch {
+    jintArray jevents;
+    jint      events[MESSAGE_BATCH_MAX * 3];
+    int       count;
+} MessageBatch;
+
+static void post_event_flush(JNIEnv *env, jobject weak_this, MessageBatch *batch)
+{
+    if (batch->count <= 0)
+        return;
+
+    if (batch->count == 1 || !batch->jevents) {
+        for (int i = 0; i < batch->count; i++) {
+            jint *event = &batch->events[i * 3];
+            J4AC_IjkMediaPlayer__postEventFromNative__catchAll(env, weak_this, event[0], event[1], event[2], NULL);
+        }
+    } else {
+        (*env)->SetIntArrayRegion(env, batch->jevents, 0, batch->count * 3, batch->events);
+        if (!J4A_ExceptionCheck__catchAll(env))
+            J4AC_IjkMediaPlayer__postEventsFromNative__catchAll(env, weak_this, batch->jevents, batch->count);
+    }
+    batch->count = 0;
+}
+
+inline static void post_event(JNIEnv *env, jobject weak_this, MessageBatch *batch, int what, int arg1, int arg2)
 {
     // MPTRACE("post_event(%p, %p, %d, %d, %d)", (void*)env, (void*) weak_this, what, arg1, arg2);
-    J4AC_IjkMediaPlayer__postEventFromNative(env, weak_this, what, arg1, arg2, NULL);
+    jint *event = &batch->events[batch->count * 3];
+
+    event[0] = what;
+    event[1] = arg1;
+    event[2] = arg2;
+    if (++batch->count >= MESSAGE_BATCH_MAX)
+        post_event_flush(env, weak_this, batch);
     // MPTRACE("post_event()=void");
 }
 
-inline static void post_event2(JNIEnv *env, jobject weak_this, int what, int arg1, int arg2, jobject obj)
+inline static void post_event2(JNIEnv *env, jobject weak_this, MessageBatch *batch, int what, int arg1, int arg2, jobject obj)
 {
     // MPTRACE("post_event2(%p, %p, %d, %d, %d, %p)", (void*)env, (void*) weak_this, what, arg1, arg2, (void*)obj);
+    post_event_flush(env, weak_this, batch);
     J4AC_IjkMediaPlayer__postEventFromNative(env, weak_this, what, arg1, arg2, obj);
     // MPTRACE("post_event2()=void");
 }
 
+// one crossing for every record since the last batch
+static void post_event_batch(JNIEnv *env, IjkMediaPlayer *mp, jobject weak_this)
+{
+    int     offset  = 0;
+    int     count   = 0;
+    int64_t dropped = 0;
+    int     size    = ijkmp_swap_event_batch(mp, &offset, &count, &dropped);
+
+    if (size <= 0 && dropped <= 0)
+        return;
+
+    J4AC_IjkMediaPlayer__onNativeEventBatch__catchAll(env, weak_this, offset, size, count, dropped);
+}
+
+static void post_sprite_sheet(JNIEnv *env, jobject weak_this, FFSpriteSheetOutput *out)
+{
+    jobject jdata  = NULL;
+    jobject jindex = NULL;
+
+    if (!out)
+        return;
+
+    // the sheet belongs to the message, Java only reads it in onNativeSpriteSheet()
+    jdata  = (*env)->NewDirectByteBuffer(env, out->data, out->size);
+    if (J4A_ExceptionCheck__catchAll(env) || !jdata)
+        goto fail;
+    jindex = (*env)->NewDirectByteBuffer(env, out->index, out->index_size);
+    if (J4A_ExceptionCheck__catchAll(env) || !jindex)
+        goto fail;
+
+    J4AC_IjkMediaPlayer__onNativeSpriteSheet__catchAll(env, weak_this, out->sheet, out->format, out->width, out->height,
+                                                       out->last ? JNI_TRUE : JNI_FALSE, jdata, jindex);
+fail:
+    SDL_JNI_DeleteLocalRefP(env, &jindex);
+    SDL_JNI_DeleteLocalRefP(env, &jdata);
+}
+
 static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
 {
+    MessageBatch batch = {0};
     jobject weak_thiz = (jobject) ijkmp_get_weak_thiz(mp);
     JNI_CHECK_GOTO(weak_thiz, env, NULL, "mpjni: message_loop_n: null weak_thiz", LABEL_RETURN);
 
+    // without the array every message crosses on its own
+    batch.jevents = (*env)->NewIntArray(env, MESSAGE_BATCH_MAX * 3);
+    if (J4A_ExceptionCheck__catchAll(env))
+        batch.jevents = NULL;
+
     while (1) {
         AVMessage msg;
 
-        int retval = ijkmp_get_msg(mp, &msg, 1);
+        int retval = ijkmp_get_msg(mp, &msg, 0);
+        if (retval == 0) {
+            // the queue ran dry, deliver what is held back before sleeping
+            post_event_flush(env, weak_thiz, &batch);
+            retval = ijkmp_get_msg(mp, &msg, 1);
+        }
         if (retval < 0)
             break;
 
@@ -911,71 +1061,74 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
         switch (msg.what) {
         case FFP_MSG_FLUSH:
             MPTRACE("FFP_MSG_FLUSH:\n");
-            post_event(env, weak_thiz, MEDIA_NOP, 0, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_NOP, 0, 0);
+            // the notification of a batch may have been dropped with the previous queue
+            post_event_flush(env, weak_thiz, &batch);
+            post_event_batch(env, mp, weak_thiz);
             break;
         case FFP_MSG_ERROR:
             MPTRACE("FFP_MSG_ERROR: %d\n", msg.arg1);
-            post_event(env, weak_thiz, MEDIA_ERROR, MEDIA_ERROR_IJK_PLAYER, msg.arg1);
+            post_event(env, weak_thiz, &batch, MEDIA_ERROR, MEDIA_ERROR_IJK_PLAYER, msg.arg1);
             break;
         case FFP_MSG_PREPARED:
             MPTRACE("FFP_MSG_PREPARED:\n");
-            post_event(env, weak_thiz, MEDIA_PREPARED, 0, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_PREPARED, 0, 0);
             break;
         case FFP_MSG_COMPLETED:
             MPTRACE("FFP_MSG_COMPLETED:\n");
-            post_event(env, weak_thiz, MEDIA_PLAYBACK_COMPLETE, 0, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_PLAYBACK_COMPLETE, 0, 0);
             break;
         case FFP_MSG_VIDEO_SIZE_CHANGED:
             MPTRACE("FFP_MSG_VIDEO_SIZE_CHANGED: %d, %d\n", msg.arg1, msg.arg2);
-            post_event(env, weak_thiz, MEDIA_SET_VIDEO_SIZE, msg.arg1, msg.arg2);
+            post_event(env, weak_thiz, &batch, MEDIA_SET_VIDEO_SIZE, msg.arg1, msg.arg2);
             break;
         case FFP_MSG_SAR_CHANGED:
             MPTRACE("FFP_MSG_SAR_CHANGED: %d, %d\n", msg.arg1, msg.arg2);
-            post_event(env, weak_thiz, MEDIA_SET_VIDEO_SAR, msg.arg1, msg.arg2);
+            post_event(env, weak_thiz, &batch, MEDIA_SET_VIDEO_SAR, msg.arg1, msg.arg2);
             break;
         case FFP_MSG_VIDEO_RENDERING_START:
             MPTRACE("FFP_MSG_VIDEO_RENDERING_START:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_VIDEO_RENDERING_START, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_VIDEO_RENDERING_START, 0);
             break;
         case FFP_MSG_AUDIO_RENDERING_START:
             MPTRACE("FFP_MSG_AUDIO_RENDERING_START:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_AUDIO_RENDERING_START, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_AUDIO_RENDERING_START, 0);
             break;
         case FFP_MSG_VIDEO_ROTATION_CHANGED:
             MPTRACE("FFP_MSG_VIDEO_ROTATION_CHANGED: %d\n", msg.arg1);
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_VIDEO_ROTATION_CHANGED, msg.arg1);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_VIDEO_ROTATION_CHANGED, msg.arg1);
             break;
         case FFP_MSG_AUDIO_DECODED_START:
             MPTRACE("FFP_MSG_AUDIO_DECODED_START:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_AUDIO_DECODED_START, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_AUDIO_DECODED_START, 0);
             break;
         case FFP_MSG_VIDEO_DECODED_START:
             MPTRACE("FFP_MSG_VIDEO_DECODED_START:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_VIDEO_DECODED_START, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_VIDEO_DECODED_START, 0);
             break;
         case FFP_MSG_OPEN_INPUT:
             MPTRACE("FFP_MSG_OPEN_INPUT:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_OPEN_INPUT, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_OPEN_INPUT, 0);
             break;
         case FFP_MSG_FIND_STREAM_INFO:
             MPTRACE("FFP_MSG_FIND_STREAM_INFO:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_FIND_STREAM_INFO, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_FIND_STREAM_INFO, 0);
             break;
         case FFP_MSG_COMPONENT_OPEN:
             MPTRACE("FFP_MSG_COMPONENT_OPEN:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_COMPONENT_OPEN, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_COMPONENT_OPEN, 0);
             break;
         case FFP_MSG_BUFFERING_START:
             MPTRACE("FFP_MSG_BUFFERING_START:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_BUFFERING_START, msg.arg1);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_BUFFERING_START, msg.arg1);
             break;
         case FFP_MSG_BUFFERING_END:
             MPTRACE("FFP_MSG_BUFFERING_END:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_BUFFERING_END, msg.arg1);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_BUFFERING_END, msg.arg1);
             break;
         case FFP_MSG_BUFFERING_UPDATE:
             // MPTRACE("FFP_MSG_BUFFERING_UPDATE: %d, %d", msg.arg1, msg.arg2);
-            post_event(env, weak_thiz, MEDIA_BUFFERING_UPDATE, msg.arg1, msg.arg2);
+            post_event(env, weak_thiz, &batch, MEDIA_BUFFERING_UPDATE, msg.arg1, msg.arg2);
             break;
         case FFP_MSG_BUFFERING_BYTES_UPDATE:
             break;
@@ -983,41 +1136,49 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
             break;
         case FFP_MSG_SEEK_COMPLETE:
             MPTRACE("FFP_MSG_SEEK_COMPLETE:\n");
-            post_event(env, weak_thiz, MEDIA_SEEK_COMPLETE, 0, 0);
+            post_event(env, weak_thiz, &batch, MEDIA_SEEK_COMPLETE, 0, 0);
             break;
         case FFP_MSG_ACCURATE_SEEK_COMPLETE:
             MPTRACE("FFP_MSG_ACCURATE_SEEK_COMPLETE:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_MEDIA_ACCURATE_SEEK_COMPLETE, msg.arg1);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_MEDIA_ACCURATE_SEEK_COMPLETE, msg.arg1);
             break;
         case FFP_MSG_PLAYBACK_STATE_CHANGED:
             break;
         case FFP_MSG_TIMED_TEXT:
             if (msg.obj) {
                 jstring text = (*env)->NewStringUTF(env, (char *)msg.obj);
-                post_event2(env, weak_thiz, MEDIA_TIMED_TEXT, 0, 0, text);
+                post_event2(env, weak_thiz, &batch, MEDIA_TIMED_TEXT, 0, 0, text);
                 J4A_DeleteLocalRef__p(env, &text);
             }
             else {
-                post_event2(env, weak_thiz, MEDIA_TIMED_TEXT, 0, 0, NULL);
+                post_event2(env, weak_thiz, &batch, MEDIA_TIMED_TEXT, 0, 0, NULL);
             }
             break;
         case FFP_MSG_GET_IMG_STATE:
             if (msg.obj) {
                 jstring file_name = (*env)->NewStringUTF(env, (char *)msg.obj);
-                post_event2(env, weak_thiz, MEDIA_GET_IMG_STATE, msg.arg1, msg.arg2, file_name);
+                post_event2(env, weak_thiz, &batch, MEDIA_GET_IMG_STATE, msg.arg1, msg.arg2, file_name);
                 J4A_DeleteLocalRef__p(env, &file_name);
             }
             else {
-                post_event2(env, weak_thiz, MEDIA_GET_IMG_STATE, msg.arg1, msg.arg2, NULL);
+                post_event2(env, weak_thiz, &batch, MEDIA_GET_IMG_STATE, msg.arg1, msg.arg2, NULL);
             }
             break;
+        case FFP_MSG_GET_SPRITE_SHEET:
+            post_event_flush(env, weak_thiz, &batch);
+            post_sprite_sheet(env, weak_thiz, msg.obj);
+            break;
+        case FFP_MSG_EVENT_BATCH:
+            post_event_flush(env, weak_thiz, &batch);
+            post_event_batch(env, mp, weak_thiz);
+            break;
         case FFP_MSG_VIDEO_SEEK_RENDERING_START:
             MPTRACE("FFP_MSG_VIDEO_SEEK_RENDERING_START:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_VIDEO_SEEK_RENDERING_START, msg.arg1);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_VIDEO_SEEK_RENDERING_START, msg.arg1);
             break;
         case FFP_MSG_AUDIO_SEEK_RENDERING_START:
             MPTRACE("FFP_MSG_AUDIO_SEEK_RENDERING_START:\n");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_AUDIO_SEEK_RENDERING_START, msg.arg1);
+            post_event(env, weak_thiz, &batch, MEDIA_INFO, MEDIA_INFO_AUDIO_SEEK_RENDERING_START, msg.arg1);
             break;
         default:
             ALOGE("unknown FFP_MSG_xxx(%d)\n", msg.what);
@@ -1026,6 +1187,9 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
         msg_free_res(&msg);
     }
 
+    post_event_flush(env, weak_thiz, &batch);
+    SDL_JNI_DeleteLocalRefP(env, (jobject *)&batch.jevents);
+
 LABEL_RETURN:
     ;
 }
@@ -1108,6 +1272,20 @@ IjkMediaPlayer_native_setLogLevel(JNIEnv *env, jclass clazz, jint level)
     ALOGD("moncleanup\n");
 }
 
+static void
+IjkMediaPlayer_native_setThumbnailCacheMemorySize(JNIEnv *env, jclass clazz, jlong bytes)
+{
+    MPTRACE("%s(%"PRId64")\n", __func__, (int64_t)bytes);
+    ijk_thumbnail_cache_set_memory_capacity(bytes);
+}
+
+static void
+IjkMediaPlayer_native_setThumbnailCacheDiskSize(JNIEnv *env, jclass clazz, jlong bytes)
+{
+    MPTRACE("%s(%"PRId64")\n", __func__, (int64_t)bytes);
+    ijk_thumbnail_cache_set_disk_capacity(bytes);
+}
+
 static void
 IjkMediaPlayer_setFrameAtTime(JNIEnv *env, jobject thiz, jstring path, jlong start_time, jlong end_time, jint num, jint definition) {
     IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
@@ -1128,10 +1306,74 @@ LABEL_RETURN:
 }
 
 
+static void
+IjkMediaPlayer_setSpriteFrameAtTime(JNIEnv *env, jobject thiz, jstring path, jlong start_time, jlong end_time, jint num,
+                                    jint format, jint tile_width, jint tile_height, jint columns, jint rows, jint quality) {
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    const char *c_path = NULL;
+    FFSpriteSheetConfig config;
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setSpriteFrameAtTime: null mp", LABEL_RETURN);
+
+    // no path: the sheets go to onNativeSpriteSheet()
+    if (path) {
+        c_path = (*env)->GetStringUTFChars(env, path, NULL );
+        JNI_CHECK_GOTO(c_path, env, "java/lang/OutOfMemoryError", "mpjni: setSpriteFrameAtTime: path.string oom", LABEL_RETURN);
+    }
+
+    memset(&config, 0, sizeof(config));
+    config.format      = format;
+    config.tile_width  = tile_width;
+    config.tile_height = tile_height;
+    config.columns     = columns;
+    config.rows        = rows;
+    config.quality     = quality;
 
+    ALOGV("setSpriteFrameAtTime: path %s", c_path ? c_path : "(memory)");
+    ijkmp_set_sprite_frame_at_time(mp, c_path, start_time, end_time, num, &config);
+    if (c_path)
+        (*env)->ReleaseStringUTFChars(env, path, c_path);
 
+LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return;
+}
 
 // ----------------------------------------------------------------------------
+static jobject
+IjkMediaPlayer_enableEventBatch(JNIEnv *env, jobject thiz, jint capacity)
+{
+    MPTRACE("%s\n", __func__);
+    jobject  jbuffer     = NULL;
+    uint8_t *buffer      = NULL;
+    int      buffer_size = 0;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: enableEventBatch: null mp", LABEL_RETURN);
+
+    buffer = ijkmp_enable_event_batch(mp, capacity, &buffer_size);
+    JNI_CHECK_GOTO(buffer, env, "java/lang/OutOfMemoryError", "mpjni: enableEventBatch: oom", LABEL_RETURN);
+
+    // the memory belongs to the player, Java only reads it in onNativeEventBatch()
+    jbuffer = (*env)->NewDirectByteBuffer(env, buffer, buffer_size);
+    if (J4A_ExceptionCheck__catchAll(env))
+        jbuffer = NULL;
+
+LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return jbuffer;
+}
+
+static void
+IjkMediaPlayer_disableEventBatch(JNIEnv *env, jobject thiz)
+{
+    MPTRACE("%s\n", __func__);
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: disableEventBatch: null mp", LABEL_RETURN);
+
+    ijkmp_disable_event_batch(mp);
+
+LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
 
 static JNINativeMethod g_methods[] = {
     {
@@ -1154,6 +1396,7 @@ static JNINativeMethod g_methods[] = {
     { "getDuration",            "()J",      (void *) IjkMediaPlayer_getDuration },
     { "_release",               "()V",      (void *) IjkMediaPlayer_release },
     { "_reset",                 "()V",      (void *) IjkMediaPlayer_reset },
+    { "_recycle",               "()V",      (void *) IjkMediaPlayer_recycle },
     { "setVolume",              "(FF)V",    (void *) IjkMediaPlayer_setVolume },
     { "getAudioSessionId",      "()I",      (void *) IjkMediaPlayer_getAudioSessionId },
     { "native_init",            "()V",      (void *) IjkMediaPlayer_native_init },
@@ -1179,7 +1422,12 @@ static JNINativeMethod g_methods[] = {
     { "native_profileEnd",      "()V",                      (void *) IjkMediaPlayer_native_profileEnd },
 
     { "native_setLogLevel",     "(I)V",                     (void *) IjkMediaPlayer_native_setLogLevel },
+    { "native_setThumbnailCacheMemorySize", "(J)V",         (void *) IjkMediaPlayer_native_setThumbnailCacheMemorySize },
+    { "native_setThumbnailCacheDiskSize",   "(J)V",         (void *) IjkMediaPlayer_native_setThumbnailCacheDiskSize },
     { "_setFrameAtTime",        "(Ljava/lang/String;JJII)V", (void *) IjkMediaPlayer_setFrameAtTime },
+    { "_setSpriteFrameAtTime",  "(Ljava/lang/String;JJIIIIIII)V", (void *) IjkMediaPlayer_setSpriteFrameAtTime },
+    { "_enableEventBatch",      "(I)Ljava/nio/ByteBuffer;", (void *) IjkMediaPlayer_enableEventBatch },
+    { "_disableEventBatch",     "()V",                      (void *) IjkMediaPlayer_disableEventBatch },
 };
 
 JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved)
@@ -1202,6 +1450,8 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved)
     ijkmp_global_set_inject_callback(inject_callback);
 
     FFmpegApi_global_init(env);
+    IjkPreloader_global_init(env);
+    IjkThumbnailExtractor_global_init(env);
 
     return JNI_VERSION_1_4;
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkpreloader_jni.h"
+
+#include <assert.h>
+#include <string.h>
+#include <stdlib.h>
+#include <jni.h>
+#include "ijksdl/ijksdl_log.h"
+#include "ijksdl/ijksdl_misc.h"
+#include "ijksdl/android/ijksdl_android_jni.h"
+#include "ijkavformat/ijkiopreload.h"
+
+#define JNI_CLASS_IJKPRELOADER "tv/danmaku/ijk/media/player/IjkPreloader"
+
+typedef struct ijkpreloader_fields_t {
+    jclass    clazz;
+    jfieldID  field_mNativePreloader;
+    jmethodID method_postEventFromNative;
+} ijkpreloader_fields_t;
+static ijkpreloader_fields_t g_clazz;
+
+typedef struct IjkPreloaderJni {
+    IjkIOPreloadContext *preload;
+    IjkAVDictionary     *options;
+    jobject              weak_thiz;
+} IjkPreloaderJni;
+
+static IjkPreloaderJni *jni_get_preloader(JNIEnv *env, jobject thiz)
+{
+    return (IjkPreloaderJni *) (intptr_t) (*env)->GetLongField(env, thiz, g_clazz.field_mNativePreloader);
+}
+
+static void preloader_callback(void *opaque, int what, int64_t task_id, int64_t arg1, int64_t arg2)
+{
+    IjkPreloaderJni *jp = opaque;
+    JNIEnv *env = NULL;
+
+    if (JNI_OK != SDL_JNI_SetupThreadEnv(&env)) {
+        ALOGE("%s: SetupThreadEnv failed\n", __func__);
+        return;
+    }
+
+    (*env)->CallStaticVoidMethod(env, g_clazz.clazz, g_clazz.method_postEventFromNative,
+                                 jp->weak_thiz, (jint)what, (jlong)task_id, (jlong)arg1, (jlong)arg2);
+    J4A_ExceptionCheck__catchAll(env);
+}
+
+static void
+IjkPreloader_native_setup(JNIEnv *env, jobject thiz, jobject weak_this, jint max_concurrent)
+{
+    IjkPreloaderJni *jp = calloc(1, sizeof(IjkPreloaderJni));
+    JNI_CHECK_GOTO(jp, env, "java/lang/OutOfMemoryError", "preloaderjni: native_setup: calloc failed", LABEL_RETURN);
+
+    jp->weak_thiz = (*env)->NewGlobalRef(env, weak_this);
+    jp->preload   = ijkio_preload_create(max_concurrent, preloader_callback, jp);
+    JNI_CHECK_GOTO(jp->preload, env, "java/lang/OutOfMemoryError", "preloaderjni: native_setup: create failed", LABEL_FAIL);
+
+    (*env)->SetLongField(env, thiz, g_clazz.field_mNativePreloader, (jlong) (intptr_t) jp);
+    return;
+
+LABEL_FAIL:
+    (*env)->DeleteGlobalRef(env, jp->weak_thiz);
+    free(jp);
+LABEL_RETURN:
+    return;
+}
+
+static void
+IjkPreloader_release(JNIEnv *env, jobject thiz)
+{
+    IjkPreloaderJni *jp = jni_get_preloader(env, thiz);
+    if (!jp)
+        return;
+
+    (*env)->SetLongField(env, thiz, g_clazz.field_mNativePreloader, 0);
+
+    // blocks until every worker reported its final event
+    ijkio_preload_destroyp(&jp->preload);
+    ijk_av_dict_free(&jp->options);
+    (*env)->DeleteGlobalRef(env, jp->weak_thiz);
+    free(jp);
+}
+
+static void
+IjkPreloader_setOption(JNIEnv *env, jobject thiz, jstring key, jstring value)
+{
+    const char *c_key   = NULL;
+    const char *c_value = NULL;
+    IjkPreloaderJni *jp = jni_get_preloader(env, thiz);
+    JNI_CHECK_GOTO(jp, env, "java/lang/IllegalStateException", "preloaderjni: setOption: null preloader", LABEL_RETURN);
+    JNI_CHECK_GOTO(key, env, "java/lang/IllegalArgumentException", "preloaderjni: setOption: null key", LABEL_RETURN);
+
+    c_key = (*env)->GetStringUTFChars(env, key, NULL);
+    JNI_CHECK_GOTO(c_key, env, "java/lang/OutOfMemoryError", "preloaderjni: setOption: key.string oom", LABEL_RETURN);
+
+    if (value) {
+        c_value = (*env)->GetStringUTFChars(env, value, NULL);
+        JNI_CHECK_GOTO(c_value, env, "java/lang/OutOfMemoryError", "preloaderjni: setOption: value.string oom", LABEL_RETURN);
+    }
+
+    ijk_av_dict_set(&jp->options, c_key, c_value, 0);
+
+LABEL_RETURN:
+    if (c_key)
+        (*env)->ReleaseStringUTFChars(env, key, c_key);
+    if (c_value)
+        (*env)->ReleaseStringUTFChars(env, value, c_value);
+}
+
+static jlong
+IjkPreloader_preload(JNIEnv *env, jobject thiz, jstring url, jstring cache_file_path, jstring cache_map_path,
+                     jlong offset, jlong size, jlong duration_ms)
+{
+    jlong task_id = -1;
+    const char *c_url  = NULL;
+    const char *c_file = NULL;
+    const char *c_map  = NULL;
+    IjkPreloaderJni *jp = jni_get_preloader(env, thiz);
+    JNI_CHECK_GOTO(jp, env, "java/lang/IllegalStateException", "preloaderjni: preload: null preloader", LABEL_RETURN);
+    JNI_CHECK_GOTO(url && cache_file_path && cache_map_path, env, "java/lang/IllegalArgumentException", "preloaderjni: preload: null path", LABEL_RETURN);
+
+    c_url  = (*env)->GetStringUTFChars(env, url, NULL);
+    JNI_CHECK_GOTO(c_url, env, "java/lang/OutOfMemoryError", "preloaderjni: preload: url.string oom", LABEL_RETURN);
+    c_file = (*env)->GetStringUTFChars(env, cache_file_path, NULL);
+    JNI_CHECK_GOTO(c_file, env, "java/lang/OutOfMemoryError", "preloaderjni: preload: cache_file_path.string oom", LABEL_RETURN);
+    c_map  = (*env)->GetStringUTFChars(env, cache_map_path, NULL);
+    JNI_CHECK_GOTO(c_map, env, "java/lang/OutOfMemoryError", "preloaderjni: preload: cache_map_path.string oom", LABEL_RETURN);
+
+    if (duration_ms > 0) {
+        task_id = ijkio_preload_add_duration(jp->preload, c_url, c_file, c_map, duration_ms, jp->options);
+    } else {
+        task_id = ijkio_preload_add_bytes(jp->preload, c_url, c_file, c_map, offset, size, jp->options);
+    }
+
+LABEL_RETURN:
+    if (c_url)
+        (*env)->ReleaseStringUTFChars(env, url, c_url);
+    if (c_file)
+        (*env)->ReleaseStringUTFChars(env, cache_file_path, c_file);
+    if (c_map)
+        (*env)->ReleaseStringUTFChars(env, cache_map_path, c_map);
+    return task_id;
+}
+
+static jboolean
+IjkPreloader_cancel(JNIEnv *env, jobject thiz, jlong task_id)
+{
+    IjkPreloaderJni *jp = jni_get_preloader(env, thiz);
+    if (!jp)
+        return JNI_FALSE;
+
+    return ijkio_preload_cancel(jp->preload, task_id) == 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+static JNINativeMethod g_methods[] = {
+    { "native_setup",   "(Ljava/lang/Object;I)V",                                        (void *) IjkPreloader_native_setup },
+    { "_release",       "()V",                                                           (void *) IjkPreloader_release },
+    { "_setOption",     "(Ljava/lang/String;Ljava/lang/String;)V",                       (void *) IjkPreloader_setOption },
+    { "_preload",       "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;JJJ)J", (void *) IjkPreloader_preload },
+    { "_cancel",        "(J)Z",                                                          (void *) IjkPreloader_cancel },
+};
+
+int IjkPreloader_global_init(JNIEnv *env)
+{
+    int ret = 0;
+
+    IJK_FIND_JAVA_CLASS(env, g_clazz.clazz, JNI_CLASS_IJKPRELOADER);
+
+    g_clazz.field_mNativePreloader = (*env)->GetFieldID(env, g_clazz.clazz, "mNativePreloader", "J");
+    if (J4A_ExceptionCheck__catchAll(env) || !g_clazz.field_mNativePreloader)
+        return -1;
+
+    g_clazz.method_postEventFromNative = (*env)->GetStaticMethodID(env, g_clazz.clazz, "postEventFromNative", "(Ljava/lang/Object;IJJJ)V");
+    if (J4A_ExceptionCheck__catchAll(env) || !g_clazz.method_postEventFromNative)
+        return -1;
+
+    (*env)->RegisterNatives(env, g_clazz.clazz, g_methods, NELEM(g_methods));
+
+    return ret;
+}
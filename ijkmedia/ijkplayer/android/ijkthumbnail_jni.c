@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkthumbnail_jni.h"
+
+#include <assert.h>
+#include <string.h>
+#include <stdlib.h>
+#include <jni.h>
+#include "ijksdl/ijksdl_log.h"
+#include "ijksdl/ijksdl_misc.h"
+#include "ijksdl/android/ijksdl_android_jni.h"
+#include "ijkplayer/ijkthumbnail.h"
+
+#define JNI_CLASS_IJKTHUMBNAIL_EXTRACTOR "tv/danmaku/ijk/media/player/IjkThumbnailExtractor"
+#define JNI_CLASS_IJKTHUMBNAIL_SINK      "tv/danmaku/ijk/media/player/IjkThumbnailExtractor$FrameSink"
+
+typedef struct ijkthumbnail_fields_t {
+    jclass    clazz;
+    jfieldID  field_mNativeExtractor;
+    jmethodID method_postEventFromNative;
+
+    jclass    clazz_sink;
+    jmethodID method_onFrame;
+} ijkthumbnail_fields_t;
+static ijkthumbnail_fields_t g_clazz;
+
+typedef struct IjkThumbnailExtractorJni {
+    IjkThumbnailExtractor *extractor;
+    IjkAVDictionary       *options;
+    jobject                weak_thiz;
+} IjkThumbnailExtractorJni;
+
+// one per request, freed by its final event
+typedef struct IjkThumbnailTaskJni {
+    IjkThumbnailExtractorJni *owner;
+    jobject                   sink;
+} IjkThumbnailTaskJni;
+
+static IjkThumbnailExtractorJni *jni_get_extractor(JNIEnv *env, jobject thiz)
+{
+    return (IjkThumbnailExtractorJni *) (intptr_t) (*env)->GetLongField(env, thiz, g_clazz.field_mNativeExtractor);
+}
+
+static int thumbnail_on_frame(void *opaque, int64_t task_id, const IjkThumbnailFrame *frame)
+{
+    IjkThumbnailTaskJni *tj = opaque;
+    JNIEnv *env = NULL;
+    jobject pixels = NULL;
+    jboolean keep = JNI_FALSE;
+
+    if (JNI_OK != SDL_JNI_SetupThreadEnv(&env)) {
+        ALOGE("%s: SetupThreadEnv failed\n", __func__);
+        return -1;
+    }
+
+    // the sink copies the pixels out before returning
+    pixels = (*env)->NewDirectByteBuffer(env, (void *)frame->data, (jlong)frame->linesize * frame->height);
+    if (J4A_ExceptionCheck__catchAll(env) || !pixels)
+        return -1;
+
+    keep = (*env)->CallBooleanMethod(env, tj->sink, g_clazz.method_onFrame,
+                                     (jlong)task_id, (jint)frame->index, (jlong)frame->time_ms, (jlong)frame->pts_ms,
+                                     (jint)frame->width, (jint)frame->height, pixels);
+    SDL_JNI_DeleteLocalRefP(env, &pixels);
+    if (J4A_ExceptionCheck__catchAll(env) || !keep)
+        return -1;
+
+    return 0;
+}
+
+static void thumbnail_on_event(void *opaque, int what, int64_t task_id, int64_t arg1, int64_t arg2)
+{
+    IjkThumbnailTaskJni *tj = opaque;
+    JNIEnv *env = NULL;
+
+    if (JNI_OK != SDL_JNI_SetupThreadEnv(&env)) {
+        ALOGE("%s: SetupThreadEnv failed\n", __func__);
+        return;
+    }
+
+    (*env)->CallStaticVoidMethod(env, g_clazz.clazz, g_clazz.method_postEventFromNative,
+                                 tj->owner->weak_thiz, (jint)what, (jlong)task_id, (jlong)arg1, (jlong)arg2);
+    J4A_ExceptionCheck__catchAll(env);
+
+    SDL_JNI_DeleteGlobalRefP(env, &tj->sink);
+    free(tj);
+}
+
+static void
+IjkThumbnailExtractor_native_setup(JNIEnv *env, jobject thiz, jobject weak_this, jint max_threads)
+{
+    IjkThumbnailExtractorJni *jt = calloc(1, sizeof(IjkThumbnailExtractorJni));
+    JNI_CHECK_GOTO(jt, env, "java/lang/OutOfMemoryError", "thumbnailjni: native_setup: calloc failed", LABEL_RETURN);
+
+    jt->weak_thiz = (*env)->NewGlobalRef(env, weak_this);
+    jt->extractor = ijk_thumbnail_extractor_create(max_threads);
+    JNI_CHECK_GOTO(jt->extractor, env, "java/lang/OutOfMemoryError", "thumbnailjni: native_setup: create failed", LABEL_FAIL);
+
+    (*env)->SetLongField(env, thiz, g_clazz.field_mNativeExtractor, (jlong) (intptr_t) jt);
+    return;
+
+LABEL_FAIL:
+    (*env)->DeleteGlobalRef(env, jt->weak_thiz);
+    free(jt);
+LABEL_RETURN:
+    return;
+}
+
+static void
+IjkThumbnailExtractor_release(JNIEnv *env, jobject thiz)
+{
+    IjkThumbnailExtractorJni *jt = jni_get_extractor(env, thiz);
+    if (!jt)
+        return;
+
+    (*env)->SetLongField(env, thiz, g_clazz.field_mNativeExtractor, 0);
+
+    // blocks until every request reported its final event
+    ijk_thumbnail_extractor_destroyp(&jt->extractor);
+    ijk_av_dict_free(&jt->options);
+    (*env)->DeleteGlobalRef(env, jt->weak_thiz);
+    free(jt);
+}
+
+static void
+IjkThumbnailExtractor_setOption(JNIEnv *env, jobject thiz, jstring key, jstring value)
+{
+    const char *c_key   = NULL;
+    const char *c_value = NULL;
+    IjkThumbnailExtractorJni *jt = jni_get_extractor(env, thiz);
+    JNI_CHECK_GOTO(jt, env, "java/lang/IllegalStateException", "thumbnailjni: setOption: null extractor", LABEL_RETURN);
+    JNI_CHECK_GOTO(key, env, "java/lang/IllegalArgumentException", "thumbnailjni: setOption: null key", LABEL_RETURN);
+
+    c_key = (*env)->GetStringUTFChars(env, key, NULL);
+    JNI_CHECK_GOTO(c_key, env, "java/lang/OutOfMemoryError", "thumbnailjni: setOption: key.string oom", LABEL_RETURN);
+
+    if (value) {
+        c_value = (*env)->GetStringUTFChars(env, value, NULL);
+        JNI_CHECK_GOTO(c_value, env, "java/lang/OutOfMemoryError", "thumbnailjni: setOption: value.string oom", LABEL_RETURN);
+    }
+
+    ijk_av_dict_set(&jt->options, c_key, c_value, 0);
+
+LABEL_RETURN:
+    if (c_key)
+        (*env)->ReleaseStringUTFChars(env, key, c_key);
+    if (c_value)
+        (*env)->ReleaseStringUTFChars(env, value, c_value);
+}
+
+static jlong
+IjkThumbnailExtractor_extract(JNIEnv *env, jobject thiz, jstring url, jlong start_ms, jlong end_ms, jint count,
+                              jint max_width, jint max_height, jboolean exact, jint segments, jobject sink)
+{
+    jlong task_id = -1;
+    const char *c_url = NULL;
+    IjkThumbnailRequest request;
+    IjkThumbnailSink c_sink;
+    IjkThumbnailTaskJni *tj = NULL;
+    IjkThumbnailExtractorJni *jt = jni_get_extractor(env, thiz);
+    JNI_CHECK_GOTO(jt, env, "java/lang/IllegalStateException", "thumbnailjni: extract: null extractor", LABEL_RETURN);
+    JNI_CHECK_GOTO(url && sink, env, "java/lang/IllegalArgumentException", "thumbnailjni: extract: null url or sink", LABEL_RETURN);
+
+    c_url = (*env)->GetStringUTFChars(env, url, NULL);
+    JNI_CHECK_GOTO(c_url, env, "java/lang/OutOfMemoryError", "thumbnailjni: extract: url.string oom", LABEL_RETURN);
+
+    tj = calloc(1, sizeof(IjkThumbnailTaskJni));
+    JNI_CHECK_GOTO(tj, env, "java/lang/OutOfMemoryError", "thumbnailjni: extract: calloc failed", LABEL_RETURN);
+    tj->owner = jt;
+    tj->sink  = (*env)->NewGlobalRef(env, sink);
+    JNI_CHECK_GOTO(tj->sink, env, "java/lang/OutOfMemoryError", "thumbnailjni: extract: sink ref failed", LABEL_RETURN);
+
+    memset(&request, 0, sizeof(request));
+    request.start_ms   = start_ms;
+    request.end_ms     = end_ms;
+    request.count      = count;
+    request.max_width  = max_width;
+    request.max_height = max_height;
+    request.exact      = exact ? 1 : 0;
+    request.segments   = segments;
+
+    memset(&c_sink, 0, sizeof(c_sink));
+    c_sink.opaque   = tj;
+    c_sink.on_frame = thumbnail_on_frame;
+    c_sink.on_event = thumbnail_on_event;
+
+    task_id = ijk_thumbnail_extractor_add(jt->extractor, c_url, &request, jt->options, &c_sink);
+    if (task_id > 0)
+        tj = NULL;
+
+LABEL_RETURN:
+    if (tj) {
+        SDL_JNI_DeleteGlobalRefP(env, &tj->sink);
+        free(tj);
+    }
+    if (c_url)
+        (*env)->ReleaseStringUTFChars(env, url, c_url);
+    return task_id;
+}
+
+static jboolean
+IjkThumbnailExtractor_cancel(JNIEnv *env, jobject thiz, jlong task_id)
+{
+    IjkThumbnailExtractorJni *jt = jni_get_extractor(env, thiz);
+    if (!jt)
+        return JNI_FALSE;
+
+    return ijk_thumbnail_extractor_cancel(jt->extractor, task_id) == 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+static JNINativeMethod g_methods[] = {
+    { "native_setup",   "(Ljava/lang/Object;I)V",                               (void *) IjkThumbnailExtractor_native_setup },
+    { "_release",       "()V",                                                  (void *) IjkThumbnailExtractor_release },
+    { "_setOption",     "(Ljava/lang/String;Ljava/lang/String;)V",              (void *) IjkThumbnailExtractor_setOption },
+    { "_extract",       "(Ljava/lang/String;JJIIIZI"
+                        "Ltv/danmaku/ijk/media/player/IjkThumbnailExtractor$FrameSink;)J",
+                                                                                (void *) IjkThumbnailExtractor_extract },
+    { "_cancel",        "(J)Z",                                                 (void *) IjkThumbnailExtractor_cancel },
+};
+
+int IjkThumbnailExtractor_global_init(JNIEnv *env)
+{
+    int ret = 0;
+
+    IJK_FIND_JAVA_CLASS(env, g_clazz.clazz, JNI_CLASS_IJKTHUMBNAIL_EXTRACTOR);
+    IJK_FIND_JAVA_CLASS(env, g_clazz.clazz_sink, JNI_CLASS_IJKTHUMBNAIL_SINK);
+
+    g_clazz.field_mNativeExtractor = (*env)->GetFieldID(env, g_clazz.clazz, "mNativeExtractor", "J");
+    if (J4A_ExceptionCheck__catchAll(env) || !g_clazz.field_mNativeExtractor)
+        return -1;
+
+    g_clazz.method_postEventFromNative = (*env)->GetStaticMethodID(env, g_clazz.clazz, "postEventFromNative", "(Ljava/lang/Object;IJJJ)V");
+    if (J4A_ExceptionCheck__catchAll(env) || !g_clazz.method_postEventFromNative)
+        return -1;
+
+    g_clazz.method_onFrame = (*env)->GetMethodID(env, g_clazz.clazz_sink, "onFrame", "(JIJJIILjava/nio/ByteBuffer;)Z");
+    if (J4A_ExceptionCheck__catchAll(env) || !g_clazz.method_onFrame)
+        return -1;
+
+    (*env)->RegisterNatives(env, g_clazz.clazz, g_methods, NELEM(g_methods));
+
+    return ret;
+}
@@ -23,6 +23,10 @@
 
 #include "ffpipeline_android.h"
 #include <jni.h>
+#include <pthread.h>
+#include <string.h>
+#include "libavutil/avstring.h"
+#include "libavutil/time.h"
 #include "ffpipenode_android_mediacodec_vdec.h"
 #include "../../pipeline/ffpipenode_ffplay_vdec.h"
 #include "../../ff_ffplay.h"
@@ -33,6 +37,33 @@ static SDL_Class g_pipeline_class = {
     .name = "ffpipeline_android_media",
 };
 
+#define MEDIACODEC_PARK_MAX             (2)
+#define MEDIACODEC_PARK_MAX_IDLE_MICRO  (10 * 1000 * 1000)
+
+typedef struct ParkedMediaCodec {
+    SDL_AMediaCodec *acodec;
+    char             codec_name[128];
+    char             mime_type[128];
+    int              size_class;
+    jobject          jsurface;
+    int64_t          parked_time;
+} ParkedMediaCodec;
+
+typedef struct MediaCodecPark {
+    pthread_mutex_t  mutex;
+    pthread_cond_t   cond;
+    ParkedMediaCodec entries[MEDIACODEC_PARK_MAX];
+
+    /* releases the expired decoders while no stream comes to park or take one */
+    bool             thread_running;
+    int              nb_pipelines;
+} MediaCodecPark;
+
+static MediaCodecPark g_mediacodec_park = {
+    .mutex = PTHREAD_MUTEX_INITIALIZER,
+    .cond  = PTHREAD_COND_INITIALIZER,
+};
+
 typedef struct IJKFF_Pipeline_Opaque {
     FFPlayer      *ffp;
     SDL_mutex     *surface_mutex;
@@ -48,19 +79,155 @@ typedef struct IJKFF_Pipeline_Opaque {
     float          right_volume;
 } IJKFF_Pipeline_Opaque;
 
+/* a decoder configured for 1080p is not kept for a 4K stream, nor the opposite */
+static int mediacodec_size_class(int width, int height)
+{
+    int size = FFMAX(width, height);
+
+    if (size <= 1280)
+        return 0;
+    else if (size <= 1920)
+        return 1;
+    else if (size <= 2560)
+        return 2;
+    return 3;
+}
+
+static void parked_mediacodec_free(JNIEnv *env, ParkedMediaCodec *parked)
+{
+    SDL_AMediaCodec_decreaseReferenceP(&parked->acodec);
+    SDL_JNI_DeleteGlobalRefP(env, &parked->jsurface);
+    memset(parked, 0, sizeof(ParkedMediaCodec));
+}
+
+/* moves the expired decoders into closed, they are released out of the lock */
+static int mediacodec_park_trim_l(int64_t now, ParkedMediaCodec *closed)
+{
+    int nb_closed = 0;
+
+    for (int i = 0; i < MEDIACODEC_PARK_MAX; i++) {
+        ParkedMediaCodec *parked = &g_mediacodec_park.entries[i];
+        if (parked->acodec && now - parked->parked_time > MEDIACODEC_PARK_MAX_IDLE_MICRO) {
+            closed[nb_closed++] = *parked;
+            memset(parked, 0, sizeof(ParkedMediaCodec));
+        }
+    }
+    return nb_closed;
+}
+
+/* the earliest time a parked decoder expires at, or 0 if none is parked */
+static int64_t mediacodec_park_deadline_l()
+{
+    int64_t deadline = 0;
+
+    for (int i = 0; i < MEDIACODEC_PARK_MAX; i++) {
+        ParkedMediaCodec *parked = &g_mediacodec_park.entries[i];
+        int64_t           expire = parked->parked_time + MEDIACODEC_PARK_MAX_IDLE_MICRO + 1;
+        if (parked->acodec && (!deadline || expire < deadline))
+            deadline = expire;
+    }
+    return deadline;
+}
+
+static void *mediacodec_park_thread(void *arg)
+{
+    ParkedMediaCodec closed[MEDIACODEC_PARK_MAX];
+    JNIEnv          *env = NULL;
+
+    pthread_setname_np(pthread_self(), "ff_mcodec_park");
+    if (JNI_OK != SDL_JNI_SetupThreadEnv(&env)) {
+        ALOGE("%s: SetupThreadEnv failed\n", __func__);
+        pthread_mutex_lock(&g_mediacodec_park.mutex);
+        g_mediacodec_park.thread_running = false;
+        pthread_mutex_unlock(&g_mediacodec_park.mutex);
+        return NULL;
+    }
+
+    pthread_mutex_lock(&g_mediacodec_park.mutex);
+    for (;;) {
+        int64_t         now       = av_gettime_relative();
+        int64_t         deadline  = 0;
+        int64_t         wake_time = 0;
+        int             nb_closed = mediacodec_park_trim_l(now, closed);
+        struct timespec ts;
+
+        if (nb_closed > 0) {
+            pthread_mutex_unlock(&g_mediacodec_park.mutex);
+            for (int i = 0; i < nb_closed; i++)
+                parked_mediacodec_free(env, &closed[i]);
+            pthread_mutex_lock(&g_mediacodec_park.mutex);
+            continue;
+        }
+
+        deadline = mediacodec_park_deadline_l();
+        if (!deadline)
+            break;
+
+        /* parked_time is monotonic, the condition waits on the wall clock */
+        wake_time  = av_gettime() + deadline - now;
+        ts.tv_sec  = wake_time / 1000000;
+        ts.tv_nsec = (wake_time % 1000000) * 1000;
+        pthread_cond_timedwait(&g_mediacodec_park.cond, &g_mediacodec_park.mutex, &ts);
+    }
+    g_mediacodec_park.thread_running = false;
+    pthread_mutex_unlock(&g_mediacodec_park.mutex);
+
+    SDL_JNI_DetachThreadEnv();
+    return NULL;
+}
+
+static void mediacodec_park_start_thread_l()
+{
+    pthread_attr_t attr;
+    pthread_t      tid;
+    int            ret;
+
+    if (g_mediacodec_park.thread_running)
+        return;
+
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    ret = pthread_create(&tid, &attr, mediacodec_park_thread, NULL);
+    pthread_attr_destroy(&attr);
+    if (ret) {
+        ALOGE("%s: pthread_create failed: %d\n", __func__, ret);
+        return;
+    }
+    g_mediacodec_park.thread_running = true;
+}
+
 static void func_destroy(IJKFF_Pipeline *pipeline)
 {
     IJKFF_Pipeline_Opaque *opaque = pipeline->opaque;
-    JNIEnv *env = NULL;
+    ParkedMediaCodec closed[MEDIACODEC_PARK_MAX];
+    int              nb_closed = 0;
+    JNIEnv          *env       = NULL;
 
     SDL_DestroyMutexP(&opaque->surface_mutex);
 
+    /* no player is left to take a decoder back */
+    pthread_mutex_lock(&g_mediacodec_park.mutex);
+    if (--g_mediacodec_park.nb_pipelines <= 0) {
+        g_mediacodec_park.nb_pipelines = 0;
+        for (int i = 0; i < MEDIACODEC_PARK_MAX; i++) {
+            ParkedMediaCodec *parked = &g_mediacodec_park.entries[i];
+            if (parked->acodec) {
+                closed[nb_closed++] = *parked;
+                memset(parked, 0, sizeof(ParkedMediaCodec));
+            }
+        }
+        pthread_cond_signal(&g_mediacodec_park.cond);
+    }
+    pthread_mutex_unlock(&g_mediacodec_park.mutex);
+
     if (JNI_OK != SDL_JNI_SetupThreadEnv(&env)) {
         ALOGE("amediacodec-pipeline:destroy: SetupThreadEnv failed\n");
         goto fail;
     }
 
     SDL_JNI_DeleteGlobalRefP(env, &opaque->jsurface);
+    for (int i = 0; i < nb_closed; i++)
+        parked_mediacodec_free(env, &closed[i]);
 fail:
     return;
 }
@@ -82,10 +249,19 @@ static IJKFF_Pipenode *func_open_video_decoder(IJKFF_Pipeline *pipeline, FFPlaye
 static SDL_Aout *func_open_audio_output(IJKFF_Pipeline *pipeline, FFPlayer *ffp)
 {
     SDL_Aout *aout = NULL;
-    if (ffp->opensles) {
-        aout = SDL_AoutAndroid_CreateForOpenSLES();
-    } else {
-        aout = SDL_AoutAndroid_CreateForAudioTrack();
+    if (ffp->aaudio) {
+        aout = SDL_AoutAndroid_CreateForAAudio(ffp->aaudio_buffer_bursts);
+        if (!aout)
+            ALOGW("%s: AAudio not available, fallback\n", __func__);
+    }
+    if (!aout) {
+        if (ffp->opensles) {
+            aout = SDL_AoutAndroid_CreateForOpenSLES();
+        } else if (ffp->audiotrack_direct) {
+            aout = SDL_AoutAndroid_CreateForAudioTrackDirect();
+        } else {
+            aout = SDL_AoutAndroid_CreateForAudioTrack();
+        }
     }
     if (aout)
         SDL_AoutSetStereoVolume(aout, pipeline->opaque->left_volume, pipeline->opaque->right_volume);
@@ -154,6 +330,9 @@ IJKFF_Pipeline *ffpipeline_create_from_android(FFPlayer *ffp)
     pipeline->func_init_video_decoder   = func_init_video_decoder;
     pipeline->func_config_video_decoder = func_config_video_decoder;
 
+    pthread_mutex_lock(&g_mediacodec_park.mutex);
+    g_mediacodec_park.nb_pipelines++;
+    pthread_mutex_unlock(&g_mediacodec_park.mutex);
     return pipeline;
 fail:
     ffpipeline_free_p(&pipeline);
@@ -294,3 +473,89 @@ void ffpipeline_set_volume(IJKFF_Pipeline* pipeline, float left, float right)
         SDL_AoutSetStereoVolume(opaque->ffp->aout, left, right);
     }
 }
+
+void ffpipeline_park_mediacodec(JNIEnv *env, IJKFF_Pipeline* pipeline, SDL_AMediaCodec *acodec,
+                                const ijkmp_mediacodecinfo_context *mcc, int width, int height, jobject jsurface)
+{
+    ParkedMediaCodec  closed[MEDIACODEC_PARK_MAX + 1];
+    ParkedMediaCodec *slot      = NULL;
+    int               nb_closed = 0;
+    int64_t           now       = av_gettime_relative();
+
+    if (!check_ffpipeline(pipeline, __func__) || !acodec)
+        return;
+
+    memset(closed, 0, sizeof(closed));
+    pthread_mutex_lock(&g_mediacodec_park.mutex);
+    nb_closed = mediacodec_park_trim_l(now, closed);
+    for (int i = 0; i < MEDIACODEC_PARK_MAX; i++) {
+        ParkedMediaCodec *parked = &g_mediacodec_park.entries[i];
+        if (!parked->acodec) {
+            slot = parked;
+            break;
+        }
+        if (!slot || parked->parked_time < slot->parked_time)
+            slot = parked;
+    }
+    if (slot->acodec) {
+        closed[nb_closed++] = *slot;
+        memset(slot, 0, sizeof(ParkedMediaCodec));
+    }
+
+    slot->jsurface = jsurface ? (*env)->NewGlobalRef(env, jsurface) : NULL;
+    if (J4A_ExceptionCheck__catchAll(env) || !slot->jsurface) {
+        slot->jsurface = NULL;
+        closed[nb_closed++].acodec = acodec;
+    } else {
+        slot->acodec      = acodec;
+        slot->size_class  = mediacodec_size_class(width, height);
+        slot->parked_time = now;
+        av_strlcpy(slot->codec_name, mcc->codec_name, sizeof(slot->codec_name));
+        av_strlcpy(slot->mime_type, mcc->mime_type, sizeof(slot->mime_type));
+        ALOGI("%s: %s %dx%d\n", __func__, slot->codec_name, width, height);
+        mediacodec_park_start_thread_l();
+    }
+    pthread_mutex_unlock(&g_mediacodec_park.mutex);
+
+    for (int i = 0; i < nb_closed; i++)
+        parked_mediacodec_free(env, &closed[i]);
+}
+
+SDL_AMediaCodec *ffpipeline_take_parked_mediacodec(JNIEnv *env, IJKFF_Pipeline* pipeline,
+                                                   const ijkmp_mediacodecinfo_context *mcc, int width, int height, jobject jsurface)
+{
+    ParkedMediaCodec  closed[MEDIACODEC_PARK_MAX];
+    ParkedMediaCodec  taken;
+    int               nb_closed  = 0;
+    int               size_class = mediacodec_size_class(width, height);
+
+    if (!check_ffpipeline(pipeline, __func__) || !jsurface)
+        return NULL;
+
+    memset(&taken, 0, sizeof(taken));
+    pthread_mutex_lock(&g_mediacodec_park.mutex);
+    nb_closed = mediacodec_park_trim_l(av_gettime_relative(), closed);
+    for (int i = 0; i < MEDIACODEC_PARK_MAX; i++) {
+        ParkedMediaCodec *parked = &g_mediacodec_park.entries[i];
+        if (parked->acodec &&
+            parked->size_class == size_class &&
+            !strcmp(parked->codec_name, mcc->codec_name) &&
+            !strcmp(parked->mime_type, mcc->mime_type) &&
+            (*env)->IsSameObject(env, parked->jsurface, jsurface)) {
+            taken = *parked;
+            memset(parked, 0, sizeof(ParkedMediaCodec));
+            break;
+        }
+    }
+    pthread_mutex_unlock(&g_mediacodec_park.mutex);
+
+    for (int i = 0; i < nb_closed; i++)
+        parked_mediacodec_free(env, &closed[i]);
+
+    if (!taken.acodec)
+        return NULL;
+
+    ALOGI("%s: %s %dx%d\n", __func__, taken.codec_name, width, height);
+    SDL_JNI_DeleteGlobalRefP(env, &taken.jsurface);
+    return taken.acodec;
+}
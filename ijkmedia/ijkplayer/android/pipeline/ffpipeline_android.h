@@ -29,6 +29,7 @@
 #include "../ijkplayer_android_def.h"
 #include "../../ff_ffpipeline.h"
 #include "ijksdl/ijksdl_vout.h"
+#include "ijksdl/android/ijksdl_codec_android_mediacodec.h"
 
 typedef struct FFPlayer       FFPlayer;
 typedef struct IJKFF_Pipeline IJKFF_Pipeline;
@@ -52,4 +53,17 @@ bool    ffpipeline_select_mediacodec_l(IJKFF_Pipeline* pipeline, ijkmp_mediacode
 
 void    ffpipeline_set_volume(IJKFF_Pipeline* pipeline, float left, float right);
 
+/*
+ * Stopped decoders left by the streams of any player, for "mediacodec-reuse".
+ * A parked decoder is taken back by a stream selecting the same codec for the
+ * same mime type, resolution class and surface. A park thread releases it after
+ * 10 seconds, and all of them are released with the last pipeline.
+ */
+/* takes over the reference of acodec, which must be stopped */
+void    ffpipeline_park_mediacodec(JNIEnv *env, IJKFF_Pipeline* pipeline, SDL_AMediaCodec *acodec,
+                                   const ijkmp_mediacodecinfo_context *mcc, int width, int height, jobject jsurface);
+/* @return a stopped decoder, or NULL */
+SDL_AMediaCodec *ffpipeline_take_parked_mediacodec(JNIEnv *env, IJKFF_Pipeline* pipeline,
+                                                   const ijkmp_mediacodecinfo_context *mcc, int width, int height, jobject jsurface);
+
 #endif
@@ -130,7 +130,16 @@ static SDL_AMediaCodec *create_codec_l(JNIEnv *env, IJKFF_Pipenode *node)
         // we don't need real codec if we don't have a surface
         acodec = SDL_AMediaCodecDummy_create();
     } else {
-        acodec = SDL_AMediaCodecJava_createByCodecName(env, mcc->codec_name);
+        if (opaque->ffp->mediacodec_reuse) {
+            acodec = ffpipeline_take_parked_mediacodec(env, opaque->pipeline, mcc,
+                                                       opaque->codecpar->width, opaque->codecpar->height, opaque->jsurface);
+            if (acodec)
+                opaque->ffp->stat.mediacodec_reuse_hits++;
+            else
+                opaque->ffp->stat.mediacodec_reuse_misses++;
+        }
+        if (!acodec)
+            acodec = SDL_AMediaCodecJava_createByCodecName(env, mcc->codec_name);
         if (acodec) {
             strncpy(opaque->acodec_name, mcc->codec_name, sizeof(opaque->acodec_name) / sizeof(*opaque->acodec_name));
             opaque->acodec_name[sizeof(opaque->acodec_name) / sizeof(*opaque->acodec_name) - 1] = 0;
@@ -169,6 +178,28 @@ static SDL_AMediaCodec *create_codec_l(JNIEnv *env, IJKFF_Pipenode *node)
     return acodec;
 }
 
+/* stops the codec and parks it for the next stream when "mediacodec-reuse" is set */
+static void release_codec(JNIEnv *env, IJKFF_Pipenode *node)
+{
+    IJKFF_Pipenode_Opaque *opaque = node->opaque;
+
+    if (!opaque->acodec)
+        return;
+
+    if (SDL_AMediaCodec_stop(opaque->acodec) == SDL_AMEDIA_OK &&
+        env && opaque->ffp->mediacodec_reuse &&
+        opaque->jsurface &&
+        SDL_AMediaCodecJava_isJavaCodec(opaque->acodec)) {
+        SDL_VoutAndroid_setAMediaCodec(opaque->weak_vout, NULL);
+        ffpipeline_park_mediacodec(env, opaque->pipeline, opaque->acodec, &opaque->mcc,
+                                   opaque->codecpar->width, opaque->codecpar->height, opaque->jsurface);
+        opaque->acodec = NULL;
+        return;
+    }
+
+    SDL_AMediaCodec_decreaseReferenceP(&opaque->acodec);
+}
+
 static int recreate_format_l(JNIEnv *env, IJKFF_Pipenode *node)
 {
     IJKFF_Pipenode_Opaque *opaque         = node->opaque;
@@ -277,6 +308,7 @@ static int reconfigure_codec_l(JNIEnv *env, IJKFF_Pipenode *node, jobject new_su
     int                    ret      = 0;
     sdl_amedia_status_t    amc_ret  = 0;
     jobject                prev_jsurface = NULL;
+    bool                   new_codec = false;
 
     prev_jsurface = opaque->jsurface;
     if (new_surface) {
@@ -296,9 +328,11 @@ static int reconfigure_codec_l(JNIEnv *env, IJKFF_Pipenode *node, jobject new_su
             ret = -1;
             goto fail;
         }
+        new_codec = true;
     }
 
-    if (SDL_AMediaCodec_isConfigured(opaque->acodec)) {
+    // a parked codec comes back stopped, it only needs a new format
+    if (!new_codec && SDL_AMediaCodec_isConfigured(opaque->acodec)) {
         if (opaque->acodec) {
             if (SDL_AMediaCodec_isStarted(opaque->acodec)) {
                 SDL_VoutAndroid_invalidateAllBuffers(opaque->weak_vout);
@@ -1553,8 +1587,7 @@ fail:
     if (opaque->acodec) {
         SDL_VoutAndroid_invalidateAllBuffers(opaque->weak_vout);
     }
-    SDL_AMediaCodec_stop(opaque->acodec);
-    SDL_AMediaCodec_decreaseReferenceP(&opaque->acodec);
+    release_codec(env, node);
     ALOGI("MediaCodec: %s: exit: %d", __func__, ret);
     return ret;
 }
@@ -1666,8 +1699,7 @@ fail:
         SDL_LockMutex(opaque->acodec_mutex);
         SDL_UnlockMutex(opaque->acodec_mutex);
     }
-    SDL_AMediaCodec_stop(opaque->acodec);
-    SDL_AMediaCodec_decreaseReferenceP(&opaque->acodec);
+    release_codec(env, node);
     ALOGI("MediaCodec: %s: exit: %d", __func__, ret);
     return ret;
 #if 0
@@ -0,0 +1,145 @@
+/*
+ * ff_event_batch.c
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_event_batch.h"
+
+#include <string.h>
+#include "libavutil/common.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "libavutil/time.h"
+
+typedef struct FFEventRecord {
+    int32_t size;
+    int32_t what;
+    int32_t int_args[4];
+    int32_t text_size;
+    int32_t reserved;
+    int64_t long_args[2];
+    int64_t time_us;
+} FFEventRecord;
+
+FFEventBatch *ff_event_batch_create(int capacity)
+{
+    FFEventBatch *batch = av_mallocz(sizeof(FFEventBatch));
+    if (!batch)
+        return NULL;
+
+    batch->capacity = FFALIGN(FFMAX(capacity, FF_EVENT_BATCH_HEADER_SIZE + FF_EVENT_BATCH_MAX_TEXT), 8);
+    batch->data     = av_mallocz(batch->capacity * 2);
+    batch->mutex    = SDL_CreateMutex();
+    batch->enabled  = 1;
+    if (!batch->data || !batch->mutex) {
+        ff_event_batch_destroyp(&batch);
+        return NULL;
+    }
+    return batch;
+}
+
+void ff_event_batch_destroyp(FFEventBatch **pbatch)
+{
+    FFEventBatch *batch;
+
+    if (!pbatch || !*pbatch)
+        return;
+
+    batch = *pbatch;
+    if (batch->total_dropped > 0)
+        av_log(NULL, AV_LOG_WARNING, "event batch: %"PRId64" events dropped\n", batch->total_dropped);
+    SDL_DestroyMutexP(&batch->mutex);
+    av_freep(&batch->data);
+    av_freep(pbatch);
+}
+
+int ff_event_batch_put(FFEventBatch *batch, int what, const int int_args[4], const int64_t long_args[2], const char *text)
+{
+    FFEventRecord record;
+    int           text_size = text ? (int)strnlen(text, FF_EVENT_BATCH_MAX_TEXT) : 0;
+    int           size      = FFALIGN(FF_EVENT_BATCH_HEADER_SIZE + text_size, 8);
+    uint8_t      *dst;
+    int           ret;
+
+    memset(&record, 0, sizeof(record));
+    record.size      = size;
+    record.what      = what;
+    record.text_size = text_size;
+    record.time_us   = av_gettime();
+    if (int_args)
+        memcpy(record.int_args, int_args, sizeof(record.int_args));
+    if (long_args)
+        memcpy(record.long_args, long_args, sizeof(record.long_args));
+
+    SDL_LockMutex(batch->mutex);
+    if (!batch->enabled) {
+        SDL_UnlockMutex(batch->mutex);
+        return FF_EVENT_BATCH_DISABLED;
+    }
+    if (batch->back_size + size > batch->capacity) {
+        batch->dropped++;
+        batch->total_dropped++;
+        SDL_UnlockMutex(batch->mutex);
+        return -1;
+    }
+
+    dst = batch->data + batch->back * batch->capacity + batch->back_size;
+    memset(dst, 0, size);
+    memcpy(dst, &record, sizeof(record));
+    if (text_size > 0)
+        memcpy(dst + FF_EVENT_BATCH_HEADER_SIZE, text, text_size);
+
+    ret = batch->back_count == 0 && batch->dropped == 0;
+    batch->back_size += size;
+    batch->back_count++;
+    SDL_UnlockMutex(batch->mutex);
+    return ret;
+}
+
+int ff_event_batch_swap(FFEventBatch *batch, int *offset, int *count, int64_t *dropped)
+{
+    int size;
+
+    SDL_LockMutex(batch->mutex);
+    size     = batch->back_size;
+    *offset  = batch->back * batch->capacity;
+    *count   = batch->back_count;
+    *dropped = batch->dropped;
+
+    batch->back       = !batch->back;
+    batch->back_size  = 0;
+    batch->back_count = 0;
+    batch->dropped    = 0;
+    SDL_UnlockMutex(batch->mutex);
+    return size;
+}
+
+void ff_event_batch_set_enabled(FFEventBatch *batch, int enabled)
+{
+    SDL_LockMutex(batch->mutex);
+    batch->enabled = enabled;
+    if (!enabled) {
+        batch->back_size  = 0;
+        batch->back_count = 0;
+        batch->dropped    = 0;
+    }
+    SDL_UnlockMutex(batch->mutex);
+}
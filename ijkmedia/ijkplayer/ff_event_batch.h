@@ -0,0 +1,90 @@
+/*
+ * ff_event_batch.h
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_EVENT_BATCH_H
+#define FFPLAY__FF_EVENT_BATCH_H
+
+#include <stdint.h>
+#include "ijksdl/ijksdl_mutex.h"
+
+/*
+ * Packed event records for the application, in two halves of one buffer:
+ * the io threads append to one half while the message thread hands the
+ * other one over, so a whole batch crosses to the application at once.
+ *
+ * A record, in native byte order, 8 bytes aligned:
+ *
+ *   int32  size        bytes of the record, text and padding included
+ *   int32  what
+ *   int32  int_args[4]
+ *   int32  text_size   bytes of text, without a terminating zero
+ *   int32  reserved
+ *   int64  long_args[2]
+ *   int64  time_us     wall clock when the event was recorded
+ *   uint8  text[text_size]
+ */
+
+#define FF_EVENT_BATCH_HEADER_SIZE  (64)
+#define FF_EVENT_BATCH_MAX_TEXT     (4096)
+#define FF_EVENT_BATCH_DISABLED     (-2)
+
+typedef struct FFEventBatch {
+    SDL_mutex  *mutex;
+    uint8_t    *data;
+    int         capacity;       // bytes of a half
+    int         back;           // half being appended to
+    int         back_size;
+    int         back_count;
+    int64_t     dropped;        // since the last swap
+    int64_t     total_dropped;
+    int         enabled;
+} FFEventBatch;
+
+FFEventBatch *ff_event_batch_create(int capacity);
+void          ff_event_batch_destroyp(FFEventBatch **pbatch);
+
+/**
+ * Appends a record, text may be NULL. A record that does not fit is dropped
+ * and counted.
+ *
+ * @return 1 if the record was the first one of the batch, 0 if it was added
+ *         to a pending batch, FF_EVENT_BATCH_DISABLED if the batch is
+ *         disabled, -1 if dropped
+ */
+int  ff_event_batch_put(FFEventBatch *batch, int what, const int int_args[4], const int64_t long_args[2], const char *text);
+
+/**
+ * A disabled batch refuses records and forgets the pending ones. Its buffer
+ * stays allocated, a batch being read is not affected.
+ */
+void ff_event_batch_set_enabled(FFEventBatch *batch, int enabled);
+
+/**
+ * Hands the pending batch over: its bytes stay untouched until the next
+ * call, which must come from the same thread.
+ *
+ * @return bytes of the batch, 0 if nothing is pending
+ */
+int  ff_event_batch_swap(FFEventBatch *batch, int *offset, int *count, int64_t *dropped);
+
+#endif
@@ -52,6 +52,9 @@
 #define FFP_MSG_TIMED_TEXT                  800
 #define FFP_MSG_ACCURATE_SEEK_COMPLETE      900     /* arg1 = current position*/
 #define FFP_MSG_GET_IMG_STATE               1000    /* arg1 = timestamp, arg2 = result code, obj = file name*/
+                                                    /* sprite sheets: arg1 = sheet, arg2 = 1 for the last one */
+#define FFP_MSG_GET_SPRITE_SHEET            1001    /* arg1 = sheet, arg2 = 1 for the last one, obj = FFSpriteSheetOutput */
+#define FFP_MSG_EVENT_BATCH                 1100    /* records pending in ffp_swap_event_batch() */
 
 #define FFP_MSG_VIDEO_DECODER_OPEN          10001
 
@@ -105,5 +108,20 @@
 #define FFP_PROP_INT64_LOGICAL_FILE_SIZE                20209
 #define FFP_PROP_INT64_SHARE_CACHE_DATA                 20210
 #define FFP_PROP_INT64_IMMEDIATE_RECONNECT              20211
+#define FFP_PROP_INT64_CACHE_DIR_MAX_SIZE               20212
+#define FFP_PROP_INT64_CACHE_DIR_USAGE                  20213
+#define FFP_PROP_INT64_PARKED_READER_HITS               20214
+#define FFP_PROP_INT64_PARKED_READER_MISSES             20215
+#define FFP_PROP_INT64_PACKET_ARENA_ALLOCS              20216
+#define FFP_PROP_INT64_PACKET_ARENA_RECYCLES            20217
+#define FFP_PROP_INT64_PACKET_ARENA_BYTES               20218
+#define FFP_PROP_INT64_MEDIACODEC_REUSE_HITS            20219
+#define FFP_PROP_INT64_MEDIACODEC_REUSE_MISSES          20220
+#define FFP_PROP_INT64_THUMBNAIL_CACHE_HITS             20221
+#define FFP_PROP_INT64_THUMBNAIL_CACHE_MISSES           20222
+#define FFP_PROP_INT64_AUDIO_UNDERRUNS                  20223
+#define FFP_PROP_INT64_AUDIO_OUTPUT_CPU_US              20224
+#define FFP_PROP_INT64_AUDIO_OUTPUT_LATENCY_US          20225
+#define FFP_PROP_INT64_AUDIO_OUTPUT_BUFFER_US           20226
 
 #endif
@@ -28,7 +28,23 @@
 #include "ff_ffinc.h"
 #include "ff_ffmsg.h"
 
-// #define FFP_SHOW_MSG_RECYCLE
+/*
+ * Bounded multi-producer, single-consumer ring after Dmitry Vyukov's
+ * bounded queue: producers claim a slot with a CAS on enqueue_pos and
+ * publish it through the slot sequence, so posting a message from a decoder
+ * thread takes no lock. mutex and cond are only used when the consumer
+ * sleeps on an empty queue, and to spill into a linked list when the ring
+ * is full; the spilled messages are delivered after those in the ring.
+ *
+ * Buffering updates are coalesced: while one of them is queued and not yet
+ * taken, a newer one only replaces its arguments.
+ *
+ * msg_queue_get(), msg_queue_flush() and msg_queue_destroy() must be called
+ * from a single consumer at a time.
+ */
+#define MSG_QUEUE_CAPACITY          (256)
+#define MSG_QUEUE_COALESCED         (3)
+#define MSG_QUEUE_REMOVABLE         (3)
 
 typedef struct AVMessage {
     int what;
@@ -37,18 +53,34 @@ typedef struct AVMessage {
     void *obj;
     void (*free_l)(void *obj);
     struct AVMessage *next;
+    int gen;
 } AVMessage;
 
+typedef struct AVMessageSlot {
+    unsigned int seq;
+    AVMessage msg;
+} AVMessageSlot;
+
 typedef struct MessageQueue {
+    AVMessageSlot slots[MSG_QUEUE_CAPACITY];
+    unsigned int enqueue_pos;
+    unsigned int dequeue_pos;
+
+    /* spilled messages, protected by mutex */
     AVMessage *first_msg, *last_msg;
-    int nb_messages;
+    int nb_spilled;
+
     int abort_request;
+    int consumer_waiting;
     SDL_mutex *mutex;
     SDL_cond *cond;
 
-    AVMessage *recycle_msg;
-    int recycle_count;
-    int alloc_count;
+    int64_t coalesced_args[MSG_QUEUE_COALESCED];
+    int coalesced_pending[MSG_QUEUE_COALESCED];
+    int removed_gen[MSG_QUEUE_REMOVABLE];
+
+    int64_t coalesce_count;
+    int64_t spill_count;
 } MessageQueue;
 
 inline static void msg_free_res(AVMessage *msg)
@@ -60,56 +92,142 @@ inline static void msg_free_res(AVMessage *msg)
     msg->obj = NULL;
 }
 
-inline static int msg_queue_put_private(MessageQueue *q, AVMessage *msg)
+/* only the latest of these is of interest */
+inline static int msg_coalesced_index(int what)
 {
-    AVMessage *msg1;
-
-    if (q->abort_request)
-        return -1;
+    switch (what) {
+        case FFP_MSG_BUFFERING_UPDATE:          return 0;
+        case FFP_MSG_BUFFERING_BYTES_UPDATE:    return 1;
+        case FFP_MSG_BUFFERING_TIME_UPDATE:     return 2;
+        default:                                return -1;
+    }
+}
 
-#ifdef FFP_MERGE
-    msg1 = av_malloc(sizeof(AVMessage));
-#else
-    msg1 = q->recycle_msg;
-    if (msg1) {
-        q->recycle_msg = msg1->next;
-        q->recycle_count++;
-    } else {
-        q->alloc_count++;
-        msg1 = av_malloc(sizeof(AVMessage));
+/* the messages msg_queue_remove() may take back */
+inline static int msg_removable_index(int what)
+{
+    switch (what) {
+        case FFP_REQ_START:                     return 0;
+        case FFP_REQ_PAUSE:                     return 1;
+        case FFP_REQ_SEEK:                      return 2;
+        default:                                return -1;
     }
-#ifdef FFP_SHOW_MSG_RECYCLE
-    int total_count = q->recycle_count + q->alloc_count;
-    if (!(total_count % 10)) {
-        av_log(NULL, AV_LOG_DEBUG, "msg-recycle \t%d + \t%d = \t%d\n", q->recycle_count, q->alloc_count, total_count);
+}
+
+inline static int msg_ring_push(MessageQueue *q, AVMessage *msg)
+{
+    unsigned int   pos = __atomic_load_n(&q->enqueue_pos, __ATOMIC_RELAXED);
+    AVMessageSlot *slot;
+
+    for (;;) {
+        int dif;
+
+        slot = &q->slots[pos % MSG_QUEUE_CAPACITY];
+        dif  = (int)(__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) - pos);
+        if (dif == 0) {
+            if (__atomic_compare_exchange_n(&q->enqueue_pos, &pos, pos + 1, 1, __ATOMIC_RELAXED, __ATOMIC_RELAXED))
+                break;
+        } else if (dif < 0) {
+            return 0;
+        } else {
+            pos = __atomic_load_n(&q->enqueue_pos, __ATOMIC_RELAXED);
+        }
     }
-#endif
-#endif
+
+    slot->msg = *msg;
+    __atomic_store_n(&slot->seq, pos + 1, __ATOMIC_RELEASE);
+    return 1;
+}
+
+inline static int msg_ring_pop(MessageQueue *q, AVMessage *msg)
+{
+    unsigned int   pos  = q->dequeue_pos;
+    AVMessageSlot *slot = &q->slots[pos % MSG_QUEUE_CAPACITY];
+
+    if ((int)(__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) - (pos + 1)) < 0)
+        return 0;
+
+    *msg = slot->msg;
+    __atomic_store_n(&slot->seq, pos + MSG_QUEUE_CAPACITY, __ATOMIC_RELEASE);
+    q->dequeue_pos = pos + 1;
+    return 1;
+}
+
+inline static int msg_spill_pop_l(MessageQueue *q, AVMessage *msg)
+{
+    AVMessage *msg1 = q->first_msg;
+
     if (!msg1)
+        return 0;
+
+    q->first_msg = msg1->next;
+    if (!q->first_msg)
+        q->last_msg = NULL;
+    *msg = *msg1;
+    av_free(msg1);
+    __atomic_sub_fetch(&q->nb_spilled, 1, __ATOMIC_RELEASE);
+    return 1;
+}
+
+inline static int msg_queue_put_private(MessageQueue *q, AVMessage *msg)
+{
+    int index;
+
+    if (__atomic_load_n(&q->abort_request, __ATOMIC_ACQUIRE))
         return -1;
 
-    *msg1 = *msg;
-    msg1->next = NULL;
+    index = msg_coalesced_index(msg->what);
+    if (index >= 0 && !msg->obj) {
+        int64_t args = ((int64_t)msg->arg1 << 32) | (uint32_t)msg->arg2;
 
-    if (!q->last_msg)
-        q->first_msg = msg1;
-    else
-        q->last_msg->next = msg1;
-    q->last_msg = msg1;
-    q->nb_messages++;
-    SDL_CondSignal(q->cond);
+        __atomic_store_n(&q->coalesced_args[index], args, __ATOMIC_SEQ_CST);
+        if (__atomic_exchange_n(&q->coalesced_pending[index], 1, __ATOMIC_SEQ_CST)) {
+            __atomic_add_fetch(&q->coalesce_count, 1, __ATOMIC_RELAXED);
+            return 0;
+        }
+    }
+
+    index = msg_removable_index(msg->what);
+    msg->next = NULL;
+    msg->gen  = index >= 0 ? __atomic_load_n(&q->removed_gen[index], __ATOMIC_ACQUIRE) : 0;
+
+    /* keep the order of a producer: once spilling, spill until the consumer caught up */
+    if (__atomic_load_n(&q->nb_spilled, __ATOMIC_ACQUIRE) > 0 || !msg_ring_push(q, msg)) {
+        AVMessage *msg1 = av_malloc(sizeof(AVMessage));
+        if (!msg1) {
+            index = msg_coalesced_index(msg->what);
+            if (index >= 0 && !msg->obj)
+                __atomic_store_n(&q->coalesced_pending[index], 0, __ATOMIC_SEQ_CST);
+            return -1;
+        }
+        *msg1 = *msg;
+
+        SDL_LockMutex(q->mutex);
+        if (!q->last_msg)
+            q->first_msg = msg1;
+        else
+            q->last_msg->next = msg1;
+        q->last_msg = msg1;
+        __atomic_add_fetch(&q->nb_spilled, 1, __ATOMIC_RELEASE);
+        q->spill_count++;
+        SDL_CondSignal(q->cond);
+        SDL_UnlockMutex(q->mutex);
+        return 0;
+    }
+
+    /* msg_queue_get() checks the ring after publishing consumer_waiting */
+    __atomic_thread_fence(__ATOMIC_SEQ_CST);
+    if (__atomic_load_n(&q->consumer_waiting, __ATOMIC_SEQ_CST)) {
+        SDL_LockMutex(q->mutex);
+        SDL_CondSignal(q->cond);
+        SDL_UnlockMutex(q->mutex);
+    }
     return 0;
 }
 
 inline static int msg_queue_put(MessageQueue *q, AVMessage *msg)
 {
-    int ret;
-
-    SDL_LockMutex(q->mutex);
-    ret = msg_queue_put_private(q, msg);
-    SDL_UnlockMutex(q->mutex);
-
-    return ret;
+    return msg_queue_put_private(q, msg);
 }
 
 inline static void msg_init_msg(AVMessage *msg)
@@ -159,51 +277,60 @@ inline static void msg_queue_put_simple4(MessageQueue *q, int what, int arg1, in
     msg.obj = av_malloc(obj_len);
     memcpy(msg.obj, obj, obj_len);
     msg.free_l = msg_obj_free_l;
-    msg_queue_put(q, &msg);
+    if (msg_queue_put(q, &msg) < 0)
+        msg_free_res(&msg);
+}
+
+/* takes obj over, free_l releases it once the message is consumed or dropped */
+inline static void msg_queue_put_simple5(MessageQueue *q, int what, int arg1, int arg2, void *obj, void (*free_l)(void *obj))
+{
+    AVMessage msg;
+    msg_init_msg(&msg);
+    msg.what = what;
+    msg.arg1 = arg1;
+    msg.arg2 = arg2;
+    msg.obj = obj;
+    msg.free_l = free_l;
+    if (msg_queue_put(q, &msg) < 0)
+        msg_free_res(&msg);
 }
 
 inline static void msg_queue_init(MessageQueue *q)
 {
+    unsigned int i;
+
     memset(q, 0, sizeof(MessageQueue));
+    for (i = 0; i < MSG_QUEUE_CAPACITY; i++)
+        q->slots[i].seq = i;
     q->mutex = SDL_CreateMutex();
     q->cond = SDL_CreateCond();
     q->abort_request = 1;
 }
 
+/* with the consumer stopped */
 inline static void msg_queue_flush(MessageQueue *q)
 {
-    AVMessage *msg, *msg1;
+    AVMessage msg;
+    int i;
+
+    while (msg_ring_pop(q, &msg))
+        msg_free_res(&msg);
 
     SDL_LockMutex(q->mutex);
-    for (msg = q->first_msg; msg != NULL; msg = msg1) {
-        msg1 = msg->next;
-#ifdef FFP_MERGE
-        av_freep(&msg);
-#else
-        msg->next = q->recycle_msg;
-        q->recycle_msg = msg;
-#endif
-    }
-    q->last_msg = NULL;
-    q->first_msg = NULL;
-    q->nb_messages = 0;
+    while (msg_spill_pop_l(q, &msg))
+        msg_free_res(&msg);
     SDL_UnlockMutex(q->mutex);
+
+    for (i = 0; i < MSG_QUEUE_COALESCED; i++)
+        __atomic_store_n(&q->coalesced_pending[i], 0, __ATOMIC_SEQ_CST);
 }
 
 inline static void msg_queue_destroy(MessageQueue *q)
 {
     msg_queue_flush(q);
 
-    SDL_LockMutex(q->mutex);
-    while(q->recycle_msg) {
-        AVMessage *msg = q->recycle_msg;
-        if (msg)
-            q->recycle_msg = msg->next;
-        msg_free_res(msg);
-        av_freep(&msg);
-    }
-    SDL_UnlockMutex(q->mutex);
-
+    av_log(NULL, AV_LOG_DEBUG, "msg-queue: coalesced %"PRId64", spilled %"PRId64"\n",
+           q->coalesce_count, q->spill_count);
     SDL_DestroyMutex(q->mutex);
     SDL_DestroyCond(q->cond);
 }
@@ -212,7 +339,7 @@ inline static void msg_queue_abort(MessageQueue *q)
 {
     SDL_LockMutex(q->mutex);
 
-    q->abort_request = 1;
+    __atomic_store_n(&q->abort_request, 1, __ATOMIC_RELEASE);
 
     SDL_CondSignal(q->cond);
 
@@ -222,92 +349,103 @@ inline static void msg_queue_abort(MessageQueue *q)
 inline static void msg_queue_start(MessageQueue *q)
 {
     SDL_LockMutex(q->mutex);
-    q->abort_request = 0;
+    __atomic_store_n(&q->abort_request, 0, __ATOMIC_RELEASE);
+    SDL_UnlockMutex(q->mutex);
 
     AVMessage msg;
     msg_init_msg(&msg);
     msg.what = FFP_MSG_FLUSH;
     msg_queue_put_private(q, &msg);
-    SDL_UnlockMutex(q->mutex);
 }
 
-/* return < 0 if aborted, 0 if no msg and > 0 if msg.  */
-inline static int msg_queue_get(MessageQueue *q, AVMessage *msg, int block)
+/* takes the next message off the ring or the spill list, dropping the removed ones */
+inline static int msg_queue_take_private(MessageQueue *q, AVMessage *msg, int locked)
 {
-    AVMessage *msg1;
-    int ret;
+    for (;;) {
+        int index;
 
-    SDL_LockMutex(q->mutex);
+        if (!msg_ring_pop(q, msg)) {
+            if (__atomic_load_n(&q->nb_spilled, __ATOMIC_ACQUIRE) <= 0)
+                return 0;
 
-    for (;;) {
-        if (q->abort_request) {
-            ret = -1;
-            break;
+            if (locked) {
+                index = msg_spill_pop_l(q, msg);
+            } else {
+                SDL_LockMutex(q->mutex);
+                index = msg_spill_pop_l(q, msg);
+                SDL_UnlockMutex(q->mutex);
+            }
+            if (!index)
+                return 0;
         }
 
-        msg1 = q->first_msg;
-        if (msg1) {
-            q->first_msg = msg1->next;
-            if (!q->first_msg)
-                q->last_msg = NULL;
-            q->nb_messages--;
-            *msg = *msg1;
-            msg1->obj = NULL;
-#ifdef FFP_MERGE
-            av_free(msg1);
-#else
-            msg1->next = q->recycle_msg;
-            q->recycle_msg = msg1;
-#endif
-            ret = 1;
-            break;
-        } else if (!block) {
-            ret = 0;
-            break;
-        } else {
-            SDL_CondWait(q->cond, q->mutex);
+        index = msg_removable_index(msg->what);
+        if (index >= 0 && msg->gen != __atomic_load_n(&q->removed_gen[index], __ATOMIC_ACQUIRE)) {
+            msg_free_res(msg);
+            continue;
+        }
+
+        index = msg_coalesced_index(msg->what);
+        if (index >= 0 && !msg->obj) {
+            int64_t args;
+
+            __atomic_store_n(&q->coalesced_pending[index], 0, __ATOMIC_SEQ_CST);
+            args = __atomic_load_n(&q->coalesced_args[index], __ATOMIC_SEQ_CST);
+            msg->arg1 = (int)(args >> 32);
+            msg->arg2 = (int)(uint32_t)args;
         }
+        msg->next = NULL;
+        return 1;
     }
-    SDL_UnlockMutex(q->mutex);
-    return ret;
 }
 
-inline static void msg_queue_remove(MessageQueue *q, int what)
+inline static int msg_queue_take(MessageQueue *q, AVMessage *msg)
 {
-    AVMessage **p_msg, *msg, *last_msg;
-    SDL_LockMutex(q->mutex);
+    return msg_queue_take_private(q, msg, 0);
+}
 
-    last_msg = q->first_msg;
-
-    if (!q->abort_request && q->first_msg) {
-        p_msg = &q->first_msg;
-        while (*p_msg) {
-            msg = *p_msg;
-
-            if (msg->what == what) {
-                *p_msg = msg->next;
-#ifdef FFP_MERGE
-                av_free(msg);
-#else
-                msg_free_res(msg);
-                msg->next = q->recycle_msg;
-                q->recycle_msg = msg;
-#endif
-                q->nb_messages--;
-            } else {
-                last_msg = msg;
-                p_msg = &msg->next;
-            }
-        }
+/* with q->mutex held, which is not recursive */
+inline static int msg_queue_take_l(MessageQueue *q, AVMessage *msg)
+{
+    return msg_queue_take_private(q, msg, 1);
+}
 
-        if (q->first_msg) {
-            q->last_msg = last_msg;
-        } else {
-            q->last_msg = NULL;
-        }
+/* return < 0 if aborted, 0 if no msg and > 0 if msg.  */
+inline static int msg_queue_get(MessageQueue *q, AVMessage *msg, int block)
+{
+    int ret;
+
+    for (;;) {
+        if (__atomic_load_n(&q->abort_request, __ATOMIC_ACQUIRE))
+            return -1;
+
+        if (msg_queue_take(q, msg))
+            return 1;
+        if (!block)
+            return 0;
+
+        SDL_LockMutex(q->mutex);
+        /* msg_queue_put_private() checks consumer_waiting after publishing */
+        __atomic_store_n(&q->consumer_waiting, 1, __ATOMIC_SEQ_CST);
+        __atomic_thread_fence(__ATOMIC_SEQ_CST);
+        ret = msg_queue_take_l(q, msg);
+        if (!ret && !__atomic_load_n(&q->abort_request, __ATOMIC_ACQUIRE))
+            SDL_CondWait(q->cond, q->mutex);
+        __atomic_store_n(&q->consumer_waiting, 0, __ATOMIC_SEQ_CST);
+        SDL_UnlockMutex(q->mutex);
+        if (ret)
+            return 1;
     }
+}
 
-    SDL_UnlockMutex(q->mutex);
+/* drops the queued messages of what, which must be one of msg_removable_index() */
+inline static void msg_queue_remove(MessageQueue *q, int what)
+{
+    int index = msg_removable_index(what);
+
+    assert(index >= 0);
+    if (index >= 0)
+        __atomic_add_fetch(&q->removed_gen[index], 1, __ATOMIC_ACQ_REL);
 }
 
 #endif
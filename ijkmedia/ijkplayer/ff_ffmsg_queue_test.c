@@ -0,0 +1,266 @@
+/*
+ * ff_ffmsg_queue_test.c
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * Host-side test of the message queue, not part of the library:
+ *
+ *   cd ijkmedia
+ *   cc -O2 -std=gnu99 -I. -I$FFMPEG_INCLUDE -o msg_queue_test \
+ *       ijkplayer/ff_ffmsg_queue_test.c ijksdl/ijksdl_mutex.c -L$FFMPEG_LIB -lavutil -lpthread
+ *   ./msg_queue_test
+ *
+ * A deadlock shows up as a timeout instead of a hang.
+ */
+
+#include "ff_ffmsg_queue.h"
+
+#include <errno.h>
+#include <pthread.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+#include <unistd.h>
+
+#define TEST_TIMEOUT_SEC        (5)
+#define TEST_PRODUCERS          (4)
+#define TEST_PRODUCER_MSGS      (20000)
+
+#define TEST_CHECK(cond__) \
+    do { \
+        if (!(cond__)) { \
+            fprintf(stderr, "%s:%d: %s failed\n", __FILE__, __LINE__, #cond__); \
+            exit(1); \
+        } \
+    } while (0)
+
+typedef struct TestConsumer {
+    MessageQueue   *q;
+    int             count;          // messages to take
+    AVMessage      *msgs;
+
+    pthread_mutex_t mutex;
+    pthread_cond_t  cond;
+    int             done;
+} TestConsumer;
+
+static void *consumer_run(void *arg)
+{
+    TestConsumer *c = arg;
+
+    for (int i = 0; i < c->count; i++)
+        TEST_CHECK(msg_queue_get(c->q, &c->msgs[i], 1) > 0);
+
+    pthread_mutex_lock(&c->mutex);
+    c->done = 1;
+    pthread_cond_signal(&c->cond);
+    pthread_mutex_unlock(&c->mutex);
+    return NULL;
+}
+
+/* a stuck consumer can not be joined, fail the whole test instead */
+static void consumer_wait(TestConsumer *c, pthread_t tid, const char *name)
+{
+    struct timespec deadline;
+    int ret = 0;
+
+    clock_gettime(CLOCK_REALTIME, &deadline);
+    deadline.tv_sec += TEST_TIMEOUT_SEC;
+
+    pthread_mutex_lock(&c->mutex);
+    while (!c->done && ret != ETIMEDOUT)
+        ret = pthread_cond_timedwait(&c->cond, &c->mutex, &deadline);
+    pthread_mutex_unlock(&c->mutex);
+
+    if (!c->done) {
+        fprintf(stderr, "%s: consumer stuck in msg_queue_get()\n", name);
+        exit(1);
+    }
+    pthread_join(tid, NULL);
+}
+
+static void consumer_start(TestConsumer *c, pthread_t *tid, MessageQueue *q, int count)
+{
+    memset(c, 0, sizeof(*c));
+    c->q     = q;
+    c->count = count;
+    c->msgs  = calloc(count, sizeof(AVMessage));
+    TEST_CHECK(c->msgs);
+    pthread_mutex_init(&c->mutex, NULL);
+    pthread_cond_init(&c->cond, NULL);
+    TEST_CHECK(!pthread_create(tid, NULL, consumer_run, c));
+}
+
+static void consumer_free(TestConsumer *c)
+{
+    pthread_cond_destroy(&c->cond);
+    pthread_mutex_destroy(&c->mutex);
+    free(c->msgs);
+}
+
+/* the ring overflows into the spill list, a blocking get drains both in order */
+static void test_spill_then_blocking_get(void)
+{
+    MessageQueue q;
+    TestConsumer c;
+    pthread_t    tid;
+    int          total = MSG_QUEUE_CAPACITY * 2 + 7;
+
+    msg_queue_init(&q);
+    msg_queue_start(&q);
+    for (int i = 0; i < total; i++)
+        msg_queue_put_simple2(&q, FFP_MSG_VIDEO_SIZE_CHANGED, i);
+    TEST_CHECK(q.nb_spilled == total + 1 - MSG_QUEUE_CAPACITY);
+
+    // one more than queued: the last get sleeps until the put below
+    consumer_start(&c, &tid, &q, total + 2);
+    usleep(100 * 1000);
+    msg_queue_put_simple2(&q, FFP_MSG_VIDEO_SIZE_CHANGED, total);
+    consumer_wait(&c, tid, __func__);
+
+    TEST_CHECK(c.msgs[0].what == FFP_MSG_FLUSH);
+    for (int i = 0; i <= total; i++) {
+        TEST_CHECK(c.msgs[i + 1].what == FFP_MSG_VIDEO_SIZE_CHANGED);
+        TEST_CHECK(c.msgs[i + 1].arg1 == i);
+    }
+    TEST_CHECK(q.nb_spilled == 0);
+
+    consumer_free(&c);
+    msg_queue_abort(&q);
+    msg_queue_destroy(&q);
+    printf("%s: ok\n", __func__);
+}
+
+/*
+ * The consumer finds the ring empty, then a message spills before it gets
+ * the mutex: its second look at the queue runs with the mutex held.
+ *
+ * A producer preempted between claiming a slot and publishing it keeps the
+ * ring looking empty, the spill is appended while the test holds the mutex.
+ */
+static void test_spill_while_consumer_locks(void)
+{
+    MessageQueue q;
+    TestConsumer c;
+    AVMessage    msg;
+    AVMessage   *spilled = NULL;
+    pthread_t    tid;
+    unsigned int claimed;
+
+    msg_queue_init(&q);
+    msg_queue_start(&q);
+    TEST_CHECK(msg_queue_get(&q, &msg, 0) > 0 && msg.what == FFP_MSG_FLUSH);
+
+    claimed = __atomic_fetch_add(&q.enqueue_pos, 1, __ATOMIC_RELAXED);
+
+    SDL_LockMutex(q.mutex);
+    consumer_start(&c, &tid, &q, 1);
+    usleep(100 * 1000);
+
+    spilled = av_mallocz(sizeof(AVMessage));
+    TEST_CHECK(spilled);
+    spilled->what = FFP_MSG_VIDEO_SIZE_CHANGED;
+    spilled->arg1 = 1;
+    q.first_msg = spilled;
+    q.last_msg  = spilled;
+    __atomic_add_fetch(&q.nb_spilled, 1, __ATOMIC_RELEASE);
+    SDL_UnlockMutex(q.mutex);
+
+    consumer_wait(&c, tid, __func__);
+    TEST_CHECK(c.msgs[0].what == FFP_MSG_VIDEO_SIZE_CHANGED && c.msgs[0].arg1 == 1);
+
+    // publish the claimed slot, as the preempted producer eventually does
+    msg_init_msg(&q.slots[claimed % MSG_QUEUE_CAPACITY].msg);
+    q.slots[claimed % MSG_QUEUE_CAPACITY].msg.what = FFP_MSG_VIDEO_SIZE_CHANGED;
+    __atomic_store_n(&q.slots[claimed % MSG_QUEUE_CAPACITY].seq, claimed + 1, __ATOMIC_RELEASE);
+    TEST_CHECK(msg_queue_get(&q, &msg, 0) > 0 && msg.what == FFP_MSG_VIDEO_SIZE_CHANGED);
+    TEST_CHECK(msg_queue_get(&q, &msg, 0) == 0);
+
+    consumer_free(&c);
+    msg_queue_abort(&q);
+    msg_queue_destroy(&q);
+    printf("%s: ok\n", __func__);
+}
+
+typedef struct TestProducer {
+    MessageQueue *q;
+    int           id;
+} TestProducer;
+
+static void *producer_run(void *arg)
+{
+    TestProducer *p = arg;
+
+    for (int i = 0; i < TEST_PRODUCER_MSGS; i++) {
+        msg_queue_put_simple3(p->q, FFP_MSG_VIDEO_SIZE_CHANGED, p->id, i);
+        if (i % 1000 == 0)
+            usleep(1000);
+    }
+    return NULL;
+}
+
+/* producers racing a blocking consumer, each producer's messages stay in order */
+static void test_producers(void)
+{
+    MessageQueue q;
+    TestConsumer c;
+    TestProducer producers[TEST_PRODUCERS];
+    pthread_t    producer_tids[TEST_PRODUCERS];
+    pthread_t    tid;
+    int          next[TEST_PRODUCERS] = {0};
+
+    msg_queue_init(&q);
+    msg_queue_start(&q);
+    consumer_start(&c, &tid, &q, 1 + TEST_PRODUCERS * TEST_PRODUCER_MSGS);
+
+    for (int i = 0; i < TEST_PRODUCERS; i++) {
+        producers[i].q  = &q;
+        producers[i].id = i;
+        TEST_CHECK(!pthread_create(&producer_tids[i], NULL, producer_run, &producers[i]));
+    }
+    for (int i = 0; i < TEST_PRODUCERS; i++)
+        pthread_join(producer_tids[i], NULL);
+    consumer_wait(&c, tid, __func__);
+
+    TEST_CHECK(c.msgs[0].what == FFP_MSG_FLUSH);
+    for (int i = 1; i <= TEST_PRODUCERS * TEST_PRODUCER_MSGS; i++) {
+        int id = c.msgs[i].arg1;
+
+        TEST_CHECK(c.msgs[i].what == FFP_MSG_VIDEO_SIZE_CHANGED);
+        TEST_CHECK(id >= 0 && id < TEST_PRODUCERS);
+        TEST_CHECK(c.msgs[i].arg2 == next[id]);
+        next[id]++;
+    }
+
+    printf("%s: ok, spilled %"PRId64"\n", __func__, q.spill_count);
+    consumer_free(&c);
+    msg_queue_abort(&q);
+    msg_queue_destroy(&q);
+}
+
+int main(void)
+{
+    test_spill_then_blocking_get();
+    test_spill_while_consumer_locks();
+    test_producers();
+    return 0;
+}
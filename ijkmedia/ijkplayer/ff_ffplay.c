@@ -65,12 +65,16 @@
 
 #include "ijksdl/ijksdl_log.h"
 #include "ijkavformat/ijkavformat.h"
+#include "ijkavformat/ijkiocachedir.h"
+#include "ijkavformat/ijkiocachekey.h"
+#include "ijkavformat/ijkurlpark.h"
 #include "ff_cmdutils.h"
 #include "ff_fferror.h"
 #include "ff_ffpipeline.h"
 #include "ff_ffpipenode.h"
 #include "ff_ffplay_debug.h"
 #include "ijkmeta.h"
+#include "ijkthumbnailcache.h"
 #include "ijkversion.h"
 #include "ijkplayer.h"
 #include <stdatomic.h>
@@ -140,6 +144,14 @@ int64_t get_valid_channel_layout(int64_t channel_layout, int channels)
 
 static void free_picture(Frame *vp);
 
+static void packet_queue_free_node(PacketQueue *q, MyAVPacketList *pkt1)
+{
+    if (q->arena)
+        ff_packet_arena_free_node(q->arena, pkt1);
+    else
+        av_free(pkt1);
+}
+
 static int packet_queue_put_private(PacketQueue *q, AVPacket *pkt)
 {
     MyAVPacketList *pkt1;
@@ -150,20 +162,10 @@ static int packet_queue_put_private(PacketQueue *q, AVPacket *pkt)
 #ifdef FFP_MERGE
     pkt1 = av_malloc(sizeof(MyAVPacketList));
 #else
-    pkt1 = q->recycle_pkt;
-    if (pkt1) {
-        q->recycle_pkt = pkt1->next;
-        q->recycle_count++;
-    } else {
-        q->alloc_count++;
+    if (q->arena)
+        pkt1 = ff_packet_arena_alloc_node(q->arena);
+    else
         pkt1 = av_malloc(sizeof(MyAVPacketList));
-    }
-#ifdef FFP_SHOW_PKT_RECYCLE
-    int total_count = q->recycle_count + q->alloc_count;
-    if (!(total_count % 50)) {
-        av_log(ffp, AV_LOG_DEBUG, "pkt-recycle \t%d + \t%d = \t%d\n", q->recycle_count, q->alloc_count, total_count);
-    }
-#endif
 #endif
     if (!pkt1)
         return -1;
@@ -241,8 +243,7 @@ static void packet_queue_flush(PacketQueue *q)
 #ifdef FFP_MERGE
         av_freep(&pkt);
 #else
-        pkt->next = q->recycle_pkt;
-        q->recycle_pkt = pkt;
+        packet_queue_free_node(q, pkt);
 #endif
     }
     q->last_pkt = NULL;
@@ -257,15 +258,6 @@ static void packet_queue_destroy(PacketQueue *q)
 {
     packet_queue_flush(q);
 
-    SDL_LockMutex(q->mutex);
-    while(q->recycle_pkt) {
-        MyAVPacketList *pkt = q->recycle_pkt;
-        if (pkt)
-            q->recycle_pkt = pkt->next;
-        av_freep(&pkt);
-    }
-    SDL_UnlockMutex(q->mutex);
-
     SDL_DestroyMutex(q->mutex);
     SDL_DestroyCond(q->cond);
 }
@@ -317,8 +309,7 @@ static int packet_queue_get(PacketQueue *q, AVPacket *pkt, int block, int *seria
 #ifdef FFP_MERGE
             av_free(pkt1);
 #else
-            pkt1->next = q->recycle_pkt;
-            q->recycle_pkt = pkt1;
+            packet_queue_free_node(q, pkt1);
 #endif
             ret = 1;
             break;
@@ -375,7 +366,36 @@ static void decoder_init(Decoder *d, AVCodecContext *avctx, PacketQueue *queue,
     SDL_ProfilerReset(&d->decode_profiler, -1);
 }
 
-static int convert_image(FFPlayer *ffp, AVFrame *src_frame, int64_t src_frame_pts, int width, int height) {
+static int write_image(FFPlayer *ffp, int64_t src_frame_pts, const uint8_t *data, int size) {
+    GetImgInfo *img_info = ffp->get_img_info;
+    char file_path[1024] = {0};
+    char file_name[32] = {0};
+    int file_name_length = 0;
+    int fd = -1;
+
+    snprintf(file_name, sizeof(file_name), "%"PRId64".png", src_frame_pts);
+    snprintf(file_path, sizeof(file_path), "%s/%s", img_info->img_path, file_name);
+
+    fd = open(file_path, O_RDWR | O_TRUNC | O_CREAT, 0600);
+    if (fd < 0) {
+        av_log(NULL, AV_LOG_ERROR, "%s open path = %s failed %s\n", __func__, file_path, strerror(errno));
+        return -1;
+    }
+    write(fd, data, size);
+    close(fd);
+
+    img_info->count--;
+
+    file_name_length = (int)strlen(file_name) + 1;
+
+    if (img_info->count <= 0)
+        ffp_notify_msg4(ffp, FFP_MSG_GET_IMG_STATE, (int) src_frame_pts, 1, file_name, file_name_length);
+    else
+        ffp_notify_msg4(ffp, FFP_MSG_GET_IMG_STATE, (int) src_frame_pts, 0, file_name, file_name_length);
+    return 0;
+}
+
+static int convert_image(FFPlayer *ffp, AVFrame *src_frame, int64_t src_frame_pts, int64_t target_time, int width, int height) {
     GetImgInfo *img_info = ffp->get_img_info;
     VideoState *is = ffp->is;
     AVFrame *dst_frame = NULL;
@@ -385,15 +405,11 @@ static int convert_image(FFPlayer *ffp, AVFrame *src_frame, int64_t src_frame_pt
     int dst_height = 0;
     int bytes = 0;
     void *buffer = NULL;
-    char file_path[1024] = {0};
-    char file_name[16] = {0};
-    int fd = -1;
     int ret = 0;
     int tmp = 0;
     float origin_dar = 0;
     float dar = 0;
     AVRational display_aspect_ratio;
-    int file_name_length = 0;
 
     if (!height || !width || !img_info->width || !img_info->height) {
         ret = -1;
@@ -526,31 +542,13 @@ static int convert_image(FFPlayer *ffp, AVFrame *src_frame, int64_t src_frame_pt
     ret = avcodec_encode_video2(img_info->frame_img_codec_ctx, &avpkt, dst_frame, &got_packet);
 
     if (ret >= 0 && got_packet > 0) {
-        strcpy(file_path, img_info->img_path);
-        strcat(file_path, "/");
-        sprintf(file_name, "%lld", src_frame_pts);
-        strcat(file_name, ".png");
-        strcat(file_path, file_name);
-
-        fd = open(file_path, O_RDWR | O_TRUNC | O_CREAT, 0600);
-        if (fd < 0) {
-            ret = -1;
-            av_log(NULL, AV_LOG_ERROR, "%s open path = %s failed %s\n", __func__, file_path, strerror(errno));
+        ret = write_image(ffp, src_frame_pts, avpkt.data, avpkt.size);
+        if (ret < 0)
             goto fail2;
-        }
-        write(fd, avpkt.data, avpkt.size);
-        close(fd);
-
-        img_info->count--;
 
-        file_name_length = (int)strlen(file_name) + 1;
-
-        if (img_info->count <= 0)
-            ffp_notify_msg4(ffp, FFP_MSG_GET_IMG_STATE, (int) src_frame_pts, 1, file_name, file_name_length);
-        else
-            ffp_notify_msg4(ffp, FFP_MSG_GET_IMG_STATE, (int) src_frame_pts, 0, file_name, file_name_length);
-
-        ret = 0;
+        if (img_info->content_key)
+            ijk_thumbnail_cache_put(ffp->thumbnail_cache_dir, img_info->content_key, target_time,
+                                    img_info->req_width, img_info->req_height, avpkt.data, avpkt.size, src_frame_pts);
     }
 
 fail2:
@@ -563,6 +561,107 @@ fail0:
     return ret;
 }
 
+/* the media key thumbnails are cached under, as the ijkio cache derives it */
+static char *thumbnail_content_key(FFPlayer *ffp, const char *url) {
+    AVDictionaryEntry *t = NULL;
+    const char *strip_params = NULL;
+    const char *strip_regex = NULL;
+    char *key = NULL;
+
+    t = av_dict_get(ffp->format_opts, "cache_key", NULL, 0);
+    if (t && strlen(t->value))
+        return av_strdup(t->value);
+
+    if (!strcmp(url, "ijklongurl:")) {
+        t = av_dict_get(ffp->format_opts, "ijklongurl-url", NULL, 0);
+        if (!t)
+            return NULL;
+        url = t->value;
+    }
+
+    t = av_dict_get(ffp->format_opts, "cache_key_strip_params", NULL, 0);
+    if (t)
+        strip_params = t->value;
+    t = av_dict_get(ffp->format_opts, "cache_key_strip_regex", NULL, 0);
+    if (t)
+        strip_regex = t->value;
+
+    key = av_malloc(IJKIO_CACHE_KEY_MAX_LEN);
+    if (key && ijkio_cache_key_from_url(url, strip_params, strip_regex, key, IJKIO_CACHE_KEY_MAX_LEN))
+        av_freep(&key);
+    return key;
+}
+
+/* writes the images the thumbnail cache has, before any frame is converted */
+static void serve_images_from_cache(FFPlayer *ffp, const char *url) {
+    GetImgInfo *img_info = ffp->get_img_info;
+    int64_t interval = 0;
+    int i;
+
+    if (img_info->cache_checked || img_info->sprite)
+        return;
+    img_info->cache_checked = 1;
+    if (!ffp->thumbnail_cache || !url)
+        return;
+
+    img_info->content_key = thumbnail_content_key(ffp, url);
+    img_info->served      = av_mallocz(img_info->num);
+    if (!img_info->content_key || !img_info->served) {
+        av_log(NULL, AV_LOG_WARNING, "%s: no content key, thumbnail cache skipped\n", __func__);
+        av_freep(&img_info->content_key);
+        av_freep(&img_info->served);
+        return;
+    }
+
+    if (img_info->num > 1)
+        interval = (img_info->end_time - img_info->start_time) / (img_info->num - 1);
+
+    for (i = 0; i < img_info->num && img_info->count > 0; i++) {
+        uint8_t *data   = NULL;
+        int      size   = 0;
+        int64_t  pts_ms = 0;
+
+        if (ijk_thumbnail_cache_get(ffp->thumbnail_cache_dir, img_info->content_key, img_info->start_time + i * interval,
+                                    img_info->req_width, img_info->req_height, &data, &size, &pts_ms)) {
+            ffp->stat.thumbnail_cache_misses++;
+            continue;
+        }
+
+        ffp->stat.thumbnail_cache_hits++;
+        if (!write_image(ffp, pts_ms, data, size))
+            img_info->served[i] = 1;
+        av_free(data);
+    }
+}
+
+static int convert_sprite_frame(FFPlayer *ffp, AVFrame *src_frame, int64_t src_frame_pts) {
+    GetImgInfo *img_info = ffp->get_img_info;
+    VideoState *is = ffp->is;
+    FFSpriteSheetOutput *out = NULL;
+    AVRational sar = av_guess_sample_aspect_ratio(is->ic, is->video_st, src_frame);
+    int ret = 0;
+
+    ret = ff_sprite_sheet_add_frame(img_info->sprite, src_frame, sar, src_frame_pts);
+    if (ret < 0)
+        return ret;
+
+    img_info->count--;
+    if (!ret && img_info->count > 0)
+        return 0;
+
+    ret = ff_sprite_sheet_flush(img_info->sprite, img_info->count <= 0, &out);
+    if (ret < 0 || !out)
+        return ret;
+
+    if (img_info->sprite_in_memory) {
+        ffp_notify_msg5(ffp, FFP_MSG_GET_SPRITE_SHEET, out->sheet, out->last, out, ff_sprite_sheet_output_free);
+    } else {
+        ffp_notify_msg4(ffp, FFP_MSG_GET_IMG_STATE, out->sheet, out->last, out->file_name, (int)strlen(out->file_name) + 1);
+        ff_sprite_sheet_output_free(out);
+    }
+    return 0;
+}
+
 static int decoder_decode_frame(FFPlayer *ffp, Decoder *d, AVFrame *frame, AVSubtitle *sub) {
     int ret = AVERROR(EAGAIN);
 
@@ -1019,6 +1118,7 @@ static void stream_close(FFPlayer *ffp)
     packet_queue_destroy(&is->videoq);
     packet_queue_destroy(&is->audioq);
     packet_queue_destroy(&is->subtitleq);
+    ff_packet_arena_destroy(&is->packet_arena);
 
     /* free all pictures */
     frame_queue_destory(&is->pictq);
@@ -1048,7 +1148,10 @@ static void stream_close(FFPlayer *ffp)
         if (ffp->get_img_info->frame_img_codec_ctx) {
             avcodec_free_context(&ffp->get_img_info->frame_img_codec_ctx);
         }
+        ff_sprite_sheet_destroyp(&ffp->get_img_info->sprite);
         av_freep(&ffp->get_img_info->img_path);
+        av_freep(&ffp->get_img_info->content_key);
+        av_freep(&ffp->get_img_info->served);
         av_freep(&ffp->get_img_info);
     }
     av_free(is->filename);
@@ -2183,7 +2286,6 @@ static int ffplay_video_thread(void *arg)
     AVRational tb = is->video_st->time_base;
     AVRational frame_rate = av_guess_frame_rate(is->ic, is->video_st, NULL);
     int64_t dst_pts = -1;
-    int64_t last_dst_pts = -1;
     int retry_convert_image = 0;
     int convert_frame_count = 0;
 
@@ -2219,24 +2321,37 @@ static int ffplay_video_thread(void *arg)
             continue;
 
         if (ffp->get_frame_mode) {
-            if (!ffp->get_img_info || ffp->get_img_info->count <= 0) {
+            GetImgInfo *img_info = ffp->get_img_info;
+            if (!img_info || img_info->count <= 0) {
                 av_frame_unref(frame);
                 continue;
             }
 
-            last_dst_pts = dst_pts;
-
-            if (dst_pts < 0) {
-                dst_pts = ffp->get_img_info->start_time;
-            } else {
-                dst_pts += (ffp->get_img_info->end_time - ffp->get_img_info->start_time) / (ffp->get_img_info->num - 1);
+            serve_images_from_cache(ffp, is->filename);
+            if (img_info->count <= 0) {
+                av_log(NULL, AV_LOG_INFO, "convert image complete from thumbnail cache\n");
+                goto the_end;
             }
 
+            // times already served from the thumbnail cache are not decoded again
+            while (img_info->served && img_info->index < img_info->num - 1 && img_info->served[img_info->index])
+                img_info->index++;
+
+            dst_pts = img_info->start_time;
+            if (img_info->num > 1)
+                dst_pts += img_info->index * ((img_info->end_time - img_info->start_time) / (img_info->num - 1));
+
             pts = (frame->pts == AV_NOPTS_VALUE) ? NAN : frame->pts * av_q2d(tb);
             pts = pts * 1000;
             if (pts >= dst_pts) {
-                while (retry_convert_image <= MAX_RETRY_CONVERT_IMAGE) {
-                    ret = convert_image(ffp, frame, (int64_t)pts, frame->width, frame->height);
+                if (img_info->sprite) {
+                    // a failed frame may have been added to the sheet, no retry
+                    ret = convert_sprite_frame(ffp, frame, (int64_t)pts);
+                    if (!ret)
+                        convert_frame_count++;
+                }
+                while (!img_info->sprite && retry_convert_image <= MAX_RETRY_CONVERT_IMAGE) {
+                    ret = convert_image(ffp, frame, (int64_t)pts, dst_pts, frame->width, frame->height);
                     if (!ret) {
                         convert_frame_count++;
                         break;
@@ -2246,7 +2361,8 @@ static int ffplay_video_thread(void *arg)
                 }
 
                 retry_convert_image = 0;
-                if (ret || ffp->get_img_info->count <= 0) {
+                img_info->index++;
+                if (ret || img_info->count <= 0) {
                     if (ret) {
                         av_log(NULL, AV_LOG_ERROR, "convert image abort ret = %d\n", ret);
                         ffp_notify_msg3(ffp, FFP_MSG_GET_IMG_STATE, 0, ret);
@@ -2255,8 +2371,6 @@ static int ffplay_video_thread(void *arg)
                     }
                     goto the_end;
                 }
-            } else {
-                dst_pts = last_dst_pts;
             }
             av_frame_unref(frame);
             continue;
@@ -2628,6 +2742,15 @@ reload:
 }
 
 /* prepare a new audio buffer */
+/* the aout stops pulling audio, the player would stall on full queues */
+static void sdl_audio_error_callback(void *opaque, int error)
+{
+    FFPlayer *ffp = opaque;
+
+    av_log(ffp, AV_LOG_ERROR, "audio output lost: %d\n", error);
+    ffp_notify_msg2(ffp, FFP_MSG_ERROR, error);
+}
+
 static void sdl_audio_callback(void *opaque, Uint8 *stream, int len)
 {
     FFPlayer *ffp = opaque;
@@ -2752,6 +2875,11 @@ static int audio_open(FFPlayer *opaque, int64_t wanted_channel_layout, int wante
     while (next_sample_rate_idx && next_sample_rates[next_sample_rate_idx] >= wanted_spec.freq)
         next_sample_rate_idx--;
     wanted_spec.format = AUDIO_S16SYS;
+#if defined(__ANDROID__)
+    // SoundTouch works on s16 only, AudioTrack takes floats through the direct buffer
+    if (ffp->audiotrack_float && ffp->audiotrack_direct && !ffp->opensles && !ffp->soundtouch_enable)
+        wanted_spec.format = AUDIO_F32;
+#endif
     wanted_spec.silence = 0;
     wanted_spec.samples = FFMAX(SDL_AUDIO_MIN_BUFFER_SIZE, 2 << av_log2(wanted_spec.freq / SDL_AoutGetAudioPerSecondCallBacks(ffp->aout)));
     wanted_spec.callback = sdl_audio_callback;
@@ -2774,7 +2902,7 @@ static int audio_open(FFPlayer *opaque, int64_t wanted_channel_layout, int wante
         }
         wanted_channel_layout = av_get_default_channel_layout(wanted_spec.channels);
     }
-    if (spec.format != AUDIO_S16SYS) {
+    if (spec.format != AUDIO_S16SYS && spec.format != AUDIO_F32) {
         av_log(NULL, AV_LOG_ERROR,
                "SDL advised audio format %d is not supported!\n", spec.format);
         return -1;
@@ -2788,7 +2916,7 @@ static int audio_open(FFPlayer *opaque, int64_t wanted_channel_layout, int wante
         }
     }
 
-    audio_hw_params->fmt = AV_SAMPLE_FMT_S16;
+    audio_hw_params->fmt = spec.format == AUDIO_F32 ? AV_SAMPLE_FMT_FLT : AV_SAMPLE_FMT_S16;
     audio_hw_params->freq = spec.freq;
     audio_hw_params->channel_layout = wanted_channel_layout;
     audio_hw_params->channels =  spec.channels;
@@ -3041,6 +3169,59 @@ static int stream_has_enough_packets(AVStream *st, int stream_id, PacketQueue *q
            queue->nb_packets > min_frames;
 }
 
+/* hysteresis between the targets of the queue and resume_percent of them */
+static int stream_is_full(FFPlayer *ffp, AVStream *st, int stream_id, PacketQueue *queue)
+{
+    int     resume_percent = ffp->dcc.back_pressure_resume_percent;
+    int64_t duration       = 0;
+
+    if (stream_id < 0 || queue->abort_request || (st->disposition & AV_DISPOSITION_ATTACHED_PIC))
+        return 1;
+
+    if (st->time_base.den > 0 && st->time_base.num > 0)
+        duration = queue->duration * av_q2d(st->time_base) * 1000;
+
+    if (queue->is_full) {
+        if ((queue->target_duration_in_ms <= 0 || duration < queue->target_duration_in_ms * resume_percent / 100) &&
+            (queue->max_bytes <= 0 || queue->size < (int64_t)queue->max_bytes * resume_percent / 100))
+            queue->is_full = 0;
+    } else if ((queue->target_duration_in_ms > 0 && duration >= queue->target_duration_in_ms) ||
+               (queue->max_bytes > 0 && queue->size >= queue->max_bytes)) {
+        queue->is_full = 1;
+    }
+    return queue->is_full;
+}
+
+static int stream_is_starving(int stream_id, PacketQueue *queue)
+{
+    return stream_id >= 0 && !queue->abort_request && queue->nb_packets == 0;
+}
+
+static int streams_have_enough_packets(FFPlayer *ffp, VideoState *is)
+{
+    int audio_full, video_full;
+
+    if (!ffp->dcc.back_pressure)
+        return stream_has_enough_packets(is->audio_st, is->audio_stream, &is->audioq, MIN_FRAMES)
+            && stream_has_enough_packets(is->video_st, is->video_stream, &is->videoq, MIN_FRAMES)
+            && stream_has_enough_packets(is->subtitle_st, is->subtitle_stream, &is->subtitleq, MIN_FRAMES);
+
+    /* subtitles are too sparse to hold the demuxer */
+    audio_full = stream_is_full(ffp, is->audio_st, is->audio_stream, &is->audioq);
+    video_full = stream_is_full(ffp, is->video_st, is->video_stream, &is->videoq);
+    if (audio_full && video_full)
+        return 1;
+
+    /* one queue at its byte ceiling holds the demuxer too, unless the other one ran dry */
+    if (is->audioq.max_bytes > 0 && is->audioq.size >= is->audioq.max_bytes &&
+        !stream_is_starving(is->video_stream, &is->videoq))
+        return 1;
+    if (is->videoq.max_bytes > 0 && is->videoq.size >= is->videoq.max_bytes &&
+        !stream_is_starving(is->audio_stream, &is->audioq))
+        return 1;
+    return 0;
+}
+
 static int is_realtime(AVFormatContext *s)
 {
     if(   !strcmp(s->iformat->name, "rtp")
@@ -3463,9 +3644,7 @@ static int read_thread(void *arg)
 #else
               (is->audioq.size + is->videoq.size + is->subtitleq.size > ffp->dcc.max_buffer_size
 #endif
-            || (   stream_has_enough_packets(is->audio_st, is->audio_stream, &is->audioq, MIN_FRAMES)
-                && stream_has_enough_packets(is->video_st, is->video_stream, &is->videoq, MIN_FRAMES)
-                && stream_has_enough_packets(is->subtitle_st, is->subtitle_stream, &is->subtitleq, MIN_FRAMES)))) {
+            || streams_have_enough_packets(ffp, is))) {
             if (!is->eof) {
                 ffp_toggle_buffering(ffp, 0);
             }
@@ -3587,9 +3766,11 @@ static int read_thread(void *arg)
                 (double)(ffp->start_time != AV_NOPTS_VALUE ? ffp->start_time : 0) / 1000000
                 <= ((double)ffp->duration / 1000000);
         if (pkt->stream_index == is->audio_stream && pkt_in_play_range) {
+            ff_packet_arena_pool_packet(&is->packet_arena, pkt);
             packet_queue_put(&is->audioq, pkt);
         } else if (pkt->stream_index == is->video_stream && pkt_in_play_range
                    && !(is->video_st && (is->video_st->disposition & AV_DISPOSITION_ATTACHED_PIC))) {
+            ff_packet_arena_pool_packet(&is->packet_arena, pkt);
             packet_queue_put(&is->videoq, pkt);
         } else if (pkt->stream_index == is->subtitle_stream && pkt_in_play_range) {
             packet_queue_put(&is->subtitleq, pkt);
@@ -3669,6 +3850,19 @@ static VideoState *stream_open(FFPlayer *ffp, const char *filename, AVInputForma
         packet_queue_init(&is->subtitleq) < 0)
         goto fail;
 
+    if (ff_packet_arena_init(&is->packet_arena, sizeof(MyAVPacketList), ffp->packet_buffer_pool, ffp->dcc.max_buffer_size) < 0)
+        goto fail;
+    is->videoq.arena    = &is->packet_arena;
+    is->audioq.arena    = &is->packet_arena;
+    is->subtitleq.arena = &is->packet_arena;
+
+    if (ffp->dcc.back_pressure) {
+        is->audioq.target_duration_in_ms = ffp->dcc.audio_target_duration_in_ms;
+        is->audioq.max_bytes             = ffp->dcc.audio_max_bytes;
+        is->videoq.target_duration_in_ms = ffp->dcc.video_target_duration_in_ms;
+        is->videoq.max_bytes             = ffp->dcc.video_max_bytes;
+    }
+
     if (!(is->continue_read_thread = SDL_CreateCond())) {
         av_log(NULL, AV_LOG_FATAL, "SDL_CreateCond(): %s\n", SDL_GetError());
         goto fail;
@@ -4019,11 +4213,47 @@ void ffp_destroy(FFPlayer *ffp)
     SDL_DestroyMutexP(&ffp->vf_mutex);
 
     msg_queue_destroy(&ffp->msg_queue);
-
+    ff_event_batch_destroyp(&ffp->event_batch);
 
     av_free(ffp);
 }
 
+void ffp_reset(FFPlayer *ffp)
+{
+    SDL_Vout       *vout;
+    IJKFF_Pipeline *pipeline;
+    void           *inject_opaque;
+    void           *ijkio_inject_opaque;
+
+    if (!ffp)
+        return;
+
+    if (ffp->is) {
+        stream_close(ffp);
+        ffp->is = NULL;
+    }
+
+    /* the surface and the decoder selection stay with the pipeline, the audio output follows the options */
+    vout                = ffp->vout;
+    pipeline            = ffp->pipeline;
+    inject_opaque       = ffp->inject_opaque;
+    ijkio_inject_opaque = ffp->ijkio_inject_opaque;
+
+    SDL_AoutFreeP(&ffp->aout);
+    ffpipenode_free_p(&ffp->node_vdec);
+    // the io and message threads are gone, and the listener with them
+    ff_event_batch_destroyp(&ffp->event_batch);
+    ffp_reset_internal(ffp);
+    av_opt_set_defaults(ffp);
+
+    ffp->vout     = vout;
+    ffp->pipeline = pipeline;
+    if (inject_opaque)
+        ffp_set_inject_opaque(ffp, inject_opaque);
+    if (ijkio_inject_opaque)
+        ffp_set_ijkio_inject_opaque(ffp, ijkio_inject_opaque);
+}
+
 void ffp_destroy_p(FFPlayer **pffp)
 {
     if (!pffp)
@@ -4049,6 +4279,53 @@ static AVDictionary **ffp_get_opt_dict(FFPlayer *ffp, int opt_category)
     }
 }
 
+/* informational io events go to the event batch when it is enabled */
+static int app_event_batch_put(FFPlayer *ffp, int message, void *data, size_t size)
+{
+    int     int_args[4]  = {0};
+    int64_t long_args[2] = {0};
+    const char *text     = NULL;
+    int     ret;
+
+    switch (message) {
+        case AVAPP_EVENT_WILL_HTTP_OPEN:
+        case AVAPP_EVENT_DID_HTTP_OPEN:
+        case AVAPP_EVENT_WILL_HTTP_SEEK:
+        case AVAPP_EVENT_DID_HTTP_SEEK: {
+            AVAppHttpEvent *event = (AVAppHttpEvent *)data;
+            if (sizeof(AVAppHttpEvent) != size)
+                return 0;
+            int_args[0]  = event->error;
+            int_args[1]  = event->http_code;
+            long_args[0] = event->offset;
+            long_args[1] = event->filesize;
+            text         = event->url;
+            break;
+        }
+        case AVAPP_CTRL_WILL_TCP_OPEN:
+        case AVAPP_CTRL_DID_TCP_OPEN: {
+            AVAppTcpIOControl *control = (AVAppTcpIOControl *)data;
+            if (sizeof(AVAppTcpIOControl) != size)
+                return 0;
+            int_args[0]  = control->error;
+            int_args[1]  = control->family;
+            int_args[2]  = control->port;
+            int_args[3]  = control->fd;
+            text         = control->ip;
+            break;
+        }
+        default:
+            return 0;
+    }
+
+    ret = ff_event_batch_put(ffp->event_batch, message, int_args, long_args, text);
+    if (ret == FF_EVENT_BATCH_DISABLED)
+        return 0;
+    if (ret > 0)
+        ffp_notify_msg1(ffp, FFP_MSG_EVENT_BATCH);
+    return 1;
+}
+
 static int app_func_event(AVApplicationContext *h, int message ,void *data, size_t size)
 {
     if (!h || !h->opaque || !data)
@@ -4068,6 +4345,8 @@ static int app_func_event(AVApplicationContext *h, int message ,void *data, size
         ffp->stat.buf_backwards = statistic->buf_backwards;
         ffp->stat.buf_forwards = statistic->buf_forwards;
         ffp->stat.buf_capacity = statistic->buf_capacity;
+    } else if (ffp->event_batch && app_event_batch_put(ffp, message, data, size)) {
+        return 0;
     }
     return inject_callback(ffp->inject_opaque, message , data, size);
 }
@@ -4088,6 +4367,8 @@ static int ijkio_app_func_event(IjkIOApplicationContext *h, int message ,void *d
         ffp->stat.cache_file_pos          = statistic->cache_file_pos;
         ffp->stat.cache_count_bytes       = statistic->cache_count_bytes;
         ffp->stat.logical_file_size       = statistic->logical_file_size;
+    } else if (message == IJKIOAPP_CTRL_WILL_CACHE_OPEN && sizeof(IjkIOAppCacheKeyControl) == size) {
+        return inject_callback(ffp->inject_opaque, message, data, size);
     }
 
     return 0;
@@ -4102,7 +4383,13 @@ void ffp_set_frame_at_time(FFPlayer *ffp, const char *path, int64_t start_time,
         }
     }
 
+    ff_sprite_sheet_destroyp(&ffp->get_img_info->sprite);
+    av_freep(&ffp->get_img_info->content_key);
+    av_freep(&ffp->get_img_info->served);
+    ffp->get_img_info->index         = 0;
+    ffp->get_img_info->cache_checked = 0;
     if (start_time >= 0 && num > 0 && end_time >= 0 && end_time >= start_time) {
+        av_freep(&ffp->get_img_info->img_path);
         ffp->get_img_info->img_path   = av_strdup(path);
         ffp->get_img_info->start_time = start_time;
         ffp->get_img_info->end_time   = end_time;
@@ -4118,6 +4405,38 @@ void ffp_set_frame_at_time(FFPlayer *ffp, const char *path, int64_t start_time,
             ffp->get_img_info->width  = 160;
             ffp->get_img_info->height = 90;
         }
+        ffp->get_img_info->req_width  = ffp->get_img_info->width;
+        ffp->get_img_info->req_height = ffp->get_img_info->height;
+    } else {
+        ffp->get_img_info->count = 0;
+        ffp_notify_msg3(ffp, FFP_MSG_GET_IMG_STATE, 0, -1);
+    }
+}
+
+void ffp_set_sprite_frame_at_time(FFPlayer *ffp, const char *path, int64_t start_time, int64_t end_time, int num,
+                                  const FFSpriteSheetConfig *config) {
+    if (!ffp->get_img_info) {
+        ffp->get_img_info = av_mallocz(sizeof(GetImgInfo));
+        if (!ffp->get_img_info) {
+            ffp_notify_msg3(ffp, FFP_MSG_GET_IMG_STATE, 0, -1);
+            return;
+        }
+    }
+
+    ff_sprite_sheet_destroyp(&ffp->get_img_info->sprite);
+    av_freep(&ffp->get_img_info->content_key);
+    av_freep(&ffp->get_img_info->served);
+    ffp->get_img_info->index         = 0;
+    ffp->get_img_info->cache_checked = 0;
+    if (start_time >= 0 && num > 0 && end_time >= 0 && end_time >= start_time)
+        ffp->get_img_info->sprite = ff_sprite_sheet_create(config, path);
+
+    if (ffp->get_img_info->sprite) {
+        ffp->get_img_info->sprite_in_memory = !path;
+        ffp->get_img_info->start_time       = start_time;
+        ffp->get_img_info->end_time         = end_time;
+        ffp->get_img_info->num              = num;
+        ffp->get_img_info->count            = num;
     } else {
         ffp->get_img_info->count = 0;
         ffp_notify_msg3(ffp, FFP_MSG_GET_IMG_STATE, 0, -1);
@@ -4139,6 +4458,40 @@ void *ffp_set_ijkio_inject_opaque(FFPlayer *ffp, void *opaque)
     return prev_weak_thiz;
 }
 
+uint8_t *ffp_enable_event_batch(FFPlayer *ffp, int capacity, int *buffer_size)
+{
+    if (!ffp)
+        return NULL;
+
+    if (!ffp->event_batch) {
+        ffp->event_batch = ff_event_batch_create(capacity);
+        if (!ffp->event_batch)
+            return NULL;
+    } else {
+        ff_event_batch_set_enabled(ffp->event_batch, 1);
+    }
+
+    *buffer_size = ffp->event_batch->capacity * 2;
+    return ffp->event_batch->data;
+}
+
+/* io threads may still hold the batch, it is only freed with the player */
+void ffp_disable_event_batch(FFPlayer *ffp)
+{
+    if (!ffp || !ffp->event_batch)
+        return;
+
+    ff_event_batch_set_enabled(ffp->event_batch, 0);
+}
+
+int ffp_swap_event_batch(FFPlayer *ffp, int *offset, int *count, int64_t *dropped)
+{
+    if (!ffp || !ffp->event_batch)
+        return 0;
+
+    return ff_event_batch_swap(ffp->event_batch, offset, count, dropped);
+}
+
 void *ffp_set_inject_opaque(FFPlayer *ffp, void *opaque)
 {
     if (!ffp)
@@ -4289,6 +4642,7 @@ int ffp_prepare_async_l(FFPlayer *ffp, const char *file_name)
         ffp->aout = ffpipeline_open_audio_output(ffp->pipeline, ffp);
         if (!ffp->aout)
             return -1;
+        SDL_AoutSetErrorCallback(ffp->aout, sdl_audio_error_callback, ffp);
     }
 
 #if CONFIG_AVFILTER
@@ -4605,8 +4959,10 @@ void ffp_track_statistic_l(FFPlayer *ffp, AVStream *st, PacketQueue *q, FFTrackC
     assert(cache);
 
     if (q) {
-        cache->bytes   = q->size;
-        cache->packets = q->nb_packets;
+        cache->bytes           = q->size;
+        cache->packets         = q->nb_packets;
+        cache->target_duration = q->target_duration_in_ms;
+        cache->max_bytes       = q->max_bytes;
     }
 
     if (q && st && st->time_base.den > 0 && st->time_base.num > 0) {
@@ -4630,6 +4986,8 @@ void ffp_statistic_l(FFPlayer *ffp)
 {
     ffp_audio_statistic_l(ffp);
     ffp_video_statistic_l(ffp);
+    ff_packet_arena_get_stat(&ffp->is->packet_arena, &ffp->stat.packet_arena_allocs,
+                             &ffp->stat.packet_arena_recycles, &ffp->stat.packet_arena_bytes);
 }
 
 void ffp_check_buffering_l(FFPlayer *ffp)
@@ -4916,6 +5274,17 @@ void ffp_set_property_float(FFPlayer *ffp, int id, float value)
     }
 }
 
+static void ffp_update_aout_statistic(FFPlayer *ffp)
+{
+    SDL_AoutStatistic aout_stat;
+
+    SDL_AoutGetStatistic(ffp->aout, &aout_stat);
+    ffp->stat.audio_underruns     = aout_stat.underruns;
+    ffp->stat.audio_output_cpu_us = aout_stat.cpu_time_us;
+    ffp->stat.audio_output_latency_us = aout_stat.latency_us;
+    ffp->stat.audio_output_buffer_us  = aout_stat.buffer_us;
+}
+
 int64_t ffp_get_property_int64(FFPlayer *ffp, int id, int64_t default_value)
 {
     switch (id) {
@@ -5002,6 +5371,62 @@ int64_t ffp_get_property_int64(FFPlayer *ffp, int id, int64_t default_value)
             if (!ffp)
                 return default_value;
             return ffp->stat.logical_file_size;
+        case FFP_PROP_INT64_CACHE_DIR_MAX_SIZE:
+            return ijkio_cache_dir_get_max_size();
+        case FFP_PROP_INT64_CACHE_DIR_USAGE:
+            return ijkio_cache_dir_get_usage();
+        case FFP_PROP_INT64_PARKED_READER_HITS:
+            return ijkurl_parked_get_hits();
+        case FFP_PROP_INT64_PARKED_READER_MISSES:
+            return ijkurl_parked_get_misses();
+        case FFP_PROP_INT64_PACKET_ARENA_ALLOCS:
+            if (!ffp)
+                return default_value;
+            return ffp->stat.packet_arena_allocs;
+        case FFP_PROP_INT64_PACKET_ARENA_RECYCLES:
+            if (!ffp)
+                return default_value;
+            return ffp->stat.packet_arena_recycles;
+        case FFP_PROP_INT64_PACKET_ARENA_BYTES:
+            if (!ffp)
+                return default_value;
+            return ffp->stat.packet_arena_bytes;
+        case FFP_PROP_INT64_MEDIACODEC_REUSE_HITS:
+            if (!ffp)
+                return default_value;
+            return ffp->stat.mediacodec_reuse_hits;
+        case FFP_PROP_INT64_MEDIACODEC_REUSE_MISSES:
+            if (!ffp)
+                return default_value;
+            return ffp->stat.mediacodec_reuse_misses;
+        case FFP_PROP_INT64_THUMBNAIL_CACHE_HITS:
+            if (!ffp)
+                return default_value;
+            return ffp->stat.thumbnail_cache_hits;
+        case FFP_PROP_INT64_THUMBNAIL_CACHE_MISSES:
+            if (!ffp)
+                return default_value;
+            return ffp->stat.thumbnail_cache_misses;
+        case FFP_PROP_INT64_AUDIO_UNDERRUNS:
+            if (!ffp)
+                return default_value;
+            ffp_update_aout_statistic(ffp);
+            return ffp->stat.audio_underruns;
+        case FFP_PROP_INT64_AUDIO_OUTPUT_CPU_US:
+            if (!ffp)
+                return default_value;
+            ffp_update_aout_statistic(ffp);
+            return ffp->stat.audio_output_cpu_us;
+        case FFP_PROP_INT64_AUDIO_OUTPUT_LATENCY_US:
+            if (!ffp)
+                return default_value;
+            ffp_update_aout_statistic(ffp);
+            return ffp->stat.audio_output_latency_us;
+        case FFP_PROP_INT64_AUDIO_OUTPUT_BUFFER_US:
+            if (!ffp)
+                return default_value;
+            ffp_update_aout_statistic(ffp);
+            return ffp->stat.audio_output_buffer_us;
         default:
             return default_value;
     }
@@ -5025,6 +5450,10 @@ void ffp_set_property_int64(FFPlayer *ffp, int id, int64_t value)
             if (ffp) {
                 ijkio_manager_immediate_reconnect(ffp->ijkio_manager_ctx);
             }
+            break;
+        case FFP_PROP_INT64_CACHE_DIR_MAX_SIZE:
+            ijkio_cache_dir_set_max_size(value);
+            break;
         default:
             break;
     }
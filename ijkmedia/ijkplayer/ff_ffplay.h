@@ -42,13 +42,20 @@ void      ffp_io_stat_complete_register(void (*cb)(const char *url,
 FFPlayer *ffp_create();
 void      ffp_destroy(FFPlayer *ffp);
 void      ffp_destroy_p(FFPlayer **pffp);
+/* closes the stream and restores the default options, keeping the vout, the pipeline and the callbacks */
 void      ffp_reset(FFPlayer *ffp);
 
 /* set options before ffp_prepare_async_l() */
 
 void     ffp_set_frame_at_time(FFPlayer *ffp, const char *path, int64_t start_time, int64_t end_time, int num, int definition);
+/* path NULL to get the sheets with FFP_MSG_GET_SPRITE_SHEET instead of files */
+void     ffp_set_sprite_frame_at_time(FFPlayer *ffp, const char *path, int64_t start_time, int64_t end_time, int num,
+                                      const FFSpriteSheetConfig *config);
 void     *ffp_set_inject_opaque(FFPlayer *ffp, void *opaque);
 void     *ffp_set_ijkio_inject_opaque(FFPlayer *ffp, void *opaque);
+uint8_t  *ffp_enable_event_batch(FFPlayer *ffp, int capacity, int *buffer_size);
+void      ffp_disable_event_batch(FFPlayer *ffp);
+int       ffp_swap_event_batch(FFPlayer *ffp, int *offset, int *count, int64_t *dropped);
 void      ffp_set_option(FFPlayer *ffp, int opt_category, const char *name, const char *value);
 void      ffp_set_option_int(FFPlayer *ffp, int opt_category, const char *name, int64_t value);
 
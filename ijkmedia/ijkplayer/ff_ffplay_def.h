@@ -64,10 +64,24 @@
 #include "ff_ffinc.h"
 #include "ff_ffmsg_queue.h"
 #include "ff_ffpipenode.h"
+#include "ff_packet_arena.h"
+#include "ff_event_batch.h"
+#include "ff_sprite_sheet.h"
 #include "ijkmeta.h"
 
 #define DEFAULT_HIGH_WATER_MARK_IN_BYTES        (256 * 1024)
 
+/*
+ * back-pressure: demuxing pauses once every audio/video queue reached its
+ * target duration or byte ceiling, and goes on when one of them drained
+ * below RESUME_PERCENT of both.
+ */
+#define DEFAULT_AUDIO_TARGET_DURATION_IN_MS     (10 * 1000)
+#define DEFAULT_VIDEO_TARGET_DURATION_IN_MS     (5 * 1000)
+#define DEFAULT_AUDIO_MAX_BYTES                 (1 * 1024 * 1024)
+#define DEFAULT_VIDEO_MAX_BYTES                 (12 * 1024 * 1024)
+#define DEFAULT_BACK_PRESSURE_RESUME_PERCENT    (75)
+
 /*
  * START: buffering after prepared/seeked
  * NEXT:  buffering for the second time after START
@@ -155,6 +169,14 @@ typedef struct GetImgInfo {
     int height;
     AVCodecContext *frame_img_codec_ctx;
     struct SwsContext *frame_img_convert_ctx;
+    FFSpriteSheet *sprite;      // frames go to sprite sheets instead of png files
+    int sprite_in_memory;
+    int index;                  // next of the num times
+    int req_width;              // size asked for, width and height are fitted to the video
+    int req_height;
+    char *content_key;          // set when thumbnails go through the thumbnail cache
+    uint8_t *served;            // num flags, times already served from the cache
+    int cache_checked;
 } GetImgInfo;
 
 typedef struct MyAVPacketList {
@@ -172,11 +194,14 @@ typedef struct PacketQueue {
     int serial;
     SDL_mutex *mutex;
     SDL_cond *cond;
-    MyAVPacketList *recycle_pkt;
-    int recycle_count;
-    int alloc_count;
+    FFPacketArena *arena;
 
     int is_buffer_indicator;
+
+    /* back-pressure, 0 for no limit */
+    int64_t target_duration_in_ms;
+    int max_bytes;
+    int is_full;
 } PacketQueue;
 
 // #define VIDEO_PICTURE_QUEUE_SIZE 3
@@ -364,6 +389,7 @@ typedef struct VideoState {
     int video_stream;
     AVStream *video_st;
     PacketQueue videoq;
+    FFPacketArena packet_arena;     // nodes and payloads of the three packet queues
     double max_frame_duration;      // maximum duration of a frame - above this, we consider the jump a timestamp discontinuity
     struct SwsContext *img_convert_ctx;
 #ifdef FFP_SUB
@@ -487,6 +513,8 @@ typedef struct FFTrackCacheStatistic
     int64_t duration;
     int64_t bytes;
     int64_t packets;
+    int64_t target_duration;
+    int64_t max_bytes;
 } FFTrackCacheStatistic;
 
 typedef struct FFStatistic
@@ -516,6 +544,17 @@ typedef struct FFStatistic
     int drop_frame_count;
     int decode_frame_count;
     float drop_frame_rate;
+    int64_t packet_arena_allocs;
+    int64_t packet_arena_recycles;
+    int64_t packet_arena_bytes;
+    int64_t mediacodec_reuse_hits;
+    int64_t mediacodec_reuse_misses;
+    int64_t thumbnail_cache_hits;
+    int64_t thumbnail_cache_misses;
+    int64_t audio_underruns;            // from the aout, -1 if unknown
+    int64_t audio_output_cpu_us;
+    int64_t audio_output_latency_us;    // until a sample written now is heard
+    int64_t audio_output_buffer_us;
 } FFStatistic;
 
 #define FFP_TCP_READ_SAMPLE_RANGE 2000
@@ -535,6 +574,13 @@ typedef struct FFDemuxCacheControl
     int next_high_water_mark_in_ms;
     int last_high_water_mark_in_ms;
     int current_high_water_mark_in_ms;
+
+    int back_pressure;
+    int audio_target_duration_in_ms;
+    int video_target_duration_in_ms;
+    int audio_max_bytes;
+    int video_max_bytes;
+    int back_pressure_resume_percent;
 } FFDemuxCacheControl;
 
 inline static void ffp_reset_demux_cache_control(FFDemuxCacheControl *dcc)
@@ -547,6 +593,13 @@ inline static void ffp_reset_demux_cache_control(FFDemuxCacheControl *dcc)
     dcc->next_high_water_mark_in_ms     = DEFAULT_NEXT_HIGH_WATER_MARK_IN_MS;
     dcc->last_high_water_mark_in_ms     = DEFAULT_LAST_HIGH_WATER_MARK_IN_MS;
     dcc->current_high_water_mark_in_ms  = DEFAULT_FIRST_HIGH_WATER_MARK_IN_MS;
+
+    dcc->back_pressure                  = 0;
+    dcc->audio_target_duration_in_ms    = DEFAULT_AUDIO_TARGET_DURATION_IN_MS;
+    dcc->video_target_duration_in_ms    = DEFAULT_VIDEO_TARGET_DURATION_IN_MS;
+    dcc->audio_max_bytes                = DEFAULT_AUDIO_MAX_BYTES;
+    dcc->video_max_bytes                = DEFAULT_VIDEO_MAX_BYTES;
+    dcc->back_pressure_resume_percent   = DEFAULT_BACK_PRESSURE_RESUME_PERCENT;
 }
 
 /* ffplayer */
@@ -677,8 +730,13 @@ typedef struct FFPlayer {
     int mediacodec_mpeg4;
     int mediacodec_handle_resolution_change;
     int mediacodec_auto_rotate;
+    int mediacodec_reuse;
 
     int opensles;
+    int audiotrack_direct;
+    int audiotrack_float;
+    int aaudio;
+    int aaudio_buffer_bursts;
     int soundtouch_enable;
 
     char *iformat_name;
@@ -715,11 +773,15 @@ typedef struct FFPlayer {
     int skip_calc_frame_rate;
     int get_frame_mode;
     GetImgInfo *get_img_info;
+    int thumbnail_cache;
+    char *thumbnail_cache_dir;
     int async_init_decoder;
     char *video_mime_type;
     char *mediacodec_default_name;
     int ijkmeta_delay_init;
     int render_wait_start;
+    int packet_buffer_pool;
+    FFEventBatch *event_batch;
 } FFPlayer;
 
 #define fftime_to_milliseconds(ts) (av_rescale(ts, 1000, AV_TIME_BASE))
@@ -818,8 +880,13 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->mediacodec_mpeg2               = 0; // option
     ffp->mediacodec_handle_resolution_change = 0; // option
     ffp->mediacodec_auto_rotate         = 0; // option
+    ffp->mediacodec_reuse               = 0; // option
 
     ffp->opensles                       = 0; // option
+    ffp->audiotrack_direct              = 0; // option
+    ffp->audiotrack_float               = 0; // option
+    ffp->aaudio                         = 0; // option
+    ffp->aaudio_buffer_bursts           = 2; // option
     ffp->soundtouch_enable              = 0; // option
 
     ffp->iformat_name                   = NULL; // option
@@ -828,8 +895,11 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->async_init_decoder             = 0; // option
     ffp->video_mime_type                = NULL; // option
     ffp->mediacodec_default_name        = NULL; // option
+    ffp->thumbnail_cache                = 0; // option
+    ffp->thumbnail_cache_dir            = NULL; // option
     ffp->ijkmeta_delay_init             = 0; // option
     ffp->render_wait_start              = 0;
+    ffp->packet_buffer_pool             = 0; // option
 
     ijkmeta_reset(ffp->meta);
 
@@ -871,6 +941,10 @@ inline static void ffp_notify_msg4(FFPlayer *ffp, int what, int arg1, int arg2,
     msg_queue_put_simple4(&ffp->msg_queue, what, arg1, arg2, obj, obj_len);
 }
 
+inline static void ffp_notify_msg5(FFPlayer *ffp, int what, int arg1, int arg2, void *obj, void (*free_l)(void *obj)) {
+    msg_queue_put_simple5(&ffp->msg_queue, what, arg1, arg2, obj, free_l);
+}
+
 inline static void ffp_remove_msg(FFPlayer *ffp, int what) {
     msg_queue_remove(&ffp->msg_queue, what);
 }
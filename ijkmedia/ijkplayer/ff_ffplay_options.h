@@ -140,6 +140,21 @@ static const AVOption ffp_context_options[] = {
         OPTION_INT(DEFAULT_LAST_HIGH_WATER_MARK_IN_MS,
                    DEFAULT_FIRST_HIGH_WATER_MARK_IN_MS,
                    DEFAULT_LAST_HIGH_WATER_MARK_IN_MS) },
+    { "back-pressure",                      "pause reading on the duration and size of each packet queue",
+        OPTION_OFFSET(dcc.back_pressure),   OPTION_INT(0, 0, 1) },
+    { "audio-target-duration-ms",           "back-pressure: audio queue duration to pause reading at, 0 for none",
+        OPTION_OFFSET(dcc.audio_target_duration_in_ms),
+        OPTION_INT(DEFAULT_AUDIO_TARGET_DURATION_IN_MS, 0, INT_MAX) },
+    { "video-target-duration-ms",           "back-pressure: video queue duration to pause reading at, 0 for none",
+        OPTION_OFFSET(dcc.video_target_duration_in_ms),
+        OPTION_INT(DEFAULT_VIDEO_TARGET_DURATION_IN_MS, 0, INT_MAX) },
+    { "audio-max-bytes",                    "back-pressure: audio queue size to pause reading at, 0 for none",
+        OPTION_OFFSET(dcc.audio_max_bytes), OPTION_INT(DEFAULT_AUDIO_MAX_BYTES, 0, MAX_QUEUE_SIZE) },
+    { "video-max-bytes",                    "back-pressure: video queue size to pause reading at, 0 for none",
+        OPTION_OFFSET(dcc.video_max_bytes), OPTION_INT(DEFAULT_VIDEO_MAX_BYTES, 0, MAX_QUEUE_SIZE) },
+    { "back-pressure-resume-percent",       "back-pressure: percent of the targets a queue resumes reading under",
+        OPTION_OFFSET(dcc.back_pressure_resume_percent),
+        OPTION_INT(DEFAULT_BACK_PRESSURE_RESUME_PERCENT, 0, 100) },
 
     { "packet-buffering",                   "pause output until enough packets have been read after stalling",
         OPTION_OFFSET(packet_buffering),    OPTION_INT(1, 0, 1) },
@@ -160,6 +175,10 @@ static const AVOption ffp_context_options[] = {
         OPTION_OFFSET(skip_calc_frame_rate),       OPTION_INT(0, 0, 1) },
     { "get-frame-mode",                      "warning, this option only for get frame",
         OPTION_OFFSET(get_frame_mode),       OPTION_INT(0, 0, 1) },
+    { "thumbnail-cache",                     "keep frames got at time in the thumbnail cache",
+        OPTION_OFFSET(thumbnail_cache),      OPTION_INT(0, 0, 1) },
+    { "thumbnail-cache-dir",                 "directory of the thumbnail cache, memory only if unset",
+        OPTION_OFFSET(thumbnail_cache_dir),  OPTION_STR(NULL) },
     { "async-init-decoder",                  "async create decoder",
         OPTION_OFFSET(async_init_decoder),   OPTION_INT(0, 0, 1) },
     { "video-mime-type",                    "default video mime type",
@@ -194,8 +213,18 @@ static const AVOption ffp_context_options[] = {
         OPTION_OFFSET(mediacodec_mpeg4),        OPTION_INT(0, 0, 1) },
     { "mediacodec-handle-resolution-change",                    "MediaCodec: handle resolution change automatically",
         OPTION_OFFSET(mediacodec_handle_resolution_change),     OPTION_INT(0, 0, 1) },
+    { "mediacodec-reuse",                       "MediaCodec: keep the decoder of a closed stream for the next one",
+        OPTION_OFFSET(mediacodec_reuse),        OPTION_INT(0, 0, 1) },
     { "opensles",                           "OpenSL ES: enable",
         OPTION_OFFSET(opensles),            OPTION_INT(0, 0, 1) },
+    { "audiotrack-direct",                  "AudioTrack: write a direct ByteBuffer mixed in place, API 21 or above",
+        OPTION_OFFSET(audiotrack_direct),   OPTION_INT(0, 0, 1) },
+    { "audiotrack-float",                   "AudioTrack: output ENCODING_PCM_FLOAT with audiotrack-direct, API 21 or above",
+        OPTION_OFFSET(audiotrack_float),    OPTION_INT(0, 0, 1) },
+    { "aaudio",                             "AAudio: enable low latency output, API 27 or above",
+        OPTION_OFFSET(aaudio),              OPTION_INT(0, 0, 1) },
+    { "aaudio-buffer-bursts",               "AAudio: initial buffer size in bursts, grows on underruns",
+        OPTION_OFFSET(aaudio_buffer_bursts), OPTION_INT(2, 1, 64) },
     { "soundtouch",                           "SoundTouch: enable",
         OPTION_OFFSET(soundtouch_enable),            OPTION_INT(0, 0, 1) },
     { "mediacodec-sync",                 "mediacodec: use msg_queue for synchronise",
@@ -206,6 +235,8 @@ static const AVOption ffp_context_options[] = {
         OPTION_OFFSET(ijkmeta_delay_init),      OPTION_INT(0, 0, 1) },
     { "render-wait-start",          "render wait start",
         OPTION_OFFSET(render_wait_start),      OPTION_INT(0, 0, 1) },
+    { "packet-buffer-pool",                 "copy packet payloads into pooled buffers capped by max-buffer-size",
+        OPTION_OFFSET(packet_buffer_pool),  OPTION_INT(0, 0, 1) },
 
     { NULL }
 };
@@ -0,0 +1,272 @@
+/*
+ * ff_packet_arena.c
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_packet_arena.h"
+
+#include <string.h>
+#include "libavutil/common.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+
+#define SLAB_NODES          (64)
+#define NODE_ALIGN          (16)
+#define MIN_CLASS_SIZE      (1024)
+
+typedef struct FFPacketArenaNode {
+    FFPacketArenaSlab        *slab;
+    struct FFPacketArenaNode *next;
+} FFPacketArenaNode;
+
+struct FFPacketArenaSlab {
+    FFPacketArenaSlab *prev, *next;                 // in partial_slabs
+    FFPacketArenaSlab *all_prev, *all_next;         // in slabs
+    FFPacketArenaNode *free_nodes;
+    int                used;
+};
+
+#define NODE_HEADER_SIZE    FFALIGN((int)sizeof(FFPacketArenaNode), NODE_ALIGN)
+#define SLAB_HEADER_SIZE    FFALIGN((int)sizeof(FFPacketArenaSlab), NODE_ALIGN)
+
+static int64_t slab_bytes(FFPacketArena *arena)
+{
+    return SLAB_HEADER_SIZE + (int64_t)arena->node_stride * SLAB_NODES;
+}
+
+static void partial_link_l(FFPacketArena *arena, FFPacketArenaSlab *slab)
+{
+    slab->prev = NULL;
+    slab->next = arena->partial_slabs;
+    if (arena->partial_slabs)
+        arena->partial_slabs->prev = slab;
+    arena->partial_slabs = slab;
+}
+
+static void partial_unlink_l(FFPacketArena *arena, FFPacketArenaSlab *slab)
+{
+    if (slab->prev)
+        slab->prev->next = slab->next;
+    else
+        arena->partial_slabs = slab->next;
+    if (slab->next)
+        slab->next->prev = slab->prev;
+    slab->prev = slab->next = NULL;
+}
+
+static FFPacketArenaSlab *slab_create_l(FFPacketArena *arena)
+{
+    FFPacketArenaSlab *slab = av_malloc(slab_bytes(arena));
+    uint8_t           *data = NULL;
+    int                i;
+
+    if (!slab)
+        return NULL;
+
+    memset(slab, 0, sizeof(FFPacketArenaSlab));
+    data = (uint8_t *)slab + SLAB_HEADER_SIZE;
+    for (i = SLAB_NODES - 1; i >= 0; i--) {
+        FFPacketArenaNode *node = (FFPacketArenaNode *)(data + i * arena->node_stride);
+        node->slab = slab;
+        node->next = slab->free_nodes;
+        slab->free_nodes = node;
+    }
+
+    slab->all_next = arena->slabs;
+    if (arena->slabs)
+        arena->slabs->all_prev = slab;
+    arena->slabs = slab;
+    partial_link_l(arena, slab);
+    arena->empty_slabs++;
+    arena->bytes += slab_bytes(arena);
+    arena->allocs++;
+    return slab;
+}
+
+static void slab_destroy_l(FFPacketArena *arena, FFPacketArenaSlab *slab)
+{
+    if (slab->free_nodes)
+        partial_unlink_l(arena, slab);
+    if (slab->all_prev)
+        slab->all_prev->all_next = slab->all_next;
+    else
+        arena->slabs = slab->all_next;
+    if (slab->all_next)
+        slab->all_next->all_prev = slab->all_prev;
+
+    arena->empty_slabs--;
+    arena->bytes -= slab_bytes(arena);
+    av_free(slab);
+}
+
+static AVBufferRef *pool_alloc(void *opaque, int size)
+{
+    FFPacketArena *arena = opaque;
+    AVBufferRef   *buf   = NULL;
+
+    SDL_LockMutex(arena->mutex);
+    if (arena->max_bytes <= 0 || arena->pool_bytes + size <= arena->max_bytes) {
+        buf = av_buffer_alloc(size);
+        if (buf) {
+            arena->pool_bytes += size;
+            arena->bytes      += size;
+            arena->pool_allocs++;
+            arena->allocs++;
+        }
+    }
+    SDL_UnlockMutex(arena->mutex);
+    return buf;
+}
+
+int ff_packet_arena_init(FFPacketArena *arena, int node_size, int buffer_pool, int64_t max_bytes)
+{
+    memset(arena, 0, sizeof(FFPacketArena));
+    arena->mutex = SDL_CreateMutex();
+    if (!arena->mutex) {
+        av_log(NULL, AV_LOG_FATAL, "SDL_CreateMutex(): %s\n", SDL_GetError());
+        return AVERROR(ENOMEM);
+    }
+
+    arena->node_size   = node_size;
+    arena->node_stride = NODE_HEADER_SIZE + FFALIGN(node_size, NODE_ALIGN);
+    arena->buffer_pool = buffer_pool;
+    arena->max_bytes   = max_bytes;
+    return 0;
+}
+
+void ff_packet_arena_destroy(FFPacketArena *arena)
+{
+    int i;
+
+    if (!arena->mutex)
+        return;
+
+    for (i = 0; i < FF_PACKET_ARENA_CLASSES; i++)
+        av_buffer_pool_uninit(&arena->pools[i]);
+
+    while (arena->slabs) {
+        FFPacketArenaSlab *slab = arena->slabs;
+        if (slab->used)
+            av_log(NULL, AV_LOG_WARNING, "packet arena: %d nodes still in use\n", slab->used);
+        else
+            arena->empty_slabs++;
+        slab_destroy_l(arena, slab);
+    }
+
+    av_log(NULL, AV_LOG_DEBUG, "packet arena: allocs %"PRId64", recycles %"PRId64", pooled %"PRId64" bytes\n",
+           arena->allocs, arena->recycles, arena->pool_bytes);
+    SDL_DestroyMutex(arena->mutex);
+    arena->mutex = NULL;
+}
+
+void *ff_packet_arena_alloc_node(FFPacketArena *arena)
+{
+    FFPacketArenaSlab *slab;
+    FFPacketArenaNode *node;
+
+    SDL_LockMutex(arena->mutex);
+    slab = arena->partial_slabs;
+    if (slab)
+        arena->recycles++;
+    else if (!(slab = slab_create_l(arena))) {
+        SDL_UnlockMutex(arena->mutex);
+        return NULL;
+    }
+
+    node = slab->free_nodes;
+    slab->free_nodes = node->next;
+    if (!slab->used++)
+        arena->empty_slabs--;
+    if (!slab->free_nodes)
+        partial_unlink_l(arena, slab);
+    SDL_UnlockMutex(arena->mutex);
+
+    return (uint8_t *)node + NODE_HEADER_SIZE;
+}
+
+void ff_packet_arena_free_node(FFPacketArena *arena, void *ptr)
+{
+    FFPacketArenaNode *node = (FFPacketArenaNode *)((uint8_t *)ptr - NODE_HEADER_SIZE);
+    FFPacketArenaSlab *slab = node->slab;
+
+    SDL_LockMutex(arena->mutex);
+    if (!slab->free_nodes)
+        partial_link_l(arena, slab);
+    node->next = slab->free_nodes;
+    slab->free_nodes = node;
+
+    /* keep a single spare slab */
+    if (!--slab->used && arena->empty_slabs++ > 0)
+        slab_destroy_l(arena, slab);
+    SDL_UnlockMutex(arena->mutex);
+}
+
+int ff_packet_arena_pool_packet(FFPacketArena *arena, AVPacket *pkt)
+{
+    AVBufferRef *buf;
+    int64_t      pool_allocs;
+    int          class_size = MIN_CLASS_SIZE;
+    int          i;
+
+    if (!arena->buffer_pool || !pkt->buf || !pkt->data || pkt->size <= 0)
+        return 0;
+
+    for (i = 0; i < FF_PACKET_ARENA_CLASSES; i++, class_size <<= 1) {
+        if (pkt->size + AV_INPUT_BUFFER_PADDING_SIZE <= class_size)
+            break;
+    }
+    if (i >= FF_PACKET_ARENA_CLASSES)
+        return 0;
+
+    if (!arena->pools[i]) {
+        arena->pools[i] = av_buffer_pool_init2(class_size, arena, pool_alloc, NULL);
+        if (!arena->pools[i])
+            return 0;
+    }
+
+    /* pool_alloc() only runs in here, when the pool has no buffer to give back */
+    pool_allocs = arena->pool_allocs;
+    buf = av_buffer_pool_get(arena->pools[i]);
+    if (!buf)
+        return 0;
+
+    if (arena->pool_allocs == pool_allocs) {
+        SDL_LockMutex(arena->mutex);
+        arena->recycles++;
+        SDL_UnlockMutex(arena->mutex);
+    }
+
+    memcpy(buf->data, pkt->data, pkt->size);
+    memset(buf->data + pkt->size, 0, AV_INPUT_BUFFER_PADDING_SIZE);
+    av_buffer_unref(&pkt->buf);
+    pkt->buf  = buf;
+    pkt->data = buf->data;
+    return 1;
+}
+
+void ff_packet_arena_get_stat(FFPacketArena *arena, int64_t *allocs, int64_t *recycles, int64_t *bytes)
+{
+    SDL_LockMutex(arena->mutex);
+    *allocs   = arena->allocs;
+    *recycles = arena->recycles;
+    *bytes    = arena->bytes;
+    SDL_UnlockMutex(arena->mutex);
+}
@@ -0,0 +1,90 @@
+/*
+ * ff_packet_arena.h
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_PACKET_ARENA_H
+#define FFPLAY__FF_PACKET_ARENA_H
+
+#include <stdint.h>
+#include "libavcodec/avcodec.h"
+#include "libavutil/buffer.h"
+#include "ijksdl/ijksdl_mutex.h"
+
+/*
+ * Per player memory for the packet queues.
+ *
+ * Queue nodes are carved out of slabs shared by the audio, video and
+ * subtitle queues; a slab whose nodes all came back is freed unless it is
+ * the only spare one, so the nodes held after a bitrate spike are given
+ * back. Packet payloads may be moved into size classed AVBufferPools, from
+ * 1 KB to 1 MB, so that the buffers freed by the decoders are reused by the
+ * demuxer instead of going back to the allocator. Pooled buffers are only
+ * released with the arena and stop growing at max_bytes.
+ */
+
+#define FF_PACKET_ARENA_CLASSES     (11)
+
+typedef struct FFPacketArenaSlab FFPacketArenaSlab;
+
+typedef struct FFPacketArena {
+    SDL_mutex          *mutex;
+    int                 node_size;
+    int                 node_stride;
+    FFPacketArenaSlab  *slabs;          // every slab
+    FFPacketArenaSlab  *partial_slabs;  // slabs with free nodes
+    int                 empty_slabs;
+
+    int                 buffer_pool;
+    AVBufferPool       *pools[FF_PACKET_ARENA_CLASSES];
+
+    int64_t             max_bytes;
+    int64_t             pool_bytes;
+    int64_t             pool_allocs;    // only changed by the thread pooling packets
+    int64_t             bytes;          // slabs and pool buffers
+    int64_t             allocs;         // slabs and pool buffers taken from the allocator
+    int64_t             recycles;       // nodes and pool buffers served without allocating
+} FFPacketArena;
+
+/**
+ * @param node_size  bytes of a queue node
+ * @param max_bytes  cap of the pooled payload bytes, <= 0 for no limit
+ */
+int  ff_packet_arena_init(FFPacketArena *arena, int node_size, int buffer_pool, int64_t max_bytes);
+
+/* all the nodes must have been returned, pooled payloads may outlive the arena */
+void ff_packet_arena_destroy(FFPacketArena *arena);
+
+void *ff_packet_arena_alloc_node(FFPacketArena *arena);
+void  ff_packet_arena_free_node(FFPacketArena *arena, void *node);
+
+/**
+ * Moves the payload of pkt into a pooled buffer, from the thread that
+ * reads packets. pkt is left untouched when pooling is off, the payload
+ * does not fit a size class or the pools reached max_bytes.
+ *
+ * @return 1 if the payload was moved, 0 otherwise
+ */
+int  ff_packet_arena_pool_packet(FFPacketArena *arena, AVPacket *pkt);
+
+void ff_packet_arena_get_stat(FFPacketArena *arena, int64_t *allocs, int64_t *recycles, int64_t *bytes);
+
+#endif
@@ -0,0 +1,505 @@
+/*
+ * ff_sprite_sheet.c
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_sprite_sheet.h"
+
+#include <errno.h>
+#include <fcntl.h>
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+#include "libavcodec/avcodec.h"
+#include "libavutil/avstring.h"
+#include "libavutil/imgutils.h"
+#include "libavutil/intreadwrite.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "libavutil/pixdesc.h"
+#include "libswscale/swscale.h"
+
+#define SPRITE_INDEX_VERSION    1
+#define SPRITE_MAX_DIMENSION    65535
+
+struct FFSpriteSheet {
+    FFSpriteSheetConfig config;
+    char               *dir;
+
+    enum AVPixelFormat  pix_fmt;
+    AVCodec            *codec;
+    AVCodecContext     *encoder;
+    struct SwsContext  *sws;
+
+    // fitted to the first frame
+    int                 tile_width;
+    int                 tile_height;
+    int                 sheet_width;
+    int                 sheet_height;
+
+    uint8_t            *canvas[4];
+    int                 canvas_linesize[4];
+    int                 max_pixsteps[4];
+
+    int                 sheet;
+    int                 tiles;          // in the current sheet
+
+    // records of every sheet so far
+    uint8_t            *records;
+    unsigned int        records_alloc;
+    int                 nb_records;
+    int                 sheet_first_record;
+};
+
+static const char *sprite_extension(int format)
+{
+    switch (format) {
+        case FF_SPRITE_FORMAT_JPEG:     return "jpg";
+        case FF_SPRITE_FORMAT_WEBP:     return "webp";
+        default:                        return "rgb565";
+    }
+}
+
+FFSpriteSheet *ff_sprite_sheet_create(const FFSpriteSheetConfig *config, const char *dir)
+{
+    FFSpriteSheet *s = NULL;
+    int i;
+
+    if (config->tile_width <= 0 || config->tile_height <= 0 || config->columns <= 0 || config->rows <= 0) {
+        av_log(NULL, AV_LOG_ERROR, "%s: invalid layout %dx%d tiles of %dx%d\n", __func__,
+               config->columns, config->rows, config->tile_width, config->tile_height);
+        return NULL;
+    }
+
+    s = av_mallocz(sizeof(FFSpriteSheet));
+    if (!s)
+        return NULL;
+
+    s->config = *config;
+    s->config.quality = av_clip(s->config.quality > 0 ? s->config.quality : 75, 1, 100);
+    if (dir) {
+        s->dir = av_strdup(dir);
+        if (!s->dir)
+            goto fail;
+    }
+
+    switch (config->format) {
+        case FF_SPRITE_FORMAT_JPEG:
+            s->codec   = avcodec_find_encoder(AV_CODEC_ID_MJPEG);
+            s->pix_fmt = AV_PIX_FMT_YUVJ420P;
+            break;
+        case FF_SPRITE_FORMAT_WEBP:
+            s->codec   = avcodec_find_encoder(AV_CODEC_ID_WEBP);
+            s->pix_fmt = AV_PIX_FMT_YUV420P;
+            if (s->codec && s->codec->pix_fmts) {
+                s->pix_fmt = s->codec->pix_fmts[0];
+                for (i = 0; s->codec->pix_fmts[i] != AV_PIX_FMT_NONE; i++) {
+                    if (s->codec->pix_fmts[i] == AV_PIX_FMT_YUV420P)
+                        s->pix_fmt = AV_PIX_FMT_YUV420P;
+                }
+            }
+            break;
+        case FF_SPRITE_FORMAT_RGB565:
+            s->pix_fmt = AV_PIX_FMT_RGB565LE;
+            break;
+        default:
+            av_log(NULL, AV_LOG_ERROR, "%s: unknown format %d\n", __func__, config->format);
+            goto fail;
+    }
+
+    if (config->format != FF_SPRITE_FORMAT_RGB565 && !s->codec) {
+        av_log(NULL, AV_LOG_ERROR, "%s: no encoder for %s\n", __func__, sprite_extension(config->format));
+        goto fail;
+    }
+
+    av_image_fill_max_pixsteps(s->max_pixsteps, NULL, av_pix_fmt_desc_get(s->pix_fmt));
+    return s;
+fail:
+    ff_sprite_sheet_destroyp(&s);
+    return NULL;
+}
+
+void ff_sprite_sheet_destroyp(FFSpriteSheet **psheet)
+{
+    FFSpriteSheet *s;
+
+    if (!psheet || !*psheet)
+        return;
+
+    s = *psheet;
+    avcodec_free_context(&s->encoder);
+    sws_freeContext(s->sws);
+    av_freep(&s->canvas[0]);
+    av_freep(&s->records);
+    av_freep(&s->dir);
+    av_freep(psheet);
+}
+
+static int fit_tiles(FFSpriteSheet *s, const AVFrame *frame, AVRational sar)
+{
+    double dar = (double)frame->width / frame->height;
+    int    width;
+    int    height;
+
+    if (sar.num > 0 && sar.den > 0)
+        dar = dar * sar.num / sar.den;
+
+    width  = s->config.tile_width;
+    height = (int)(width / dar);
+    if (height > s->config.tile_height) {
+        height = s->config.tile_height;
+        width  = (int)(height * dar);
+    }
+
+    // even, for the chroma planes of the tiles
+    s->tile_width   = FFMAX(width & ~1, 2);
+    s->tile_height  = FFMAX(height & ~1, 2);
+    s->sheet_width  = s->tile_width * s->config.columns;
+    s->sheet_height = s->tile_height * s->config.rows;
+    if (s->sheet_width > SPRITE_MAX_DIMENSION || s->sheet_height > SPRITE_MAX_DIMENSION) {
+        av_log(NULL, AV_LOG_ERROR, "%s: sheet too large %dx%d\n", __func__, s->sheet_width, s->sheet_height);
+        return AVERROR(EINVAL);
+    }
+
+    av_log(NULL, AV_LOG_INFO, "%s: tiles %dx%d, sheet %dx%d\n", __func__,
+           s->tile_width, s->tile_height, s->sheet_width, s->sheet_height);
+    return 0;
+}
+
+static int open_encoder(FFSpriteSheet *s)
+{
+    int ret;
+
+    s->encoder = avcodec_alloc_context3(s->codec);
+    if (!s->encoder)
+        return AVERROR(ENOMEM);
+
+    s->encoder->width     = s->sheet_width;
+    s->encoder->height    = s->sheet_height;
+    s->encoder->pix_fmt   = s->pix_fmt;
+    s->encoder->time_base = (AVRational){1, 25};
+    s->encoder->flags    |= AV_CODEC_FLAG_QSCALE;
+    if (s->config.format == FF_SPRITE_FORMAT_JPEG) {
+        // quality 100 to qscale 2, 1 to 31
+        s->encoder->global_quality = FF_QP2LAMBDA * (2 + (100 - s->config.quality) * 29 / 99);
+        s->encoder->color_range    = AVCOL_RANGE_JPEG;
+    } else {
+        s->encoder->global_quality = FF_QP2LAMBDA * s->config.quality;
+    }
+
+    ret = avcodec_open2(s->encoder, s->codec, NULL);
+    if (ret < 0) {
+        av_log(NULL, AV_LOG_ERROR, "%s: avcodec_open2 failed %d\n", __func__, ret);
+        avcodec_free_context(&s->encoder);
+    }
+    return ret;
+}
+
+static int begin_sheet(FFSpriteSheet *s)
+{
+    ptrdiff_t linesize[4];
+    int       ret;
+    int       i;
+
+    if (!s->canvas[0]) {
+        ret = av_image_alloc(s->canvas, s->canvas_linesize, s->sheet_width, s->sheet_height, s->pix_fmt, 1);
+        if (ret < 0)
+            return ret;
+    }
+
+    // the last sheet may not be full
+    for (i = 0; i < 4; i++)
+        linesize[i] = s->canvas_linesize[i];
+    av_image_fill_black(s->canvas, linesize, s->pix_fmt,
+                        s->pix_fmt == AV_PIX_FMT_YUVJ420P ? AVCOL_RANGE_JPEG : AVCOL_RANGE_MPEG,
+                        s->sheet_width, s->sheet_height);
+    return 0;
+}
+
+static void tile_pointers(FFSpriteSheet *s, int x, int y, uint8_t *dst[4])
+{
+    const AVPixFmtDescriptor *desc = av_pix_fmt_desc_get(s->pix_fmt);
+    int i;
+
+    for (i = 0; i < 4; i++) {
+        int chroma = i == 1 || i == 2;
+        int shift_x = chroma ? desc->log2_chroma_w : 0;
+        int shift_y = chroma ? desc->log2_chroma_h : 0;
+
+        dst[i] = s->canvas[i] ?
+                 s->canvas[i] + (y >> shift_y) * s->canvas_linesize[i] + (x >> shift_x) * s->max_pixsteps[i] :
+                 NULL;
+    }
+}
+
+static void write_index_header(const FFSpriteSheet *s, uint8_t *p, int count)
+{
+    memcpy(p, "IJKS", 4);
+    AV_WL16(p + 4,  SPRITE_INDEX_VERSION);
+    AV_WL16(p + 6,  s->config.format);
+    AV_WL16(p + 8,  s->sheet_width);
+    AV_WL16(p + 10, s->sheet_height);
+    AV_WL16(p + 12, s->config.columns);
+    AV_WL16(p + 14, s->config.rows);
+    AV_WL32(p + 16, count);
+    memset(p + 20, 0, FF_SPRITE_INDEX_HEADER_SIZE - 20);
+}
+
+static int add_record(FFSpriteSheet *s, int64_t pts_ms, int x, int y)
+{
+    uint8_t *records;
+    uint8_t *p;
+
+    records = av_fast_realloc(s->records, &s->records_alloc, (s->nb_records + 1) * FF_SPRITE_INDEX_RECORD_SIZE);
+    if (!records)
+        return AVERROR(ENOMEM);
+    s->records = records;
+
+    p = s->records + s->nb_records * FF_SPRITE_INDEX_RECORD_SIZE;
+    AV_WL64(p,      pts_ms);
+    AV_WL32(p + 8,  s->sheet);
+    AV_WL16(p + 12, x);
+    AV_WL16(p + 14, y);
+    AV_WL16(p + 16, s->tile_width);
+    AV_WL16(p + 18, s->tile_height);
+    AV_WL32(p + 20, 0);
+    s->nb_records++;
+    return 0;
+}
+
+int ff_sprite_sheet_add_frame(FFSpriteSheet *s, const AVFrame *frame, AVRational sar, int64_t pts_ms)
+{
+    uint8_t *dst[4];
+    int      x;
+    int      y;
+    int      ret;
+
+    if (!frame->width || !frame->height)
+        return AVERROR(EINVAL);
+
+    if (!s->tile_width) {
+        ret = fit_tiles(s, frame, sar);
+        if (ret < 0)
+            return ret;
+    }
+
+    if (s->codec && !s->encoder) {
+        ret = open_encoder(s);
+        if (ret < 0)
+            return ret;
+    }
+
+    if (!s->tiles) {
+        ret = begin_sheet(s);
+        if (ret < 0)
+            return ret;
+    }
+
+    s->sws = sws_getCachedContext(s->sws, frame->width, frame->height, frame->format,
+                                  s->tile_width, s->tile_height, s->pix_fmt,
+                                  SWS_FAST_BILINEAR, NULL, NULL, NULL);
+    if (!s->sws) {
+        av_log(NULL, AV_LOG_ERROR, "%s: sws_getCachedContext failed\n", __func__);
+        return AVERROR(EINVAL);
+    }
+
+    x = (s->tiles % s->config.columns) * s->tile_width;
+    y = (s->tiles / s->config.columns) * s->tile_height;
+    tile_pointers(s, x, y, dst);
+    sws_scale(s->sws, (const uint8_t * const *)frame->data, frame->linesize, 0, frame->height,
+              dst, s->canvas_linesize);
+
+    ret = add_record(s, pts_ms, x, y);
+    if (ret < 0)
+        return ret;
+
+    s->tiles++;
+    return s->tiles >= s->config.columns * s->config.rows;
+}
+
+static int encode_sheet(FFSpriteSheet *s, FFSpriteSheetOutput *out)
+{
+    AVFrame  *frame = NULL;
+    AVPacket *pkt   = NULL;
+    int       got_packet = 0;
+    int       ret;
+
+    frame = av_frame_alloc();
+    pkt   = av_packet_alloc();
+    if (!frame || !pkt) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+
+    frame->format  = s->pix_fmt;
+    frame->width   = s->sheet_width;
+    frame->height  = s->sheet_height;
+    frame->quality = s->encoder->global_quality;
+    memcpy(frame->data, s->canvas, sizeof(s->canvas));
+    memcpy(frame->linesize, s->canvas_linesize, sizeof(s->canvas_linesize));
+
+    ret = avcodec_encode_video2(s->encoder, pkt, frame, &got_packet);
+    if (ret < 0 || !got_packet) {
+        av_log(NULL, AV_LOG_ERROR, "%s: encode failed %d\n", __func__, ret);
+        ret = ret < 0 ? ret : AVERROR(EAGAIN);
+        goto fail;
+    }
+
+    out->data = pkt->data;
+    out->size = pkt->size;
+    out->priv = pkt;
+    pkt = NULL;
+fail:
+    av_packet_free(&pkt);
+    av_frame_free(&frame);
+    return ret;
+}
+
+static int write_file(const char *dir, const char *name, const uint8_t *data1, int size1, const uint8_t *data2, int size2)
+{
+    char *path     = NULL;
+    char *tmp_path = NULL;
+    int   fd       = -1;
+    int   ret      = 0;
+
+    path     = av_asprintf("%s/%s", dir, name);
+    tmp_path = av_asprintf("%s/%s.tmp", dir, name);
+    if (!path || !tmp_path) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+
+    fd = open(tmp_path, O_WRONLY | O_TRUNC | O_CREAT, 0600);
+    if (fd < 0) {
+        ret = AVERROR(errno);
+        av_log(NULL, AV_LOG_ERROR, "%s: open %s failed %s\n", __func__, tmp_path, strerror(errno));
+        goto fail;
+    }
+
+    if (write(fd, data1, size1) != size1 || (size2 > 0 && write(fd, data2, size2) != size2)) {
+        ret = AVERROR(EIO);
+        av_log(NULL, AV_LOG_ERROR, "%s: write %s failed\n", __func__, tmp_path);
+        goto fail;
+    }
+
+    close(fd);
+    fd = -1;
+
+    // readers never see a partial file
+    if (rename(tmp_path, path)) {
+        ret = AVERROR(errno);
+        av_log(NULL, AV_LOG_ERROR, "%s: rename %s failed %s\n", __func__, path, strerror(errno));
+    }
+fail:
+    if (fd >= 0) {
+        close(fd);
+        unlink(tmp_path);
+    }
+    av_free(tmp_path);
+    av_free(path);
+    return ret;
+}
+
+int ff_sprite_sheet_flush(FFSpriteSheet *s, int last, FFSpriteSheetOutput **pout)
+{
+    FFSpriteSheetOutput *out = NULL;
+    uint8_t              header[FF_SPRITE_INDEX_HEADER_SIZE];
+    int                  nb_records = s->nb_records - s->sheet_first_record;
+    int                  ret = 0;
+
+    *pout = NULL;
+    if (!s->tiles)
+        return 0;
+
+    out = av_mallocz(sizeof(FFSpriteSheetOutput));
+    if (!out)
+        return AVERROR(ENOMEM);
+
+    out->sheet  = s->sheet;
+    out->format = s->config.format;
+    out->width  = s->sheet_width;
+    out->height = s->sheet_height;
+    out->last   = last;
+
+    if (s->encoder) {
+        ret = encode_sheet(s, out);
+        if (ret < 0)
+            goto fail;
+    } else {
+        // hand the raw canvas over, the next sheet allocates another one
+        out->data = s->canvas[0];
+        out->size = s->canvas_linesize[0] * s->sheet_height;
+        memset(s->canvas, 0, sizeof(s->canvas));
+    }
+
+    out->index_size = FF_SPRITE_INDEX_HEADER_SIZE + nb_records * FF_SPRITE_INDEX_RECORD_SIZE;
+    out->index = av_malloc(out->index_size);
+    if (!out->index) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+    write_index_header(s, out->index, nb_records);
+    memcpy(out->index + FF_SPRITE_INDEX_HEADER_SIZE,
+           s->records + s->sheet_first_record * FF_SPRITE_INDEX_RECORD_SIZE,
+           nb_records * FF_SPRITE_INDEX_RECORD_SIZE);
+
+    if (s->dir) {
+        snprintf(out->file_name, sizeof(out->file_name), "sprite_%d.%s", s->sheet, sprite_extension(s->config.format));
+        ret = write_file(s->dir, out->file_name, out->data, out->size, NULL, 0);
+        if (ret < 0)
+            goto fail;
+
+        write_index_header(s, header, s->nb_records);
+        ret = write_file(s->dir, FF_SPRITE_INDEX_FILE_NAME, header, sizeof(header),
+                         s->records, s->nb_records * FF_SPRITE_INDEX_RECORD_SIZE);
+        if (ret < 0)
+            goto fail;
+    }
+
+    s->sheet++;
+    s->tiles = 0;
+    s->sheet_first_record = s->nb_records;
+    *pout = out;
+    return 0;
+fail:
+    // the sheet is dropped
+    s->tiles = 0;
+    s->nb_records = s->sheet_first_record;
+    ff_sprite_sheet_output_free(out);
+    return ret;
+}
+
+void ff_sprite_sheet_output_free(void *obj)
+{
+    FFSpriteSheetOutput *out = obj;
+
+    if (!out)
+        return;
+
+    if (out->priv) {
+        AVPacket *pkt = out->priv;
+        av_packet_free(&pkt);
+    } else {
+        av_freep(&out->data);
+    }
+    av_freep(&out->index);
+    av_free(out);
+}
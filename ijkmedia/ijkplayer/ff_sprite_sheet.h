@@ -0,0 +1,118 @@
+/*
+ * ff_sprite_sheet.h
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_SPRITE_SHEET_H
+#define FFPLAY__FF_SPRITE_SHEET_H
+
+#include <stdint.h>
+#include "libavutil/frame.h"
+#include "libavutil/rational.h"
+
+/*
+ * Packs frames into sheets of columns x rows tiles, filled row by row.
+ *
+ * Every sheet comes with an index, little-endian:
+ *
+ *   header, 32 bytes
+ *     uint8  magic[4]      "IJKS"
+ *     uint16 version       1
+ *     uint16 format        FF_SPRITE_FORMAT_xxx
+ *     uint16 sheet_width
+ *     uint16 sheet_height
+ *     uint16 columns
+ *     uint16 rows
+ *     uint32 count         records following the header
+ *     uint8  reserved[12]
+ *
+ *   record, 24 bytes, in pts order
+ *     int64  pts_ms
+ *     int32  sheet
+ *     uint16 x, y, width, height
+ *     uint32 reserved
+ *
+ * Written to a directory, sheets are named sprite_<sheet>.<ext> and the
+ * index of all the sheets so far is rewritten to sprite.idx after each one.
+ */
+
+#define FF_SPRITE_FORMAT_JPEG           0
+#define FF_SPRITE_FORMAT_WEBP           1   // only with an ffmpeg built with libwebp
+#define FF_SPRITE_FORMAT_RGB565         2   // raw, sheet_width * 2 bytes per line
+
+#define FF_SPRITE_INDEX_HEADER_SIZE     (32)
+#define FF_SPRITE_INDEX_RECORD_SIZE     (24)
+#define FF_SPRITE_INDEX_FILE_NAME       "sprite.idx"
+
+typedef struct FFSpriteSheetConfig {
+    int format;
+    int tile_width;     // frames are scaled to fit, keeping their display aspect
+    int tile_height;
+    int columns;
+    int rows;
+    int quality;        // 1 - 100, JPEG and WebP
+} FFSpriteSheetConfig;
+
+typedef struct FFSpriteSheetOutput {
+    int      sheet;
+    int      format;
+    int      width;
+    int      height;
+    int      last;
+
+    uint8_t *data;          // encoded sheet, or raw pixels for RGB565
+    int      size;
+    uint8_t *index;         // header and the records of this sheet
+    int      index_size;
+    char     file_name[32]; // set when written to a directory
+
+    void    *priv;
+} FFSpriteSheetOutput;
+
+typedef struct FFSpriteSheet FFSpriteSheet;
+
+/**
+ * @param dir where sheets and index are written, NULL to keep them in memory
+ */
+FFSpriteSheet *ff_sprite_sheet_create(const FFSpriteSheetConfig *config, const char *dir);
+void           ff_sprite_sheet_destroyp(FFSpriteSheet **psheet);
+
+/**
+ * Scales frame into the next tile.
+ *
+ * @param sar sample aspect ratio of frame, {0, 1} if unknown
+ * @return 1 if the sheet is full and must be flushed, 0 if not, < 0 on error
+ */
+int  ff_sprite_sheet_add_frame(FFSpriteSheet *sheet, const AVFrame *frame, AVRational sar, int64_t pts_ms);
+
+/**
+ * Encodes the current sheet, if it has a tile, and writes it when the
+ * sheet has a directory. A new sheet starts with the next frame.
+ *
+ * @param out set to NULL if the sheet was empty, free it with
+ *            ff_sprite_sheet_output_free()
+ * @return 0 or < 0 on error
+ */
+int  ff_sprite_sheet_flush(FFSpriteSheet *sheet, int last, FFSpriteSheetOutput **out);
+
+void ff_sprite_sheet_output_free(void *out);
+
+#endif
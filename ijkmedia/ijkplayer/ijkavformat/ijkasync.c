@@ -31,8 +31,8 @@
 #include "libavutil/avassert.h"
 #include "libavutil/avstring.h"
 #include "libavutil/error.h"
-#include "libavutil/fifo.h"
 #include "libavutil/log.h"
+#include "libavutil/mem.h"
 #include "libavutil/opt.h"
 #include "libavutil/thread.h"
 #include "libavutil/time.h"
@@ -40,21 +40,49 @@
 #include <stdint.h>
 
 #include "libavutil/application.h"
+#include "ijkurlpark.h"
 
 #if HAVE_UNISTD_H
 #include <unistd.h>
 #endif
 
 #define SHORT_SEEK_THRESHOLD    (256 * 1024)
+#define RESIZE_INTERVAL_MICRO   (1000 * 1000)
+#define WAKEUP_SPACE            (4096)
 
+/* bytes allocated by the rings of all the open async contexts */
+static pthread_mutex_t g_ring_memory_mutex = PTHREAD_MUTEX_INITIALIZER;
+static int64_t         g_ring_memory_used  = 0;
+
+/*
+ * Single producer, single consumer ring. The background thread writes at
+ * wndx, the reader reads read_pos bytes after rndx and moves rndx on once
+ * more than read_back_capacity bytes lie behind it. Each index is only
+ * stored by its own side, so moving data takes no lock: c->mutex and the
+ * condition variables are only used at the empty and full edges. Resizing
+ * and resetting need both sides stopped.
+ */
 typedef struct RingBuffer
 {
-    AVFifoBuffer *fifo;
+    uint8_t      *buffer;
+    int           capacity;
     int           read_back_capacity;
 
+    int64_t       wndx;
+    int64_t       rndx;
     int           read_pos;
 } RingBuffer;
 
+/* the ring and inner stream left by the last seek outside the ring */
+typedef struct Window {
+    RingBuffer      ring;
+    URLContext     *inner;
+    int64_t         logical_pos;
+    int64_t         forwards_capacity;
+    int             io_error;
+    int             io_eof_reached;
+} Window;
+
 typedef struct Context {
     AVClass        *class;
     URLContext     *inner;
@@ -78,12 +106,39 @@ typedef struct Context {
     pthread_mutex_t mutex;
     pthread_t       async_buffer_thread;
 
+    /* edges of the lock free ring, accessed atomically */
+    int             producer_waiting;
+    int             consumer_waiting;
+    int             ring_users;
+    int             ring_resizing;
+
     int             abort_request;
     AVIOInterruptCB interrupt_callback;
 
+    Window          window;
+
+    /* to reopen the inner protocol for the parked readers */
+    char           *inner_url;
+    int             inner_flags;
+    AVDictionary   *inner_options;
+
+    /* adaptive capacity, sampled by the background thread */
+    int64_t         cur_forwards_capacity;
+    int64_t         read_bytes;
+    int             max_forwards_size;
+    int             read_starved;
+    int             write_blocked;
+    int64_t         resize_start_time_micro;
+
     /* options */
     int64_t         forwards_capacity;
     int64_t         backwards_capacity;
+    int64_t         min_forwards_capacity;
+    int64_t         max_forwards_capacity;
+    int64_t         memory_budget;
+    int64_t         buffer_duration;
+    int             parked_readers;
+    int             speculative_seek;
     int64_t         app_ctx_intptr;
     AVApplicationContext *app_ctx;
 } Context;
@@ -91,82 +146,162 @@ typedef struct Context {
 static int ring_init(RingBuffer *ring, int64_t capacity, int64_t read_back_capacity)
 {
     memset(ring, 0, sizeof(RingBuffer));
-    ring->fifo = av_fifo_alloc((unsigned int)(capacity + read_back_capacity));
-    if (!ring->fifo)
+    ring->buffer = av_malloc((size_t)(capacity + read_back_capacity));
+    if (!ring->buffer)
         return AVERROR(ENOMEM);
 
+    ring->capacity           = (int)(capacity + read_back_capacity);
     ring->read_back_capacity = (int)read_back_capacity;
     return 0;
 }
 
 static void ring_destroy(RingBuffer *ring)
 {
-    av_fifo_freep(&ring->fifo);
+    av_freep(&ring->buffer);
+}
+
+/* copies size bytes out of the ring from index, wrapping at the end of the buffer */
+static void ring_peek_at(RingBuffer *ring, int64_t index, void *dest, int size, void (*func)(void*, void*, int))
+{
+    while (size > 0) {
+        int offset = (int)(index % ring->capacity);
+        int len    = FFMIN(size, ring->capacity - offset);
+
+        if (func) {
+            func(dest, ring->buffer + offset, len);
+        } else {
+            memcpy(dest, ring->buffer + offset, len);
+            dest = (uint8_t *)dest + len;
+        }
+        index += len;
+        size  -= len;
+    }
+}
+
+/* caller stops both sides and makes sure the new capacity holds the buffered bytes */
+static int ring_resize(RingBuffer *ring, int64_t capacity)
+{
+    uint8_t *buffer;
+    int      size = (int)(ring->wndx - ring->rndx);
+
+    av_assert2(size <= capacity + ring->read_back_capacity);
+    buffer = av_malloc((size_t)(capacity + ring->read_back_capacity));
+    if (!buffer)
+        return AVERROR(ENOMEM);
+
+    ring_peek_at(ring, ring->rndx, buffer, size, NULL);
+    av_freep(&ring->buffer);
+    ring->buffer   = buffer;
+    ring->capacity = (int)(capacity + ring->read_back_capacity);
+    ring->rndx     = 0;
+    ring->wndx     = size;
+    return 0;
 }
 
+/* caller stops both sides */
 static void ring_reset(RingBuffer *ring)
 {
-    av_fifo_reset(ring->fifo);
+    ring->wndx     = 0;
+    ring->rndx     = 0;
     ring->read_pos = 0;
 }
 
+/* forward bytes, exact on the reader side */
 static int ring_size(RingBuffer *ring)
 {
-    return av_fifo_size(ring->fifo) - ring->read_pos;
+    int64_t wndx = __atomic_load_n(&ring->wndx, __ATOMIC_ACQUIRE);
+
+    return (int)(wndx - __atomic_load_n(&ring->rndx, __ATOMIC_RELAXED)) - __atomic_load_n(&ring->read_pos, __ATOMIC_RELAXED);
 }
 
+/* free bytes, exact on the writer side */
 static int ring_space(RingBuffer *ring)
 {
-    return av_fifo_space(ring->fifo);
+    int64_t rndx = __atomic_load_n(&ring->rndx, __ATOMIC_ACQUIRE);
+
+    return ring->capacity - (int)(__atomic_load_n(&ring->wndx, __ATOMIC_RELAXED) - rndx);
 }
 
+/* reader side, @return 1 if bytes were released to the writer */
 static int ring_generic_read(RingBuffer *ring, void *dest, int buf_size, void (*func)(void*, void*, int))
 {
-    int ret;
+    int read_pos = ring->read_pos;
 
     av_assert2(buf_size <= ring_size(ring));
-    ret = av_fifo_generic_peek_at(ring->fifo, dest, ring->read_pos, buf_size, func);
-    ring->read_pos += buf_size;
+    ring_peek_at(ring, ring->rndx + read_pos, dest, buf_size, func);
+    read_pos += buf_size;
 
-    if (ring->read_pos > ring->read_back_capacity) {
-        av_fifo_drain(ring->fifo, ring->read_pos - ring->read_back_capacity);
-        ring->read_pos = ring->read_back_capacity;
+    if (read_pos > ring->read_back_capacity) {
+        __atomic_store_n(&ring->read_pos, ring->read_back_capacity, __ATOMIC_RELAXED);
+        __atomic_store_n(&ring->rndx, ring->rndx + read_pos - ring->read_back_capacity, __ATOMIC_SEQ_CST);
+        return 1;
     }
 
-    return ret;
+    __atomic_store_n(&ring->read_pos, read_pos, __ATOMIC_RELAXED);
+    return 0;
 }
 
+/* writer side, func reads into the ring like av_fifo_generic_write() */
 static int ring_generic_write(RingBuffer *ring, void *src, int size, int (*func)(void*, void*, int))
 {
+    int64_t wndx  = ring->wndx;
+    int     total = 0;
+
     av_assert2(size <= ring_space(ring));
-    return av_fifo_generic_write(ring->fifo, src, size, func);
+    while (size > 0) {
+        int offset = (int)(wndx % ring->capacity);
+        int len    = FFMIN(size, ring->capacity - offset);
+
+        len = func(src, ring->buffer + offset, len);
+        if (len <= 0)
+            break;
+        wndx  += len;
+        total += len;
+        size  -= len;
+    }
+
+    __atomic_store_n(&ring->wndx, wndx, __ATOMIC_SEQ_CST);
+    return total;
 }
 
 static int ring_size_of_read_back(RingBuffer *ring)
 {
-    return ring->read_pos;
+    return __atomic_load_n(&ring->read_pos, __ATOMIC_RELAXED);
 }
 
 static int ring_drain(RingBuffer *ring, int offset)
 {
     av_assert2(offset >= -ring_size_of_read_back(ring));
-    av_assert2(offset <= -ring_size(ring));
-    ring->read_pos += offset;
+    av_assert2(offset <= ring_size(ring));
+    __atomic_store_n(&ring->read_pos, ring->read_pos + offset, __ATOMIC_RELAXED);
     return 0;
 }
 
+static void fifo_do_not_copy_func(void* dest, void* src, int size) {
+    // do not copy
+}
+
+/* moves the read position by offset, within the buffered bytes */
+static void ring_seek(RingBuffer *ring, int offset)
+{
+    if (offset > 0)
+        ring_generic_read(ring, NULL, offset, fifo_do_not_copy_func);
+    else if (offset < 0)
+        ring_drain(ring, offset);
+}
+
 static int async_check_interrupt(void *arg)
 {
     URLContext *h   = arg;
     Context    *c   = h->priv_data;
 
-    if (c->abort_request)
+    if (__atomic_load_n(&c->abort_request, __ATOMIC_ACQUIRE))
         return 1;
 
     if (ff_check_interrupt(&c->interrupt_callback))
-        c->abort_request = 1;
+        __atomic_store_n(&c->abort_request, 1, __ATOMIC_RELEASE);
 
-    return c->abort_request;
+    return __atomic_load_n(&c->abort_request, __ATOMIC_ACQUIRE);
 }
 
 static int wrapped_url_read(void *src, void *dst, int size)
@@ -181,16 +316,43 @@ static int wrapped_url_read(void *src, void *dst, int size)
     return ret;
 }
 
+static int wrapped_window_read(void *src, void *dst, int size)
+{
+    Window *window = src;
+
+    return ffurl_read(window->inner, dst, size);
+}
+
+/*
+ * The reader holds c->ring without c->mutex between these two. The
+ * background thread only resizes the ring when nobody holds it.
+ */
+static int async_enter_ring(Context *c)
+{
+    __atomic_add_fetch(&c->ring_users, 1, __ATOMIC_SEQ_CST);
+    if (!__atomic_load_n(&c->ring_resizing, __ATOMIC_SEQ_CST))
+        return 1;
+
+    __atomic_sub_fetch(&c->ring_users, 1, __ATOMIC_SEQ_CST);
+    return 0;
+}
+
+static void async_leave_ring(Context *c)
+{
+    __atomic_sub_fetch(&c->ring_users, 1, __ATOMIC_RELEASE);
+}
+
 static void call_inject_statistic(URLContext *h)
 {
     Context *c = h->priv_data;
 
-    if (c->app_ctx) {
+    if (c->app_ctx && async_enter_ring(c)) {
         AVAppAsyncStatistic statistic = {0};
         statistic.size = sizeof(statistic);
         statistic.buf_forwards  = ring_size(&c->ring);
         statistic.buf_backwards = ring_size_of_read_back(&c->ring);
-        statistic.buf_capacity  = c->forwards_capacity + c->backwards_capacity;
+        statistic.buf_capacity  = __atomic_load_n(&c->cur_forwards_capacity, __ATOMIC_RELAXED) + c->backwards_capacity;
+        async_leave_ring(c);
         av_application_on_async_statistic(c->app_ctx, &statistic);
     }
 }
@@ -210,6 +372,198 @@ static void call_inject_async_fill_speed(URLContext *h, int is_full_speed, int64
     }
 }
 
+/*
+ * Takes bytes from the memory shared by all the rings, up to budget when
+ * growing, budget <= 0 meaning no limit. Negative bytes give memory back.
+ *
+ * @return bytes granted
+ */
+static int64_t ring_memory_reserve(int64_t bytes, int64_t budget)
+{
+    int64_t granted = bytes;
+
+    pthread_mutex_lock(&g_ring_memory_mutex);
+    if (bytes > 0 && budget > 0)
+        granted = FFMAX(0, FFMIN(bytes, budget - g_ring_memory_used));
+    g_ring_memory_used += granted;
+    pthread_mutex_unlock(&g_ring_memory_mutex);
+
+    return granted;
+}
+
+static void async_reset_capacity_sample_l(Context *c, int64_t now)
+{
+    __atomic_store_n(&c->read_bytes, 0, __ATOMIC_RELAXED);
+    c->max_forwards_size       = 0;
+    c->read_starved            = 0;
+    c->write_blocked           = 0;
+    c->resize_start_time_micro = now;
+}
+
+/*
+ * Called by the background thread with c->mutex held, once per
+ * RESIZE_INTERVAL_MICRO. When the ring went full the inner protocol is
+ * faster than the reader and the ring is sized to hold buffer_duration of
+ * reading, doubled if the reader still had to wait. Otherwise the fill speed
+ * bounds the buffered bytes and the space they never reached is released.
+ */
+static void async_adapt_capacity_l(URLContext *h, int64_t now)
+{
+    Context *c             = h->priv_data;
+    int64_t  capacity      = c->cur_forwards_capacity;
+    int64_t  elapsed_micro = now - c->resize_start_time_micro;
+    int64_t  target        = capacity;
+    int64_t  granted       = 0;
+    int      ret;
+
+    if (c->max_forwards_capacity <= 0 || elapsed_micro < RESIZE_INTERVAL_MICRO)
+        return;
+
+    if (c->write_blocked) {
+        int64_t read_speed = __atomic_load_n(&c->read_bytes, __ATOMIC_RELAXED) * 1000000 / elapsed_micro;
+
+        target = read_speed * c->buffer_duration / 1000;
+        if (c->read_starved)
+            target = FFMAX(target, capacity * 2);
+    } else if (c->max_forwards_size * 2 < capacity) {
+        target = c->max_forwards_size * 2;
+    }
+
+    target = av_clip64(target, c->min_forwards_capacity, FFMAX(c->min_forwards_capacity, c->max_forwards_capacity));
+    target = FFMAX(target, ring_size(&c->ring));
+    target = FFALIGN(target, 4096);
+    async_reset_capacity_sample_l(c, now);
+
+    /* leave small changes alone, each resize copies the buffered bytes */
+    if (target > capacity) {
+        granted = ring_memory_reserve(target - capacity, c->memory_budget);
+        if (granted < 4096) {
+            ring_memory_reserve(-granted, 0);
+            return;
+        }
+        target = capacity + granted;
+    } else if (target > capacity * 3 / 4) {
+        return;
+    }
+
+    /* the reader is in the ring, try again at the next interval */
+    __atomic_store_n(&c->ring_resizing, 1, __ATOMIC_SEQ_CST);
+    if (__atomic_load_n(&c->ring_users, __ATOMIC_SEQ_CST)) {
+        __atomic_store_n(&c->ring_resizing, 0, __ATOMIC_RELEASE);
+        ring_memory_reserve(-granted, 0);
+        return;
+    }
+
+    ret = ring_resize(&c->ring, target);
+    __atomic_store_n(&c->ring_resizing, 0, __ATOMIC_RELEASE);
+    if (ret < 0) {
+        ring_memory_reserve(-granted, 0);
+        av_log(h, AV_LOG_WARNING, "async ring resize to %lld failed: %s\n", (long long)target, av_err2str(ret));
+        return;
+    }
+    if (target < capacity)
+        ring_memory_reserve(target - capacity, 0);
+
+    av_log(h, AV_LOG_DEBUG, "async ring resize %lld -> %lld\n", (long long)capacity, (long long)target);
+    __atomic_store_n(&c->cur_forwards_capacity, target, __ATOMIC_RELAXED);
+}
+
+/* exchanges the current ring and inner with the window, logical_pos being the current one */
+static int64_t async_window_swap_l(Context *c, int64_t logical_pos)
+{
+    Window saved = c->window;
+
+    c->window.ring              = c->ring;
+    c->window.inner             = c->inner;
+    c->window.logical_pos       = logical_pos;
+    c->window.forwards_capacity = c->cur_forwards_capacity;
+    c->window.io_error          = c->io_error;
+    c->window.io_eof_reached    = c->io_eof_reached;
+
+    c->ring                  = saved.ring;
+    c->inner                 = saved.inner;
+    __atomic_store_n(&c->cur_forwards_capacity, saved.forwards_capacity, __ATOMIC_RELAXED);
+    c->io_error              = saved.io_error;
+    c->io_eof_reached        = saved.io_eof_reached;
+    return saved.logical_pos;
+}
+
+static void async_window_close_inner(URLContext *h)
+{
+    Context *c      = h->priv_data;
+    Window  *window = &c->window;
+
+    if (!window->inner)
+        return;
+
+    if (c->parked_readers && !window->io_eof_reached)
+        ijkurl_parked_put(h, c->inner_url, window->inner, window->logical_pos + ring_size(&window->ring));
+    else
+        ffurl_close(window->inner);
+    window->inner = NULL;
+}
+
+/*
+ * Seek outside the ring with c->mutex held, in the background thread.
+ *
+ * Going back into the window swaps it in again. Otherwise a range request
+ * is issued at the target on a second inner context, and the current ring
+ * and inner become the window: the stream is not torn down and keeps
+ * filling the window while the new ring is full.
+ *
+ * @return the new position, AVERROR(ENOSYS) to seek the current inner
+ */
+static int64_t async_window_seek_l(URLContext *h, int *ring_kept)
+{
+    Context        *c        = h->priv_data;
+    Window         *window   = &c->window;
+    int64_t         pos      = c->seek_pos;
+    int64_t         capacity = c->cur_forwards_capacity + c->backwards_capacity;
+    URLContext     *inner    = NULL;
+    AVIOInterruptCB interrupt_callback = {.callback = async_check_interrupt, .opaque = h};
+    int             ret;
+
+    if (window->inner &&
+        pos >= window->logical_pos - ring_size_of_read_back(&window->ring) &&
+        pos <= window->logical_pos + ring_size(&window->ring)) {
+        int64_t logical_pos = async_window_swap_l(c, c->logical_pos);
+
+        ring_seek(&c->ring, (int)(pos - logical_pos));
+        *ring_kept = 1;
+        av_log(h, AV_LOG_DEBUG, "async seek %lld back into the window\n", (long long)pos);
+        return pos;
+    }
+
+    if (!window->ring.buffer) {
+        int64_t granted = ring_memory_reserve(capacity, c->memory_budget);
+        if (granted < capacity) {
+            ring_memory_reserve(-granted, 0);
+            return AVERROR(ENOSYS);
+        }
+        ret = ring_init(&window->ring, c->cur_forwards_capacity, c->backwards_capacity);
+        if (ret < 0) {
+            ring_memory_reserve(-capacity, 0);
+            return AVERROR(ENOSYS);
+        }
+        window->forwards_capacity = c->cur_forwards_capacity;
+    }
+
+    if (c->parked_readers)
+        inner = ijkurl_parked_take(h, c->inner_url, pos);
+    if (!inner) {
+        ret = ijkurl_parked_open_at(&inner, c->inner_url, pos, c->inner_flags, &interrupt_callback,
+                                    c->inner_options, h->protocol_whitelist, h->protocol_blacklist, h);
+        if (ret < 0)
+            return ret == AVERROR_EXIT ? ret : AVERROR(ENOSYS);
+    }
+
+    async_window_close_inner(h);
+    ring_reset(&window->ring);
+    async_window_swap_l(c, c->logical_pos);
+    c->inner = inner;
+    return pos;
+}
+
 static void *async_buffer_task(void *arg)
 {
     URLContext   *h    = arg;
@@ -224,53 +578,102 @@ static void *async_buffer_task(void *arg)
     while (1) {
         int fifo_space, to_copy;
 
-        pthread_mutex_lock(&c->mutex);
-        if (async_check_interrupt(h)) {
-            c->io_eof_reached = 1;
-            c->io_error       = AVERROR_EXIT;
-            pthread_cond_signal(&c->cond_wakeup_main);
-            pthread_mutex_unlock(&c->mutex);
-            break;
-        }
-
-        if (c->seek_request) {
-            seek_ret = ffurl_seek(c->inner, c->seek_pos, c->seek_whence);
-            if (seek_ret < 0) {
+        /* only take the lock when the ring is full or there is something to do */
+        fifo_space = ring_space(ring);
+        if (fifo_space <= 0 || c->io_eof_reached || async_check_interrupt(h) ||
+            __atomic_load_n(&c->seek_request, __ATOMIC_ACQUIRE) ||
+            av_gettime_relative() - c->resize_start_time_micro >= RESIZE_INTERVAL_MICRO) {
+            pthread_mutex_lock(&c->mutex);
+            if (async_check_interrupt(h)) {
                 c->io_eof_reached = 1;
-                c->io_error       = (int)seek_ret;
-            } else {
-                c->io_eof_reached = 0;
-                c->io_error       = 0;
+                c->io_error       = AVERROR_EXIT;
+                pthread_cond_signal(&c->cond_wakeup_main);
+                pthread_mutex_unlock(&c->mutex);
+                break;
             }
 
-            c->seek_completed = 1;
-            c->seek_ret       = seek_ret;
-            c->seek_request   = 0;
+            if (c->seek_request) {
+                int ring_kept = 0;
+
+                seek_ret = AVERROR(ENOSYS);
+                if (c->speculative_seek)
+                    seek_ret = async_window_seek_l(h, &ring_kept);
+                if (seek_ret != AVERROR(ENOSYS)) {
+                    // seeked into the window or onto a new inner
+                } else if (c->parked_readers) {
+                    AVIOInterruptCB interrupt_callback = {.callback = async_check_interrupt, .opaque = h};
+                    seek_ret = ijkurl_parked_seek(h, &c->inner, c->inner_url, c->seek_pos, c->inner_flags, &interrupt_callback,
+                                                  c->inner_options, h->protocol_whitelist, h->protocol_blacklist, h);
+                } else {
+                    seek_ret = ffurl_seek(c->inner, c->seek_pos, c->seek_whence);
+                }
+                if (seek_ret < 0) {
+                    c->io_eof_reached = 1;
+                    c->io_error       = (int)seek_ret;
+                } else if (!ring_kept) {
+                    c->io_eof_reached = 0;
+                    c->io_error       = 0;
+                }
 
-            ring_reset(ring);
+                c->seek_completed = 1;
+                c->seek_ret       = seek_ret;
+                __atomic_store_n(&c->seek_request, 0, __ATOMIC_RELEASE);
 
-            pthread_cond_signal(&c->cond_wakeup_main);
-            pthread_mutex_unlock(&c->mutex);
+                if (!ring_kept)
+                    ring_reset(ring);
+                async_reset_capacity_sample_l(c, av_gettime_relative());
 
-            is_full_speed = 0;
-            continue;
-        }
+                pthread_cond_signal(&c->cond_wakeup_main);
+                pthread_mutex_unlock(&c->mutex);
 
-        fifo_space = ring_space(ring);
-        if (c->io_eof_reached || fifo_space <= 0) {
-            pthread_cond_signal(&c->cond_wakeup_main);
-            pthread_cond_wait(&c->cond_wakeup_background, &c->mutex);
+                is_full_speed = 0;
+                continue;
+            }
+
+            async_adapt_capacity_l(h, av_gettime_relative());
+
+            fifo_space = ring_space(ring);
+            if (c->io_eof_reached || fifo_space <= 0) {
+                Window *window = &c->window;
+
+                if (!c->io_eof_reached)
+                    c->write_blocked = 1;
+                if (window->inner && !window->io_eof_reached && ring_space(&window->ring) > 0) {
+                    /* keep the stream left by the last seek going while the current one waits */
+                    to_copy = FFMIN(4096, ring_space(&window->ring));
+                    pthread_cond_signal(&c->cond_wakeup_main);
+                    pthread_mutex_unlock(&c->mutex);
+
+                    ret = ring_generic_write(&window->ring, (void *)window, to_copy, (void *)wrapped_window_read);
+
+                    pthread_mutex_lock(&c->mutex);
+                    if (ret <= 0) {
+                        window->io_eof_reached = 1;
+                        window->io_error       = ret < 0 ? ret : 0;
+                    }
+                    pthread_mutex_unlock(&c->mutex);
+                    continue;
+                }
+
+                /* the reader checks producer_waiting after releasing bytes */
+                __atomic_store_n(&c->producer_waiting, 1, __ATOMIC_SEQ_CST);
+                __atomic_thread_fence(__ATOMIC_SEQ_CST);
+                pthread_cond_signal(&c->cond_wakeup_main);
+                if (c->io_eof_reached || ring_space(ring) < WAKEUP_SPACE)
+                    pthread_cond_wait(&c->cond_wakeup_background, &c->mutex);
+                __atomic_store_n(&c->producer_waiting, 0, __ATOMIC_SEQ_CST);
+                pthread_mutex_unlock(&c->mutex);
+                is_full_speed = 0;
+                continue;
+            }
             pthread_mutex_unlock(&c->mutex);
-            is_full_speed = 0;
-            continue;
         }
-        pthread_mutex_unlock(&c->mutex);
 
         to_copy = FFMIN(4096, fifo_space);
         ret = ring_generic_write(ring, (void *)h, to_copy, (void *)wrapped_url_read);
         if (ret > 0) {
             count_bytes += ret;
-            if (count_bytes > FFMIN((1 * 1024 * 1024), c->forwards_capacity)) {
+            if (count_bytes > FFMIN((1 * 1024 * 1024), c->cur_forwards_capacity)) {
                 int64_t now = av_gettime_relative();
                 call_inject_async_fill_speed(h, is_full_speed, count_bytes, now - count_start_time_micro);
                 is_full_speed = 1;
@@ -279,16 +682,24 @@ static void *async_buffer_task(void *arg)
             }
         }
 
-        pthread_mutex_lock(&c->mutex);
         if (ret <= 0) {
+            pthread_mutex_lock(&c->mutex);
             c->io_eof_reached = 1;
             if (c->inner_io_error < 0)
                 c->io_error = c->inner_io_error;
+            pthread_cond_signal(&c->cond_wakeup_main);
+            pthread_mutex_unlock(&c->mutex);
+        } else {
+            c->max_forwards_size = FFMAX(c->max_forwards_size, ring_size(ring));
+            /* the reader checks the ring after publishing consumer_waiting */
+            __atomic_thread_fence(__ATOMIC_SEQ_CST);
+            if (__atomic_load_n(&c->consumer_waiting, __ATOMIC_SEQ_CST)) {
+                pthread_mutex_lock(&c->mutex);
+                pthread_cond_signal(&c->cond_wakeup_main);
+                pthread_mutex_unlock(&c->mutex);
+            }
         }
 
-        pthread_cond_signal(&c->cond_wakeup_main);
-        pthread_mutex_unlock(&c->mutex);
-
         call_inject_statistic(h);
     }
 
@@ -306,11 +717,19 @@ static int async_open(URLContext *h, const char *arg, int flags, AVDictionary **
     ret = ring_init(&c->ring, c->forwards_capacity, c->backwards_capacity);
     if (ret < 0)
         goto fifo_fail;
+    c->cur_forwards_capacity = c->forwards_capacity;
+    ring_memory_reserve(c->cur_forwards_capacity + c->backwards_capacity, 0);
+    async_reset_capacity_sample_l(c, av_gettime_relative());
 
     if (c->app_ctx_intptr) {
         c->app_ctx = (AVApplicationContext *)(intptr_t)c->app_ctx_intptr;
         av_dict_set_int(options, "ijkapplication", c->app_ctx_intptr, 0);
     }
+    if (c->parked_readers || c->speculative_seek) {
+        c->inner_url   = av_strdup(arg);
+        c->inner_flags = flags;
+        av_dict_copy(&c->inner_options, *options, 0);
+    }
     /* wrap interrupt callback */
     c->interrupt_callback = h->interrupt_callback;
     ret = ffurl_open_whitelist(&c->inner, arg, flags, &interrupt_callback, options, h->protocol_whitelist, h->protocol_blacklist, h);
@@ -357,6 +776,9 @@ cond_wakeup_main_fail:
 mutex_fail:
     ffurl_close(c->inner);
 url_fail:
+    av_freep(&c->inner_url);
+    av_dict_free(&c->inner_options);
+    ring_memory_reserve(-(c->cur_forwards_capacity + c->backwards_capacity), 0);
     ring_destroy(&c->ring);
 fifo_fail:
     return ret;
@@ -368,7 +790,7 @@ static int async_close(URLContext *h)
     int      ret;
 
     pthread_mutex_lock(&c->mutex);
-    c->abort_request = 1;
+    __atomic_store_n(&c->abort_request, 1, __ATOMIC_RELEASE);
     pthread_cond_signal(&c->cond_wakeup_background);
     pthread_mutex_unlock(&c->mutex);
 
@@ -379,7 +801,16 @@ static int async_close(URLContext *h)
     pthread_cond_destroy(&c->cond_wakeup_background);
     pthread_cond_destroy(&c->cond_wakeup_main);
     pthread_mutex_destroy(&c->mutex);
+    async_window_close_inner(h);
+    ijkurl_parked_release(h);
     ffurl_close(c->inner);
+    if (c->window.ring.buffer) {
+        ring_memory_reserve(-(c->window.forwards_capacity + c->backwards_capacity), 0);
+        ring_destroy(&c->window.ring);
+    }
+    av_freep(&c->inner_url);
+    av_dict_free(&c->inner_options);
+    ring_memory_reserve(-(c->cur_forwards_capacity + c->backwards_capacity), 0);
     ring_destroy(&c->ring);
 
     return 0;
@@ -393,42 +824,67 @@ static int async_read_internal(URLContext *h, void *dest, int size, int read_com
     int           to_read = size;
     int           ret     = 0;
 
-    pthread_mutex_lock(&c->mutex);
-
     while (to_read > 0) {
-        int fifo_size, to_copy;
+        int fifo_size, to_copy = 0, released = 0;
         if (async_check_interrupt(h)) {
             ret = AVERROR_EXIT;
             break;
         }
-        fifo_size = ring_size(ring);
-        to_copy   = FFMIN(to_read, fifo_size);
+
+        /* lock free while there are buffered bytes */
+        if (async_enter_ring(c)) {
+            fifo_size = ring_size(ring);
+            to_copy   = FFMIN(to_read, fifo_size);
+            if (to_copy > 0)
+                released = ring_generic_read(ring, dest, to_copy, func);
+            async_leave_ring(c);
+        }
         if (to_copy > 0) {
-            ring_generic_read(ring, dest, to_copy, func);
             if (!func)
                 dest = (uint8_t *)dest + to_copy;
+            __atomic_add_fetch(&c->read_bytes, to_copy, __ATOMIC_RELAXED);
             c->logical_pos += to_copy;
             to_read        -= to_copy;
             ret             = size - to_read;
 
+            /* a full ring is not refilled until a whole write fits again */
+            if (released) {
+                __atomic_thread_fence(__ATOMIC_SEQ_CST);
+                if (__atomic_load_n(&c->producer_waiting, __ATOMIC_SEQ_CST) && ring_space(ring) >= WAKEUP_SPACE) {
+                    pthread_mutex_lock(&c->mutex);
+                    pthread_cond_signal(&c->cond_wakeup_background);
+                    pthread_mutex_unlock(&c->mutex);
+                }
+            }
+
             if (to_read <= 0 || !read_complete)
                 break;
-        } else if (c->io_eof_reached) {
+            continue;
+        }
+
+        pthread_mutex_lock(&c->mutex);
+        if (ring_size(ring) <= 0 && c->io_eof_reached) {
             if (ret <= 0) {
                 if (c->io_error)
                     ret = c->io_error;
                 else
                     ret = AVERROR_EOF;
             }
+            pthread_mutex_unlock(&c->mutex);
             break;
         }
-        pthread_cond_signal(&c->cond_wakeup_background);
-        pthread_cond_wait(&c->cond_wakeup_main, &c->mutex);
+        c->read_starved = 1;
+        /* the background thread checks consumer_waiting after writing */
+        __atomic_store_n(&c->consumer_waiting, 1, __ATOMIC_SEQ_CST);
+        __atomic_thread_fence(__ATOMIC_SEQ_CST);
+        if (ring_size(ring) <= 0 && !async_check_interrupt(h)) {
+            pthread_cond_signal(&c->cond_wakeup_background);
+            pthread_cond_wait(&c->cond_wakeup_main, &c->mutex);
+        }
+        __atomic_store_n(&c->consumer_waiting, 0, __ATOMIC_SEQ_CST);
+        pthread_mutex_unlock(&c->mutex);
     }
 
-    pthread_cond_signal(&c->cond_wakeup_background);
-    pthread_mutex_unlock(&c->mutex);
-
     call_inject_statistic(h);
     return ret;
 }
@@ -438,10 +894,6 @@ static int async_read(URLContext *h, unsigned char *buf, int size)
     return async_read_internal(h, buf, size, 0, NULL);
 }
 
-static void fifo_do_not_copy_func(void* dest, void* src, int size) {
-    // do not copy
-}
-
 static int64_t async_seek(URLContext *h, int64_t pos, int whence)
 {
     Context      *c    = h->priv_data;
@@ -466,8 +918,11 @@ static int64_t async_seek(URLContext *h, int64_t pos, int whence)
     if (new_logical_pos < 0)
         return AVERROR(EINVAL);
 
+    /* the background thread may resize the ring, only ever adding bytes to it */
+    pthread_mutex_lock(&c->mutex);
     fifo_size = ring_size(ring);
     fifo_size_of_read_back = ring_size_of_read_back(ring);
+    pthread_mutex_unlock(&c->mutex);
     if (new_logical_pos == c->logical_pos) {
         /* current position */
         return c->logical_pos;
@@ -484,9 +939,11 @@ static int64_t async_seek(URLContext *h, int64_t pos, int whence)
             async_read_internal(h, NULL, pos_delta, 1, fifo_do_not_copy_func);
         } else {
             // fast seek backwards
+            pthread_mutex_lock(&c->mutex);
             ring_drain(ring, pos_delta);
-            call_inject_statistic(h);
             c->logical_pos = new_logical_pos;
+            pthread_mutex_unlock(&c->mutex);
+            call_inject_statistic(h);
         }
 
         return c->logical_pos;
@@ -500,11 +957,11 @@ static int64_t async_seek(URLContext *h, int64_t pos, int whence)
 
     pthread_mutex_lock(&c->mutex);
 
-    c->seek_request   = 1;
     c->seek_pos       = new_logical_pos;
     c->seek_whence    = SEEK_SET;
     c->seek_completed = 0;
     c->seek_ret       = 0;
+    __atomic_store_n(&c->seek_request, 1, __ATOMIC_RELEASE);
 
     while (1) {
         if (async_check_interrupt(h)) {
@@ -535,6 +992,18 @@ static const AVOption options[] = {
         OFFSET(forwards_capacity),  AV_OPT_TYPE_INT64, {.i64 = 128 * 1024}, 128 * 1024, 128 * 1024 * 1024, D },
     { "async-backwards-capacity",   "max bytes that may be seek backward without seeking in inner protocol",
         OFFSET(backwards_capacity), AV_OPT_TYPE_INT64, {.i64 = 128 * 1024}, 128 * 1024, 128 * 1024 * 1024, D },
+    { "async-min-forwards-capacity", "min bytes the forward buffer may shrink to",
+        OFFSET(min_forwards_capacity), AV_OPT_TYPE_INT64, {.i64 = 64 * 1024}, 16 * 1024, 128 * 1024 * 1024, D },
+    { "async-max-forwards-capacity", "max bytes the forward buffer may grow to, 0 to keep async-forwards-capacity",
+        OFFSET(max_forwards_capacity), AV_OPT_TYPE_INT64, {.i64 = 4 * 1024 * 1024}, 0, 128 * 1024 * 1024, D },
+    { "async-memory-budget",        "max bytes held by all the async buffers before they stop growing, 0 for no limit",
+        OFFSET(memory_budget),      AV_OPT_TYPE_INT64, {.i64 = 32 * 1024 * 1024}, 0, INT64_MAX, D },
+    { "async-buffer-duration",      "milliseconds of reading the forward buffer grows to hold",
+        OFFSET(buffer_duration),    AV_OPT_TYPE_INT64, {.i64 = 3000}, 100, 60 * 1000, D },
+    { "parked_readers",             "keep the readers left by seeks, to resume them on later seeks just ahead",
+        OFFSET(parked_readers),     AV_OPT_TYPE_INT, {.i64 = 0}, 0, 1, D },
+    { "async-speculative-seek",     "request the seek target on a second connection, keep the old window for seeking back",
+        OFFSET(speculative_seek),   AV_OPT_TYPE_INT, {.i64 = 0}, 0, 1, D },
     { "ijkapplication", "AVApplicationContext", OFFSET(app_ctx_intptr), AV_OPT_TYPE_INT64, { .i64 = 0 }, INT64_MIN, INT64_MAX, .flags = D },
     {NULL},
 };
@@ -563,6 +1032,8 @@ const URLProtocol ijkimp_ff_async_protocol = {
 
 #define TEST_SEEK_POS    (1536)
 #define TEST_STREAM_SIZE (2048)
+#define TEST_BENCH_SIZE  (256 * 1024 * 1024)
+#define TEST_BENCH_READ  (188)
 
 typedef struct TestContext {
     AVClass        *class;
@@ -571,13 +1042,14 @@ typedef struct TestContext {
 
     /* options */
     int             opt_read_error;
+    int64_t         opt_stream_size;
 } TestContext;
 
 static int async_test_open(URLContext *h, const char *arg, int flags, AVDictionary **options)
 {
     TestContext *c = h->priv_data;
     c->logical_pos  = 0;
-    c->logical_size = TEST_STREAM_SIZE;
+    c->logical_size = c->opt_stream_size;
     return 0;
 }
 
@@ -638,6 +1110,8 @@ static int64_t async_test_seek(URLContext *h, int64_t pos, int whence)
 static const AVOption async_test_options[] = {
     { "async-test-read-error",      "cause read fail",
         OFFSET(opt_read_error),     AV_OPT_TYPE_INT, { .i64 = 0 }, INT_MIN, INT_MAX, .flags = D },
+    { "async-test-stream-size",     "bytes of the test stream",
+        OFFSET(opt_stream_size),    AV_OPT_TYPE_INT64, { .i64 = TEST_STREAM_SIZE }, 0, INT64_MAX, .flags = D },
     {NULL},
 };
 
@@ -669,6 +1143,9 @@ int main(void)
     int64_t       size;
     int64_t       pos;
     int64_t       read_len;
+    int64_t       reads;
+    int64_t       start_time;
+    int64_t       elapsed;
     unsigned char buf[4096];
     AVDictionary *opts = NULL;
 
@@ -760,6 +1237,33 @@ int main(void)
     ret = ffurl_read(h, buf, 1);
     printf("read: %d\n", ret);
 
+    /*
+     * benchmark small reads, the way demuxers read ts packets
+     */
+    ffurl_close(h);
+    av_dict_free(&opts);
+    av_dict_set_int(&opts, "async-test-stream-size", TEST_BENCH_SIZE, 0);
+    ret = ffurl_open(&h, "async:async-test:", AVIO_FLAG_READ, NULL, &opts);
+    printf("open: %d\n", ret);
+
+    reads      = 0;
+    read_len   = 0;
+    start_time = av_gettime_relative();
+    while (1) {
+        ret = ffurl_read(h, buf, TEST_BENCH_READ);
+        if (ret == AVERROR_EOF)
+            break;
+        else if (ret < 0) {
+            printf("read-error: %d at %"PRId64"\n", ret, read_len);
+            goto fail;
+        }
+        reads++;
+        read_len += ret;
+    }
+    elapsed = FFMAX(av_gettime_relative() - start_time, 1);
+    printf("bench: %"PRId64" reads, %"PRId64" bytes in %"PRId64" ms, %"PRId64" reads/s, %"PRId64" MB/s\n",
+           reads, read_len, elapsed / 1000, reads * 1000000 / elapsed, read_len / elapsed);
+
 fail:
     av_dict_free(&opts);
     ffurl_close(h);
@@ -30,11 +30,13 @@
 #include "ijkplayer/ijkavutil/ijkutils.h"
 
 #include "j4a/class/tv/danmaku/ijk/media/player/misc/IAndroidIO.h"
+#include "j4a/class/tv/danmaku/ijk/media/player/misc/IAndroidIO2.h"
 #include "ijksdl/android/ijksdl_android_jni.h"
 #include <assert.h>
 
 typedef struct IjkIOAndroidioContext {
     jobject         ijkio_androidio;
+    int             direct_buffer;
     jbyteArray      jbuffer;
     int             jbuffer_capacity;
     URLContext *inner;
@@ -59,6 +61,10 @@ static int ijkio_androidio_open(IjkURLContext *h, const char *url, int flags, Ij
         return -1;
     }
 
+    t = ijk_av_dict_get(*options, "androidio-direct-buffer", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t)
+        c->direct_buffer = (int) strtol(t->value, NULL, 10);
+
     if (JNI_OK != SDL_JNI_SetupThreadEnv(&env)) {
         av_log(h, AV_LOG_ERROR, "%s: SDL_JNI_SetupThreadEnv: failed", __func__);
         return AVERROR(EINVAL);
@@ -108,6 +114,31 @@ static jobject jbuffer_grow(JNIEnv *env, IjkURLContext *h, int new_capacity) {
     return c->jbuffer;
 }
 
+/*
+ * IAndroidIO2: java writes into buf through a direct ByteBuffer instead of
+ * a byte[] that has to be copied back.
+ */
+static int ijkio_androidio_read_direct(JNIEnv *env, IjkURLContext *h, unsigned char *buf, int size) {
+    IjkIOAndroidioContext *c = h->priv_data;
+    jobject jbuffer = NULL;
+    jint    ret = 0;
+
+    jbuffer = (*env)->NewDirectByteBuffer(env, buf, size);
+    if (J4A_ExceptionCheck__catchAll(env) || !jbuffer)
+        return AVERROR(ENOMEM);
+
+    ret = J4AC_IAndroidIO2__read(env, c->ijkio_androidio, jbuffer);
+    J4A_DeleteLocalRef__p(env, &jbuffer);
+    if (J4A_ExceptionCheck__catchAll(env) || ret > size)
+        return AVERROR(EIO);
+    else if (ret < 0)
+        return AVERROR_EOF;
+    else if (ret == 0)
+        return AVERROR(EAGAIN);
+
+    return ret;
+}
+
 static int ijkio_androidio_read(IjkURLContext *h, unsigned char *buf, int size) {
     IjkIOAndroidioContext    *c = h->priv_data;
     JNIEnv     *env = NULL;
@@ -122,6 +153,9 @@ static int ijkio_androidio_read(IjkURLContext *h, unsigned char *buf, int size)
         return AVERROR(EINVAL);
     }
 
+    if (c->direct_buffer)
+        return ijkio_androidio_read_direct(env, h, buf, size);
+
     jbuffer = jbuffer_grow(env, h, size);
     if (!jbuffer)
         return AVERROR(ENOMEM);
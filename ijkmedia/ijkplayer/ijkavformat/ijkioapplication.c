@@ -59,3 +59,9 @@ void ijkio_application_on_cache_statistic(IjkIOApplicationContext *h, IjkIOAppCa
     if (h && h->func_ijkio_on_app_event)
         h->func_ijkio_on_app_event(h, IJKIOAPP_EVENT_CACHE_STATISTIC, (void *)statistic, sizeof(IjkIOAppCacheStatistic));
 }
+
+int ijkio_application_on_cache_key(IjkIOApplicationContext *h, IjkIOAppCacheKeyControl *control) {
+    if (h && h->func_ijkio_on_app_event)
+        return h->func_ijkio_on_app_event(h, IJKIOAPP_CTRL_WILL_CACHE_OPEN, (void *)control, sizeof(IjkIOAppCacheKeyControl));
+    return 0;
+}
@@ -29,6 +29,8 @@
 
 #define CACHE_FILE_PATH_MAX_LEN        512
 #define IJKIOAPP_EVENT_CACHE_STATISTIC 0x1003  //IJKIOAppCacheStatistic share with avutil/application.h
+#define IJKIOAPP_CTRL_WILL_CACHE_OPEN  0x20101 //IjkIOAppCacheKeyControl, next to the AVAPP_CTRL_* values
+#define IJKIO_CACHE_KEY_MAX_LEN        4096
 
 typedef struct IjkIOAppCacheStatistic {
     int64_t cache_physical_pos;
@@ -38,12 +40,24 @@ typedef struct IjkIOAppCacheStatistic {
     int64_t logical_file_size;
 } IjkIOAppCacheStatistic;
 
+typedef struct IjkIOAppCacheKeyControl {
+    char url[IJKIO_CACHE_KEY_MAX_LEN];
+    char cache_key[IJKIO_CACHE_KEY_MAX_LEN];   // derived key on input, may be replaced by the app
+    int  is_handled;
+} IjkIOAppCacheKeyControl;
+
+#define IJKIO_CACHE_ENTRY_CHECKSUM     0x1     // checksum covers all size bytes of the entry
+
 typedef struct IjkCacheEntry {
     int64_t logical_pos;
     int64_t physical_pos;
     int64_t size;
+    uint32_t checksum;      // adler32 of the cached bytes, updated as the entry grows
+    uint32_t flags;
 } IjkCacheEntry;
 
+struct IjkIOCacheShare;
+
 typedef struct IjkIOApplicationContext IjkIOApplicationContext;
 struct IjkIOApplicationContext {
     IjkThreadPoolContext *threadpool_ctx;
@@ -56,6 +70,7 @@ struct IjkIOApplicationContext {
     int fd;
     pthread_mutex_t mutex;
     int shared;
+    struct IjkIOCacheShare *cache_share;    // set while cache_info_map is shared with concurrent players
     int active_reconnect;
     int (*func_ijkio_on_app_event)(IjkIOApplicationContext *h, int event_type ,void *obj, int size);
 };
@@ -66,5 +81,6 @@ void ijkio_application_close(IjkIOApplicationContext *h);
 void ijkio_application_closep(IjkIOApplicationContext **ph);
 
 void ijkio_application_on_cache_statistic(IjkIOApplicationContext *h, IjkIOAppCacheStatistic *statistic);
+int  ijkio_application_on_cache_key(IjkIOApplicationContext *h, IjkIOAppCacheKeyControl *control);
 
 #endif /* IJKAVFORMAT_IJKIOAPPLICATION_H */
@@ -21,6 +21,9 @@
 #include "ijkiourl.h"
 #include "ijkioprotocol.h"
 #include "ijkioapplication.h"
+#include "ijkiocachedir.h"
+#include "ijkiocachemap.h"
+#include "ijkiocacheshare.h"
 #include "ijkplayer/ijkavutil/ijktree.h"
 #include "ijkplayer/ijkavutil/ijkutils.h"
 #include "ijkplayer/ijkavutil/ijkthreadpool.h"
@@ -36,6 +39,8 @@
 #include <sys/stat.h>
 #include <unistd.h>
 #include <assert.h>
+#include <errno.h>
+#include <sys/time.h>
 
 #define DEFAULT_CACHE_MAX_CAPACITY            (512 * 1024 * 1024)
 #define DEFAULT_CACHE_FILE_FORWARDS_CAPACITY  (8 * 1024 * 1024)
@@ -43,6 +48,35 @@
 #       define O_BINARY 0
 #   endif
 #define FILE_RW_ERROR  (-100)
+#define CACHE_DIR_REPORT_INTERVAL             (1024 * 1024)
+#define DEFAULT_CACHE_RANGE_SIZE              (512 * 1024)
+#define MAX_CACHE_RANGE_CONNECTIONS           8
+#define CACHE_ENTRY_MAX_SIZE                  (1024 * 1024)
+#define DEFAULT_CACHE_VERIFY_SIZE             (4 * 1024 * 1024)
+#define CACHE_SHARE_SYNC_WINDOW               (1024 * 1024)
+#define CACHE_SHARE_STALL_TIMEOUT_MS          500
+#define CACHE_SHARE_WAIT_SLICE_MS             50
+
+#define IJKIO_CACHE_RANGE_IDLE                0
+#define IJKIO_CACHE_RANGE_RUNNING             1
+#define IJKIO_CACHE_RANGE_DONE                2
+
+typedef struct IjkIOCacheRange {
+    IjkURLContext *owner;
+    IjkURLContext *inner;
+    IjkIOApplicationContext app_ctx;
+    IjkAVIOInterruptCB interrupt_cb;
+    int64_t inner_pos;
+
+    int64_t logical_pos;
+    int64_t size;
+    int64_t filled;
+    unsigned char *buf;
+    int state;
+    int eof;
+    int error;
+    int abort_request;
+} IjkIOCacheRange;
 
 typedef struct IjkIOCacheContext {
     char *cache_file_path;
@@ -74,6 +108,7 @@ typedef struct IjkIOCacheContext {
     void *cache_info_map;
     int64_t *last_physical_pos;
     int64_t *cache_count_bytes;
+    int64_t cache_dir_reported_pos;
 
     pthread_cond_t     cond_wakeup_main;
     pthread_cond_t     cond_wakeup_file_background;
@@ -92,6 +127,19 @@ typedef struct IjkIOCacheContext {
     char inner_url[4096];
     int inner_flags;
     int only_read_file;
+
+    int range_connections;
+    int64_t range_size;
+    int64_t range_next_pos;
+    int range_head;
+    int range_count;
+    int range_running_count;
+    IjkIOCacheRange *ranges;
+    IjkThreadPoolContext *range_threadpool_ctx;
+    pthread_cond_t cond_wakeup_range;
+
+    IjkIOCacheShare *cache_share;
+    int64_t share_stalled_pos;
 } IjkIOCacheContext;
 
 static int cmp(const void *key, const void *node)
@@ -112,6 +160,12 @@ static void call_inject_statistic(IjkURLContext *h)
         statistic.logical_file_size   = c->logical_size;
         ijkio_application_on_cache_statistic(c->ijkio_app_ctx, &statistic);
     }
+
+    if (!c->cache_file_close && c->last_physical_pos &&
+        llabs(*c->last_physical_pos - c->cache_dir_reported_pos) >= CACHE_DIR_REPORT_INTERVAL) {
+        c->cache_dir_reported_pos = *c->last_physical_pos;
+        ijkio_cache_dir_update(c->cache_file_path, c->cache_dir_reported_pos);
+    }
 }
 
 static int ijkio_cache_check_interrupt(IjkURLContext *h)
@@ -134,6 +188,100 @@ static int ijkio_cache_check_interrupt(IjkURLContext *h)
     return c->abort_request;
 }
 
+static void cache_share_lock(IjkIOCacheContext *c)
+{
+    if (c->cache_share)
+        pthread_mutex_lock(&c->cache_share->mutex);
+}
+
+static void cache_share_unlock(IjkIOCacheContext *c)
+{
+    if (c->cache_share)
+        pthread_mutex_unlock(&c->cache_share->mutex);
+}
+
+static int ijkio_cache_share_is_writer(IjkIOCacheContext *c)
+{
+    int is_writer = 1;
+
+    if (c->cache_share) {
+        pthread_mutex_lock(&c->cache_share->mutex);
+        is_writer = c->cache_share->writer == c->ijkio_app_ctx;
+        pthread_mutex_unlock(&c->cache_share->mutex);
+    }
+    return is_writer;
+}
+
+static void ijkio_cache_share_idle(IjkIOCacheContext *c)
+{
+    IjkIOCacheShare *share = c->cache_share;
+
+    if (!share)
+        return;
+
+    pthread_mutex_lock(&share->mutex);
+    if (share->writer == c->ijkio_app_ctx && share->write_file_no == c->cur_file_no)
+        ijkio_cache_share_publish_l(share, c->cur_file_no, -1, -1);
+    pthread_mutex_unlock(&share->mutex);
+}
+
+/*
+ * A reader waits only while the writer is heading for read_logical_pos, and
+ * fetches the bytes itself once the writer made no progress for
+ * CACHE_SHARE_STALL_TIMEOUT_MS. It does not wait for that writer position again.
+ *
+ * @return 1 if the writer appended, 0 if the caller should fetch the bytes
+ * itself, IJKAVERROR_EXIT on interrupt
+ */
+static int ijkio_cache_share_wait(IjkURLContext *h)
+{
+    IjkIOCacheContext *c   = h->priv_data;
+    IjkIOCacheShare *share = c->cache_share;
+    int64_t write_pos      = 0;
+    int waited_ms          = 0;
+    int ret                = 0;
+
+    pthread_mutex_lock(&share->mutex);
+    write_pos = share->write_pos;
+    if (!share->writer || share->writer == c->ijkio_app_ctx ||
+        share->write_file_no != c->cur_file_no || write_pos < 0 ||
+        write_pos == c->share_stalled_pos ||
+        c->read_logical_pos < write_pos || c->read_logical_pos >= share->write_limit) {
+        pthread_mutex_unlock(&share->mutex);
+        return 0;
+    }
+
+    while (share->write_pos == write_pos) {
+        struct timeval now;
+        struct timespec deadline;
+
+        if (ijkio_cache_check_interrupt(h)) {
+            ret = IJKAVERROR_EXIT;
+            break;
+        }
+        if (waited_ms >= CACHE_SHARE_STALL_TIMEOUT_MS) {
+            av_log(NULL, AV_LOG_INFO, "ijkio cache share writer stalled at %lld, read %lld directly\n",
+                   (long long)write_pos, (long long)c->read_logical_pos);
+            c->share_stalled_pos = write_pos;
+            break;
+        }
+
+        gettimeofday(&now, NULL);
+        deadline.tv_sec  = now.tv_sec;
+        deadline.tv_nsec = (now.tv_usec + CACHE_SHARE_WAIT_SLICE_MS * 1000) * 1000L;
+        if (deadline.tv_nsec >= 1000000000L) {
+            deadline.tv_sec  += 1;
+            deadline.tv_nsec -= 1000000000L;
+        }
+        if (pthread_cond_timedwait(&share->cond, &share->mutex, &deadline) == ETIMEDOUT)
+            waited_ms += CACHE_SHARE_WAIT_SLICE_MS;
+    }
+    if (ret == 0 && share->write_pos != write_pos)
+        ret = 1;
+    pthread_mutex_unlock(&share->mutex);
+    return ret;
+}
+
 static int enu_free(void *opaque, void *elem)
 {
     free(elem);
@@ -156,7 +304,7 @@ static int ijkio_cache_file_error(IjkURLContext *h) {
     if (c && c->file_handle_retry_count > 3) {
         pthread_mutex_lock(&h->ijkio_app_ctx->mutex);
         c->file_error_count++;
-        if (!c->ijkio_app_ctx->shared) {
+        if (!c->ijkio_app_ctx->shared && !c->cache_share) {
             ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
             ijk_map_clear(c->cache_info_map);
             c->tree_info = NULL;
@@ -183,7 +331,12 @@ static int ijkio_cache_file_error(IjkURLContext *h) {
                     c->cache_file_close = 1;
                     goto fail;
                 }
-                ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info);
+                if (ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info)) {
+                    free(c->tree_info);
+                    c->tree_info = NULL;
+                    c->cache_file_close = 1;
+                    goto fail;
+                }
             } else {
                 av_log(NULL, AV_LOG_WARNING, "ijkio_cache_file_error will cache_file_close\n");
                 c->cache_file_close = 1;
@@ -206,12 +359,18 @@ static int64_t ijkio_cache_file_overrang(IjkURLContext *h, int64_t *cur_pos, int
 
     pthread_mutex_lock(&h->ijkio_app_ctx->mutex);
 
-    if (!c->ijkio_app_ctx->shared) {
+    // readers of a concurrent share may still be reading the bytes a flush would overwrite
+    if (!c->ijkio_app_ctx->shared && !c->cache_share) {
         ijk_map_remove(c->cache_info_map, (int64_t)c->cur_file_no);
         ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
         ijk_map_clear(c->cache_info_map);
         memset(c->tree_info, 0, sizeof(IjkCacheTreeInfo));
-        ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info);
+        if (ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info)) {
+            free(c->tree_info);
+            c->tree_info = NULL;
+            c->cache_file_close = 1;
+            goto fail;
+        }
         *c->last_physical_pos    = 0;
         c->cache_physical_pos    = 0;
         c->io_eof_reached        = 0;
@@ -275,6 +434,7 @@ static int64_t add_entry(IjkURLContext *h, const unsigned char *buf, int size)
         c->file_handle_retry_count = 0;
     }
 
+    cache_share_lock(c);
     c->cache_physical_pos       += ret;
     *c->last_physical_pos       += ret;
     c->tree_info->physical_size += ret;
@@ -284,9 +444,11 @@ static int64_t add_entry(IjkURLContext *h, const unsigned char *buf, int size)
     if (!entry)
         entry = next[0];
 
+    // entries are capped so that each checksum can be verified cheaply
     if (!entry ||
         entry->logical_pos  + entry->size != c->file_logical_pos ||
-        entry->physical_pos + entry->size != pos) {
+        entry->physical_pos + entry->size != pos ||
+        entry->size >= CACHE_ENTRY_MAX_SIZE) {
         entry = malloc(sizeof(*entry));
         node = ijk_av_tree_node_alloc();
         if (!entry || !node) {
@@ -296,6 +458,8 @@ static int64_t add_entry(IjkURLContext *h, const unsigned char *buf, int size)
         entry->logical_pos = c->file_logical_pos;
         entry->physical_pos = pos;
         entry->size = ret;
+        entry->checksum = ijk_adler32_update(1, buf, ret);
+        entry->flags = IJKIO_CACHE_ENTRY_CHECKSUM;
 
         entry_ret = ijk_av_tree_insert(&c->tree_info->root, entry, cmp, &node);
         if (entry_ret && entry_ret != entry) {
@@ -303,11 +467,18 @@ static int64_t add_entry(IjkURLContext *h, const unsigned char *buf, int size)
             av_log(NULL, AV_LOG_ERROR, "av_tree_insert failed\n");
             goto fail;
         }
-    } else
+    } else {
         entry->size += ret;
+        entry->checksum = ijk_adler32_update(entry->checksum, buf, ret);
+    }
 
+    if (c->cache_share)
+        ijkio_cache_share_publish_l(c->cache_share, c->cur_file_no, c->file_logical_pos + ret,
+                                    c->read_logical_pos + c->cache_file_forwards_capacity);
+    cache_share_unlock(c);
     return ret;
 fail:
+    cache_share_unlock(c);
     //we could truncate the file to pos here if pos >=0 but ftruncate isn't available in VS so
     //for simplicty we just leave the file a bit larger
     free(entry);
@@ -365,7 +536,10 @@ static int ijkio_cache_io_open(IjkURLContext *h, const char *url, int flags, Ijk
     } else {
         c->logical_size = ijkio_cache_ffurl_size(h);
         if (c->tree_info && !c->cache_file_close) {
-            c->tree_info->file_size = c->logical_size;
+            cache_share_lock(c);
+            if (!c->cache_share || c->cache_share->writer == c->ijkio_app_ctx)
+                c->tree_info->file_size = c->logical_size;
+            cache_share_unlock(c);
         }
     }
 
@@ -479,6 +653,318 @@ static int64_t ijkio_cache_write_file(IjkURLContext *h) {
     return r;
 }
 
+static int ijkio_cache_range_interrupt(void *opaque)
+{
+    IjkIOCacheRange *range = opaque;
+    IjkIOCacheContext *c   = range->owner->priv_data;
+
+    if (range->abort_request || c->abort_request)
+        return 1;
+
+    if (c->ijkio_interrupt_callback && c->ijkio_interrupt_callback->callback)
+        return c->ijkio_interrupt_callback->callback(c->ijkio_interrupt_callback->opaque);
+
+    return 0;
+}
+
+static void ijkio_cache_range_close(IjkIOCacheRange *range)
+{
+    if (!range->inner)
+        return;
+
+    if (range->inner->prot && range->inner->prot->url_close)
+        range->inner->prot->url_close(range->inner);
+    ijk_av_freep(&range->inner->priv_data);
+    ijk_av_freep(&range->inner);
+}
+
+static int ijkio_cache_range_open(IjkIOCacheRange *range)
+{
+    IjkIOCacheContext *c     = range->owner->priv_data;
+    IjkAVDictionary *options = NULL;
+    int ret = 0;
+
+    // each connection gets its own interrupt callback so that a seek can
+    // abort the ranges in flight without interrupting the player
+    range->app_ctx                          = *c->ijkio_app_ctx;
+    range->app_ctx.ijkio_interrupt_callback = &range->interrupt_cb;
+
+    ret = ijkio_alloc_url(&range->inner, c->inner_url);
+    if (ret != 0 || !range->inner)
+        return IJKAVERROR(ENOMEM);
+    range->inner->ijkio_app_ctx = &range->app_ctx;
+
+    ijk_av_dict_copy(&options, c->inner_options, 0);
+    ret = range->inner->prot->url_open2(range->inner, c->inner_url, c->inner_flags, &options);
+    ijk_av_dict_free(&options);
+    if (ret != 0) {
+        ijkio_cache_range_close(range);
+        return ret;
+    }
+
+    range->inner_pos = 0;
+    return 0;
+}
+
+static void ijkio_cache_range_task(void *arg, void *r)
+{
+    IjkIOCacheRange *range = arg;
+    IjkIOCacheContext *c   = range->owner->priv_data;
+    int64_t ret = 0;
+
+    if (!range->inner)
+        ret = ijkio_cache_range_open(range);
+
+    if (ret == 0 && range->inner_pos != range->logical_pos) {
+        ret = range->inner->prot->url_seek(range->inner, range->logical_pos, SEEK_SET);
+        if (ret >= 0) {
+            range->inner_pos = ret;
+            ret = 0;
+        }
+    }
+
+    while (ret == 0 && range->filled < range->size) {
+        int n;
+
+        if (ijkio_cache_range_interrupt(range)) {
+            ret = IJKAVERROR_EXIT;
+            break;
+        }
+
+        n = range->inner->prot->url_read(range->inner, range->buf + range->filled, (int)(range->size - range->filled));
+        if (n == 0 || n == IJKAVERROR_EOF) {
+            range->eof = 1;
+            break;
+        } else if (n < 0) {
+            ret = n;
+            break;
+        }
+
+        range->filled    += n;
+        range->inner_pos += n;
+    }
+
+    if (ret < 0) {
+        // reconnect on next use rather than trusting the connection state
+        ijkio_cache_range_close(range);
+    }
+
+    pthread_mutex_lock(&c->file_mutex);
+    range->error = (int)ret;
+    range->state = IJKIO_CACHE_RANGE_DONE;
+    c->range_running_count--;
+    pthread_cond_signal(&c->cond_wakeup_file_background);
+    pthread_cond_signal(&c->cond_wakeup_range);
+    pthread_mutex_unlock(&c->file_mutex);
+}
+
+/* must be called with file_mutex held */
+static void ijkio_cache_range_reset_l(IjkURLContext *h)
+{
+    IjkIOCacheContext *c = h->priv_data;
+    int i;
+
+    if (!c->ranges)
+        return;
+
+    for (i = 0; i < c->range_connections; i++) {
+        if (c->ranges[i].state == IJKIO_CACHE_RANGE_RUNNING)
+            c->ranges[i].abort_request = 1;
+    }
+
+    while (c->range_running_count > 0)
+        pthread_cond_wait(&c->cond_wakeup_range, &c->file_mutex);
+
+    for (i = 0; i < c->range_connections; i++)
+        c->ranges[i].state = IJKIO_CACHE_RANGE_IDLE;
+
+    c->range_head     = 0;
+    c->range_count    = 0;
+    c->range_next_pos = c->file_logical_pos;
+}
+
+/* must be called with file_mutex held */
+static void ijkio_cache_range_dispatch_l(IjkURLContext *h, int64_t hole_end)
+{
+    IjkIOCacheContext *c = h->priv_data;
+
+    while (c->range_count < c->range_connections &&
+           c->range_next_pos < hole_end &&
+           c->range_next_pos - c->read_logical_pos <= c->cache_file_forwards_capacity) {
+        IjkIOCacheRange *range = &c->ranges[(c->range_head + c->range_count) % c->range_connections];
+
+        range->logical_pos   = c->range_next_pos;
+        range->size          = FFMIN(c->range_size, hole_end - c->range_next_pos);
+        range->filled        = 0;
+        range->eof           = 0;
+        range->error         = 0;
+        range->abort_request = 0;
+        range->state         = IJKIO_CACHE_RANGE_RUNNING;
+
+        if (ijk_threadpool_add(c->range_threadpool_ctx, ijkio_cache_range_task, range, NULL, 0)) {
+            range->state = IJKIO_CACHE_RANGE_IDLE;
+            break;
+        }
+
+        c->range_running_count++;
+        c->range_count++;
+        c->range_next_pos += range->size;
+    }
+}
+
+/*
+ * Range mode counterpart of ijkio_cache_write_file: the hole in front of
+ * file_logical_pos is split into range_size chunks fetched over
+ * range_connections connections, and the chunks are committed to the cache
+ * file in logical order so that add_entry keeps growing a single entry.
+ */
+static int64_t ijkio_cache_write_file_range(IjkURLContext *h) {
+    IjkIOCacheContext *c = h->priv_data;
+    IjkCacheEntry *entry = NULL, *next[2] = {NULL, NULL};
+    IjkIOCacheRange *range = NULL;
+    int64_t hole_end = 0;
+    int64_t r = 0;
+
+    if (!c->tree_info)
+        return FILE_RW_ERROR;
+
+    pthread_mutex_lock(&c->file_mutex);
+    if (c->range_count == 0) {
+        while ((entry = ijk_av_tree_find(c->tree_info->root, &c->file_logical_pos, cmp, (void**)next)) || next[0]) {
+            if (!entry)
+                entry = next[0];
+            if (c->file_logical_pos >= entry->logical_pos + entry->size)
+                break;
+            c->file_logical_pos = entry->logical_pos + entry->size;
+            next[0] = next[1] = NULL;
+        }
+
+        if ((c->file_logical_end > 0 && c->file_logical_pos >= c->file_logical_end) ||
+            c->file_logical_pos >= c->logical_size) {
+            c->io_eof_reached = 1;
+            pthread_mutex_unlock(&c->file_mutex);
+            return 0;
+        }
+        c->range_next_pos = c->file_logical_pos;
+    }
+
+    next[0] = next[1] = NULL;
+    entry = ijk_av_tree_find(c->tree_info->root, &c->range_next_pos, cmp, (void**)next);
+    hole_end = c->logical_size;
+    if (!entry && next[1])
+        hole_end = FFMIN(hole_end, next[1]->logical_pos);
+    else if (entry)
+        hole_end = c->range_next_pos;
+    if (c->file_logical_end > 0)
+        hole_end = FFMIN(hole_end, c->file_logical_end);
+
+    ijkio_cache_range_dispatch_l(h, hole_end);
+
+    range = &c->ranges[c->range_head];
+    if (c->range_count == 0 || range->state != IJKIO_CACHE_RANGE_DONE) {
+        if (c->range_count > 0)
+            pthread_cond_wait(&c->cond_wakeup_file_background, &c->file_mutex);
+        pthread_mutex_unlock(&c->file_mutex);
+        return 0;
+    }
+
+    if (range->error < 0) {
+        c->io_eof_reached = 1;
+        c->io_error       = range->error;
+        r                 = range->error;
+        ijkio_cache_range_reset_l(h);
+        pthread_mutex_unlock(&c->file_mutex);
+        return r;
+    }
+
+    if (range->filled > 0) {
+        *c->cache_count_bytes += range->filled;
+        r = add_entry(h, range->buf, (int)range->filled);
+        if (r <= 0) {
+            // the cache file was flushed or failed, file_logical_pos moved
+            ijkio_cache_range_reset_l(h);
+            pthread_mutex_unlock(&c->file_mutex);
+            return r;
+        }
+        c->file_logical_pos += r;
+    }
+
+    if (range->eof && range->filled < range->size) {
+        c->file_logical_end = c->file_logical_pos;
+        c->io_eof_reached   = 1;
+    }
+
+    range->state  = IJKIO_CACHE_RANGE_IDLE;
+    c->range_head = (c->range_head + 1) % c->range_connections;
+    c->range_count--;
+    if (c->io_eof_reached)
+        ijkio_cache_range_reset_l(h);
+    else
+        ijkio_cache_range_dispatch_l(h, hole_end);
+    pthread_mutex_unlock(&c->file_mutex);
+
+    return r;
+}
+
+static int ijkio_cache_range_init(IjkURLContext *h)
+{
+    IjkIOCacheContext *c = h->priv_data;
+    int i;
+
+    if (pthread_cond_init(&c->cond_wakeup_range, NULL) != 0)
+        return -1;
+
+    c->ranges = calloc(c->range_connections, sizeof(IjkIOCacheRange));
+    if (!c->ranges)
+        goto fail;
+
+    for (i = 0; i < c->range_connections; i++) {
+        IjkIOCacheRange *range = &c->ranges[i];
+        range->owner                 = h;
+        range->interrupt_cb.callback = ijkio_cache_range_interrupt;
+        range->interrupt_cb.opaque   = range;
+        range->buf                   = malloc(c->range_size);
+        if (!range->buf)
+            goto fail;
+    }
+
+    c->range_threadpool_ctx = ijk_threadpool_create(c->range_connections, c->range_connections, 0);
+    if (!c->range_threadpool_ctx)
+        goto fail;
+
+    return 0;
+fail:
+    if (c->ranges) {
+        for (i = 0; i < c->range_connections; i++)
+            free(c->ranges[i].buf);
+        free(c->ranges);
+        c->ranges = NULL;
+    }
+    pthread_cond_destroy(&c->cond_wakeup_range);
+    return -1;
+}
+
+static void ijkio_cache_range_uninit(IjkURLContext *h)
+{
+    IjkIOCacheContext *c = h->priv_data;
+    int i;
+
+    if (!c->ranges)
+        return;
+
+    // ijkio_cache_task resets the ranges before it exits, no worker is busy here
+    ijk_threadpool_destroy(c->range_threadpool_ctx, IJK_IMMEDIATE_SHUTDOWN);
+    c->range_threadpool_ctx = NULL;
+
+    for (i = 0; i < c->range_connections; i++) {
+        ijkio_cache_range_close(&c->ranges[i]);
+        free(c->ranges[i].buf);
+    }
+    free(c->ranges);
+    c->ranges = NULL;
+    pthread_cond_destroy(&c->cond_wakeup_range);
+}
+
 static void ijkio_cache_task(void *h, void *r) {
     IjkIOCacheContext *c= ((IjkURLContext *)h)->priv_data;
     c->task_is_running = 1;
@@ -503,6 +989,7 @@ static void ijkio_cache_task(void *h, void *r) {
             c->read_logical_pos  = c->seek_pos;
             c->file_logical_pos  = c->seek_pos;
             c->seek_ret          = c->seek_pos;
+            ijkio_cache_range_reset_l(h);
             pthread_cond_signal(&c->cond_wakeup_main);
             pthread_mutex_unlock(&c->file_mutex);
         }
@@ -514,7 +1001,10 @@ static void ijkio_cache_task(void *h, void *r) {
             pthread_cond_wait(&c->cond_wakeup_file_background, &c->file_mutex);
             pthread_mutex_unlock(&c->file_mutex);
         } else {
-            ret = ijkio_cache_write_file(h);
+            if (c->ranges && c->logical_size > 0)
+                ret = ijkio_cache_write_file_range(h);
+            else
+                ret = ijkio_cache_write_file(h);
             if (ret > 0) {
                 pthread_mutex_lock(&c->file_mutex);
                 pthread_cond_signal(&c->cond_wakeup_main);
@@ -526,7 +1016,9 @@ static void ijkio_cache_task(void *h, void *r) {
 
         call_inject_statistic(h);
     }
+    ijkio_cache_share_idle(c);
     pthread_mutex_lock(&c->file_mutex);
+    ijkio_cache_range_reset_l(h);
     c->task_is_running = 0;
     pthread_cond_signal(&c->cond_wakeup_main);
     pthread_cond_signal(&c->cond_wakeup_exit);
@@ -537,6 +1029,9 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
     IjkIOCacheContext *c= h->priv_data;
     int ret = 0;
     int64_t cur_exist_file_size = 0;
+    int64_t cache_verify_size = DEFAULT_CACHE_VERIFY_SIZE;
+    const char *cache_validator = NULL;
+    int is_share_reader = 0;
     if (!c)
         return IJKAVERROR(ENOSYS);
 
@@ -574,6 +1069,26 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
         c->cur_file_no = (int)strtol(t->value, NULL, 10);
     }
 
+    c->range_connections = 1;
+    c->range_size        = DEFAULT_CACHE_RANGE_SIZE;
+    t = ijk_av_dict_get(*options, "cache_range_connections", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t) {
+        c->range_connections = (int)strtol(t->value, NULL, 10);
+        if (c->range_connections < 1)
+            c->range_connections = 1;
+        else if (c->range_connections > MAX_CACHE_RANGE_CONNECTIONS)
+            c->range_connections = MAX_CACHE_RANGE_CONNECTIONS;
+    }
+
+    t = ijk_av_dict_get(*options, "cache_range_size", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t) {
+        c->range_size = strtoll(t->value, NULL, 10);
+        if (c->range_size < 64 * 1024)
+            c->range_size = 64 * 1024;
+        else if (c->range_size > 8 * 1024 * 1024)
+            c->range_size = 8 * 1024 * 1024;
+    }
+
     t = ijk_av_dict_get(*options, "only_read_file", NULL, IJK_AV_DICT_MATCH_CASE);
     if (t) {
         c->only_read_file = (int)strtol(t->value, NULL, 10);
@@ -582,6 +1097,16 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
         }
     }
 
+    t = ijk_av_dict_get(*options, "cache_verify_size", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t) {
+        cache_verify_size = strtoll(t->value, NULL, 10);
+    }
+
+    t = ijk_av_dict_get(*options, "cache_validator", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t && strlen(t->value)) {
+        cache_validator = t->value;
+    }
+
     c->cache_file_path = c->ijkio_app_ctx->cache_file_path;
 
     if (c->cache_file_path == NULL || 0 == strlen(c->cache_file_path)) {
@@ -592,6 +1117,16 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
     c->cache_info_map       = c->ijkio_app_ctx->cache_info_map;
     c->last_physical_pos    = &c->ijkio_app_ctx->last_physical_pos;
     c->cache_count_bytes    = &c->ijkio_app_ctx->cache_count_bytes;
+    c->cache_share          = c->ijkio_app_ctx->cache_share;
+    c->share_stalled_pos    = -1;
+    if (c->cache_share) {
+        is_share_reader = !ijkio_cache_share_is_writer(c);
+        // readers consume what the writer fetches instead of running a forward task
+        if (is_share_reader)
+            c->cache_file_forwards_capacity = 0;
+        else
+            c->last_physical_pos = &c->cache_share->last_physical_pos;
+    }
     if (!c->last_physical_pos || !c->threadpool_ctx || !c->cache_info_map) {
         return -1;
     }
@@ -600,6 +1135,10 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
         do {
             if (c->ijkio_app_ctx->fd >= 0) {
                 c->fd = c->ijkio_app_ctx->fd;
+            } else if (is_share_reader) {
+                // the writer owns the file content, never truncate or verify it here
+                c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT, 0600);
+                c->ijkio_app_ctx->fd = c->fd;
             } else {
                 if (ijk_map_size(c->cache_info_map) > 0) {
                     av_log(NULL, AV_LOG_INFO, "ijkio cache will use the data that already exists\n");
@@ -607,11 +1146,13 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
                     c->async_open = 1;
                     cur_exist_file_size = lseek(c->fd, 0, SEEK_END);
                     if (cur_exist_file_size < *c->last_physical_pos) {
-                        av_log(NULL, AV_LOG_WARNING, "ijkio cache exist is error, will delete last_physical_pos = %lld, cur_exist_file_size = %lld\n", *c->last_physical_pos, cur_exist_file_size);
-                        ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
-                        ijk_map_clear(c->cache_info_map);
-                        *c->last_physical_pos    = 0;
-                        c->cache_physical_pos    = 0;
+                        av_log(NULL, AV_LOG_WARNING, "ijkio cache exist is truncated, last_physical_pos = %lld, cur_exist_file_size = %lld\n", *c->last_physical_pos, cur_exist_file_size);
+                    }
+                    // keep what is intact instead of discarding the whole cache
+                    if (c->fd >= 0) {
+                        cache_share_lock(c);
+                        ijkio_cache_map_verify(c->cache_info_map, c->fd, cache_verify_size);
+                        cache_share_unlock(c);
                     }
                 } else {
                     c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | O_TRUNC, 0600);
@@ -634,19 +1175,46 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
                 c->cache_physical_pos = *c->last_physical_pos;
             }
 
+            cache_share_lock(c);
             c->tree_info = ijk_map_get(c->cache_info_map, (int64_t)c->cur_file_no);
             if (c->tree_info == NULL) {
                 c->tree_info = calloc(1, sizeof(IjkCacheTreeInfo));
-                c->tree_info->physical_init_pos = *c->last_physical_pos;
-                ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info);
+                if (!c->tree_info) {
+                    c->cache_file_close = 1;
+                    cache_share_unlock(c);
+                    break;
+                }
+                c->tree_info->physical_init_pos = c->cache_share ? c->cache_share->last_physical_pos : *c->last_physical_pos;
+                if (ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info)) {
+                    free(c->tree_info);
+                    c->tree_info = NULL;
+                    c->cache_file_close = 1;
+                    cache_share_unlock(c);
+                    break;
+                }
             } else {
-                if (c->tree_info->physical_size > 200 * 1024 && c->tree_info->file_size > 0) {
+                if (cache_validator && strlen(c->tree_info->validator) &&
+                    strcmp(cache_validator, c->tree_info->validator)) {
+                    if (is_share_reader) {
+                        av_log(NULL, AV_LOG_WARNING, "ijkio cache validator differs from the writer, bypass cache of file %d\n", c->cur_file_no);
+                        c->cache_file_close = 1;
+                        cache_share_unlock(c);
+                        break;
+                    }
+                    av_log(NULL, AV_LOG_WARNING, "ijkio cache validator changed, drop cached content of file %d\n", c->cur_file_no);
+                    ijkio_cache_map_reset_tree(c->tree_info);
+                }
+                // a reader does not need its own connection while the writer serves it
+                if ((c->tree_info->physical_size > 200 * 1024 || is_share_reader) && c->tree_info->file_size > 0) {
                     c->logical_size = c->tree_info->file_size;
                     c->async_open = 1;
                 } else {
                     c->async_open = 0;
                 }
             }
+            if (cache_validator && c->tree_info)
+                snprintf(c->tree_info->validator, sizeof(c->tree_info->validator), "%s", cache_validator);
+            cache_share_unlock(c);
         } while(0);
     }
 
@@ -654,10 +1222,26 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
     if (c->inner && !ret) {
         c->inner->ijkio_app_ctx = c->ijkio_app_ctx;
         if (c->logical_size <= 0 || c->async_open == 0) {
+            int64_t cached_file_size = c->tree_info && !c->cache_file_close ? c->tree_info->file_size : 0;
             c->async_open = 0;
             ret = ijkio_cache_io_open(h, url, flags, options);
             if (ret != 0)
                 goto url_fail;
+            if (cached_file_size > 0 && c->logical_size > 0 && cached_file_size != c->logical_size) {
+                if (is_share_reader) {
+                    av_log(NULL, AV_LOG_WARNING, "ijkio cache file size differs from the writer, bypass cache\n");
+                    c->cache_file_close = 1;
+                } else {
+                    av_log(NULL, AV_LOG_WARNING, "ijkio cache file size changed %lld -> %lld, drop cached content\n",
+                           (long long)cached_file_size, (long long)c->logical_size);
+                    cache_share_lock(c);
+                    ijkio_cache_map_reset_tree(c->tree_info);
+                    c->tree_info->file_size = c->logical_size;
+                    if (cache_validator)
+                        snprintf(c->tree_info->validator, sizeof(c->tree_info->validator), "%s", cache_validator);
+                    cache_share_unlock(c);
+                }
+            }
         } else {
             c->tree_info->file_size = c->logical_size;
             ijk_av_dict_copy(&c->inner_options, *options, 0);
@@ -691,6 +1275,18 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
         goto cond_wakeup_exit_fail;
     }
 
+    // androidio wraps a single IAndroidIO instance and cannot be opened twice
+    if (!c->cache_file_close && c->cache_file_forwards_capacity && c->range_connections > 1 &&
+        strncmp(url, "androidio:", strlen("androidio:")) && strlen(url) < sizeof(c->inner_url)) {
+        if (!c->inner_options)
+            ijk_av_dict_copy(&c->inner_options, *options, 0);
+        strcpy(c->inner_url, url);
+        c->inner_flags = flags;
+        if (ijkio_cache_range_init(h) != 0) {
+            av_log(NULL, AV_LOG_WARNING, "ijkio cache range init failed, fall back to one connection\n");
+        }
+    }
+
     if (!c->cache_file_close && c->cache_file_forwards_capacity) {
         c->task_is_running = 1;
         ret = ijk_threadpool_add(c->threadpool_ctx, ijkio_cache_task, h, NULL, 0);
@@ -704,6 +1300,7 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
     return 0;
 
 thread_fail:
+    ijkio_cache_range_uninit(h);
     pthread_cond_destroy(&c->cond_wakeup_exit);
 cond_wakeup_exit_fail:
     pthread_cond_destroy(&c->cond_wakeup_file_background);
@@ -811,6 +1408,7 @@ static int64_t sync_add_entry(IjkURLContext *h, const unsigned char *buf, int si
         return FILE_RW_ERROR;
     }
 
+    cache_share_lock(c);
     c->cache_physical_pos       += ret;
     *c->last_physical_pos       += ret;
     c->tree_info->physical_size += ret;
@@ -820,9 +1418,11 @@ static int64_t sync_add_entry(IjkURLContext *h, const unsigned char *buf, int si
     if (!entry)
         entry = next[0];
 
+    // entries are capped so that each checksum can be verified cheaply
     if (!entry ||
         entry->logical_pos  + entry->size != c->read_logical_pos ||
-        entry->physical_pos + entry->size != pos) {
+        entry->physical_pos + entry->size != pos ||
+        entry->size >= CACHE_ENTRY_MAX_SIZE) {
         entry = malloc(sizeof(*entry));
         node = ijk_av_tree_node_alloc();
         if (!entry || !node) {
@@ -832,6 +1432,8 @@ static int64_t sync_add_entry(IjkURLContext *h, const unsigned char *buf, int si
         entry->logical_pos = c->read_logical_pos;
         entry->physical_pos = pos;
         entry->size = ret;
+        entry->checksum = ijk_adler32_update(1, buf, ret);
+        entry->flags = IJKIO_CACHE_ENTRY_CHECKSUM;
 
         entry_ret = ijk_av_tree_insert(&c->tree_info->root, entry, cmp, &node);
         if (entry_ret && entry_ret != entry) {
@@ -841,10 +1443,16 @@ static int64_t sync_add_entry(IjkURLContext *h, const unsigned char *buf, int si
         }
     } else {
         entry->size += ret;
+        entry->checksum = ijk_adler32_update(entry->checksum, buf, ret);
     }
 
+    if (c->cache_share)
+        ijkio_cache_share_publish_l(c->cache_share, c->cur_file_no, c->read_logical_pos + ret,
+                                    c->read_logical_pos + ret + CACHE_SHARE_SYNC_WINDOW);
+    cache_share_unlock(c);
     return ret;
 fail:
+    cache_share_unlock(c);
     //we could truncate the file to pos here if pos >=0 but ftruncate isn't available in VS so
     //for simplicty we just leave the file a bit larger
     free(entry);
@@ -857,7 +1465,8 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
     int64_t ret = 0;
     int to_read = size;
     int to_copy = 0;
-    IjkCacheEntry *entry = NULL, *next_entry = NULL, *next[2] = {NULL, NULL};
+    int64_t in_block_pos = 0, physical_target = 0, block_left = 0, next_logical_pos = -1;
+    IjkCacheEntry *entry = NULL, *next[2] = {NULL, NULL};
 
     if (!c || !c->inner || !c->inner->prot)
         return IJKAVERROR(ENOSYS);
@@ -866,6 +1475,13 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
         return to_read;
     }
 
+retry:
+    // readers of a concurrent share must not look at an entry while the writer grows it
+    cache_share_lock(c);
+    entry = NULL;
+    next[0] = next[1] = NULL;
+    block_left = 0;
+    next_logical_pos = -1;
     if (c->tree_info) {
         entry = ijk_av_tree_find(c->tree_info->root, &c->read_logical_pos, cmp, (void**)next);
     }
@@ -874,25 +1490,39 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
         entry = next[0];
 
     if (entry) {
-        int64_t in_block_pos = c->read_logical_pos - entry->logical_pos;
+        in_block_pos = c->read_logical_pos - entry->logical_pos;
         if (in_block_pos < entry->size && entry->logical_pos <= c->read_logical_pos) {
-            int64_t physical_target = entry->physical_pos + in_block_pos;
-            if (c->cache_physical_pos != physical_target) {
-                ret = lseek(c->fd, physical_target, SEEK_SET);
-            } else {
-                ret = c->cache_physical_pos;
-            }
+            physical_target = entry->physical_pos + in_block_pos;
+            block_left      = entry->size - in_block_pos;
+        }
+    }
+    if (next[1])
+        next_logical_pos = next[1]->logical_pos;
+    cache_share_unlock(c);
 
+    if (block_left > 0) {
+        if (c->cache_physical_pos != physical_target) {
+            ret = lseek(c->fd, physical_target, SEEK_SET);
+        } else {
+            ret = c->cache_physical_pos;
+        }
+
+        if (ret >= 0) {
+            c->cache_physical_pos = ret;
+            to_copy = (int)FFMIN(to_read, block_left);
+            ret = wrapped_file_read(h, buf, to_copy);
             if (ret >= 0) {
-                c->cache_physical_pos = ret;
-                to_copy = (int)FFMIN(to_read, entry->size - in_block_pos);
-                ret = wrapped_file_read(h, buf, to_copy);
-                if (ret >= 0) {
-                    c->cache_physical_pos += ret;
-                    return (int)ret;
-                }
+                c->cache_physical_pos += ret;
+                return (int)ret;
             }
+        }
 
+        if (c->cache_share) {
+            // other players still use the file, fetch the bytes without caching them
+            av_log(NULL, AV_LOG_ERROR, "%s shared cache file is bad, read directly\n", __func__);
+            c->cache_physical_pos = -1;
+        } else {
+            next_logical_pos = -1;
             av_log(NULL, AV_LOG_ERROR, "%s cache file is bad, will try recreate\n", __func__);
             ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
             ijk_map_clear(c->cache_info_map);
@@ -905,8 +1535,9 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
             c->ijkio_app_ctx->fd = c->fd;
             if (c->fd >= 0) {
                 c->tree_info = calloc(1, sizeof(IjkCacheTreeInfo));
-                if (c->tree_info) {
-                    ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info);
+                if (c->tree_info && ijk_map_put(c->cache_info_map, (int64_t)c->cur_file_no, c->tree_info)) {
+                    free(c->tree_info);
+                    c->tree_info = NULL;
                 }
             }
         }
@@ -917,6 +1548,14 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
         return 0;
     }
 
+    if (c->cache_share && block_left <= 0 && !c->only_read_file) {
+        ret = ijkio_cache_share_wait(h);
+        if (ret < 0)
+            return (int)ret;
+        else if (ret > 0)
+            goto retry;
+    }
+
     if (c->async_open > 0) {
         ret = ijkio_cache_io_open(h, c->inner_url, c->inner_flags, &c->inner_options);
         if (ret != 0) {
@@ -933,9 +1572,8 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
         c->read_inner_pos = ret;
     }
 
-    next_entry = next[1];
-    if (next_entry && next_entry->logical_pos > c->read_logical_pos) {
-        to_copy = (int)FFMIN(to_read, next_entry->logical_pos - c->read_logical_pos);
+    if (next_logical_pos > c->read_logical_pos) {
+        to_copy = (int)FFMIN(to_read, next_logical_pos - c->read_logical_pos);
     } else {
         to_copy = to_read;
     }
@@ -946,7 +1584,11 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
 
     c->read_inner_pos   += ret;
 
-    if (c->fd >= 0 && c->tree_info && !c->only_read_file) {
+    // a reader caches what it fetched only once it took over the vacant writer role
+    if (c->fd >= 0 && c->tree_info && !c->only_read_file &&
+        (!c->cache_share || ijkio_cache_share_claim_writer(c->cache_share, c->ijkio_app_ctx))) {
+        if (c->cache_share)
+            c->last_physical_pos = &c->cache_share->last_physical_pos;
         sync_add_entry(h, buf, (int)ret);
     }
 
@@ -1095,6 +1737,9 @@ static int ijkio_cache_close(IjkURLContext *h) {
         c->abort_request = 1;
     }
 
+    ijkio_cache_share_idle(c);
+    ijkio_cache_range_uninit(h);
+
     pthread_cond_destroy(&c->cond_wakeup_file_background);
     pthread_cond_destroy(&c->cond_wakeup_main);
     pthread_cond_destroy(&c->cond_wakeup_exit);
@@ -1121,6 +1766,7 @@ static int ijkio_cache_pause(IjkURLContext *h) {
         ret = c->inner->prot->url_pause(c->inner);
     }
 
+    ijkio_cache_share_idle(c);
     if (!c->cache_file_forwards_capacity) {
         c->abort_request = 1;
     } else {
@@ -1131,6 +1777,12 @@ static int ijkio_cache_pause(IjkURLContext *h) {
             pthread_cond_wait(&c->cond_wakeup_exit, &c->file_mutex);
         }
         pthread_mutex_unlock(&c->file_mutex);
+
+        // do not hold extra connections while another context is active
+        if (c->ranges) {
+            for (int i = 0; i < c->range_connections; i++)
+                ijkio_cache_range_close(&c->ranges[i]);
+        }
     }
 
     return ret;
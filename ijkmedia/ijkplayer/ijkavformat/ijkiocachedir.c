@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkiocachedir.h"
+#include "ijkiocachemap.h"
+#include "ijkioapplication.h"
+#include "ijkplayer/ijkavutil/ijkutils.h"
+#include "ijkplayer/ijkavutil/ijktree.h"
+#include "ijkplayer/ijkavutil/ijkstl.h"
+#include "libavutil/log.h"
+
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdio.h>
+#include <time.h>
+#include <unistd.h>
+#include <sys/stat.h>
+
+#define CACHE_DIR_LINE_MAX_LEN (CACHE_FILE_PATH_MAX_LEN * 2 + 64)
+
+typedef struct IjkCacheDirEntry {
+    char    file_path[CACHE_FILE_PATH_MAX_LEN];
+    char    map_path[CACHE_FILE_PATH_MAX_LEN];
+    int64_t size;
+    int64_t last_access;
+    int     ref_count;
+    int     evicting;
+} IjkCacheDirEntry;
+
+typedef struct IjkCacheDirContext {
+    pthread_mutex_t   mutex;
+    pthread_cond_t    cond;
+    IjkCacheDirEntry *entries;
+    int               nb_entries;
+    int               capacity;
+    int64_t           max_size;
+    int64_t           usage;
+    int               evicting;
+    char              index_path[CACHE_FILE_PATH_MAX_LEN];
+} IjkCacheDirContext;
+
+static IjkCacheDirContext g_cache_dir = {
+    .mutex = PTHREAD_MUTEX_INITIALIZER,
+    .cond  = PTHREAD_COND_INITIALIZER,
+};
+
+static int64_t file_size(const char *path)
+{
+    struct stat st;
+    if (!path || !strlen(path) || stat(path, &st) != 0)
+        return 0;
+    return (int64_t)st.st_size;
+}
+
+static IjkCacheDirEntry *find_entry_l(const char *file_path)
+{
+    for (int i = 0; i < g_cache_dir.nb_entries; i++) {
+        if (!strcmp(g_cache_dir.entries[i].file_path, file_path))
+            return &g_cache_dir.entries[i];
+    }
+    return NULL;
+}
+
+static IjkCacheDirEntry *add_entry_l(const char *file_path, const char *map_path)
+{
+    IjkCacheDirEntry *entry = NULL;
+
+    if (g_cache_dir.nb_entries >= g_cache_dir.capacity) {
+        int capacity = FFMAX(16, g_cache_dir.capacity * 2);
+        IjkCacheDirEntry *entries = realloc(g_cache_dir.entries, capacity * sizeof(IjkCacheDirEntry));
+        if (!entries)
+            return NULL;
+        g_cache_dir.entries  = entries;
+        g_cache_dir.capacity = capacity;
+    }
+
+    entry = &g_cache_dir.entries[g_cache_dir.nb_entries++];
+    memset(entry, 0, sizeof(*entry));
+    strncpy(entry->file_path, file_path, CACHE_FILE_PATH_MAX_LEN - 1);
+    if (map_path)
+        strncpy(entry->map_path, map_path, CACHE_FILE_PATH_MAX_LEN - 1);
+    return entry;
+}
+
+static void remove_entry_l(IjkCacheDirEntry *entry)
+{
+    int index = (int)(entry - g_cache_dir.entries);
+
+    g_cache_dir.usage -= entry->size;
+    g_cache_dir.nb_entries--;
+    if (index != g_cache_dir.nb_entries)
+        g_cache_dir.entries[index] = g_cache_dir.entries[g_cache_dir.nb_entries];
+}
+
+static void save_index_l(void)
+{
+    char tmp_path[CACHE_FILE_PATH_MAX_LEN + 8] = {0};
+    FILE *fp = NULL;
+
+    if (!strlen(g_cache_dir.index_path))
+        return;
+
+    snprintf(tmp_path, sizeof(tmp_path), "%s.tmp", g_cache_dir.index_path);
+    fp = fopen(tmp_path, "w");
+    if (!fp)
+        return;
+
+    for (int i = 0; i < g_cache_dir.nb_entries; i++) {
+        IjkCacheDirEntry *entry = &g_cache_dir.entries[i];
+        fprintf(fp, "%lld\t%lld\t%s\t%s\n", (long long)entry->last_access, (long long)entry->size,
+                entry->file_path, entry->map_path);
+    }
+    fclose(fp);
+    rename(tmp_path, g_cache_dir.index_path);
+}
+
+static void load_index_l(void)
+{
+    char line[CACHE_DIR_LINE_MAX_LEN] = {0};
+    FILE *fp = fopen(g_cache_dir.index_path, "r");
+    if (!fp)
+        return;
+
+    while (fgets(line, sizeof(line), fp)) {
+        char *save_ptr          = NULL;
+        char *last_access       = strtok_r(line, "\t", &save_ptr);
+        char *size              = strtok_r(NULL, "\t", &save_ptr);
+        char *file_path         = strtok_r(NULL, "\t", &save_ptr);
+        char *map_path          = strtok_r(NULL, "\t\n", &save_ptr);
+        IjkCacheDirEntry *entry = NULL;
+
+        if (!last_access || !size || !file_path)
+            continue;
+        if (find_entry_l(file_path) || access(file_path, F_OK) != 0)
+            continue;
+
+        entry = add_entry_l(file_path, map_path);
+        if (!entry)
+            break;
+        entry->last_access = strtoll(last_access, NULL, 10);
+        entry->size        = file_size(entry->file_path) + file_size(entry->map_path);
+        g_cache_dir.usage += entry->size;
+    }
+    fclose(fp);
+}
+
+static int enu_physical_end(void *opaque, void *elem)
+{
+    IjkCacheEntry *entry = elem;
+    int64_t *end = opaque;
+    *end = FFMAX(*end, entry->physical_pos + entry->size);
+    return 0;
+}
+
+static int enu_free(void *opaque, void *elem)
+{
+    free(elem);
+    return 0;
+}
+
+static int tree_destroy(void *parm, int64_t key, void *elem)
+{
+    IjkCacheTreeInfo *info = elem;
+    ijk_av_tree_enumerate(info->root, NULL, NULL, enu_free);
+    ijk_av_tree_destroy(info->root);
+    free(info);
+    return 0;
+}
+
+typedef struct TrailingTree {
+    int64_t key;
+    int64_t start;
+    int64_t keep_end;
+    int count;
+} TrailingTree;
+
+static int find_trailing_tree(void *parm, int64_t key, void *elem)
+{
+    TrailingTree *t        = parm;
+    IjkCacheTreeInfo *info = elem;
+
+    t->count++;
+    if (t->key < 0 || info->physical_init_pos > t->start) {
+        t->start = info->physical_init_pos;
+        t->key   = key;
+    }
+    return 0;
+}
+
+static int find_keep_end(void *parm, int64_t key, void *elem)
+{
+    TrailingTree *t        = parm;
+    IjkCacheTreeInfo *info = elem;
+    int64_t end            = info->physical_init_pos;
+
+    if (key != t->key) {
+        ijk_av_tree_enumerate(info->root, &end, NULL, enu_physical_end);
+        t->keep_end = FFMAX(t->keep_end, end);
+    }
+    return 0;
+}
+
+/*
+ * Drop the segment stored last in the cache file and truncate the file to the
+ * end of what remains. Segments in the middle cannot be reclaimed without
+ * compacting the file, so they are left for whole-file eviction.
+ * @return 1 if a segment was dropped
+ */
+static int trim_trailing_segment(const char *file_path, const char *map_path)
+{
+    IjkIOApplicationContext app_ctx = {0};
+    TrailingTree t = { .key = -1 };
+    IjkCacheTreeInfo *info = NULL;
+    int trimmed = 0;
+
+    if (!strlen(map_path))
+        return 0;
+
+    app_ctx.cache_info_map = ijk_map_create();
+    if (!app_ctx.cache_info_map)
+        return 0;
+
+    if (ijkio_cache_map_load(&app_ctx, map_path) == 0) {
+        ijk_map_traversal_handle(app_ctx.cache_info_map, &t, find_trailing_tree);
+        ijk_map_traversal_handle(app_ctx.cache_info_map, &t, find_keep_end);
+        if (t.count > 1 && t.keep_end <= t.start && truncate(file_path, t.keep_end) == 0) {
+            info = ijk_map_get(app_ctx.cache_info_map, t.key);
+            ijk_map_remove(app_ctx.cache_info_map, t.key);
+            tree_destroy(NULL, t.key, info);
+            ijkio_cache_map_save(app_ctx.cache_info_map, map_path);
+            trimmed = 1;
+            av_log(NULL, AV_LOG_INFO, "cache dir: trim segment %lld of %s\n", (long long)t.key, file_path);
+        }
+    }
+
+    ijk_map_traversal_handle(app_ctx.cache_info_map, NULL, tree_destroy);
+    ijk_map_destroy(app_ctx.cache_info_map);
+    return trimmed;
+}
+
+/*
+ * Evict the least recently used files until the usage fits max_size. The
+ * victims are picked under the lock, but removed or trimmed out of it so that
+ * the other players are not blocked on the file system; one eviction runs at
+ * a time, and an acquire of the file being evicted waits for it.
+ */
+static void evict(void)
+{
+    char file_path[CACHE_FILE_PATH_MAX_LEN];
+    char map_path[CACHE_FILE_PATH_MAX_LEN];
+    int  changed = 0;
+
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    if (g_cache_dir.evicting) {
+        pthread_mutex_unlock(&g_cache_dir.mutex);
+        return;
+    }
+    g_cache_dir.evicting = 1;
+
+    while (g_cache_dir.max_size > 0 && g_cache_dir.usage > g_cache_dir.max_size) {
+        IjkCacheDirEntry *lru = NULL;
+        int64_t new_size      = -1;
+        int trim              = 0;
+
+        for (int i = 0; i < g_cache_dir.nb_entries; i++) {
+            IjkCacheDirEntry *entry = &g_cache_dir.entries[i];
+            if (entry->ref_count > 0)
+                continue;
+            if (!lru || entry->last_access < lru->last_access)
+                lru = entry;
+        }
+        if (!lru)
+            break;
+
+        changed = 1;
+        trim    = g_cache_dir.usage - g_cache_dir.max_size < lru->size;
+        strcpy(file_path, lru->file_path);
+        strcpy(map_path, lru->map_path);
+        lru->evicting = 1;
+        pthread_mutex_unlock(&g_cache_dir.mutex);
+
+        if (trim && trim_trailing_segment(file_path, map_path)) {
+            new_size = file_size(file_path) + file_size(map_path);
+        } else {
+            av_log(NULL, AV_LOG_INFO, "cache dir: evict %s\n", file_path);
+            remove(file_path);
+            if (strlen(map_path))
+                remove(map_path);
+        }
+
+        pthread_mutex_lock(&g_cache_dir.mutex);
+        lru = find_entry_l(file_path);
+        if (lru) {
+            lru->evicting = 0;
+            if (new_size >= 0) {
+                g_cache_dir.usage += new_size - lru->size;
+                lru->size          = new_size;
+            } else {
+                remove_entry_l(lru);
+            }
+        }
+        pthread_cond_broadcast(&g_cache_dir.cond);
+    }
+
+    g_cache_dir.evicting = 0;
+    if (changed)
+        save_index_l();
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+}
+
+void ijkio_cache_dir_set_max_size(int64_t max_size)
+{
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    g_cache_dir.max_size = max_size;
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+
+    evict();
+}
+
+int64_t ijkio_cache_dir_get_max_size(void)
+{
+    int64_t max_size;
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    max_size = g_cache_dir.max_size;
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+    return max_size;
+}
+
+int64_t ijkio_cache_dir_get_usage(void)
+{
+    int64_t usage;
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    usage = g_cache_dir.usage;
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+    return usage;
+}
+
+int ijkio_cache_dir_set_index_path(const char *path)
+{
+    if (!path || !strlen(path) || strlen(path) >= CACHE_FILE_PATH_MAX_LEN)
+        return -1;
+
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    if (strcmp(g_cache_dir.index_path, path)) {
+        strcpy(g_cache_dir.index_path, path);
+        load_index_l();
+    }
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+
+    evict();
+    return 0;
+}
+
+void ijkio_cache_dir_acquire(const char *cache_file_path, const char *cache_map_path)
+{
+    IjkCacheDirEntry *entry = NULL;
+
+    if (!cache_file_path || !strlen(cache_file_path))
+        return;
+
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    while ((entry = find_entry_l(cache_file_path)) && entry->evicting)
+        pthread_cond_wait(&g_cache_dir.cond, &g_cache_dir.mutex);
+    if (!entry) {
+        entry = add_entry_l(cache_file_path, cache_map_path);
+        if (!entry) {
+            pthread_mutex_unlock(&g_cache_dir.mutex);
+            return;
+        }
+        entry->size = file_size(cache_file_path) + file_size(cache_map_path);
+        g_cache_dir.usage += entry->size;
+    } else if (cache_map_path && strlen(cache_map_path)) {
+        strncpy(entry->map_path, cache_map_path, CACHE_FILE_PATH_MAX_LEN - 1);
+    }
+    entry->ref_count++;
+    entry->last_access = (int64_t)time(NULL);
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+
+    evict();
+}
+
+void ijkio_cache_dir_update(const char *cache_file_path, int64_t physical_size)
+{
+    IjkCacheDirEntry *entry = NULL;
+
+    if (!cache_file_path || !strlen(cache_file_path))
+        return;
+
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    entry = find_entry_l(cache_file_path);
+    if (entry) {
+        int64_t size = FFMAX(physical_size, 0) + file_size(entry->map_path);
+        g_cache_dir.usage += size - entry->size;
+        entry->size        = size;
+        entry->last_access = (int64_t)time(NULL);
+    }
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+
+    if (entry)
+        evict();
+}
+
+void ijkio_cache_dir_release(const char *cache_file_path)
+{
+    IjkCacheDirEntry *entry = NULL;
+
+    if (!cache_file_path || !strlen(cache_file_path))
+        return;
+
+    pthread_mutex_lock(&g_cache_dir.mutex);
+    entry = find_entry_l(cache_file_path);
+    if (entry) {
+        int64_t size = file_size(entry->file_path) + file_size(entry->map_path);
+        g_cache_dir.usage += size - entry->size;
+        entry->size        = size;
+        entry->last_access = (int64_t)time(NULL);
+        if (entry->ref_count > 0)
+            entry->ref_count--;
+        if (!entry->size && !entry->ref_count)
+            remove_entry_l(entry);
+        save_index_l();
+    }
+    pthread_mutex_unlock(&g_cache_dir.mutex);
+
+    if (entry)
+        evict();
+}
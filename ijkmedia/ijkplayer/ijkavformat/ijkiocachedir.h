@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKIOCACHEDIR_H
+#define IJKAVFORMAT_IJKIOCACHEDIR_H
+
+#include <stdint.h>
+
+/*
+ * Process-wide bookkeeping of every cache_file_path/cache_map_path pair
+ * opened through ijkiomanager. When the total size exceeds max_size, the
+ * least recently used pairs that no player currently holds are trimmed:
+ * trailing IjkCacheTreeInfo segments first, whole files when that is not
+ * enough.
+ *
+ * max_size <= 0 disables eviction (the default).
+ */
+void    ijkio_cache_dir_set_max_size(int64_t max_size);
+int64_t ijkio_cache_dir_get_max_size(void);
+int64_t ijkio_cache_dir_get_usage(void);
+
+/**
+ * Persist the LRU list to path so that files cached in a previous run
+ * are still accounted for. Entries already known are kept.
+ */
+int     ijkio_cache_dir_set_index_path(const char *path);
+
+void    ijkio_cache_dir_acquire(const char *cache_file_path, const char *cache_map_path);
+void    ijkio_cache_dir_update(const char *cache_file_path, int64_t physical_size);
+void    ijkio_cache_dir_release(const char *cache_file_path);
+
+#endif  // IJKAVFORMAT_IJKIOCACHEDIR_H
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkiocachekey.h"
+#include "libavutil/log.h"
+
+#include <ctype.h>
+#include <regex.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+
+static const char *innermost_url(const char *url)
+{
+    const char *sep   = strstr(url, "://");
+    const char *start = sep;
+
+    if (!sep)
+        return url;
+
+    // skip wrapping protocols such as "cache:ffio:"
+    while (start > url && (isalnum((unsigned char)start[-1]) || strchr("+.-", start[-1])))
+        start--;
+    return start;
+}
+
+static int param_listed(const char *list, const char *name, size_t name_len)
+{
+    const char *p = list;
+
+    while (*p) {
+        const char *end = strchr(p, ',');
+        size_t len = end ? (size_t)(end - p) : strlen(p);
+
+        while (len > 0 && isspace((unsigned char)*p)) {
+            p++;
+            len--;
+        }
+        while (len > 0 && isspace((unsigned char)p[len - 1]))
+            len--;
+
+        if (len == name_len && !strncmp(p, name, len))
+            return 1;
+        if (!end)
+            break;
+        p = end + 1;
+    }
+    return 0;
+}
+
+/* drops the listed parameters from the query of key, in place */
+static void strip_query_params(char *key, const char *strip_params)
+{
+    char *query = strchr(key, '?');
+    char *src, *dst;
+
+    if (!query)
+        return;
+
+    if (!strcmp(strip_params, "*")) {
+        *query = '\0';
+        return;
+    }
+
+    src = dst = query + 1;
+    while (*src) {
+        char *end = strchr(src, '&');
+        size_t len = end ? (size_t)(end - src) : strlen(src);
+        size_t name_len = strcspn(src, "=&");
+
+        if (len > 0 && !param_listed(strip_params, src, name_len)) {
+            if (dst != query + 1)
+                *dst++ = '&';
+            memmove(dst, src, len);
+            dst += len;
+        }
+        if (!end)
+            break;
+        src = end + 1;
+    }
+    *dst = '\0';
+
+    if (dst == query + 1)
+        *query = '\0';
+}
+
+static int strip_regex_matches(char *key, const char *strip_regex)
+{
+    regex_t regex;
+    regmatch_t match;
+    size_t pos = 0;
+    int ret = 0;
+
+    ret = regcomp(&regex, strip_regex, REG_EXTENDED);
+    if (ret != 0) {
+        av_log(NULL, AV_LOG_ERROR, "ijkio cache key regex \"%s\" does not compile: %d\n", strip_regex, ret);
+        return -1;
+    }
+
+    while (key[pos] && regexec(&regex, key + pos, 1, &match, pos ? REG_NOTBOL : 0) == 0) {
+        if (match.rm_eo == match.rm_so) {
+            // an empty match removes nothing, step over one character
+            pos += match.rm_so + 1;
+            continue;
+        }
+        memmove(key + pos + match.rm_so, key + pos + match.rm_eo, strlen(key + pos + match.rm_eo) + 1);
+        pos += match.rm_so;
+    }
+
+    regfree(&regex);
+    return 0;
+}
+
+int ijkio_cache_key_from_url(const char *url, const char *strip_params, const char *strip_regex,
+                             char *key, size_t key_size)
+{
+    const char *inner = NULL;
+    size_t len = 0;
+
+    if (!url || !key || !key_size)
+        return -1;
+
+    inner = innermost_url(url);
+    len   = strcspn(inner, "#");
+    if (len >= key_size)
+        return -1;
+
+    memcpy(key, inner, len);
+    key[len] = '\0';
+
+    if (strip_params && strlen(strip_params))
+        strip_query_params(key, strip_params);
+
+    if (strip_regex && strlen(strip_regex) && strip_regex_matches(key, strip_regex) != 0)
+        return -1;
+
+    return 0;
+}
+
+void ijkio_cache_key_to_name(const char *key, char *name, size_t name_size)
+{
+    uint64_t hash = UINT64_C(0xcbf29ce484222325);
+
+    for (; *key; key++) {
+        hash ^= (uint8_t)*key;
+        hash *= UINT64_C(0x100000001b3);
+    }
+    snprintf(name, name_size, "%016llx", (unsigned long long)hash);
+}
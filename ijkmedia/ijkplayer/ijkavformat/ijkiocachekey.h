@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKIOCACHEKEY_H
+#define IJKAVFORMAT_IJKIOCACHEKEY_H
+
+#include <stddef.h>
+
+/*
+ * Cache keys let urls that only differ by rotating tokens map to the same
+ * cache file. ijkiomanager derives cache_file_path and cache_map_path from
+ * the key when "cache_key_dir" is set and no cache_file_path is given.
+ */
+
+/**
+ * Derive the cache key of url: the innermost "scheme://" url without its
+ * fragment and without the query parameters named in strip_params, then
+ * with every match of strip_regex removed.
+ *
+ * @param strip_params comma separated parameter names, "*" drops the whole
+ *                     query, may be NULL
+ * @param strip_regex  POSIX extended regular expression, may be NULL
+ * @return 0 on success, < 0 if strip_regex does not compile or key_size is
+ *         too small
+ */
+int  ijkio_cache_key_from_url(const char *url, const char *strip_params, const char *strip_regex,
+                              char *key, size_t key_size);
+
+/**
+ * Fixed width file name for key, 16 hex digits of a 64-bit FNV-1a hash.
+ */
+void ijkio_cache_key_to_name(const char *key, char *name, size_t name_size);
+
+#endif  // IJKAVFORMAT_IJKIOCACHEKEY_H
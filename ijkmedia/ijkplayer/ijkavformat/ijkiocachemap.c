@@ -0,0 +1,693 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkiocachemap.h"
+#include "ijkplayer/ijkavutil/ijkutils.h"
+#include "ijkplayer/ijkavutil/ijktree.h"
+#include "ijkplayer/ijkavutil/ijkstl.h"
+#include "libavutil/log.h"
+
+#include <stddef.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdio.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+
+#define CONFIG_MAX_LINE 1024
+#define VERIFY_CHUNK    (64 * 1024)
+
+typedef struct IjkCacheMapWriter {
+    FILE *fp;
+    uint32_t checksum;
+    uint64_t entry_count;
+    uint64_t tree_entry_count;
+    int error;
+} IjkCacheMapWriter;
+
+static int cmp(const void *key, const void *node)
+{
+    return FFDIFFSIGN(*(const int64_t *)key, ((const IjkCacheEntry *) node)->logical_pos);
+}
+
+static int enu_free(void *opaque, void *elem)
+{
+    free(elem);
+    return 0;
+}
+
+static int tree_destroy(void *parm, int64_t key, void *elem)
+{
+    IjkCacheTreeInfo *info = elem;
+    ijk_av_tree_enumerate(info->root, NULL, NULL, enu_free);
+    ijk_av_tree_destroy(info->root);
+    free(info);
+    return 0;
+}
+
+static void cache_map_reset(IjkIOApplicationContext *app_ctx)
+{
+    ijk_map_traversal_handle(app_ctx->cache_info_map, NULL, tree_destroy);
+    ijk_map_clear(app_ctx->cache_info_map);
+    app_ctx->last_physical_pos = 0;
+}
+
+static int insert_entry(IjkCacheTreeInfo *info, const IjkCacheEntry *src)
+{
+    IjkCacheEntry *entry      = NULL;
+    IjkCacheEntry *entry_ret  = NULL;
+    struct IjkAVTreeNode *node = NULL;
+
+    entry = malloc(sizeof(*entry));
+    node  = ijk_av_tree_node_alloc();
+    if (!entry || !node) {
+        free(entry);
+        free(node);
+        return IJKAVERROR(ENOMEM);
+    }
+
+    *entry = *src;
+
+    entry_ret = ijk_av_tree_insert(&info->root, entry, cmp, &node);
+    if (entry_ret && entry_ret != entry) {
+        free(entry);
+        free(node);
+        return IJKAVERROR_INVALIDDATA;
+    }
+    return 0;
+}
+
+static void writer_write(IjkCacheMapWriter *w, const void *buf, size_t size)
+{
+    if (w->error)
+        return;
+
+    if (fwrite(buf, size, 1, w->fp) != 1) {
+        w->error = IJKAVERROR(EIO);
+        return;
+    }
+    w->checksum = ijk_adler32_update(w->checksum, buf, size);
+}
+
+static int enu_count(void *opaque, void *elem)
+{
+    IjkCacheMapWriter *w = opaque;
+    w->tree_entry_count++;
+    return 0;
+}
+
+static int enu_save(void *opaque, void *elem)
+{
+    IjkCacheMapWriter *w = opaque;
+    writer_write(w, elem, sizeof(IjkCacheEntry));
+    w->entry_count++;
+    return 0;
+}
+
+static int save_tree(void *parm, int64_t key, void *elem)
+{
+    IjkCacheMapWriter *w   = parm;
+    IjkCacheTreeInfo *info = elem;
+    IjkCacheMapTreeRecord record = {0};
+
+    if (key < 0 || !info)
+        return 0;
+
+    w->tree_entry_count = 0;
+    ijk_av_tree_enumerate(info->root, w, NULL, enu_count);
+
+    record.tree_index        = key;
+    record.physical_init_pos = info->physical_init_pos;
+    record.physical_size     = info->physical_size;
+    record.file_size         = info->file_size;
+    record.entry_count       = w->tree_entry_count;
+    memcpy(record.validator, info->validator, sizeof(record.validator));
+    record.validator[sizeof(record.validator) - 1] = 0;
+    writer_write(w, &record, sizeof(record));
+
+    ijk_av_tree_enumerate(info->root, w, NULL, enu_save);
+    return 0;
+}
+
+static int count_tree(void *parm, int64_t key, void *elem)
+{
+    if (key >= 0 && elem)
+        (*(uint32_t *)parm)++;
+    return 0;
+}
+
+int ijkio_cache_map_save(void *cache_info_map, const char *path)
+{
+    IjkCacheMapWriter w     = {0};
+    IjkCacheMapHeader header = {0};
+    char tmp_path[CONFIG_MAX_LINE] = {0};
+    int ret = 0;
+
+    if (!cache_info_map || !path || !strlen(path))
+        return -1;
+
+    snprintf(tmp_path, sizeof(tmp_path), "%s.tmp", path);
+    w.fp = fopen(tmp_path, "wb");
+    if (!w.fp)
+        return IJKAVERROR(errno);
+
+    header.magic       = IJKIO_CACHE_MAP_MAGIC;
+    header.version     = IJKIO_CACHE_MAP_VERSION;
+    header.header_size = sizeof(IjkCacheMapHeader);
+    ijk_map_traversal_handle_ordered(cache_info_map, &header.tree_count, count_tree);
+
+    // placeholder, rewritten once entry_count and checksum are known
+    if (fwrite(&header, sizeof(header), 1, w.fp) != 1) {
+        ret = IJKAVERROR(EIO);
+        goto fail;
+    }
+
+    w.checksum = 1;
+    ijk_map_traversal_handle_ordered(cache_info_map, &w, save_tree);
+    if (w.error) {
+        ret = w.error;
+        goto fail;
+    }
+
+    header.entry_count = w.entry_count;
+    header.checksum    = w.checksum;
+    if (fseek(w.fp, 0, SEEK_SET) != 0 || fwrite(&header, sizeof(header), 1, w.fp) != 1) {
+        ret = IJKAVERROR(EIO);
+        goto fail;
+    }
+
+    if (fflush(w.fp) != 0) {
+        ret = IJKAVERROR(EIO);
+        goto fail;
+    }
+    fsync(fileno(w.fp));
+    fclose(w.fp);
+
+    if (rename(tmp_path, path) != 0) {
+        ret = IJKAVERROR(errno);
+        remove(tmp_path);
+        return ret;
+    }
+    return 0;
+
+fail:
+    av_log(NULL, AV_LOG_ERROR, "ijkio_cache_map_save %s failed: %d\n", path, ret);
+    fclose(w.fp);
+    remove(tmp_path);
+    return ret;
+}
+
+static int load_binary(IjkIOApplicationContext *app_ctx, const uint8_t *data, size_t size)
+{
+    const IjkCacheMapHeader *header = (const IjkCacheMapHeader *)data;
+    const uint8_t *ptr = NULL;
+    const uint8_t *end = data + size;
+    IjkCacheTreeInfo *info = NULL;
+    uint64_t entry_total = 0;
+    size_t record_size = sizeof(IjkCacheMapTreeRecord);
+    size_t entry_size  = sizeof(IjkCacheEntry);
+    int ret = 0;
+
+    if (size < sizeof(IjkCacheMapHeader))
+        return IJKAVERROR_INVALIDDATA;
+
+    if (header->version < 1 || header->version > IJKIO_CACHE_MAP_VERSION ||
+        header->header_size < sizeof(IjkCacheMapHeader) || header->header_size > size) {
+        av_log(NULL, AV_LOG_WARNING, "cache map: unsupported version %u\n", header->version);
+        return IJKAVERROR_INVALIDDATA;
+    }
+
+    if (header->version == 1) {
+        record_size = offsetof(IjkCacheMapTreeRecord, validator);
+        entry_size  = offsetof(IjkCacheEntry, checksum);
+    }
+
+    ptr = data + header->header_size;
+    if (ijk_adler32_update(1, ptr, end - ptr) != header->checksum) {
+        av_log(NULL, AV_LOG_WARNING, "cache map: checksum mismatch\n");
+        return IJKAVERROR_INVALIDDATA;
+    }
+
+    for (uint32_t i = 0; i < header->tree_count; i++) {
+        IjkCacheMapTreeRecord record = {0};
+        int64_t last_logical_end = -1;
+
+        if ((size_t)(end - ptr) < record_size)
+            return IJKAVERROR_INVALIDDATA;
+        memcpy(&record, ptr, record_size);
+        ptr += record_size;
+
+        if (record.entry_count > (uint64_t)(end - ptr) / entry_size)
+            return IJKAVERROR_INVALIDDATA;
+
+        // a tree is written once, a repeated index means the map is corrupted
+        if (ijk_map_get(app_ctx->cache_info_map, record.tree_index))
+            return IJKAVERROR_INVALIDDATA;
+
+        info = calloc(1, sizeof(IjkCacheTreeInfo));
+        if (!info)
+            return IJKAVERROR(ENOMEM);
+        info->physical_init_pos = record.physical_init_pos;
+        info->physical_size     = record.physical_size;
+        info->file_size         = record.file_size;
+        memcpy(info->validator, record.validator, sizeof(info->validator));
+        info->validator[sizeof(info->validator) - 1] = 0;
+        if (ijk_map_put(app_ctx->cache_info_map, record.tree_index, info)) {
+            free(info);
+            return IJKAVERROR(ENOMEM);
+        }
+        app_ctx->last_physical_pos += record.physical_size;
+
+        // entries were written by an in-order walk, anything else is corruption
+        for (uint64_t j = 0; j < record.entry_count; j++) {
+            IjkCacheEntry e = {0};
+            memcpy(&e, ptr, entry_size);
+            ptr += entry_size;
+
+            if (e.logical_pos < last_logical_end || e.size <= 0 || e.physical_pos < 0)
+                return IJKAVERROR_INVALIDDATA;
+            last_logical_end = e.logical_pos + e.size;
+
+            ret = insert_entry(info, &e);
+            if (ret < 0)
+                return ret;
+        }
+        entry_total += record.entry_count;
+    }
+
+    if (entry_total != header->entry_count)
+        return IJKAVERROR_INVALIDDATA;
+
+    return 0;
+}
+
+static int load_legacy(IjkIOApplicationContext *app_ctx, FILE *fp)
+{
+    char string_line[CONFIG_MAX_LINE] = {0};
+    const char *value               = NULL;
+    int tree_index                  = 0;
+    int64_t tree_physical_init_pos  = 0;
+    int64_t tree_physical_size      = 0;
+    int64_t tree_file_size          = 0;
+    int64_t entry_logical_pos       = 0;
+    int64_t entry_physical_pos      = 0;
+    int64_t entry_size              = 0;
+    IjkCacheTreeInfo *cur_tree_info = NULL;
+
+    while (fgets(string_line, CONFIG_MAX_LINE, fp)) {
+        if (ijk_av_strstart(string_line, "tree_index:", &value)) {
+            tree_index = (int)strtol(value, NULL, 10);
+        } else if (ijk_av_strstart(string_line, "tree_physical_init_pos:", &value)) {
+            tree_physical_init_pos = strtoll(value, NULL, 10);
+        } else if (ijk_av_strstart(string_line, "tree_physical_size:", &value)) {
+            tree_physical_size = strtoll(value, NULL, 10);
+            app_ctx->last_physical_pos += tree_physical_size;
+        } else if (ijk_av_strstart(string_line, "tree_file_size:", &value)) {
+            tree_file_size = strtoll(value, NULL, 10);
+        } else if (ijk_av_strstart(string_line, "tree-info-flush", NULL)) {
+            if (ijk_map_get(app_ctx->cache_info_map, tree_index))
+                return IJKAVERROR_INVALIDDATA;
+
+            cur_tree_info = calloc(1, sizeof(IjkCacheTreeInfo));
+            if (!cur_tree_info)
+                return IJKAVERROR(ENOMEM);
+            cur_tree_info->physical_init_pos  = tree_physical_init_pos;
+            cur_tree_info->physical_size      = tree_physical_size;
+            cur_tree_info->file_size          = tree_file_size;
+            if (ijk_map_put(app_ctx->cache_info_map, tree_index, cur_tree_info)) {
+                free(cur_tree_info);
+                return IJKAVERROR(ENOMEM);
+            }
+
+            tree_index             = 0;
+            tree_physical_init_pos = 0;
+            tree_physical_size     = 0;
+            tree_file_size         = 0;
+        } else if (ijk_av_strstart(string_line, "entry_logical_pos:", &value)) {
+            entry_logical_pos = strtoll(value, NULL, 10);
+        } else if (ijk_av_strstart(string_line, "entry_physical_pos:", &value)) {
+            entry_physical_pos = strtoll(value, NULL, 10);
+        } else if (ijk_av_strstart(string_line, "entry_size:", &value)) {
+            entry_size = strtoll(value, NULL, 10);
+        } else if (ijk_av_strstart(string_line, "entry-info-flush", NULL)) {
+            if (cur_tree_info) {
+                IjkCacheEntry e = {0};
+                int ret;
+
+                e.logical_pos  = entry_logical_pos;
+                e.physical_pos = entry_physical_pos;
+                e.size         = entry_size;
+                ret = insert_entry(cur_tree_info, &e);
+                if (ret < 0)
+                    return ret;
+            }
+        }
+    }
+
+    return 0;
+}
+
+int ijkio_cache_map_load(IjkIOApplicationContext *app_ctx, const char *path)
+{
+    struct stat st;
+    uint32_t magic = 0;
+    void *data     = NULL;
+    FILE *fp       = NULL;
+    int fd         = -1;
+    int ret        = 0;
+
+    if (!app_ctx || !app_ctx->cache_info_map || !path || !strlen(path))
+        return -1;
+
+    fd = open(path, O_RDONLY);
+    if (fd < 0)
+        return IJKAVERROR(errno);
+
+    if (fstat(fd, &st) != 0 || st.st_size < (off_t)sizeof(magic)) {
+        close(fd);
+        return IJKAVERROR_INVALIDDATA;
+    }
+
+    if (read(fd, &magic, sizeof(magic)) != sizeof(magic)) {
+        close(fd);
+        return IJKAVERROR(EIO);
+    }
+
+    if (magic == IJKIO_CACHE_MAP_MAGIC) {
+        data = mmap(NULL, (size_t)st.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+        close(fd);
+        if (data == MAP_FAILED)
+            return IJKAVERROR(errno);
+
+        ret = load_binary(app_ctx, data, (size_t)st.st_size);
+        munmap(data, (size_t)st.st_size);
+        if (ret < 0) {
+            av_log(NULL, AV_LOG_WARNING, "cache map %s is corrupted, discard it\n", path);
+            cache_map_reset(app_ctx);
+        }
+        return ret;
+    }
+
+    av_log(NULL, AV_LOG_INFO, "cache map %s is in text format, will migrate\n", path);
+    fp = fdopen(fd, "r");
+    if (!fp) {
+        close(fd);
+        return IJKAVERROR(errno);
+    }
+    lseek(fd, 0, SEEK_SET);
+    ret = load_legacy(app_ctx, fp);
+    fclose(fp);
+    if (ret < 0) {
+        cache_map_reset(app_ctx);
+        return ret;
+    }
+
+    ijkio_cache_map_save(app_ctx->cache_info_map, path);
+    return 0;
+}
+
+typedef struct IjkCacheMapCheckItem {
+    IjkCacheEntry    *entry;
+    IjkCacheTreeInfo *info;
+    int               drop;
+} IjkCacheMapCheckItem;
+
+typedef struct IjkCacheMapCheck {
+    IjkCacheMapCheckItem *items;
+    int count;
+    int capacity;
+    IjkCacheTreeInfo *cur_info;
+    int error;
+} IjkCacheMapCheck;
+
+static int enu_collect(void *opaque, void *elem)
+{
+    IjkCacheMapCheck *check = opaque;
+
+    if (check->count == check->capacity) {
+        int capacity = check->capacity ? check->capacity * 2 : 64;
+        IjkCacheMapCheckItem *items = realloc(check->items, capacity * sizeof(*items));
+        if (!items) {
+            check->error = IJKAVERROR(ENOMEM);
+            return 1;
+        }
+        check->items    = items;
+        check->capacity = capacity;
+    }
+
+    check->items[check->count].entry = elem;
+    check->items[check->count].info  = check->cur_info;
+    check->items[check->count].drop  = 0;
+    check->count++;
+    return 0;
+}
+
+static int collect_tree(void *parm, int64_t key, void *elem)
+{
+    IjkCacheMapCheck *check = parm;
+
+    check->cur_info = elem;
+    if (elem && !check->error)
+        ijk_av_tree_enumerate(check->cur_info->root, check, NULL, enu_collect);
+    return 0;
+}
+
+// most recently written first
+static int cmp_physical_desc(const void *a, const void *b)
+{
+    const IjkCacheMapCheckItem *ia = a;
+    const IjkCacheMapCheckItem *ib = b;
+    return FFDIFFSIGN(ib->entry->physical_pos, ia->entry->physical_pos);
+}
+
+static int cmp_tree(const void *a, const void *b)
+{
+    const IjkCacheMapCheckItem *ia = a;
+    const IjkCacheMapCheckItem *ib = b;
+    return FFDIFFSIGN((intptr_t)ia->info, (intptr_t)ib->info);
+}
+
+static int entry_checksum_matches(int fd, const IjkCacheEntry *entry, uint8_t *buf)
+{
+    uint32_t checksum = 1;
+    int64_t  pos      = entry->physical_pos;
+    int64_t  end      = entry->physical_pos + entry->size;
+
+    while (pos < end) {
+        ssize_t n = pread(fd, buf, (size_t)FFMIN(end - pos, VERIFY_CHUNK), pos);
+        if (n <= 0)
+            return 0;
+        checksum = ijk_adler32_update(checksum, buf, n);
+        pos += n;
+    }
+    return checksum == entry->checksum;
+}
+
+int64_t ijkio_cache_map_verify(void *cache_info_map, int fd, int64_t verify_size)
+{
+    IjkCacheMapCheck check = {0};
+    struct stat st;
+    uint8_t *buf         = NULL;
+    int64_t verified     = 0;
+    int64_t dropped      = 0;
+    int dropped_count    = 0;
+    int i, j;
+
+    if (!cache_info_map || fd < 0 || fstat(fd, &st) != 0)
+        return -1;
+
+    ijk_map_traversal_handle(cache_info_map, &check, collect_tree);
+    if (check.error) {
+        free(check.items);
+        return check.error;
+    }
+    if (!check.count)
+        return 0;
+
+    if (verify_size != 0) {
+        buf = malloc(VERIFY_CHUNK);
+        if (!buf) {
+            free(check.items);
+            return IJKAVERROR(ENOMEM);
+        }
+    }
+
+    qsort(check.items, check.count, sizeof(*check.items), cmp_physical_desc);
+    for (i = 0; i < check.count; i++) {
+        IjkCacheEntry *entry = check.items[i].entry;
+
+        if (entry->physical_pos + entry->size > st.st_size) {
+            check.items[i].drop = 1;
+        } else if (buf && (entry->flags & IJKIO_CACHE_ENTRY_CHECKSUM) &&
+                   (verify_size < 0 || verified < verify_size)) {
+            check.items[i].drop = !entry_checksum_matches(fd, entry, buf);
+            verified += entry->size;
+        }
+    }
+    free(buf);
+
+    // rebuild the trees that lost entries
+    qsort(check.items, check.count, sizeof(*check.items), cmp_tree);
+    for (i = 0; i < check.count; i = j) {
+        int tree_dropped = 0;
+
+        for (j = i; j < check.count && check.items[j].info == check.items[i].info; j++)
+            tree_dropped += check.items[j].drop;
+        if (!tree_dropped)
+            continue;
+
+        ijk_av_tree_destroy(check.items[i].info->root);
+        check.items[i].info->root = NULL;
+        for (int k = i; k < j; k++) {
+            IjkCacheEntry *entry = check.items[k].entry;
+
+            if (!check.items[k].drop && insert_entry(check.items[k].info, entry) == 0) {
+                free(entry);
+                continue;
+            }
+            dropped += entry->size;
+            dropped_count++;
+            free(entry);
+        }
+    }
+
+    av_log(NULL, AV_LOG_INFO, "cache map verify: %d entries, %lld bytes checked, %d entries (%lld bytes) dropped\n",
+           check.count, (long long)verified, dropped_count, (long long)dropped);
+    free(check.items);
+    return dropped;
+}
+
+void ijkio_cache_map_reset_tree(IjkCacheTreeInfo *info)
+{
+    if (!info)
+        return;
+
+    ijk_av_tree_enumerate(info->root, NULL, NULL, enu_free);
+    ijk_av_tree_destroy(info->root);
+    info->root      = NULL;
+    info->file_size = 0;
+    memset(info->validator, 0, sizeof(info->validator));
+}
+
+#ifdef IJKIO_CACHE_MAP_BENCHMARK
+
+/*
+ * Host-side benchmark of cache map open latency, text vs binary:
+ *
+ *   cd ijkmedia
+ *   gcc -O2 -std=gnu99 -DIJKIO_CACHE_MAP_BENCHMARK -I. -I$FFMPEG_INCLUDE -c \
+ *       ijkplayer/ijkavformat/ijkiocachemap.c ijkplayer/ijkavutil/ijktree.c ijkplayer/ijkavutil/ijkutils.c
+ *   g++ -O2 -I. -c ijkplayer/ijkavutil/ijkstl.cpp
+ *   g++ -o cachemap_bench *.o && ./cachemap_bench
+ */
+
+#include <time.h>
+
+static int64_t bench_now_us(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000000 + ts.tv_nsec / 1000;
+}
+
+static int bench_legacy_entry(void *opaque, void *elem)
+{
+    IjkCacheEntry *entry = elem;
+    fprintf(opaque, "entry_logical_pos:%lld\nentry_physical_pos:%lld\nentry_size:%lld\nentry-info-flush\n",
+            (long long)entry->logical_pos, (long long)entry->physical_pos, (long long)entry->size);
+    return 0;
+}
+
+static int bench_legacy_tree(void *parm, int64_t key, void *elem)
+{
+    IjkCacheTreeInfo *info = elem;
+    fprintf(parm, "tree_index:%lld\ntree_physical_init_pos:%lld\ntree_physical_size:%lld\ntree_file_size:%lld\ntree-info-flush\n",
+            (long long)key, (long long)info->physical_init_pos, (long long)info->physical_size, (long long)info->file_size);
+    ijk_av_tree_enumerate(info->root, parm, NULL, bench_legacy_entry);
+    return 0;
+}
+
+static void bench_fill(IjkIOApplicationContext *app_ctx, int entry_count)
+{
+    IjkCacheTreeInfo *info = calloc(1, sizeof(IjkCacheTreeInfo));
+    int64_t physical_pos = 0;
+
+    if (!info)
+        return;
+
+    for (int i = 0; i < entry_count; i++) {
+        IjkCacheEntry e = { (int64_t)i * 8192, physical_pos, 4096 };
+
+        // leave a hole between entries so that nothing gets merged
+        insert_entry(info, &e);
+        physical_pos += 4096;
+    }
+    info->physical_size = physical_pos;
+    info->file_size     = (int64_t)entry_count * 8192;
+    if (ijk_map_put(app_ctx->cache_info_map, 0, info))
+        tree_destroy(NULL, 0, info);
+}
+
+int main(void)
+{
+    static const int sizes[] = { 1000, 10000, 100000 };
+    const char *text_path    = "cachemap_bench.txt";
+    const char *binary_path  = "cachemap_bench.bin";
+
+    for (int i = 0; i < (int)(sizeof(sizes) / sizeof(sizes[0])); i++) {
+        IjkIOApplicationContext app_ctx = {0};
+        int64_t t0, t1, t2;
+        FILE *fp;
+
+        app_ctx.cache_info_map = ijk_map_create();
+        bench_fill(&app_ctx, sizes[i]);
+
+        fp = fopen(text_path, "w");
+        ijk_map_traversal_handle(app_ctx.cache_info_map, fp, bench_legacy_tree);
+        fclose(fp);
+        ijkio_cache_map_save(app_ctx.cache_info_map, binary_path);
+        cache_map_reset(&app_ctx);
+
+        t0 = bench_now_us();
+        fp = fopen(text_path, "r");
+        load_legacy(&app_ctx, fp);
+        fclose(fp);
+        t1 = bench_now_us();
+        cache_map_reset(&app_ctx);
+
+        ijkio_cache_map_load(&app_ctx, binary_path);
+        t2 = bench_now_us();
+
+        printf("entries %6d: text %8lld us, binary %8lld us\n",
+               sizes[i], (long long)(t1 - t0), (long long)(t2 - t1));
+
+        cache_map_reset(&app_ctx);
+        ijk_map_destroy(app_ctx.cache_info_map);
+    }
+
+    remove(text_path);
+    remove(binary_path);
+    return 0;
+}
+
+#endif
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKIOCACHEMAP_H
+#define IJKAVFORMAT_IJKIOCACHEMAP_H
+
+#include "ijkioapplication.h"
+
+#include <stdint.h>
+
+/*
+ * Binary cache map layout (host byte order, all fields 8-byte aligned):
+ *
+ *   IjkCacheMapHeader
+ *   tree_count x { IjkCacheMapTreeRecord, entry_count x IjkCacheEntry }
+ *
+ * checksum is an adler32 over everything following the header.
+ *
+ * Version 2 added the tree validator and the per-entry checksum/flags.
+ * Version 1 maps are still loaded, their entries carry no checksum.
+ */
+#define IJKIO_CACHE_MAP_MAGIC         MKTAG('I', 'J', 'K', 'M')
+#define IJKIO_CACHE_MAP_VERSION       2
+
+typedef struct IjkCacheMapHeader {
+    uint32_t magic;
+    uint32_t version;
+    uint32_t header_size;
+    uint32_t tree_count;
+    uint64_t entry_count;
+    uint32_t checksum;
+    uint32_t reserved;
+} IjkCacheMapHeader;
+
+typedef struct IjkCacheMapTreeRecord {
+    int64_t  tree_index;
+    int64_t  physical_init_pos;
+    int64_t  physical_size;
+    int64_t  file_size;
+    uint64_t entry_count;
+    char     validator[IJK_CACHE_VALIDATOR_MAX_LEN];
+} IjkCacheMapTreeRecord;
+
+/**
+ * Load a cache map into app_ctx->cache_info_map and advance
+ * app_ctx->last_physical_pos accordingly.
+ *
+ * Binary maps are mmap'd and validated before any tree is built; maps in
+ * the legacy "key:value" text format are parsed and rewritten in place as
+ * binary so that the next open takes the fast path.
+ *
+ * @return 0 on success, < 0 if the map is missing or corrupted. On failure
+ *         cache_info_map is left empty.
+ */
+int  ijkio_cache_map_load(IjkIOApplicationContext *app_ctx, const char *path);
+
+/**
+ * Write cache_info_map to path in the binary format. The map is written to
+ * a temporary file and renamed over path, so readers never observe a
+ * partially written map.
+ */
+int  ijkio_cache_map_save(void *cache_info_map, const char *path);
+
+/**
+ * Check every entry of cache_info_map against the cache file behind fd.
+ *
+ * Entries that reach past the end of the file are dropped. Then the entries
+ * written last, which are the ones a crash can leave torn, are read back and
+ * compared with their checksum until verify_size bytes have been read
+ * (verify_size < 0 reads everything, 0 skips this step). Entries that do not
+ * match are dropped, the rest of the map stays usable.
+ *
+ * The physical space of dropped entries is not reused.
+ *
+ * @return number of bytes dropped, < 0 on error
+ */
+int64_t ijkio_cache_map_verify(void *cache_info_map, int fd, int64_t verify_size);
+
+/**
+ * Drop every entry of info, e.g. because the content it caches changed.
+ * physical_init_pos and physical_size are kept, they still describe space
+ * used in the cache file.
+ */
+void ijkio_cache_map_reset_tree(IjkCacheTreeInfo *info);
+
+#endif  // IJKAVFORMAT_IJKIOCACHEMAP_H
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkiocacheshare.h"
+#include "ijkplayer/ijkavutil/ijkutils.h"
+#include "ijkplayer/ijkavutil/ijktree.h"
+#include "ijkplayer/ijkavutil/ijkstl.h"
+#include "libavutil/log.h"
+
+#include <stdlib.h>
+#include <string.h>
+#include <stdio.h>
+
+static pthread_mutex_t  g_share_mutex = PTHREAD_MUTEX_INITIALIZER;
+static IjkIOCacheShare *g_share_list  = NULL;
+
+static int enu_free(void *opaque, void *elem)
+{
+    free(elem);
+    return 0;
+}
+
+static int tree_destroy(void *parm, int64_t key, void *elem)
+{
+    IjkCacheTreeInfo *info = elem;
+    ijk_av_tree_enumerate(info->root, NULL, NULL, enu_free);
+    ijk_av_tree_destroy(info->root);
+    free(info);
+    return 0;
+}
+
+static void map_destroy(void *cache_info_map)
+{
+    ijk_map_traversal_handle(cache_info_map, NULL, tree_destroy);
+    ijk_map_destroy(cache_info_map);
+}
+
+static IjkIOCacheShare *find_share_l(const char *key)
+{
+    IjkIOCacheShare *share = g_share_list;
+
+    while (share && strcmp(share->key, key))
+        share = share->next;
+    return share;
+}
+
+int ijkio_cache_share_acquire(IjkIOApplicationContext *app_ctx)
+{
+    IjkIOCacheShare *share = NULL;
+
+    if (!app_ctx || !strlen(app_ctx->cache_file_path) || !app_ctx->cache_info_map)
+        return -1;
+    if (app_ctx->cache_share)
+        return 0;
+
+    pthread_mutex_lock(&g_share_mutex);
+    share = find_share_l(app_ctx->cache_file_path);
+    if (share) {
+        share->refcount++;
+        pthread_mutex_unlock(&g_share_mutex);
+
+        map_destroy(app_ctx->cache_info_map);
+        app_ctx->cache_info_map = share->cache_info_map;
+        app_ctx->cache_share    = share;
+        av_log(NULL, AV_LOG_INFO, "ijkio cache share join %s, refcount %d\n", share->key, share->refcount);
+        return 0;
+    }
+
+    share = calloc(1, sizeof(IjkIOCacheShare));
+    if (!share)
+        goto fail;
+    if (pthread_mutex_init(&share->mutex, NULL) != 0)
+        goto fail;
+    if (pthread_cond_init(&share->cond, NULL) != 0) {
+        pthread_mutex_destroy(&share->mutex);
+        goto fail;
+    }
+
+    snprintf(share->key, sizeof(share->key), "%s", app_ctx->cache_file_path);
+    share->refcount          = 1;
+    share->writer            = app_ctx;
+    share->cache_info_map    = app_ctx->cache_info_map;
+    share->last_physical_pos = app_ctx->last_physical_pos;
+    share->write_pos         = -1;
+    share->next              = g_share_list;
+    g_share_list             = share;
+    pthread_mutex_unlock(&g_share_mutex);
+
+    app_ctx->cache_share = share;
+    av_log(NULL, AV_LOG_INFO, "ijkio cache share create %s\n", share->key);
+    return 0;
+fail:
+    pthread_mutex_unlock(&g_share_mutex);
+    free(share);
+    return -1;
+}
+
+void ijkio_cache_share_release(IjkIOApplicationContext *app_ctx)
+{
+    IjkIOCacheShare *share = NULL, **p = NULL;
+
+    if (!app_ctx || !app_ctx->cache_share)
+        return;
+
+    share = app_ctx->cache_share;
+    app_ctx->cache_share    = NULL;
+    app_ctx->cache_info_map = NULL;
+
+    pthread_mutex_lock(&share->mutex);
+    if (share->writer == app_ctx) {
+        share->writer    = NULL;
+        share->write_pos = -1;
+        pthread_cond_broadcast(&share->cond);
+    }
+    pthread_mutex_unlock(&share->mutex);
+
+    pthread_mutex_lock(&g_share_mutex);
+    if (--share->refcount > 0) {
+        pthread_mutex_unlock(&g_share_mutex);
+        return;
+    }
+    for (p = &g_share_list; *p; p = &(*p)->next) {
+        if (*p == share) {
+            *p = share->next;
+            break;
+        }
+    }
+    pthread_mutex_unlock(&g_share_mutex);
+
+    av_log(NULL, AV_LOG_INFO, "ijkio cache share destroy %s\n", share->key);
+    map_destroy(share->cache_info_map);
+    pthread_cond_destroy(&share->cond);
+    pthread_mutex_destroy(&share->mutex);
+    free(share);
+}
+
+int ijkio_cache_share_claim_writer(IjkIOCacheShare *share, IjkIOApplicationContext *app_ctx)
+{
+    int is_writer = 0;
+
+    if (!share || !app_ctx)
+        return 0;
+
+    pthread_mutex_lock(&share->mutex);
+    if (!share->writer) {
+        share->writer = app_ctx;
+        av_log(NULL, AV_LOG_INFO, "ijkio cache share %s has a new writer\n", share->key);
+    }
+    is_writer = share->writer == app_ctx;
+    pthread_mutex_unlock(&share->mutex);
+    return is_writer;
+}
+
+void ijkio_cache_share_publish_l(IjkIOCacheShare *share, int file_no, int64_t write_pos, int64_t write_limit)
+{
+    share->write_file_no = file_no;
+    share->write_pos     = write_pos;
+    share->write_limit   = write_limit;
+    pthread_cond_broadcast(&share->cond);
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKIOCACHESHARE_H
+#define IJKAVFORMAT_IJKIOCACHESHARE_H
+
+#include "ijkioapplication.h"
+
+#include <pthread.h>
+#include <stdint.h>
+
+/*
+ * Process-wide registry of the cache files opened concurrently by several
+ * players, enabled per player with the "cache_share_concurrent" option.
+ *
+ * Players opening the same cache_file_path share one cache_info_map. The
+ * first of them is the writer: only the writer appends to the cache file,
+ * the others read what it has written and wait for it when it is about to
+ * fetch the bytes they need. A reader fetches a missing range itself when
+ * the writer is elsewhere or stalls, and takes over the writer role once
+ * the writer released the share.
+ */
+typedef struct IjkIOCacheShare IjkIOCacheShare;
+struct IjkIOCacheShare {
+    char key[CACHE_FILE_PATH_MAX_LEN];
+    int refcount;
+    IjkIOCacheShare *next;
+
+    pthread_mutex_t mutex;              // protects the fields below
+    pthread_cond_t cond;                // broadcast on every append and when the writer stops
+    IjkIOApplicationContext *writer;    // NULL when vacant
+    void *cache_info_map;
+    int64_t last_physical_pos;
+    int write_file_no;
+    int64_t write_pos;                  // logical end of the last append, -1 when the writer is idle
+    int64_t write_limit;                // the writer does not go past it before its player reads on
+};
+
+/**
+ * Join the share keyed by app_ctx->cache_file_path, or create it and become
+ * its writer. On return app_ctx->cache_info_map is the shared map: the map
+ * app_ctx held is either adopted by a new share or destroyed.
+ *
+ * @return 0 on success, < 0 if app_ctx keeps its private map
+ */
+int  ijkio_cache_share_acquire(IjkIOApplicationContext *app_ctx);
+
+/**
+ * Leave the share, destroying the map with the last reference. A writer
+ * leaving wakes up the readers so that one of them can take over.
+ */
+void ijkio_cache_share_release(IjkIOApplicationContext *app_ctx);
+
+/**
+ * @return 1 if app_ctx is, or just became, the writer of share
+ */
+int  ijkio_cache_share_claim_writer(IjkIOCacheShare *share, IjkIOApplicationContext *app_ctx);
+
+/* must be called with share->mutex held */
+void ijkio_cache_share_publish_l(IjkIOCacheShare *share, int file_no, int64_t write_pos, int64_t write_limit);
+
+#endif  // IJKAVFORMAT_IJKIOCACHESHARE_H
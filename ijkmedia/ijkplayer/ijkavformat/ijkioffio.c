@@ -22,11 +22,19 @@
 #include "libavutil/avstring.h"
 #include "ijkplayer/ijkavutil/ijkutils.h"
 #include "ijkiourl.h"
+#include "ijkurlpark.h"
 
 #include <stdint.h>
+#include <stdlib.h>
 
 typedef struct IjkIOFFioContext {
     URLContext *inner;
+
+    /* to reopen inner for the parked readers */
+    int parked_readers;
+    char *url;
+    int flags;
+    AVDictionary *options;
 } IjkIOFFioContext;
 
 static int ijkio_copy_options(AVDictionary **dst, IjkAVDictionary *src) {
@@ -52,6 +60,17 @@ static int ijkio_ffio_open(IjkURLContext *h, const char *url, int flags, IjkAVDi
     ijkio_copy_options(&opts, *options);
 
     av_strstart(url, "ffio:", &url);
+
+    IjkAVDictionaryEntry *t = ijk_av_dict_get(*options, "parked_readers", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t && strtol(t->value, NULL, 10)) {
+        // parked here, not again by the inner protocol
+        av_dict_set(&opts, "parked_readers", NULL, 0);
+        c->parked_readers = 1;
+        c->url   = av_strdup(url);
+        c->flags = flags;
+        av_dict_copy(&c->options, opts, 0);
+    }
+
     if (h->ijkio_app_ctx) {
         ret = ffurl_open_whitelist(&c->inner, url, flags, (AVIOInterruptCB *)h->ijkio_app_ctx->ijkio_interrupt_callback,
                                 &opts, NULL, NULL, NULL);
@@ -60,6 +79,10 @@ static int ijkio_ffio_open(IjkURLContext *h, const char *url, int flags, IjkAVDi
     }
 
     av_dict_free(&opts);
+    if (ret) {
+        av_freep(&c->url);
+        av_dict_free(&c->options);
+    }
 
     return ret;
 }
@@ -84,6 +107,11 @@ static int64_t ijkio_ffio_seek(IjkURLContext *h, int64_t offset, int whence) {
     if (!c || !c->inner)
         return -1;
 
+    if (c->parked_readers && whence == SEEK_SET && h->ijkio_app_ctx)
+        return ijkurl_parked_seek(h, &c->inner, c->url, offset, c->flags,
+                                  (AVIOInterruptCB *)h->ijkio_app_ctx->ijkio_interrupt_callback,
+                                  c->options, NULL, NULL, NULL);
+
     return ffurl_seek(c->inner, offset, whence);
 }
 
@@ -96,6 +124,9 @@ static int ijkio_ffio_close(IjkURLContext *h) {
     if (!c || !c->inner)
         return -1;
 
+    ijkurl_parked_release(h);
+    av_freep(&c->url);
+    av_dict_free(&c->options);
     return ffurl_close(c->inner);
 }
 
@@ -21,6 +21,10 @@
 
 #include "ijkiomanager.h"
 #include "ijkioprotocol.h"
+#include "ijkiocachemap.h"
+#include "ijkiocachedir.h"
+#include "ijkiocacheshare.h"
+#include "ijkiocachekey.h"
 #include "ijkplayer/ijkavutil/ijkutils.h"
 #include "ijkplayer/ijkavutil/ijktree.h"
 #include "ijkplayer/ijkavutil/ijkstl.h"
@@ -31,8 +35,6 @@
 #include <stdio.h>
 #include <unistd.h>
 
-#define CONFIG_MAX_LINE 1024
-
 static int ijkio_manager_alloc(IjkIOManagerContext **ph, void *opaque)
 {
     IjkIOManagerContext *h = NULL;
@@ -74,77 +76,41 @@ static int tree_destroy(void *parm, int64_t key, void *elem)
     return 0;
 }
 
-static int enu_save(void *opaque, void *elem) {
-    FILE *fp = opaque;
-    IjkCacheEntry *entry = elem;
-    char string[CONFIG_MAX_LINE] = {0};
-
-    if (entry && fp) {
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry_logical_pos:%lld\n", entry->logical_pos);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry_physical_pos:%lld\n", entry->physical_pos);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry_size:%lld\n", entry->size);
-        fwrite(string, strlen(string), 1, fp);
+static int save_cache_map(IjkIOManagerContext *h)
+{
+    IjkIOCacheShare *share = h->ijkio_app_ctx->cache_share;
+    int ret = 0;
 
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry-info-flush\n");
-        fwrite(string, strlen(string), 1, fp);
-    }
-    return 0;
-}
+    // data first, so that a saved map never points at bytes lost in a crash
+    if (h->ijkio_app_ctx->fd >= 0)
+        fsync(h->ijkio_app_ctx->fd);
 
-static int ijkio_manager_save_tree_to_file(void *parm, int64_t key, void *elem)
-{
-    IjkCacheTreeInfo *info = elem;
-    FILE *fp = parm;
-    char string[CONFIG_MAX_LINE] = {0};
-    if (key >= 0 && info) {
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_index:%lld\n", key);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_physical_init_pos:%lld\n", info->physical_init_pos);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_physical_size:%lld\n", info->physical_size);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_file_size:%lld\n", info->file_size);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree-info-flush\n");
-        fwrite(string, strlen(string), 1, fp);
-
-        ijk_av_tree_enumerate(info->root, parm, NULL, enu_save);
-    }
-    return 0;
+    if (share)
+        pthread_mutex_lock(&share->mutex);
+    ret = ijkio_cache_map_save(h->ijkio_app_ctx->cache_info_map, h->cache_map_path);
+    if (share)
+        pthread_mutex_unlock(&share->mutex);
+    return ret;
 }
 
 void ijkio_manager_destroy(IjkIOManagerContext *h)
 {
-    FILE *map_tree_info_fp = NULL;
-
     if (h->ijkio_app_ctx) {
         if (h->auto_save_map) {
-            map_tree_info_fp = fopen(h->cache_map_path, "w");
-            if (map_tree_info_fp) {
-                ijk_map_traversal_handle(h->ijkio_app_ctx->cache_info_map, map_tree_info_fp, ijkio_manager_save_tree_to_file);
-                fclose(map_tree_info_fp);
-            }
+            save_cache_map(h);
         }
 
-        ijk_map_traversal_handle(h->ijkio_app_ctx->cache_info_map, NULL, tree_destroy);
-        ijk_map_destroy(h->ijkio_app_ctx->cache_info_map);
+        if (h->cache_dir_acquired) {
+            ijkio_cache_dir_release(h->ijkio_app_ctx->cache_file_path);
+            h->cache_dir_acquired = 0;
+        }
+
+        if (h->ijkio_app_ctx->cache_share) {
+            ijkio_cache_share_release(h->ijkio_app_ctx);
+        } else {
+            ijk_map_traversal_handle(h->ijkio_app_ctx->cache_info_map, NULL, tree_destroy);
+            ijk_map_destroy(h->ijkio_app_ctx->cache_info_map);
+        }
         h->ijkio_app_ctx->cache_info_map = NULL;
 
         if (h->ijkio_app_ctx->threadpool_ctx) {
@@ -202,140 +168,6 @@ static void ijkio_manager_set_all_ctx_pause(IjkIOManagerContext *h) {
     }
 }
 
-static int cmp(const void *key, const void *node)
-{
-    return FFDIFFSIGN(*(const int64_t *)key, ((const IjkCacheEntry *) node)->logical_pos);
-}
-
-static void ijkio_manager_parse_cache_info(IjkIOApplicationContext *app_ctx, char *file_path) {
-    char string_line[CONFIG_MAX_LINE] = {0};
-    char **ptr = (char **)&string_line;
-    uint64_t str_len                = 0;
-    int tree_index                  = 0;
-    int64_t tree_physical_init_pos  = 0;
-    int64_t tree_physical_size      = 0;
-    int64_t tree_file_size          = 0;
-    int64_t entry_logical_pos       = 0;
-    int64_t entry_physical_pos      = 0;
-    int64_t entry_size              = 0;
-    void *cache_info_map            = app_ctx->cache_info_map;
-    IjkCacheTreeInfo *cur_tree_info = NULL;
-    IjkCacheEntry *cur_entry        = NULL;
-    IjkCacheEntry *entry_ret        = NULL;
-    struct IjkAVTreeNode *cur_node  = NULL;
-
-    FILE *fp = fopen(file_path, "r");
-    if (!fp) {
-        return;
-    }
-
-    while (!feof(fp)) {
-        memset(string_line, 0 , CONFIG_MAX_LINE);
-        fgets(string_line, CONFIG_MAX_LINE, fp);
-
-        av_log(NULL, AV_LOG_INFO, "cache config info: %s\n", string_line);
-
-        if (ijk_av_strstart(string_line, "tree_index:", (const char **)ptr)) {
-            str_len = strlen(*ptr);
-            for (int i = 0; i < str_len; i++) {
-                if ((*ptr)[i] < '0' || (*ptr)[i] > '9') {
-                    (*ptr)[i] = '\0';
-                    break;
-                }
-            }
-            tree_index = (int)strtol(*ptr, NULL, 10);
-        } else if (ijk_av_strstart(string_line, "tree_physical_init_pos:", (const char **)ptr)) {
-            str_len = strlen(*ptr);
-            for (int i = 0; i < str_len; i++) {
-                if ((*ptr)[i] < '0' || (*ptr)[i] > '9') {
-                    (*ptr)[i] = '\0';
-                    break;
-                }
-            }
-            tree_physical_init_pos = strtoll(*ptr, NULL, 10);
-        } else if (ijk_av_strstart(string_line, "tree_physical_size:", (const char **)ptr)) {
-            str_len = strlen(*ptr);
-            for (int i = 0; i < str_len; i++) {
-                if ((*ptr)[i] < '0' || (*ptr)[i] > '9') {
-                    (*ptr)[i] = '\0';
-                    break;
-                }
-            }
-            tree_physical_size = strtoll(*ptr, NULL, 10);
-            app_ctx->last_physical_pos += tree_physical_size;
-        } else if (ijk_av_strstart(string_line, "tree_file_size:", (const char **)ptr)) {
-            str_len = strlen(*ptr);
-            for (int i = 0; i < str_len; i++) {
-                if ((*ptr)[i] < '0' || (*ptr)[i] > '9') {
-                    (*ptr)[i] = '\0';
-                    break;
-                }
-            }
-            tree_file_size = strtoll(*ptr, NULL, 10);
-        } else if (ijk_av_strstart(string_line, "tree-info-flush", (const char **)ptr)) {
-            cur_tree_info = calloc(1, sizeof(IjkCacheTreeInfo));
-            if (cur_tree_info) {
-                cur_tree_info->physical_init_pos  = tree_physical_init_pos;
-                cur_tree_info->physical_size      = tree_physical_size;
-                cur_tree_info->file_size          = tree_file_size;
-                ijk_map_put(cache_info_map, tree_index, cur_tree_info);
-            } else {
-                break;
-            }
-            tree_index             = 0;
-            tree_physical_init_pos = 0;
-            tree_physical_size     = 0;
-            tree_file_size         = 0;
-        } else if (ijk_av_strstart(string_line, "entry_logical_pos:", (const char **)ptr)) {
-            str_len = strlen(*ptr);
-            for (int i = 0; i < str_len; i++) {
-                if ((*ptr)[i] < '0' || (*ptr)[i] > '9') {
-                    (*ptr)[i] = '\0';
-                    break;
-                }
-            }
-            entry_logical_pos = strtoll(*ptr, NULL, 10);
-        } else if (ijk_av_strstart(string_line, "entry_physical_pos:", (const char **)ptr)) {
-            str_len = strlen(*ptr);
-            for (int i = 0; i < str_len; i++) {
-                if ((*ptr)[i] < '0' || (*ptr)[i] > '9') {
-                    (*ptr)[i] = '\0';
-                    break;
-                }
-            }
-            entry_physical_pos = strtoll(*ptr, NULL, 10);
-        } else if (ijk_av_strstart(string_line, "entry_size:", (const char **)ptr)) {
-            str_len = strlen(*ptr);
-            for (int i = 0; i < str_len; i++) {
-                if ((*ptr)[i] < '0' || (*ptr)[i] > '9') {
-                    (*ptr)[i] = '\0';
-                    break;
-                }
-            }
-            entry_size = strtoll(*ptr, NULL, 10);
-        } else if (ijk_av_strstart(string_line, "entry-info-flush", (const char **)ptr)) {
-            if (cur_tree_info) {
-                cur_entry = calloc(1, sizeof(IjkCacheEntry));
-                cur_node  = ijk_av_tree_node_alloc();
-                if (!cur_entry || !cur_node) {
-                    break;
-                }
-
-                cur_entry->logical_pos  = entry_logical_pos;
-                cur_entry->physical_pos = entry_physical_pos;
-                cur_entry->size         = entry_size;
-
-                entry_ret = ijk_av_tree_insert(&cur_tree_info->root, cur_entry, cmp, &cur_node);
-                if (entry_ret && entry_ret != cur_entry) {
-                    break;
-                }
-            }
-        }
-    }
-
-    fclose(fp);
-}
-
 void ijkio_manager_will_share_cache_map(IjkIOManagerContext *h) {
     av_log(NULL, AV_LOG_INFO, "will share cache\n");
     if (!h || !h->ijkio_app_ctx || !strlen(h->cache_map_path)) {
@@ -343,17 +175,11 @@ void ijkio_manager_will_share_cache_map(IjkIOManagerContext *h) {
     }
 
     pthread_mutex_lock(&h->ijkio_app_ctx->mutex);
-    FILE *map_tree_info_fp = fopen(h->cache_map_path, "w");
-    if (!map_tree_info_fp) {
+    if (save_cache_map(h) != 0) {
         pthread_mutex_unlock(&h->ijkio_app_ctx->mutex);
         return;
     }
     h->ijkio_app_ctx->shared = 1;
-    ijk_map_traversal_handle(h->ijkio_app_ctx->cache_info_map, map_tree_info_fp, ijkio_manager_save_tree_to_file);
-    fclose(map_tree_info_fp);
-    if (h->ijkio_app_ctx->fd >= 0) {
-        fsync(h->ijkio_app_ctx->fd);
-    }
     pthread_mutex_unlock(&h->ijkio_app_ctx->mutex);
 }
 
@@ -375,9 +201,69 @@ void ijkio_manager_did_share_cache_map(IjkIOManagerContext *h) {
     pthread_mutex_unlock(&h->ijkio_app_ctx->mutex);
 }
 
+/*
+ * Name the cache file and map after the cache key of url inside
+ * "cache_key_dir". The key comes from the "cache_key" option, or is derived
+ * from url with "cache_key_strip_params" and "cache_key_strip_regex", and
+ * the application may still replace it through IJKIOAPP_CTRL_WILL_CACHE_OPEN.
+ */
+static int derive_cache_paths(IjkIOManagerContext *h, const char *url, IjkAVDictionary *options,
+                              char *map_path, size_t map_path_size)
+{
+    IjkIOAppCacheKeyControl *control = NULL;
+    IjkAVDictionaryEntry *t = NULL;
+    const char *dir = NULL;
+    const char *strip_params = NULL;
+    const char *strip_regex = NULL;
+    char name[32];
+    int ret = -1;
+
+    t = ijk_av_dict_get(options, "cache_key_dir", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (!t || !strlen(t->value))
+        return -1;
+    dir = t->value;
+
+    // two url sized buffers, keep them off the stack of the read thread
+    control = calloc(1, sizeof(IjkIOAppCacheKeyControl));
+    if (!control)
+        return -1;
+
+    t = ijk_av_dict_get(options, "cache_key_strip_params", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t)
+        strip_params = t->value;
+    t = ijk_av_dict_get(options, "cache_key_strip_regex", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t)
+        strip_regex = t->value;
+
+    t = ijk_av_dict_get(options, "cache_key", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t && strlen(t->value)) {
+        snprintf(control->cache_key, sizeof(control->cache_key), "%s", t->value);
+    } else if (ijkio_cache_key_from_url(url, strip_params, strip_regex, control->cache_key, sizeof(control->cache_key)) != 0) {
+        av_log(NULL, AV_LOG_WARNING, "ijkio cache key derivation failed, cache disabled\n");
+        goto end;
+    }
+    snprintf(control->url, sizeof(control->url), "%s", url);
+
+    ijkio_application_on_cache_key(h->ijkio_app_ctx, control);
+    if (!strlen(control->cache_key)) {
+        av_log(NULL, AV_LOG_INFO, "ijkio cache key cleared by application, cache disabled\n");
+        goto end;
+    }
+
+    ijkio_cache_key_to_name(control->cache_key, name, sizeof(name));
+    snprintf(h->ijkio_app_ctx->cache_file_path, sizeof(h->ijkio_app_ctx->cache_file_path), "%s/%s.cache", dir, name);
+    snprintf(map_path, map_path_size, "%s/%s.map", dir, name);
+    av_log(NULL, AV_LOG_INFO, "ijkio cache key %s -> %s\n", control->cache_key, h->ijkio_app_ctx->cache_file_path);
+    ret = 0;
+end:
+    free(control);
+    return ret;
+}
+
 int ijkio_manager_io_open(IjkIOManagerContext *h, const char *url, int flags, IjkAVDictionary **options) {
     int ret = -1;
     int parse_cache_map_file = 0;
+    char derived_map_path[CACHE_MAP_PATH_MAX_LEN] = {0};
     if (!h)
         return ret;
 
@@ -386,31 +272,55 @@ int ijkio_manager_io_open(IjkIOManagerContext *h, const char *url, int flags, Ij
     }
 
     IjkAVDictionaryEntry *t = NULL;
+    t = ijk_av_dict_get(*options, "cache_dir_index_path", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t) {
+        ijkio_cache_dir_set_index_path(t->value);
+    }
+
+    t = ijk_av_dict_get(*options, "cache_dir_max_size", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t) {
+        ijkio_cache_dir_set_max_size(strtoll(t->value, NULL, 10));
+    }
+
     t = ijk_av_dict_get(*options, "cache_file_path", NULL, IJK_AV_DICT_MATCH_CASE);
     if (t) {
         strcpy(h->ijkio_app_ctx->cache_file_path, t->value);
+    } else if (!strlen(h->ijkio_app_ctx->cache_file_path)) {
+        derive_cache_paths(h, url, *options, derived_map_path, sizeof(derived_map_path));
     }
 
     t = ijk_av_dict_get(*options, "cache_map_path", NULL, IJK_AV_DICT_MATCH_CASE);
-    if (t) {
-        strcpy(h->cache_map_path, t->value);
+    if (t || strlen(derived_map_path)) {
+        strcpy(h->cache_map_path, t ? t->value : derived_map_path);
 
         t = ijk_av_dict_get(*options, "auto_save_map", NULL, IJK_AV_DICT_MATCH_CASE);
         if (t) {
             h->auto_save_map = (int)strtol(t->value, NULL, 10);
         }
 
-        if (h->ijkio_app_ctx->cache_info_map && !ijk_map_size(h->ijkio_app_ctx->cache_info_map)) {
+        if (h->ijkio_app_ctx->cache_info_map && !h->ijkio_app_ctx->cache_share &&
+            !ijk_map_size(h->ijkio_app_ctx->cache_info_map)) {
             t = ijk_av_dict_get(*options, "parse_cache_map", NULL, IJK_AV_DICT_MATCH_CASE);
             if (t) {
                 parse_cache_map_file = (int)strtol(t->value, NULL, 10);
                 if (parse_cache_map_file) {
-                    ijkio_manager_parse_cache_info(h->ijkio_app_ctx, h->cache_map_path);
+                    ijkio_cache_map_load(h->ijkio_app_ctx, h->cache_map_path);
                 }
             }
         }
     }
 
+    t = ijk_av_dict_get(*options, "cache_share_concurrent", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t && strtol(t->value, NULL, 10) && strlen(h->ijkio_app_ctx->cache_file_path)) {
+        if (ijkio_cache_share_acquire(h->ijkio_app_ctx) != 0)
+            av_log(NULL, AV_LOG_WARNING, "ijkio cache share failed, keep a private cache map\n");
+    }
+
+    if (!h->cache_dir_acquired && strlen(h->ijkio_app_ctx->cache_file_path)) {
+        ijkio_cache_dir_acquire(h->ijkio_app_ctx->cache_file_path, h->cache_map_path);
+        h->cache_dir_acquired = 1;
+    }
+
     h->ijkio_app_ctx->ijkio_interrupt_callback = h->ijkio_interrupt_callback;
 
     IjkURLContext *inner = NULL;
@@ -420,7 +330,12 @@ int ijkio_manager_io_open(IjkIOManagerContext *h, const char *url, int flags, Ij
         if (h->ijk_ctx_map) {
             ijkio_manager_set_all_ctx_pause(h);
             inner->state = IJKURL_STARTED;
-            ijk_map_put(h->ijk_ctx_map, (int64_t)(intptr_t)h->cur_ffmpeg_ctx, inner);
+            if (ijk_map_put(h->ijk_ctx_map, (int64_t)(intptr_t)h->cur_ffmpeg_ctx, inner)) {
+                // not opened yet, nothing to close
+                ijk_av_freep(&inner->priv_data);
+                ijk_av_freep(&inner);
+                return IJKAVERROR(ENOMEM);
+            }
         }
         ret = inner->prot->url_open2(inner, url, flags, options);
         if (ret != 0)
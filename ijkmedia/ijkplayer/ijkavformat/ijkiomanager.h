@@ -33,6 +33,7 @@ struct IjkIOManagerContext {
     IjkAVIOInterruptCB *ijkio_interrupt_callback;
     IjkIOApplicationContext *ijkio_app_ctx;
     int auto_save_map;
+    int cache_dir_acquired;
     void *cur_ffmpeg_ctx;
     void *ijk_ctx_map;
     void *opaque;
@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkiopreload.h"
+#include "ijkiomanager.h"
+#include "ijkplayer/ijkavutil/ijkutils.h"
+#include "ijkplayer/ijkavutil/ijkstl.h"
+#include "ijkplayer/ijkavutil/ijkthreadpool.h"
+#include "libavformat/avformat.h"
+#include "libavutil/avstring.h"
+#include "libavutil/log.h"
+
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define PRELOAD_READ_BUFFER_SIZE        (32 * 1024)
+#define PRELOAD_PROGRESS_INTERVAL       (256 * 1024)
+#define PRELOAD_MAX_CONCURRENT          16
+
+typedef enum IjkIOPreloadMode {
+    IJKIO_PRELOAD_BYTES,
+    IJKIO_PRELOAD_DURATION,
+} IjkIOPreloadMode;
+
+typedef struct IjkIOPreloadTask {
+    IjkIOPreloadContext *owner;
+    int64_t              id;
+    IjkIOPreloadMode     mode;
+    char                *url;
+    char                 cache_file_path[CACHE_FILE_PATH_MAX_LEN];
+    char                 cache_map_path[CACHE_MAP_PATH_MAX_LEN];
+    int64_t              offset;
+    int64_t              size;
+    int64_t              duration_ms;
+    IjkAVDictionary     *options;
+
+    volatile int         abort_request;
+    IjkAVIOInterruptCB   interrupt_cb;
+} IjkIOPreloadTask;
+
+struct IjkIOPreloadContext {
+    IjkThreadPoolContext   *threadpool_ctx;
+    pthread_mutex_t         mutex;
+    void                   *task_map;
+    int64_t                 next_task_id;
+    int                     abort_request;
+
+    ijkio_preload_callback  callback;
+    void                   *opaque;
+};
+
+static int preload_interrupt_cb(void *opaque)
+{
+    IjkIOPreloadTask *task = opaque;
+    return task->abort_request || task->owner->abort_request;
+}
+
+static void preload_notify(IjkIOPreloadTask *task, int what, int64_t arg1, int64_t arg2)
+{
+    if (task->owner->callback)
+        task->owner->callback(task->owner->opaque, what, task->id, arg1, arg2);
+}
+
+static void preload_task_free(IjkIOPreloadTask *task)
+{
+    if (!task)
+        return;
+
+    ijk_av_dict_free(&task->options);
+    free(task->url);
+    free(task);
+}
+
+static int preload_open_manager(IjkIOPreloadTask *task, IjkIOManagerContext **ph)
+{
+    IjkIOManagerContext *manager = NULL;
+
+    if (ijkio_manager_create(&manager, NULL) != 0 || !manager || !manager->ijkio_app_ctx) {
+        ijkio_manager_destroyp(&manager);
+        return IJKAVERROR(ENOMEM);
+    }
+
+    manager->ijkio_interrupt_callback = &task->interrupt_cb;
+    manager->cur_ffmpeg_ctx           = task;
+
+    ijk_av_dict_set(&task->options, "cache_file_path", task->cache_file_path, 0);
+    ijk_av_dict_set(&task->options, "cache_map_path", task->cache_map_path, 0);
+    ijk_av_dict_set(&task->options, "parse_cache_map", "1", 0);
+    ijk_av_dict_set(&task->options, "auto_save_map", "1", 0);
+    // write through: every byte read is appended to the cache file
+    ijk_av_dict_set(&task->options, "cache_file_forwards_capacity", "0", 0);
+
+    *ph = manager;
+    return 0;
+}
+
+static int preload_run_bytes(IjkIOPreloadTask *task, int64_t *cached)
+{
+    IjkIOManagerContext *manager = NULL;
+    unsigned char *buf = NULL;
+    char *url = NULL;
+    int64_t reported = 0;
+    int ret = 0;
+
+    ret = preload_open_manager(task, &manager);
+    if (ret != 0)
+        return ret;
+
+    buf = malloc(PRELOAD_READ_BUFFER_SIZE);
+    url = av_asprintf("cache:ffio:%s", task->url);
+    if (!buf || !url) {
+        ret = IJKAVERROR(ENOMEM);
+        goto fail;
+    }
+
+    ret = ijkio_manager_io_open(manager, url, AVIO_FLAG_READ, &task->options);
+    if (ret != 0)
+        goto fail;
+
+    if (task->offset > 0) {
+        int64_t pos = ijkio_manager_io_seek(manager, task->offset, SEEK_SET);
+        if (pos < 0) {
+            ret = (int)pos;
+            goto close;
+        }
+    }
+
+    while (task->size <= 0 || *cached < task->size) {
+        int to_read = PRELOAD_READ_BUFFER_SIZE;
+        if (task->size > 0)
+            to_read = (int)FFMIN(to_read, task->size - *cached);
+
+        if (preload_interrupt_cb(task)) {
+            ret = IJKAVERROR_EXIT;
+            break;
+        }
+
+        ret = ijkio_manager_io_read(manager, buf, to_read);
+        if (ret == 0 || ret == IJKAVERROR_EOF) {
+            ret = 0;
+            break;
+        } else if (ret < 0) {
+            break;
+        }
+
+        *cached += ret;
+        if (*cached - reported >= PRELOAD_PROGRESS_INTERVAL) {
+            reported = *cached;
+            preload_notify(task, IJKIO_PRELOAD_EVENT_PROGRESS, *cached, task->size);
+        }
+        ret = 0;
+    }
+
+close:
+    ijkio_manager_io_close(manager);
+fail:
+    // saves the map, so the next player open sees the new entries
+    ijkio_manager_destroyp(&manager);
+    av_freep(&url);
+    free(buf);
+    return ret;
+}
+
+static int preload_copy_options(AVDictionary **dst, IjkAVDictionary *src)
+{
+    IjkAVDictionaryEntry *t = NULL;
+
+    while ((t = ijk_av_dict_get(src, "", t, IJK_AV_DICT_IGNORE_SUFFIX))) {
+        int ret = av_dict_set(dst, t->key, t->value, 0);
+        if (ret < 0)
+            return ret;
+    }
+
+    return 0;
+}
+
+static int preload_run_duration(IjkIOPreloadTask *task, int64_t *cached)
+{
+    IjkIOManagerContext *manager = NULL;
+    AVFormatContext *ic = NULL;
+    AVDictionary *opts = NULL;
+    AVPacket pkt;
+    char *url = NULL;
+    int64_t reported_ms = 0;
+    int ret = 0;
+
+    ret = preload_open_manager(task, &manager);
+    if (ret != 0)
+        return ret;
+
+    url = av_asprintf("ijkio:cache:ffio:%s", task->url);
+    ic  = avformat_alloc_context();
+    if (!url || !ic) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+
+    ret = preload_copy_options(&opts, task->options);
+    if (ret < 0)
+        goto fail;
+    av_dict_set_int(&opts, "ijkiomanager", (int64_t)(intptr_t)manager, 0);
+
+    ic->interrupt_callback.callback = preload_interrupt_cb;
+    ic->interrupt_callback.opaque   = task;
+
+    ret = avformat_open_input(&ic, url, NULL, &opts);
+    if (ret < 0)
+        goto fail;
+
+    av_init_packet(&pkt);
+    for (;;) {
+        AVStream *st;
+        int64_t start_time;
+        int64_t elapsed_ms;
+
+        ret = av_read_frame(ic, &pkt);
+        if (ret == AVERROR_EOF) {
+            ret = 0;
+            break;
+        } else if (ret < 0) {
+            break;
+        }
+
+        st = ic->streams[pkt.stream_index];
+        if (pkt.pts == AV_NOPTS_VALUE) {
+            av_packet_unref(&pkt);
+            continue;
+        }
+
+        start_time = st->start_time != AV_NOPTS_VALUE ? st->start_time : 0;
+        elapsed_ms = av_rescale_q(pkt.pts - start_time, st->time_base, (AVRational){1, 1000});
+        av_packet_unref(&pkt);
+
+        if (ic->pb)
+            *cached = avio_tell(ic->pb);
+
+        if (elapsed_ms >= task->duration_ms)
+            break;
+
+        if (elapsed_ms - reported_ms >= 1000) {
+            reported_ms = elapsed_ms;
+            preload_notify(task, IJKIO_PRELOAD_EVENT_PROGRESS, *cached, task->duration_ms);
+        }
+    }
+
+    if (ret == 0 && preload_interrupt_cb(task))
+        ret = IJKAVERROR_EXIT;
+
+fail:
+    avformat_close_input(&ic);
+    av_dict_free(&opts);
+    av_freep(&url);
+    ijkio_manager_destroyp(&manager);
+    return ret;
+}
+
+static void preload_task_run(void *arg, void *out)
+{
+    IjkIOPreloadTask *task = arg;
+    IjkIOPreloadContext *h = task->owner;
+    int64_t cached = 0;
+    int ret;
+
+    if (preload_interrupt_cb(task)) {
+        ret = IJKAVERROR_EXIT;
+    } else if (task->mode == IJKIO_PRELOAD_DURATION) {
+        ret = preload_run_duration(task, &cached);
+    } else {
+        ret = preload_run_bytes(task, &cached);
+    }
+
+    pthread_mutex_lock(&h->mutex);
+    ijk_map_remove(h->task_map, task->id);
+    pthread_mutex_unlock(&h->mutex);
+
+    if (ret == 0) {
+        preload_notify(task, IJKIO_PRELOAD_EVENT_COMPLETED, cached, 0);
+    } else if (preload_interrupt_cb(task)) {
+        preload_notify(task, IJKIO_PRELOAD_EVENT_CANCELLED, cached, 0);
+    } else {
+        av_log(NULL, AV_LOG_WARNING, "ijkio preload %s failed: %d\n", task->url, ret);
+        preload_notify(task, IJKIO_PRELOAD_EVENT_ERROR, ret, 0);
+    }
+
+    preload_task_free(task);
+}
+
+IjkIOPreloadContext *ijkio_preload_create(int max_concurrent, ijkio_preload_callback callback, void *opaque)
+{
+    IjkIOPreloadContext *h = calloc(1, sizeof(IjkIOPreloadContext));
+    if (!h)
+        return NULL;
+
+    if (max_concurrent <= 0)
+        max_concurrent = 1;
+    else if (max_concurrent > PRELOAD_MAX_CONCURRENT)
+        max_concurrent = PRELOAD_MAX_CONCURRENT;
+
+    h->callback       = callback;
+    h->opaque         = opaque;
+    h->next_task_id   = 1;
+    h->task_map       = ijk_map_create();
+    h->threadpool_ctx = ijk_threadpool_create(max_concurrent, max_concurrent * 2, 0);
+    if (!h->task_map || !h->threadpool_ctx)
+        goto fail;
+
+    pthread_mutex_init(&h->mutex, NULL);
+    return h;
+
+fail:
+    if (h->threadpool_ctx)
+        ijk_threadpool_destroy(h->threadpool_ctx, IJK_IMMEDIATE_SHUTDOWN);
+    ijk_map_destroy(h->task_map);
+    free(h);
+    return NULL;
+}
+
+void ijkio_preload_destroy(IjkIOPreloadContext *h)
+{
+    if (!h)
+        return;
+
+    pthread_mutex_lock(&h->mutex);
+    h->abort_request = 1;
+    pthread_mutex_unlock(&h->mutex);
+
+    // let queued tasks run so that they report CANCELLED and free themselves
+    ijk_threadpool_destroy(h->threadpool_ctx, IJK_LEISURELY_SHUTDOWN);
+
+    ijk_map_destroy(h->task_map);
+    pthread_mutex_destroy(&h->mutex);
+    free(h);
+}
+
+void ijkio_preload_destroyp(IjkIOPreloadContext **ph)
+{
+    if (!ph || !*ph)
+        return;
+
+    ijkio_preload_destroy(*ph);
+    *ph = NULL;
+}
+
+static int64_t preload_add(IjkIOPreloadContext *h, IjkIOPreloadTask *task)
+{
+    int64_t id;
+    int ret;
+
+    pthread_mutex_lock(&h->mutex);
+    if (h->abort_request) {
+        pthread_mutex_unlock(&h->mutex);
+        preload_task_free(task);
+        return IJKAVERROR_EXIT;
+    }
+
+    id = h->next_task_id++;
+    task->id = id;
+    if (ijk_map_put(h->task_map, id, task)) {
+        pthread_mutex_unlock(&h->mutex);
+        preload_task_free(task);
+        return IJKAVERROR(ENOMEM);
+    }
+
+    ret = ijk_threadpool_add(h->threadpool_ctx, preload_task_run, task, NULL, 0);
+    if (ret != 0) {
+        ijk_map_remove(h->task_map, id);
+        pthread_mutex_unlock(&h->mutex);
+        preload_task_free(task);
+        return IJKAVERROR(EAGAIN);
+    }
+    pthread_mutex_unlock(&h->mutex);
+
+    return id;
+}
+
+static IjkIOPreloadTask *preload_task_alloc(IjkIOPreloadContext *h, const char *url,
+                                            const char *cache_file_path, const char *cache_map_path,
+                                            IjkAVDictionary *options)
+{
+    IjkIOPreloadTask *task = NULL;
+
+    if (!h || !url || !cache_file_path || !cache_map_path)
+        return NULL;
+
+    if (strlen(cache_file_path) >= CACHE_FILE_PATH_MAX_LEN || strlen(cache_map_path) >= CACHE_MAP_PATH_MAX_LEN)
+        return NULL;
+
+    task = calloc(1, sizeof(IjkIOPreloadTask));
+    if (!task)
+        return NULL;
+
+    task->url = strdup(url);
+    if (!task->url || ijk_av_dict_copy(&task->options, options, 0) < 0) {
+        preload_task_free(task);
+        return NULL;
+    }
+
+    strcpy(task->cache_file_path, cache_file_path);
+    strcpy(task->cache_map_path, cache_map_path);
+    task->owner                 = h;
+    task->interrupt_cb.callback = preload_interrupt_cb;
+    task->interrupt_cb.opaque   = task;
+    return task;
+}
+
+int64_t ijkio_preload_add_bytes(IjkIOPreloadContext *h, const char *url,
+                                const char *cache_file_path, const char *cache_map_path,
+                                int64_t offset, int64_t size, IjkAVDictionary *options)
+{
+    IjkIOPreloadTask *task = preload_task_alloc(h, url, cache_file_path, cache_map_path, options);
+    if (!task)
+        return IJKAVERROR(EINVAL);
+
+    task->mode   = IJKIO_PRELOAD_BYTES;
+    task->offset = offset > 0 ? offset : 0;
+    task->size   = size;
+    return preload_add(h, task);
+}
+
+int64_t ijkio_preload_add_duration(IjkIOPreloadContext *h, const char *url,
+                                   const char *cache_file_path, const char *cache_map_path,
+                                   int64_t duration_ms, IjkAVDictionary *options)
+{
+    IjkIOPreloadTask *task = NULL;
+
+    if (duration_ms <= 0)
+        return IJKAVERROR(EINVAL);
+
+    task = preload_task_alloc(h, url, cache_file_path, cache_map_path, options);
+    if (!task)
+        return IJKAVERROR(EINVAL);
+
+    task->mode        = IJKIO_PRELOAD_DURATION;
+    task->duration_ms = duration_ms;
+    return preload_add(h, task);
+}
+
+int ijkio_preload_cancel(IjkIOPreloadContext *h, int64_t task_id)
+{
+    IjkIOPreloadTask *task = NULL;
+    int ret = -1;
+
+    if (!h)
+        return -1;
+
+    pthread_mutex_lock(&h->mutex);
+    task = ijk_map_get(h->task_map, task_id);
+    if (task) {
+        task->abort_request = 1;
+        ret = 0;
+    }
+    pthread_mutex_unlock(&h->mutex);
+
+    return ret;
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016 Bilibili
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKIOPRELOAD_H
+#define IJKAVFORMAT_IJKIOPRELOAD_H
+
+#include "ijkplayer/ijkavutil/ijkdict.h"
+
+#include <stdint.h>
+
+/*
+ * Fill cache_file_path/cache_map_path ahead of playback, without a player.
+ * A later player opened on "ijkio:cache:ffio:<url>" with the same paths and
+ * parse_cache_map=1 reads the preloaded range straight from disk.
+ */
+
+#define IJKIO_PRELOAD_EVENT_PROGRESS    1   // arg1: bytes cached, arg2: bytes (or ms) requested
+#define IJKIO_PRELOAD_EVENT_COMPLETED   2   // arg1: bytes cached
+#define IJKIO_PRELOAD_EVENT_CANCELLED   3   // arg1: bytes cached
+#define IJKIO_PRELOAD_EVENT_ERROR       4   // arg1: error code
+
+typedef void (*ijkio_preload_callback)(void *opaque, int what, int64_t task_id, int64_t arg1, int64_t arg2);
+
+typedef struct IjkIOPreloadContext IjkIOPreloadContext;
+
+/**
+ * @param max_concurrent number of tasks downloading at the same time, the
+ *                       rest wait in FIFO order
+ * @param callback       invoked from the worker thread, may be NULL
+ */
+IjkIOPreloadContext *ijkio_preload_create(int max_concurrent, ijkio_preload_callback callback, void *opaque);
+
+/**
+ * Stop every task and wait for the workers to exit. Tasks that did not
+ * finish report IJKIO_PRELOAD_EVENT_CANCELLED before this returns.
+ */
+void    ijkio_preload_destroy(IjkIOPreloadContext *h);
+void    ijkio_preload_destroyp(IjkIOPreloadContext **ph);
+
+/**
+ * Cache [offset, offset + size) of url. size <= 0 caches to the end of
+ * the resource.
+ *
+ * options are forwarded to the cache/ffio protocols (user_agent, headers,
+ * cache_max_capacity, ...), the caller keeps ownership.
+ *
+ * @return task id > 0, or a negative error code
+ */
+int64_t ijkio_preload_add_bytes(IjkIOPreloadContext *h, const char *url,
+                                const char *cache_file_path, const char *cache_map_path,
+                                int64_t offset, int64_t size, IjkAVDictionary *options);
+
+/**
+ * Cache the first duration_ms of url by demuxing it through the ijkio
+ * protocol, so that the container header and the first packets are
+ * cached regardless of their byte layout.
+ */
+int64_t ijkio_preload_add_duration(IjkIOPreloadContext *h, const char *url,
+                                   const char *cache_file_path, const char *cache_map_path,
+                                   int64_t duration_ms, IjkAVDictionary *options);
+
+/**
+ * @return 0 if task_id was pending or running, < 0 if it is unknown or
+ *         already finished
+ */
+int     ijkio_preload_cancel(IjkIOPreloadContext *h, int64_t task_id);
+
+#endif  // IJKAVFORMAT_IJKIOPRELOAD_H
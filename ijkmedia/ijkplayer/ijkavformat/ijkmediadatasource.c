@@ -32,6 +32,7 @@
 #include "ijkplayer/ijkavutil/opt.h"
 
 #include "j4a/class/tv/danmaku/ijk/media/player/misc/IMediaDataSource.h"
+#include "j4a/class/tv/danmaku/ijk/media/player/misc/IMediaDataSource2.h"
 #include "ijksdl/android/ijksdl_android_jni.h"
 
 typedef struct Context {
@@ -40,6 +41,7 @@ typedef struct Context {
     /* options */
     int64_t         logical_pos;
     int64_t         logical_size;
+    int             direct_buffer;
 
     int64_t         media_data_source_ptr;
     jobject         media_data_source;
@@ -123,6 +125,27 @@ static jobject jbuffer_grow(JNIEnv *env, URLContext *h, int new_capacity) {
     return c->jbuffer;
 }
 
+/*
+ * IMediaDataSource2: wrap the destination buffer in a direct ByteBuffer so
+ * that java writes into it without an intermediate byte[].
+ */
+static int ijkmds_read_direct(JNIEnv *env, URLContext *h, int64_t position, unsigned char *buf, int size, jint *nread)
+{
+    Context *c = h->priv_data;
+    jobject  jbuffer = NULL;
+
+    jbuffer = (*env)->NewDirectByteBuffer(env, buf, size);
+    if (J4A_ExceptionCheck__catchAll(env) || !jbuffer)
+        return AVERROR(ENOMEM);
+
+    *nread = J4AC_IMediaDataSource2__readAt(env, c->media_data_source, position, jbuffer);
+    J4A_DeleteLocalRef__p(env, &jbuffer);
+    if (J4A_ExceptionCheck__catchAll(env))
+        return AVERROR(EIO);
+
+    return 0;
+}
+
 static int ijkmds_read(URLContext *h, unsigned char *buf, int size)
 {
     Context    *c = h->priv_data;
@@ -138,6 +161,21 @@ static int ijkmds_read(URLContext *h, unsigned char *buf, int size)
         return AVERROR(EINVAL);
     }
 
+    if (c->direct_buffer) {
+        int err = ijkmds_read_direct(env, h, c->logical_pos, buf, size, &ret);
+        if (err)
+            return err;
+        else if (ret < 0)
+            return AVERROR_EOF;
+        else if (ret == 0)
+            return AVERROR(EAGAIN);
+        else if (ret > size)
+            return AVERROR(EIO);
+
+        c->logical_pos += ret;
+        return ret;
+    }
+
     jbuffer = jbuffer_grow(env, h, size);
     if (!jbuffer)
         return AVERROR(ENOMEM);
@@ -189,6 +227,19 @@ static int64_t ijkmds_seek(URLContext *h, int64_t pos, int whence)
     if (new_logical_pos < 0)
         return AVERROR(EINVAL);
 
+    if (c->direct_buffer) {
+        unsigned char dummy = 0;
+        jint nread = 0;
+        int  err = ijkmds_read_direct(env, h, new_logical_pos, &dummy, 0, &nread);
+        if (err)
+            return err;
+        else if (nread < 0)
+            return AVERROR_EOF;
+
+        c->logical_pos = new_logical_pos;
+        return c->logical_pos;
+    }
+
     jbuffer = jbuffer_grow(env, h, 0);
     if (!jbuffer)
         return AVERROR(ENOMEM);
@@ -207,6 +258,8 @@ static int64_t ijkmds_seek(URLContext *h, int64_t pos, int whence)
 #define D AV_OPT_FLAG_DECODING_PARAM
 
 static const AVOption options[] = {
+    { "ijkmds-direct-buffer", "media data source implements IMediaDataSource2",
+        OFFSET(direct_buffer), AV_OPT_TYPE_INT, {.i64 = 0}, 0, 1, D },
     { NULL }
 };
 
@@ -27,6 +27,7 @@
 #include "libavutil/opt.h"
 
 #include "libavutil/application.h"
+#include "ijkurlpark.h"
 
 typedef struct Context {
     AVClass        *class;
@@ -46,6 +47,7 @@ typedef struct Context {
     int             segment_index;
     int64_t         test_fail_point;
     int64_t         test_fail_point_next;
+    int             parked_readers;
     int64_t         app_ctx_intptr;
     AVApplicationContext *app_ctx;
 } Context;
@@ -181,6 +183,7 @@ static int ijkurlhook_close(URLContext *h)
 {
     Context *c = h->priv_data;
 
+    ijkurl_parked_release(h);
     av_dict_free(&c->inner_options);
     return ffurl_closep(&c->inner);
 }
@@ -332,12 +335,43 @@ fail:
     return ret;
 }
 
+/* parks the current reader and continues on a parked or a new one */
+static int ijkhttphook_parked_seek_at(URLContext *h, int64_t pos)
+{
+    Context    *c          = h->priv_data;
+    URLContext *parked     = c->inner;
+    int64_t     parked_pos = c->logical_pos;
+    int         ret        = 0;
+
+    c->inner = ijkurl_parked_take(h, c->app_io_ctrl.url, pos);
+    if (c->inner) {
+        c->logical_pos = pos;
+    } else {
+        AVDictionary *extra_opts = NULL;
+
+        av_dict_set_int(&extra_opts, "offset", pos, 0);
+        ret = ijkurlhook_reconnect(h, extra_opts);
+        av_dict_free(&extra_opts);
+        if (ret) {
+            c->inner = parked;
+            return ret;
+        }
+    }
+
+    if (c->io_error < 0)
+        ffurl_close(parked);
+    else
+        ijkurl_parked_put(h, c->app_io_ctrl.url, parked, parked_pos);
+    c->io_error = 0;
+    return 0;
+}
+
 static int64_t ijkhttphook_reseek_at(URLContext *h, int64_t pos, int whence, int force_reconnect)
 {
     Context *c = h->priv_data;
     int ret = 0;
 
-    if (!force_reconnect)
+    if (!force_reconnect && !c->parked_readers)
         return ijkurlhook_seek(h, pos, whence);
 
     if (whence == SEEK_CUR)
@@ -349,7 +383,10 @@ static int64_t ijkhttphook_reseek_at(URLContext *h, int64_t pos, int whence, int
     if (pos < 0)
         return AVERROR(EINVAL);
 
-    ret = ijkhttphook_reconnect_at(h, pos);
+    if (force_reconnect)
+        ret = ijkhttphook_reconnect_at(h, pos);
+    else
+        ret = ijkhttphook_parked_seek_at(h, pos);
     if (ret) {
         c->io_error = ret;
         return ret;
@@ -427,6 +464,8 @@ static const AVOption ijkhttphook_options[] = {
         OFFSET(segment_index),          AV_OPT_TYPE_INT,   {.i64 = 0}, 0,         INT_MAX, D },
     { "ijkhttphook-test-fail-point",    "test fail point, in bytes",
         OFFSET(test_fail_point),        AV_OPT_TYPE_INT,   {.i64 = 0}, 0,         INT_MAX, D },
+    { "parked_readers",                 "keep the readers left by seeks, to resume them on later seeks just ahead",
+        OFFSET(parked_readers),         AV_OPT_TYPE_INT,   {.i64 = 0}, 0,         1, D },
     { "ijkapplication", "AVApplicationContext", OFFSET(app_ctx_intptr), AV_OPT_TYPE_INT64, { .i64 = 0 }, INT64_MIN, INT64_MAX, .flags = D },
 
     { NULL }
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkurlpark.h"
+#include "libavutil/avstring.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "libavutil/time.h"
+
+#include <pthread.h>
+#include <string.h>
+
+#define HOST_MAX_LEN 256
+
+typedef struct IjkURLParkedEntry IjkURLParkedEntry;
+struct IjkURLParkedEntry {
+    IjkURLParkedEntry *next;
+    void            *owner;
+    char            *url;
+    char             host[HOST_MAX_LEN];
+    URLContext      *inner;
+    int64_t          pos;
+    int64_t          parked_time;
+};
+
+typedef struct IjkURLParked {
+    pthread_mutex_t  mutex;
+    IjkURLParkedEntry *entries;       // oldest first
+    int64_t          hits;
+    int64_t          misses;
+} IjkURLParked;
+
+static IjkURLParked g_url_parked = {
+    .mutex = PTHREAD_MUTEX_INITIALIZER,
+};
+
+/* host[:port] of the innermost "scheme://" url */
+static void url_host(const char *url, char *host, size_t size)
+{
+    const char *start = strstr(url, "://");
+    size_t      len   = 0;
+
+    host[0] = '\0';
+    if (!start)
+        return;
+
+    start += 3;
+    len = strcspn(start, "/?#");
+    if (len >= size)
+        len = size - 1;
+    memcpy(host, start, len);
+    host[len] = '\0';
+}
+
+static void entry_free(IjkURLParkedEntry *entry)
+{
+    if (!entry)
+        return;
+    ffurl_closep(&entry->inner);
+    av_freep(&entry->url);
+    av_free(entry);
+}
+
+static void entries_free(IjkURLParkedEntry *entry)
+{
+    while (entry) {
+        IjkURLParkedEntry *next = entry->next;
+        entry_free(entry);
+        entry = next;
+    }
+}
+
+/*
+ * unlinks the entries of owner to close into *closed, they are freed out of
+ * the lock. The entries of other owners are left to them: closing one calls
+ * its owner's interrupt callback, which may be going away.
+ */
+static void trim_l(void *owner, const char *host, int64_t now, IjkURLParkedEntry **closed)
+{
+    IjkURLParkedEntry **p = &g_url_parked.entries;
+    int nb_total = 0, nb_host = 0;
+
+    for (IjkURLParkedEntry *entry = g_url_parked.entries; entry; entry = entry->next) {
+        nb_total++;
+        if (!strcmp(entry->host, host))
+            nb_host++;
+    }
+
+    while (*p) {
+        IjkURLParkedEntry *entry = *p;
+        int same_host = !strcmp(entry->host, host);
+
+        if (entry->owner != owner) {
+            p = &entry->next;
+            continue;
+        }
+        if (now - entry->parked_time > IJKURL_PARKED_MAX_IDLE_MICRO ||
+            nb_total > IJKURL_PARKED_MAX_TOTAL ||
+            (same_host && nb_host > IJKURL_PARKED_MAX_PER_HOST)) {
+            *p = entry->next;
+            entry->next = *closed;
+            *closed = entry;
+            nb_total--;
+            if (same_host)
+                nb_host--;
+            continue;
+        }
+        p = &entry->next;
+    }
+}
+
+void ijkurl_parked_put(void *owner, const char *url, URLContext *inner, int64_t pos)
+{
+    IjkURLParkedEntry  *entry  = NULL;
+    IjkURLParkedEntry  *closed = NULL;
+    IjkURLParkedEntry **p      = NULL;
+
+    if (!inner)
+        return;
+
+    entry = av_mallocz(sizeof(IjkURLParkedEntry));
+    if (!entry || !url || !(entry->url = av_strdup(url)) || pos < 0) {
+        ffurl_close(inner);
+        av_free(entry);
+        return;
+    }
+    entry->owner       = owner;
+    entry->inner       = inner;
+    entry->pos         = pos;
+    entry->parked_time = av_gettime_relative();
+    url_host(url, entry->host, sizeof(entry->host));
+
+    pthread_mutex_lock(&g_url_parked.mutex);
+    for (p = &g_url_parked.entries; *p; p = &(*p)->next);
+    *p = entry;
+    trim_l(owner, entry->host, entry->parked_time, &closed);
+    pthread_mutex_unlock(&g_url_parked.mutex);
+
+    av_log(NULL, AV_LOG_DEBUG, "ijkurl park reader of %s at %lld\n", entry->host, (long long)pos);
+    entries_free(closed);
+}
+
+static int skip_bytes(URLContext *inner, int64_t size)
+{
+    uint8_t buf[4096];
+
+    while (size > 0) {
+        int ret = ffurl_read(inner, buf, (int)FFMIN(size, sizeof(buf)));
+        if (ret <= 0)
+            return ret < 0 ? ret : AVERROR_EOF;
+        size -= ret;
+    }
+    return 0;
+}
+
+URLContext *ijkurl_parked_take(void *owner, const char *url, int64_t pos)
+{
+    IjkURLParkedEntry  *entry  = NULL;
+    IjkURLParkedEntry  *closed = NULL;
+    IjkURLParkedEntry **p      = NULL;
+    URLContext       *inner  = NULL;
+    int64_t           now    = av_gettime_relative();
+    int64_t           parked_pos;
+    int               ret;
+
+    if (!url)
+        return NULL;
+
+    pthread_mutex_lock(&g_url_parked.mutex);
+    for (p = &g_url_parked.entries; *p; p = &(*p)->next) {
+        IjkURLParkedEntry *e = *p;
+        if (e->owner == owner && !strcmp(e->url, url) &&
+            e->pos <= pos && pos - e->pos <= IJKURL_PARKED_MAX_SKIP &&
+            now - e->parked_time <= IJKURL_PARKED_MAX_IDLE_MICRO) {
+            entry = e;
+            *p = e->next;
+            break;
+        }
+    }
+    if (entry)
+        trim_l(owner, entry->host, now, &closed);
+    else
+        g_url_parked.misses++;
+    pthread_mutex_unlock(&g_url_parked.mutex);
+    entries_free(closed);
+
+    if (!entry)
+        return NULL;
+
+    inner        = entry->inner;
+    parked_pos   = entry->pos;
+    entry->inner = NULL;
+    entry_free(entry);
+
+    ret = skip_bytes(inner, pos - parked_pos);
+    pthread_mutex_lock(&g_url_parked.mutex);
+    if (ret < 0)
+        g_url_parked.misses++;
+    else
+        g_url_parked.hits++;
+    pthread_mutex_unlock(&g_url_parked.mutex);
+
+    if (ret < 0) {
+        av_log(NULL, AV_LOG_INFO, "ijkurl drop reader parked at %lld: %d\n", (long long)parked_pos, ret);
+        ffurl_close(inner);
+        return NULL;
+    }
+
+    av_log(NULL, AV_LOG_DEBUG, "ijkurl resume reader parked at %lld for %lld\n", (long long)parked_pos, (long long)pos);
+    return inner;
+}
+
+void ijkurl_parked_release(void *owner)
+{
+    IjkURLParkedEntry  *closed = NULL;
+    IjkURLParkedEntry **p      = NULL;
+
+    pthread_mutex_lock(&g_url_parked.mutex);
+    p = &g_url_parked.entries;
+    while (*p) {
+        IjkURLParkedEntry *entry = *p;
+        if (entry->owner == owner) {
+            *p = entry->next;
+            entry->next = closed;
+            closed = entry;
+            continue;
+        }
+        p = &entry->next;
+    }
+    pthread_mutex_unlock(&g_url_parked.mutex);
+
+    entries_free(closed);
+}
+
+int ijkurl_parked_open_at(URLContext **puc, const char *url, int64_t pos,
+                          int flags, const AVIOInterruptCB *int_cb, AVDictionary *options,
+                          const char *whitelist, const char *blacklist, URLContext *parent)
+{
+    AVDictionary *opts = NULL;
+    int64_t       ret  = 0;
+
+    av_dict_copy(&opts, options, 0);
+    av_dict_set_int(&opts, "offset", pos, 0);
+    ret = ffurl_open_whitelist(puc, url, flags, int_cb, &opts, whitelist, blacklist, parent);
+    av_dict_free(&opts);
+    if (ret < 0)
+        return (int)ret;
+
+    // protocols without an "offset" option start at 0
+    ret = ffurl_seek(*puc, 0, SEEK_CUR);
+    if (ret != pos)
+        ret = ffurl_seek(*puc, pos, SEEK_SET);
+    if (ret < 0) {
+        ffurl_closep(puc);
+        return (int)ret;
+    }
+    return 0;
+}
+
+int64_t ijkurl_parked_seek(void *owner, URLContext **inner, const char *url, int64_t pos,
+                           int flags, const AVIOInterruptCB *int_cb, AVDictionary *options,
+                           const char *whitelist, const char *blacklist, URLContext *parent)
+{
+    URLContext *parked  = NULL;
+    int64_t     cur_pos = ffurl_seek(*inner, 0, SEEK_CUR);
+    int         ret     = 0;
+
+    if (cur_pos < 0 || cur_pos == pos || (*inner)->is_streamed)
+        return ffurl_seek(*inner, pos, SEEK_SET);
+
+    parked = ijkurl_parked_take(owner, url, pos);
+    if (!parked) {
+        ret = ijkurl_parked_open_at(&parked, url, pos, flags, int_cb, options, whitelist, blacklist, parent);
+        if (ret < 0) {
+            if (ret == AVERROR_EXIT)
+                return ret;
+            av_log(NULL, AV_LOG_WARNING, "ijkurl open at %lld failed: %d\n", (long long)pos, ret);
+            return ffurl_seek(*inner, pos, SEEK_SET);
+        }
+    }
+
+    ijkurl_parked_put(owner, url, *inner, cur_pos);
+    *inner = parked;
+    return pos;
+}
+
+int64_t ijkurl_parked_get_hits(void)
+{
+    int64_t hits;
+
+    pthread_mutex_lock(&g_url_parked.mutex);
+    hits = g_url_parked.hits;
+    pthread_mutex_unlock(&g_url_parked.mutex);
+    return hits;
+}
+
+int64_t ijkurl_parked_get_misses(void)
+{
+    int64_t misses;
+
+    pthread_mutex_lock(&g_url_parked.mutex);
+    misses = g_url_parked.misses;
+    pthread_mutex_unlock(&g_url_parked.mutex);
+    return misses;
+}
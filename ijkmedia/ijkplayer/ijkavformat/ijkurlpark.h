@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKURLPARK_H
+#define IJKAVFORMAT_IJKURLPARK_H
+
+#include "libavformat/url.h"
+
+#include <stdint.h>
+
+/*
+ * Process-wide list of parked readers: inner URLContexts left behind by a
+ * seek, positioned where the seek left them, limited per host and in total.
+ *
+ * A seek beyond what the async ring or the cache holds makes http drop its
+ * connection and open a new one at the target offset. With the
+ * "parked_readers" option, async, ijkhttphook and the ijkio ffio protocol
+ * park the context they move away from instead, its response still being
+ * received, and resume it when a later seek lands at, or up to
+ * IJKURL_PARKED_MAX_SKIP bytes after, the position it was parked at.
+ *
+ * This is not a connection pool: a parked http context is in the middle of
+ * its response body, so it can not take a new range request, and a seek
+ * anywhere else opens a new connection.
+ *
+ * An owner only gets back the readers it parked itself: they keep pointers
+ * to its interrupt callback and application context, so only their owner
+ * closes them too: after IJKURL_PARKED_MAX_IDLE_MICRO or when their host or
+ * the list is over its limit, on its next put or take, and by
+ * ijkurl_parked_release().
+ */
+
+#define IJKURL_PARKED_MAX_SKIP          (256 * 1024)
+#define IJKURL_PARKED_MAX_PER_HOST      4
+#define IJKURL_PARKED_MAX_TOTAL         16
+#define IJKURL_PARKED_MAX_IDLE_MICRO    (30 * 1000 * 1000)
+
+/**
+ * Park inner, inner is closed if it can not be kept.
+ */
+void        ijkurl_parked_put(void *owner, const char *url, URLContext *inner, int64_t pos);
+
+/**
+ * @return a context parked by owner for url, positioned at pos, NULL on a
+ *         miss. Counts a hit or a miss.
+ */
+URLContext *ijkurl_parked_take(void *owner, const char *url, int64_t pos);
+
+/**
+ * Close every context parked by owner.
+ */
+void        ijkurl_parked_release(void *owner);
+
+/**
+ * Open url at pos, through the "offset" option or a seek for the protocols
+ * without it.
+ */
+int         ijkurl_parked_open_at(URLContext **puc, const char *url, int64_t pos,
+                                  int flags, const AVIOInterruptCB *int_cb, AVDictionary *options,
+                                  const char *whitelist, const char *blacklist, URLContext *parent);
+
+/**
+ * Move *inner to pos, for protocols that reopen on seek. The current inner
+ * is parked and replaced by a parked context near pos, or by a new one
+ * opened at pos through the "offset" option. Falls back to ffurl_seek()
+ * on *inner when no other context could be opened.
+ *
+ * @return the new position, < 0 on error
+ */
+int64_t     ijkurl_parked_seek(void *owner, URLContext **inner, const char *url, int64_t pos,
+                               int flags, const AVIOInterruptCB *int_cb, AVDictionary *options,
+                               const char *whitelist, const char *blacklist, URLContext *parent);
+
+int64_t     ijkurl_parked_get_hits(void);
+int64_t     ijkurl_parked_get_misses(void);
+
+#endif  // IJKAVFORMAT_IJKURLPARK_H
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkmap.h"
+
+#include <stdlib.h>
+#include <string.h>
+
+#define IJK_HASH_MAP_MIN_SLOTS      16
+#define IJK_HASH_MAP_MAX_SLOTS      (1 << 30)
+#define IJK_HASH_MAP_EMPTY          (-1)
+
+typedef struct IjkHashMapEntry {
+    int64_t key;
+    void   *value;
+} IjkHashMapEntry;
+
+struct IjkHashMap {
+    int32_t         *slots;         // index into entries, or IJK_HASH_MAP_EMPTY
+    uint32_t         slot_mask;     // slot count - 1, slot count is a power of 2
+    IjkHashMapEntry *entries;
+    int              count;
+    int              capacity;      // entries allocated
+};
+
+static inline uint32_t hash_key(int64_t key)
+{
+    uint64_t x = (uint64_t)key;
+
+    // splitmix64 finalizer, sequential keys spread over all slots
+    x ^= x >> 30;
+    x *= UINT64_C(0xbf58476d1ce4e5b9);
+    x ^= x >> 27;
+    x *= UINT64_C(0x94d049bb133111eb);
+    x ^= x >> 31;
+    return (uint32_t)x;
+}
+
+static inline uint32_t find_slot(const IjkHashMap *map, int64_t key)
+{
+    uint32_t i = hash_key(key) & map->slot_mask;
+
+    while (map->slots[i] != IJK_HASH_MAP_EMPTY && map->entries[map->slots[i]].key != key)
+        i = (i + 1) & map->slot_mask;
+    return i;
+}
+
+static int rehash(IjkHashMap *map, uint32_t slot_count)
+{
+    int32_t *slots = malloc(slot_count * sizeof(int32_t));
+    int i;
+
+    if (!slots)
+        return -1;
+
+    memset(slots, 0xff, slot_count * sizeof(int32_t));
+    free(map->slots);
+    map->slots     = slots;
+    map->slot_mask = slot_count - 1;
+
+    for (i = 0; i < map->count; i++)
+        map->slots[find_slot(map, map->entries[i].key)] = i;
+    return 0;
+}
+
+IjkHashMap *ijk_hash_map_create(void)
+{
+    IjkHashMap *map = calloc(1, sizeof(IjkHashMap));
+    if (!map)
+        return NULL;
+
+    if (rehash(map, IJK_HASH_MAP_MIN_SLOTS) != 0) {
+        free(map);
+        return NULL;
+    }
+    return map;
+}
+
+void ijk_hash_map_destroy(IjkHashMap *map)
+{
+    if (!map)
+        return;
+
+    free(map->slots);
+    free(map->entries);
+    free(map);
+}
+
+void ijk_hash_map_clear(IjkHashMap *map)
+{
+    if (!map)
+        return;
+
+    map->count = 0;
+    memset(map->slots, 0xff, (map->slot_mask + 1) * sizeof(int32_t));
+}
+
+int ijk_hash_map_put(IjkHashMap *map, int64_t key, void *value)
+{
+    uint32_t i;
+
+    if (!map)
+        return -1;
+
+    i = find_slot(map, key);
+    if (map->slots[i] != IJK_HASH_MAP_EMPTY) {
+        map->entries[map->slots[i]].value = value;
+        return 0;
+    }
+
+    if (map->count == map->capacity) {
+        int capacity = map->capacity ? map->capacity * 2 : IJK_HASH_MAP_MIN_SLOTS / 2;
+        IjkHashMapEntry *entries = realloc(map->entries, capacity * sizeof(IjkHashMapEntry));
+        if (!entries)
+            return -1;
+        map->entries  = entries;
+        map->capacity = capacity;
+    }
+
+    // keep the load factor <= 1/2 so that probe sequences stay short
+    if ((uint32_t)(map->count + 1) * 2 > map->slot_mask + 1) {
+        if (map->slot_mask + 1 >= IJK_HASH_MAP_MAX_SLOTS || rehash(map, (map->slot_mask + 1) * 2) != 0)
+            return -1;
+        i = find_slot(map, key);
+    }
+
+    map->entries[map->count].key   = key;
+    map->entries[map->count].value = value;
+    map->slots[i] = map->count++;
+    return 0;
+}
+
+void *ijk_hash_map_get(IjkHashMap *map, int64_t key)
+{
+    uint32_t i;
+
+    if (!map)
+        return NULL;
+
+    i = find_slot(map, key);
+    return map->slots[i] != IJK_HASH_MAP_EMPTY ? map->entries[map->slots[i]].value : NULL;
+}
+
+int ijk_hash_map_contains(IjkHashMap *map, int64_t key)
+{
+    if (!map)
+        return 0;
+
+    return map->slots[find_slot(map, key)] != IJK_HASH_MAP_EMPTY;
+}
+
+int ijk_hash_map_remove(IjkHashMap *map, int64_t key)
+{
+    uint32_t i, j, home;
+    int32_t index, last;
+
+    if (!map)
+        return -1;
+
+    i = find_slot(map, key);
+    index = map->slots[i];
+    if (index == IJK_HASH_MAP_EMPTY)
+        return -1;
+
+    // backward shift deletion, no tombstones
+    j = i;
+    for (;;) {
+        j = (j + 1) & map->slot_mask;
+        if (map->slots[j] == IJK_HASH_MAP_EMPTY)
+            break;
+        home = hash_key(map->entries[map->slots[j]].key) & map->slot_mask;
+        if (((j - home) & map->slot_mask) >= ((j - i) & map->slot_mask)) {
+            map->slots[i] = map->slots[j];
+            i = j;
+        }
+    }
+    map->slots[i] = IJK_HASH_MAP_EMPTY;
+
+    // fill the hole in the dense array with the last entry
+    last = --map->count;
+    if (index != last) {
+        map->entries[index] = map->entries[last];
+        map->slots[find_slot(map, map->entries[index].key)] = index;
+    }
+    return 0;
+}
+
+int ijk_hash_map_size(IjkHashMap *map)
+{
+    return map ? map->count : 0;
+}
+
+int ijk_hash_map_index_get(IjkHashMap *map, int index, int64_t *key, void **value)
+{
+    if (!map || index < 0 || index >= map->count)
+        return -1;
+
+    if (key)
+        *key = map->entries[index].key;
+    if (value)
+        *value = map->entries[index].value;
+    return 0;
+}
+
+void ijk_hash_map_traversal(IjkHashMap *map, void *parm, IjkHashMapEnumerate enu)
+{
+    int i;
+
+    if (!map || !enu)
+        return;
+
+    for (i = 0; i < map->count; i++)
+        enu(parm, map->entries[i].key, map->entries[i].value);
+}
+
+static int cmp_entry(const void *a, const void *b)
+{
+    int64_t ka = ((const IjkHashMapEntry *)a)->key;
+    int64_t kb = ((const IjkHashMapEntry *)b)->key;
+    return (ka > kb) - (ka < kb);
+}
+
+void ijk_hash_map_traversal_ordered(IjkHashMap *map, void *parm, IjkHashMapEnumerate enu)
+{
+    IjkHashMapEntry *sorted = NULL;
+    int i;
+
+    if (!map || !enu || !map->count)
+        return;
+
+    sorted = malloc(map->count * sizeof(IjkHashMapEntry));
+    if (!sorted) {
+        ijk_hash_map_traversal(map, parm, enu);
+        return;
+    }
+
+    memcpy(sorted, map->entries, map->count * sizeof(IjkHashMapEntry));
+    qsort(sorted, map->count, sizeof(IjkHashMapEntry), cmp_entry);
+    for (i = 0; i < map->count; i++)
+        enu(parm, sorted[i].key, sorted[i].value);
+    free(sorted);
+}
+
+int64_t ijk_hash_map_min_key(IjkHashMap *map)
+{
+    int64_t min_key;
+    int i;
+
+    if (!map || !map->count)
+        return -1;
+
+    min_key = map->entries[0].key;
+    for (i = 1; i < map->count; i++) {
+        if (map->entries[i].key < min_key)
+            min_key = map->entries[i].key;
+    }
+    return min_key;
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 Raymond Zheng <raymondzheng1412@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVUTIL_IJKMAP_H
+#define IJKAVUTIL_IJKMAP_H
+
+#include <stdint.h>
+
+/*
+ * int64_t -> void * hash map.
+ *
+ * Entries live in a dense array indexed by an open-addressing (linear
+ * probing) slot table, so get/put/remove are O(1) on average and
+ * ijk_hash_map_index_get is O(1). Removal moves the last entry into the
+ * freed position: indices are stable only while the map is not modified,
+ * and iteration order is not key order. Use
+ * ijk_hash_map_traversal_ordered when key order matters.
+ */
+typedef struct IjkHashMap IjkHashMap;
+
+typedef int (*IjkHashMapEnumerate)(void *parm, int64_t key, void *elem);
+
+IjkHashMap *ijk_hash_map_create(void);
+void        ijk_hash_map_destroy(IjkHashMap *map);
+void        ijk_hash_map_clear(IjkHashMap *map);
+
+/**
+ * Insert or replace the value stored for key.
+ *
+ * @return 0 on success, < 0 if the map could not grow
+ */
+int         ijk_hash_map_put(IjkHashMap *map, int64_t key, void *value);
+void       *ijk_hash_map_get(IjkHashMap *map, int64_t key);
+int         ijk_hash_map_contains(IjkHashMap *map, int64_t key);
+
+/**
+ * @return 0 if key was removed, < 0 if it was not present
+ */
+int         ijk_hash_map_remove(IjkHashMap *map, int64_t key);
+int         ijk_hash_map_size(IjkHashMap *map);
+
+/**
+ * Access the index-th entry of the dense array, 0 <= index < size.
+ *
+ * @return 0 on success, < 0 if index is out of range
+ */
+int         ijk_hash_map_index_get(IjkHashMap *map, int index, int64_t *key, void **value);
+
+/**
+ * Call enu for every entry, in storage order. enu must not modify the map.
+ */
+void        ijk_hash_map_traversal(IjkHashMap *map, void *parm, IjkHashMapEnumerate enu);
+
+/**
+ * Same as ijk_hash_map_traversal, in ascending key order. Costs a sort of
+ * the keys, O(n log n).
+ */
+void        ijk_hash_map_traversal_ordered(IjkHashMap *map, void *parm, IjkHashMapEnumerate enu);
+
+/**
+ * @return the smallest key, or -1 if the map is empty
+ */
+int64_t     ijk_hash_map_min_key(IjkHashMap *map);
+
+#endif /* IJKAVUTIL_IJKMAP_H */
@@ -17,14 +17,15 @@
  * License along with ijkPlayer; if not, write to the Free Software
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
  */
-#include <map>
-
-using namespace std;
+extern "C" {
+#include "ijkmap.h"
+}
 
-typedef map<int64_t, void *> IjkMap;
+#include <limits.h>
+#include <stddef.h>
 
 extern "C" void* ijk_map_create();
-extern "C" void ijk_map_put(void *data, int64_t key, void *value);
+extern "C" int ijk_map_put(void *data, int64_t key, void *value);
 extern "C" void* ijk_map_get(void *data, int64_t key);
 extern "C" int ijk_map_remove(void *data, int64_t key);
 extern "C" int ijk_map_size(void *data);
@@ -34,114 +35,200 @@ extern "C" int64_t ijk_map_get_min_key(void *data);
 extern "C" void ijk_map_clear(void *data);
 extern "C" void ijk_map_destroy(void *data);
 extern "C" void ijk_map_traversal_handle(void *data, void *parm, int (*enu)(void *parm, int64_t key, void *elem));
+extern "C" void ijk_map_traversal_handle_ordered(void *data, void *parm, int (*enu)(void *parm, int64_t key, void *elem));
+
+/*
+ * ijk_map used to wrap std::map<int64_t, void *>. It is now backed by the
+ * open-addressing IjkHashMap: lookups no longer walk a red-black tree and
+ * ijk_map_index_get no longer walks the map linearly. Traversal is in
+ * storage order, use ijk_map_traversal_handle_ordered where key order
+ * matters.
+ */
 
 void* ijk_map_create() {
-    IjkMap *data = new IjkMap();
-    return data;
+    return ijk_hash_map_create();
 }
 
-void ijk_map_put(void *data, int64_t key, void *value) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
+int ijk_map_put(void *data, int64_t key, void *value) {
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
     if (!map_data)
-        return;
-    (*map_data)[key] = value;
+        return -1;
+    return ijk_hash_map_put(map_data, key, value);
 }
 
 void* ijk_map_get(void *data, int64_t key) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
     if (!map_data)
         return NULL;
 
-    IjkMap::iterator it = map_data->find(key);
-    if (it != map_data->end()) {
-        return it->second;
-    }
-    return NULL;
+    return ijk_hash_map_get(map_data, key);
 }
 
 int ijk_map_remove(void *data, int64_t key) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
     if (!map_data)
         return -1;
-    map_data->erase(key);
+    ijk_hash_map_remove(map_data, key);
     return 0;
 }
 
 int ijk_map_size(void *data) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
     if (!map_data)
         return 0;
 
-    return map_data->size();
+    return ijk_hash_map_size(map_data);
 }
 
 int ijk_map_max_size(void *data) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
     if (!map_data)
         return 0;
 
-    return map_data->max_size();
+    return INT_MAX / 2;
 }
 
 void* ijk_map_index_get(void *data, int index) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
-    if (!map_data || map_data->empty())
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
+    void *value = NULL;
+    if (!map_data)
         return NULL;
 
-    IjkMap::iterator it;
-    it = map_data->begin();
-
-    for (int i = 0; i < index; i++) {
-        it = it++;
-        if (it == map_data->end()) {
-            return NULL;
-        }
-    }
+    if (ijk_hash_map_index_get(map_data, index, NULL, &value) != 0)
+        return NULL;
 
-    return it->second;
+    return value;
 }
 
 void ijk_map_traversal_handle(void *data, void *parm, int (*enu)(void *parm, int64_t key, void *elem)) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
-    if (!map_data || map_data->empty())
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
+    if (!map_data)
         return;
 
-    IjkMap::iterator it;
+    ijk_hash_map_traversal(map_data, parm, enu);
+}
 
-    for (it = map_data->begin(); it != map_data->end(); it++) {
-        enu(parm, it->first, it->second);
-    }
+void ijk_map_traversal_handle_ordered(void *data, void *parm, int (*enu)(void *parm, int64_t key, void *elem)) {
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
+    if (!map_data)
+        return;
+
+    ijk_hash_map_traversal_ordered(map_data, parm, enu);
 }
 
 int64_t ijk_map_get_min_key(void *data) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
-    if (!map_data || map_data->empty())
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
+    if (!map_data)
         return -1;
 
-    IjkMap::iterator it = map_data->begin();
-
-    int64_t min_key = it->first;
-
-    for (; it != map_data->end(); it++) {
-        min_key = min_key < it->first ? min_key : it->first;
-    }
-
-    return min_key;
+    return ijk_hash_map_min_key(map_data);
 }
 
 void ijk_map_clear(void *data) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
     if (!map_data)
         return;
 
-    map_data->clear();
+    ijk_hash_map_clear(map_data);
 }
 
 void ijk_map_destroy(void *data) {
-    IjkMap *map_data = reinterpret_cast<IjkMap *>(data);
+    IjkHashMap *map_data = reinterpret_cast<IjkHashMap *>(data);
     if (!map_data)
         return;
 
-    map_data->clear();
-    delete(map_data);
+    ijk_hash_map_destroy(map_data);
+}
+
+#ifdef IJK_MAP_BENCHMARK
+/*
+ * Host micro-benchmark against the previous std::map implementation:
+ *
+ *   cc -O2 -c ijkmap.c
+ *   c++ -O2 -DIJK_MAP_BENCHMARK -I.. ijkstl.cpp ijkmap.o -o ijkmap_bench
+ *   ./ijkmap_bench
+ */
+#include <map>
+#include <stdio.h>
+#include <stdlib.h>
+#include <sys/time.h>
+
+typedef std::map<int64_t, void *> LegacyMap;
+
+static int64_t bench_now_us() {
+    struct timeval tv;
+    gettimeofday(&tv, NULL);
+    return (int64_t)tv.tv_sec * 1000000 + tv.tv_usec;
+}
+
+static void *legacy_index_get(LegacyMap &m, int index) {
+    LegacyMap::iterator it = m.begin();
+    for (int i = 0; i < index && it != m.end(); i++)
+        ++it;
+    return it != m.end() ? it->second : NULL;
+}
+
+static void bench(int n, int rounds) {
+    int64_t *keys = (int64_t *)malloc(n * sizeof(int64_t));
+    int64_t t0, t_put[2], t_get[2], t_index[2], t_remove[2];
+    volatile intptr_t sink = 0;
+
+    srand(n);
+    for (int i = 0; i < n; i++)
+        keys[i] = ((int64_t)rand() << 31) ^ rand();
+
+    LegacyMap legacy;
+    void *map = ijk_map_create();
+
+    for (int r = 0; r < 2; r++) {
+        t0 = bench_now_us();
+        for (int k = 0; k < rounds; k++) {
+            for (int i = 0; i < n; i++) {
+                if (r == 0) legacy[keys[i]] = (void *)(intptr_t)(i + 1);
+                else        ijk_map_put(map, keys[i], (void *)(intptr_t)(i + 1));
+            }
+        }
+        t_put[r] = bench_now_us() - t0;
+
+        t0 = bench_now_us();
+        for (int k = 0; k < rounds; k++) {
+            for (int i = 0; i < n; i++) {
+                if (r == 0) sink += (intptr_t)legacy.find(keys[i])->second;
+                else        sink += (intptr_t)ijk_map_get(map, keys[i]);
+            }
+        }
+        t_get[r] = bench_now_us() - t0;
+
+        // 1000 evenly spaced indices, the legacy walk is O(n) per call
+        t0 = bench_now_us();
+        for (int i = 0; i < 1000; i++) {
+            if (r == 0) sink += (intptr_t)legacy_index_get(legacy, (int)((int64_t)i * n / 1000));
+            else        sink += (intptr_t)ijk_map_index_get(map, (int)((int64_t)i * n / 1000));
+        }
+        t_index[r] = bench_now_us() - t0;
+
+        t0 = bench_now_us();
+        for (int i = 0; i < n; i++) {
+            if (r == 0) legacy.erase(keys[i]);
+            else        ijk_map_remove(map, keys[i]);
+        }
+        t_remove[r] = bench_now_us() - t0;
+    }
+
+    printf("%8d  put %8lld / %8lld us  get %8lld / %8lld us  index(x1000) %8lld / %4lld us  remove %8lld / %8lld us\n", n,
+           (long long)t_put[0], (long long)t_put[1], (long long)t_get[0], (long long)t_get[1],
+           (long long)t_index[0], (long long)t_index[1], (long long)t_remove[0], (long long)t_remove[1]);
+
+    ijk_map_destroy(map);
+    free(keys);
+}
+
+int main() {
+    printf("entries   std::map / ijk_map\n");
+    bench(16, 10000);
+    bench(1000, 100);
+    bench(10000, 10);
+    bench(100000, 1);
+    return 0;
 }
+#endif
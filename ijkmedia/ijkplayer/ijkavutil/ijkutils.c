@@ -26,3 +26,24 @@ int ijk_av_strstart(const char *str, const char *pfx, const char **ptr)
         *ptr = str;
     return !*pfx;
 }
+
+#define ADLER_BASE 65521
+#define ADLER_NMAX 5552
+
+uint32_t ijk_adler32_update(uint32_t adler, const uint8_t *buf, size_t len)
+{
+    uint32_t s1 = adler & 0xFFFF;
+    uint32_t s2 = adler >> 16;
+
+    while (len > 0) {
+        size_t n = FFMIN(len, ADLER_NMAX);
+        len -= n;
+        while (n--) {
+            s1 += *buf++;
+            s2 += s1;
+        }
+        s1 %= ADLER_BASE;
+        s2 %= ADLER_BASE;
+    }
+    return (s2 << 16) | s1;
+}
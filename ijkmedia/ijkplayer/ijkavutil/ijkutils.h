@@ -33,11 +33,14 @@ typedef struct IjkAVIOInterruptCB {
     void *opaque;
 } IjkAVIOInterruptCB;
 
+#define IJK_CACHE_VALIDATOR_MAX_LEN 128
+
 typedef struct IjkCacheTreeInfo {
     struct IjkAVTreeNode *root;
     int64_t physical_init_pos;
     int64_t physical_size;
     int64_t file_size;
+    char validator[IJK_CACHE_VALIDATOR_MAX_LEN];    // ETag/Last-Modified of the cached content, may be empty
 } IjkCacheTreeInfo;
 
 #define FFDIFFSIGN(x,y) (((x)>(y)) - ((x)<(y)))
@@ -95,4 +98,9 @@ typedef struct IjkCacheTreeInfo {
 void ijk_av_freep(void *arg);
 
 int ijk_av_strstart(const char *str, const char *pfx, const char **ptr);
+
+/**
+ * Update a running adler32 checksum, start with adler = 1.
+ */
+uint32_t ijk_adler32_update(uint32_t adler, const uint8_t *buf, size_t len);
 #endif  // IJKAVUTIL_IJKUTILS_H
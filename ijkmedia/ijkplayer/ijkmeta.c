@@ -55,8 +55,16 @@ fail:
 
 void ijkmeta_reset(IjkMediaMeta *meta)
 {
-    if (meta && meta->dict)
+    if (!meta)
+        return;
+
+    if (meta->dict)
         av_dict_free(&meta->dict);
+
+    // the streams of the previous media
+    for (size_t i = 0; i < meta->children_count; ++i)
+        ijkmeta_destroy_p(&meta->children[i]);
+    meta->children_count = 0;
 }
 
 void ijkmeta_destroy(IjkMediaMeta *meta)
@@ -155,6 +155,16 @@ void ijkmp_set_frame_at_time(IjkMediaPlayer *mp, const char *path, int64_t start
     MPTRACE("%s()=void\n", __func__);
 }
 
+void ijkmp_set_sprite_frame_at_time(IjkMediaPlayer *mp, const char *path, int64_t start_time, int64_t end_time, int num,
+                                    const FFSpriteSheetConfig *config)
+{
+    assert(mp);
+
+    MPTRACE("%s(%s,%lld,%lld,%d)\n", __func__, path, start_time, end_time, num);
+    ffp_set_sprite_frame_at_time(mp->ffplayer, path, start_time, end_time, num, config);
+    MPTRACE("%s()=void\n", __func__);
+}
+
 
 void *ijkmp_set_ijkio_inject_opaque(IjkMediaPlayer *mp, void *opaque)
 {
@@ -166,6 +176,36 @@ void *ijkmp_set_ijkio_inject_opaque(IjkMediaPlayer *mp, void *opaque)
     return prev_weak_thiz;
 }
 
+uint8_t *ijkmp_enable_event_batch(IjkMediaPlayer *mp, int capacity, int *buffer_size)
+{
+    assert(mp);
+
+    MPTRACE("%s(%d)\n", __func__, capacity);
+    pthread_mutex_lock(&mp->mutex);
+    uint8_t *buffer = ffp_enable_event_batch(mp->ffplayer, capacity, buffer_size);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=%p\n", __func__, buffer);
+    return buffer;
+}
+
+void ijkmp_disable_event_batch(IjkMediaPlayer *mp)
+{
+    assert(mp);
+
+    MPTRACE("%s()\n", __func__);
+    pthread_mutex_lock(&mp->mutex);
+    ffp_disable_event_batch(mp->ffplayer);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
+
+int ijkmp_swap_event_batch(IjkMediaPlayer *mp, int *offset, int *count, int64_t *dropped)
+{
+    assert(mp);
+
+    return ffp_swap_event_batch(mp->ffplayer, offset, count, dropped);
+}
+
 void ijkmp_set_option(IjkMediaPlayer *mp, int opt_category, const char *name, const char *value)
 {
     assert(mp);
@@ -311,6 +351,31 @@ void ijkmp_shutdown(IjkMediaPlayer *mp)
     return ijkmp_shutdown_l(mp);
 }
 
+void ijkmp_recycle(IjkMediaPlayer *mp)
+{
+    assert(mp);
+
+    MPTRACE("ijkmp_recycle()\n");
+    ijkmp_shutdown(mp);
+
+    // the message loop leaves on the aborted queue, and takes mp->mutex until then
+    if (mp->msg_thread) {
+        SDL_WaitThread(mp->msg_thread, NULL);
+        mp->msg_thread = NULL;
+    }
+
+    pthread_mutex_lock(&mp->mutex);
+    ffp_reset(mp->ffplayer);
+    freep((void**)&mp->data_source);
+    mp->restart                 = 0;
+    mp->restart_from_beginning  = 0;
+    mp->seek_req                = 0;
+    mp->seek_msec               = 0;
+    ijkmp_change_state_l(mp, MP_STATE_IDLE);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("ijkmp_recycle()=void\n");
+}
+
 void ijkmp_inc_ref(IjkMediaPlayer *mp)
 {
     assert(mp);
@@ -35,6 +35,7 @@
 
 typedef struct IjkMediaPlayer IjkMediaPlayer;
 struct FFPlayer;
+struct FFSpriteSheetConfig;
 struct SDL_Vout;
 
 /*-
@@ -167,6 +168,13 @@ IjkMediaPlayer *ijkmp_create(int (*msg_loop)(void*));
 void*            ijkmp_set_inject_opaque(IjkMediaPlayer *mp, void *opaque);
 void*            ijkmp_set_ijkio_inject_opaque(IjkMediaPlayer *mp, void *opaque);
 
+// http and tcp events are packed into the returned buffer instead of going through inject_callback
+uint8_t*         ijkmp_enable_event_batch(IjkMediaPlayer *mp, int capacity, int *buffer_size);
+// the events go through inject_callback again
+void             ijkmp_disable_event_batch(IjkMediaPlayer *mp);
+// on FFP_MSG_EVENT_BATCH, from the message thread
+int             ijkmp_swap_event_batch(IjkMediaPlayer *mp, int *offset, int *count, int64_t *dropped);
+
 void            ijkmp_set_option(IjkMediaPlayer *mp, int opt_category, const char *name, const char *value);
 void            ijkmp_set_option_int(IjkMediaPlayer *mp, int opt_category, const char *name, int64_t value);
 
@@ -188,6 +196,9 @@ IjkMediaMeta   *ijkmp_get_meta_l(IjkMediaPlayer *mp);
 // preferred to be called explicity, can be called multiple times
 // NOTE: ijkmp_shutdown may block thread
 void            ijkmp_shutdown(IjkMediaPlayer *mp);
+// back to MP_STATE_IDLE with default options, keeping the vout, the pipeline and the callbacks;
+// the threads are joined, the codecs closed, the aout and the event batch freed; may block thread
+void            ijkmp_recycle(IjkMediaPlayer *mp);
 
 void            ijkmp_inc_ref(IjkMediaPlayer *mp);
 
@@ -217,5 +228,7 @@ void           *ijkmp_set_weak_thiz(IjkMediaPlayer *mp, void *weak_thiz);
 /* need to call msg_free_res for freeing the resouce obtained in msg */
 int             ijkmp_get_msg(IjkMediaPlayer *mp, AVMessage *msg, int block);
 void            ijkmp_set_frame_at_time(IjkMediaPlayer *mp, const char *path, int64_t start_time, int64_t end_time, int num, int definition);
+void            ijkmp_set_sprite_frame_at_time(IjkMediaPlayer *mp, const char *path, int64_t start_time, int64_t end_time, int num,
+                                               const struct FFSpriteSheetConfig *config);
 
 #endif
@@ -0,0 +1,656 @@
+/*
+ * ijkthumbnail.c
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkthumbnail.h"
+
+#include <math.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+#include "libavcodec/avcodec.h"
+#include "libavformat/avformat.h"
+#include "libavutil/imgutils.h"
+#include "libavutil/log.h"
+#include "libavutil/time.h"
+#include "libswscale/swscale.h"
+#include "ijkavutil/ijkstl.h"
+#include "ijkavutil/ijkthreadpool.h"
+#include "ijkavutil/ijkutils.h"
+
+#define THUMBNAIL_MAX_THREADS       (8)
+#define THUMBNAIL_QUEUE_SIZE        (256)
+// without an index, decode forward rather than seek for times this close
+#define THUMBNAIL_FORWARD_MAX_MS    (2000)
+
+typedef struct ThumbnailTask ThumbnailTask;
+
+typedef struct ThumbnailSegment {
+    ThumbnailTask      *task;
+    int                 first;          // times [first, last) of the request
+    int                 last;
+
+    AVFormatContext    *ic;
+    AVStream           *st;
+    AVCodecContext     *avctx;
+    AVFrame            *frame;
+    AVFrame            *last_frame;     // exact mode, the frame before the current one
+    struct SwsContext  *sws;
+    int                 draining;
+    int                 eof;
+
+    int64_t             decoded_pts;    // last frame out of the decoder, AV_NOPTS_VALUE after a seek
+    int                 check_key_pts;  // keyframe mode without index, until the first packet after a seek
+
+    uint8_t            *image[4];       // RGBA
+    int                 image_linesize[4];
+    int                 image_width;
+    int                 image_height;
+    int                 image_valid;
+    int64_t             image_pts;
+    int64_t             image_target;   // exact mode, time the image was decoded for
+    int64_t             image_key_pts;  // keyframe mode, keyframe the image was decoded from
+} ThumbnailSegment;
+
+struct ThumbnailTask {
+    IjkThumbnailExtractor *owner;
+    int64_t                id;
+    char                  *url;
+    IjkThumbnailRequest    request;
+    IjkAVDictionary       *options;
+    IjkThumbnailSink       sink;
+
+    volatile int           abort_request;
+    // owner->mutex
+    int                    pending_segments;
+    int                    frames;
+    int                    error;
+    int64_t                start_time;
+
+    ThumbnailSegment       segments[IJK_THUMBNAIL_MAX_SEGMENTS];
+};
+
+struct IjkThumbnailExtractor {
+    IjkThreadPoolContext *threadpool_ctx;
+    pthread_mutex_t       mutex;
+    void                 *task_map;
+    int64_t               next_task_id;
+    int                   abort_request;
+};
+
+static int thumbnail_interrupt_cb(void *opaque)
+{
+    ThumbnailTask *task = opaque;
+    return task->abort_request || task->owner->abort_request;
+}
+
+static void thumbnail_task_free(ThumbnailTask *task)
+{
+    if (!task)
+        return;
+
+    ijk_av_dict_free(&task->options);
+    free(task->url);
+    free(task);
+}
+
+static int64_t task_time_ms(const ThumbnailTask *task, int index)
+{
+    const IjkThumbnailRequest *r = &task->request;
+
+    if (r->count <= 1)
+        return r->start_ms;
+    return r->start_ms + (r->end_ms - r->start_ms) * index / (r->count - 1);
+}
+
+static int64_t stream_start_pts(AVStream *st)
+{
+    return st->start_time != AV_NOPTS_VALUE ? st->start_time : 0;
+}
+
+/* timestamp of the index entry of the keyframe at or before ts, AV_NOPTS_VALUE without index */
+static int64_t index_key_pts(AVStream *st, int64_t ts)
+{
+    int i = av_index_search_timestamp(st, ts, AVSEEK_FLAG_BACKWARD);
+    return i >= 0 ? st->index_entries[i].timestamp : AV_NOPTS_VALUE;
+}
+
+static int copy_options(AVDictionary **dst, IjkAVDictionary *src)
+{
+    IjkAVDictionaryEntry *t = NULL;
+
+    while ((t = ijk_av_dict_get(src, "", t, IJK_AV_DICT_IGNORE_SUFFIX))) {
+        int ret = av_dict_set(dst, t->key, t->value, 0);
+        if (ret < 0)
+            return ret;
+    }
+
+    return 0;
+}
+
+static void segment_close(ThumbnailSegment *seg)
+{
+    av_frame_free(&seg->frame);
+    av_frame_free(&seg->last_frame);
+    avcodec_free_context(&seg->avctx);
+    avformat_close_input(&seg->ic);
+    sws_freeContext(seg->sws);
+    seg->sws = NULL;
+    av_freep(&seg->image[0]);
+    seg->image_valid = 0;
+}
+
+static int segment_open(ThumbnailSegment *seg)
+{
+    ThumbnailTask *task  = seg->task;
+    AVDictionary  *opts  = NULL;
+    AVCodec       *codec = NULL;
+    int            ret   = 0;
+    int            i;
+
+    seg->ic    = avformat_alloc_context();
+    seg->frame = av_frame_alloc();
+    seg->last_frame = av_frame_alloc();
+    if (!seg->ic || !seg->frame || !seg->last_frame) {
+        avformat_free_context(seg->ic);
+        seg->ic = NULL;
+        return AVERROR(ENOMEM);
+    }
+
+    ret = copy_options(&opts, task->options);
+    if (ret < 0) {
+        avformat_free_context(seg->ic);
+        seg->ic = NULL;
+        goto fail;
+    }
+
+    seg->ic->interrupt_callback.callback = thumbnail_interrupt_cb;
+    seg->ic->interrupt_callback.opaque   = task;
+
+    ret = avformat_open_input(&seg->ic, task->url, NULL, &opts);
+    if (ret < 0)
+        goto fail;
+
+    ret = avformat_find_stream_info(seg->ic, NULL);
+    if (ret < 0)
+        goto fail;
+
+    ret = av_find_best_stream(seg->ic, AVMEDIA_TYPE_VIDEO, -1, -1, &codec, 0);
+    if (ret < 0)
+        goto fail;
+
+    seg->st = seg->ic->streams[ret];
+    for (i = 0; i < seg->ic->nb_streams; i++) {
+        if (seg->ic->streams[i] != seg->st)
+            seg->ic->streams[i]->discard = AVDISCARD_ALL;
+    }
+
+    seg->avctx = avcodec_alloc_context3(codec);
+    if (!seg->avctx) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+
+    ret = avcodec_parameters_to_context(seg->avctx, seg->st->codecpar);
+    if (ret < 0)
+        goto fail;
+
+    av_codec_set_pkt_timebase(seg->avctx, seg->st->time_base);
+    seg->avctx->skip_frame   = task->request.exact ? AVDISCARD_DEFAULT : AVDISCARD_NONKEY;
+    // frame threads delay every first frame after a seek
+    seg->avctx->thread_type  = FF_THREAD_SLICE;
+    seg->avctx->thread_count = 0;
+
+    ret = avcodec_open2(seg->avctx, codec, NULL);
+    if (ret < 0)
+        goto fail;
+
+    seg->decoded_pts   = AV_NOPTS_VALUE;
+    seg->check_key_pts = 0;
+    ret = 0;
+fail:
+    av_dict_free(&opts);
+    return ret;
+}
+
+static int segment_seek(ThumbnailSegment *seg, int64_t target)
+{
+    int ret = av_seek_frame(seg->ic, seg->st->index, target, AVSEEK_FLAG_BACKWARD);
+    if (ret < 0)
+        return ret;
+
+    avcodec_flush_buffers(seg->avctx);
+    av_frame_unref(seg->last_frame);
+    seg->decoded_pts   = AV_NOPTS_VALUE;
+    seg->check_key_pts = !seg->task->request.exact && !seg->st->nb_index_entries;
+    seg->draining      = 0;
+    seg->eof           = 0;
+    return 0;
+}
+
+/* fits the display size of frame in the bounds of the request */
+static void image_size(ThumbnailSegment *seg, AVFrame *frame, int *width, int *height)
+{
+    const IjkThumbnailRequest *r = &seg->task->request;
+    AVRational sar   = av_guess_sample_aspect_ratio(seg->ic, seg->st, frame);
+    double     w     = frame->width;
+    double     h     = frame->height;
+    double     scale = 1.0;
+
+    if (sar.num > 0 && sar.den > 0)
+        w = w * sar.num / sar.den;
+
+    if (r->max_width > 0 && r->max_height > 0)
+        scale = FFMIN(r->max_width / w, r->max_height / h);
+    else if (r->max_width > 0)
+        scale = r->max_width / w;
+    else if (r->max_height > 0)
+        scale = r->max_height / h;
+
+    *width  = FFMAX(1, (int)lrint(w * scale));
+    *height = FFMAX(1, (int)lrint(h * scale));
+}
+
+static int segment_convert(ThumbnailSegment *seg, AVFrame *frame)
+{
+    int ret = 0;
+
+    if (!seg->image[0]) {
+        image_size(seg, frame, &seg->image_width, &seg->image_height);
+        ret = av_image_alloc(seg->image, seg->image_linesize, seg->image_width, seg->image_height, AV_PIX_FMT_RGBA, 1);
+        if (ret < 0)
+            return ret;
+    }
+
+    seg->sws = sws_getCachedContext(seg->sws, frame->width, frame->height, frame->format,
+                                    seg->image_width, seg->image_height, AV_PIX_FMT_RGBA,
+                                    SWS_FAST_BILINEAR, NULL, NULL, NULL);
+    if (!seg->sws)
+        return AVERROR(EINVAL);
+
+    sws_scale(seg->sws, (const uint8_t * const *)frame->data, frame->linesize, 0, frame->height,
+              seg->image, seg->image_linesize);
+    seg->image_valid = 1;
+    seg->image_pts   = frame->best_effort_timestamp;
+    return 0;
+}
+
+static int segment_decode_to(ThumbnailSegment *seg, int64_t target)
+{
+    int      exact = seg->task->request.exact;
+    AVPacket pkt;
+    int      ret   = 0;
+
+    av_init_packet(&pkt);
+    for (;;) {
+        if (thumbnail_interrupt_cb(seg->task))
+            return IJKAVERROR_EXIT;
+
+        ret = avcodec_receive_frame(seg->avctx, seg->frame);
+        if (ret >= 0) {
+            int64_t pts = seg->frame->best_effort_timestamp;
+
+            seg->decoded_pts = pts;
+            if (!exact || pts == AV_NOPTS_VALUE || pts >= target) {
+                ret = segment_convert(seg, seg->frame);
+                av_frame_unref(seg->frame);
+                return ret;
+            }
+            av_frame_unref(seg->last_frame);
+            av_frame_move_ref(seg->last_frame, seg->frame);
+            continue;
+        } else if (ret == AVERROR_EOF) {
+            seg->eof = 1;
+            // exact mode, past the last frame
+            if (seg->last_frame->buf[0]) {
+                ret = segment_convert(seg, seg->last_frame);
+                av_frame_unref(seg->last_frame);
+                return ret;
+            }
+            return AVERROR_EOF;
+        } else if (ret != AVERROR(EAGAIN)) {
+            return ret;
+        }
+
+        if (seg->draining)
+            return AVERROR_EOF;
+
+        ret = av_read_frame(seg->ic, &pkt);
+        if (ret == AVERROR_EOF || (ret < 0 && seg->ic->pb && avio_feof(seg->ic->pb))) {
+            seg->draining = 1;
+            avcodec_send_packet(seg->avctx, NULL);
+            continue;
+        } else if (ret < 0) {
+            return ret;
+        }
+
+        if (pkt.stream_index != seg->st->index) {
+            av_packet_unref(&pkt);
+            continue;
+        }
+
+        // keyframe mode without index, the first packet after a seek tells the keyframe
+        if (seg->check_key_pts) {
+            int64_t key_pts = pkt.pts != AV_NOPTS_VALUE ? pkt.pts : pkt.dts;
+
+            seg->check_key_pts = 0;
+            if (seg->image_valid && key_pts != AV_NOPTS_VALUE && key_pts == seg->image_key_pts) {
+                av_packet_unref(&pkt);
+                return 0;
+            }
+            seg->image_key_pts = key_pts;
+        }
+
+        ret = avcodec_send_packet(seg->avctx, &pkt);
+        av_packet_unref(&pkt);
+        if (ret < 0 && ret != AVERROR(EAGAIN) && ret != AVERROR_INVALIDDATA)
+            return ret;
+    }
+}
+
+static int segment_extract(ThumbnailSegment *seg, int64_t time_ms)
+{
+    AVStream *st     = seg->st;
+    int64_t   target = av_rescale_q(time_ms, (AVRational){1, 1000}, st->time_base) + stream_start_pts(st);
+    int64_t   key    = index_key_pts(st, target);
+    int       ret    = 0;
+
+    if (!seg->task->request.exact) {
+        if (seg->image_valid && key != AV_NOPTS_VALUE && key == seg->image_key_pts)
+            return 0;
+
+        ret = segment_seek(seg, target);
+        if (ret < 0)
+            return ret;
+        if (key != AV_NOPTS_VALUE)
+            seg->image_key_pts = key;
+        return segment_decode_to(seg, target);
+    }
+
+    // no frame in [image_target, image_pts)
+    if (seg->image_valid && target > seg->image_target && target <= seg->image_pts)
+        return 0;
+
+    if (seg->eof || seg->decoded_pts == AV_NOPTS_VALUE || seg->decoded_pts >= target) {
+        ret = segment_seek(seg, target);
+    } else if (key != AV_NOPTS_VALUE) {
+        if (key != index_key_pts(st, seg->decoded_pts))
+            ret = segment_seek(seg, target);
+    } else if (av_rescale_q(target - seg->decoded_pts, st->time_base, (AVRational){1, 1000}) > THUMBNAIL_FORWARD_MAX_MS) {
+        ret = segment_seek(seg, target);
+    }
+    if (ret < 0)
+        return ret;
+
+    ret = segment_decode_to(seg, target);
+    if (ret >= 0)
+        seg->image_target = target;
+    return ret;
+}
+
+static int segment_deliver(ThumbnailSegment *seg, int index, int64_t time_ms)
+{
+    ThumbnailTask     *task = seg->task;
+    IjkThumbnailFrame  frame;
+
+    frame.index    = index;
+    frame.time_ms  = time_ms;
+    frame.pts_ms   = seg->image_pts == AV_NOPTS_VALUE ? time_ms :
+                     av_rescale_q(seg->image_pts - stream_start_pts(seg->st), seg->st->time_base, (AVRational){1, 1000});
+    frame.width    = seg->image_width;
+    frame.height   = seg->image_height;
+    frame.linesize = seg->image_linesize[0];
+    frame.data     = seg->image[0];
+
+    if (task->sink.on_frame && task->sink.on_frame(task->sink.opaque, task->id, &frame) < 0) {
+        task->abort_request = 1;
+        return IJKAVERROR_EXIT;
+    }
+
+    pthread_mutex_lock(&task->owner->mutex);
+    task->frames++;
+    pthread_mutex_unlock(&task->owner->mutex);
+    return 0;
+}
+
+static int segment_run_l(ThumbnailSegment *seg)
+{
+    int ret = segment_open(seg);
+    int i;
+
+    if (ret < 0)
+        return ret;
+
+    for (i = seg->first; i < seg->last; i++) {
+        int64_t time_ms = task_time_ms(seg->task, i);
+
+        ret = segment_extract(seg, time_ms);
+        if (ret == AVERROR_EOF)
+            return 0;   // times past the last frame
+        else if (ret < 0)
+            return ret;
+
+        ret = segment_deliver(seg, i, time_ms);
+        if (ret < 0)
+            return ret;
+    }
+
+    return 0;
+}
+
+static void thumbnail_notify_final(ThumbnailTask *task)
+{
+    int     what = IJK_THUMBNAIL_EVENT_COMPLETED;
+    int64_t arg1 = task->frames;
+    int64_t arg2 = 0;
+
+    if (thumbnail_interrupt_cb(task)) {
+        what = IJK_THUMBNAIL_EVENT_CANCELLED;
+    } else if (task->error < 0) {
+        av_log(NULL, AV_LOG_WARNING, "thumbnail %s failed: %d\n", task->url, task->error);
+        what = IJK_THUMBNAIL_EVENT_ERROR;
+        arg1 = task->error;
+    } else {
+        arg2 = av_gettime_relative() - task->start_time;
+        av_log(NULL, AV_LOG_INFO, "thumbnail: %d frames in %"PRId64" ms, %.1f fps\n",
+               task->frames, arg2 / 1000, arg2 > 0 ? task->frames * 1000000.0 / arg2 : 0.0);
+    }
+
+    if (task->sink.on_event)
+        task->sink.on_event(task->sink.opaque, what, task->id, arg1, arg2);
+}
+
+static void segment_run(void *arg, void *out)
+{
+    ThumbnailSegment      *seg  = arg;
+    ThumbnailTask         *task = seg->task;
+    IjkThumbnailExtractor *h    = task->owner;
+    int                    ret  = IJKAVERROR_EXIT;
+    int                    last = 0;
+
+    pthread_mutex_lock(&h->mutex);
+    if (!task->start_time)
+        task->start_time = av_gettime_relative();
+    pthread_mutex_unlock(&h->mutex);
+
+    if (!thumbnail_interrupt_cb(task))
+        ret = segment_run_l(seg);
+    segment_close(seg);
+
+    pthread_mutex_lock(&h->mutex);
+    if (ret < 0 && ret != IJKAVERROR_EXIT && !task->error)
+        task->error = ret;
+    last = --task->pending_segments == 0;
+    if (last)
+        ijk_map_remove(h->task_map, task->id);
+    pthread_mutex_unlock(&h->mutex);
+
+    if (!last)
+        return;
+
+    thumbnail_notify_final(task);
+    thumbnail_task_free(task);
+}
+
+IjkThumbnailExtractor *ijk_thumbnail_extractor_create(int max_threads)
+{
+    IjkThumbnailExtractor *h = calloc(1, sizeof(IjkThumbnailExtractor));
+    if (!h)
+        return NULL;
+
+    if (max_threads <= 0)
+        max_threads = 1;
+    else if (max_threads > THUMBNAIL_MAX_THREADS)
+        max_threads = THUMBNAIL_MAX_THREADS;
+
+    h->next_task_id   = 1;
+    h->task_map       = ijk_map_create();
+    h->threadpool_ctx = ijk_threadpool_create(max_threads, THUMBNAIL_QUEUE_SIZE, 0);
+    if (!h->task_map || !h->threadpool_ctx)
+        goto fail;
+
+    pthread_mutex_init(&h->mutex, NULL);
+    return h;
+
+fail:
+    if (h->threadpool_ctx)
+        ijk_threadpool_destroy(h->threadpool_ctx, IJK_IMMEDIATE_SHUTDOWN);
+    ijk_map_destroy(h->task_map);
+    free(h);
+    return NULL;
+}
+
+void ijk_thumbnail_extractor_destroy(IjkThumbnailExtractor *h)
+{
+    if (!h)
+        return;
+
+    pthread_mutex_lock(&h->mutex);
+    h->abort_request = 1;
+    pthread_mutex_unlock(&h->mutex);
+
+    // let queued segments run so that their requests report CANCELLED
+    ijk_threadpool_destroy(h->threadpool_ctx, IJK_LEISURELY_SHUTDOWN);
+
+    ijk_map_destroy(h->task_map);
+    pthread_mutex_destroy(&h->mutex);
+    free(h);
+}
+
+void ijk_thumbnail_extractor_destroyp(IjkThumbnailExtractor **ph)
+{
+    if (!ph || !*ph)
+        return;
+
+    ijk_thumbnail_extractor_destroy(*ph);
+    *ph = NULL;
+}
+
+int64_t ijk_thumbnail_extractor_add(IjkThumbnailExtractor *h, const char *url, const IjkThumbnailRequest *request,
+                                    IjkAVDictionary *options, const IjkThumbnailSink *sink)
+{
+    ThumbnailTask *task     = NULL;
+    int            segments = 0;
+    int            queued   = 0;
+    int64_t        id       = 0;
+    int            i;
+
+    if (!h || !url || !request || !sink || request->count <= 0 || request->end_ms < request->start_ms)
+        return IJKAVERROR(EINVAL);
+
+    task = calloc(1, sizeof(ThumbnailTask));
+    if (!task)
+        return IJKAVERROR(ENOMEM);
+
+    task->url = strdup(url);
+    if (!task->url || ijk_av_dict_copy(&task->options, options, 0) < 0) {
+        thumbnail_task_free(task);
+        return IJKAVERROR(ENOMEM);
+    }
+
+    task->owner   = h;
+    task->request = *request;
+    task->sink    = *sink;
+
+    segments = av_clip(request->segments, 1, IJK_THUMBNAIL_MAX_SEGMENTS);
+    segments = FFMIN(segments, request->count);
+    for (i = 0; i < segments; i++) {
+        task->segments[i].task  = task;
+        task->segments[i].first = request->count * i / segments;
+        task->segments[i].last  = request->count * (i + 1) / segments;
+    }
+
+    pthread_mutex_lock(&h->mutex);
+    if (h->abort_request) {
+        pthread_mutex_unlock(&h->mutex);
+        thumbnail_task_free(task);
+        return IJKAVERROR_EXIT;
+    }
+
+    id = h->next_task_id++;
+    task->id               = id;
+    task->pending_segments = segments;
+    if (ijk_map_put(h->task_map, id, task)) {
+        pthread_mutex_unlock(&h->mutex);
+        thumbnail_task_free(task);
+        return AVERROR(ENOMEM);
+    }
+
+    for (i = 0; i < segments; i++) {
+        if (ijk_threadpool_add(h->threadpool_ctx, segment_run, &task->segments[i], NULL, 0) != 0)
+            break;
+        queued++;
+    }
+
+    if (!queued) {
+        ijk_map_remove(h->task_map, id);
+        pthread_mutex_unlock(&h->mutex);
+        thumbnail_task_free(task);
+        return IJKAVERROR(EAGAIN);
+    } else if (queued < segments) {
+        // the queued segments report the request as cancelled
+        task->abort_request     = 1;
+        task->pending_segments -= segments - queued;
+    }
+    pthread_mutex_unlock(&h->mutex);
+
+    return id;
+}
+
+int ijk_thumbnail_extractor_cancel(IjkThumbnailExtractor *h, int64_t task_id)
+{
+    ThumbnailTask *task = NULL;
+    int            ret  = -1;
+
+    if (!h)
+        return -1;
+
+    pthread_mutex_lock(&h->mutex);
+    task = ijk_map_get(h->task_map, task_id);
+    if (task) {
+        task->abort_request = 1;
+        ret = 0;
+    }
+    pthread_mutex_unlock(&h->mutex);
+
+    return ret;
+}
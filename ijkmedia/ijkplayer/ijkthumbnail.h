@@ -0,0 +1,115 @@
+/*
+ * ijkthumbnail.h
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKPLAYER__IJKTHUMBNAIL_H
+#define IJKPLAYER__IJKTHUMBNAIL_H
+
+#include <stdint.h>
+#include "ijkavutil/ijkdict.h"
+
+/*
+ * Extracts frames of a media at evenly spaced times, without a player.
+ *
+ * By default each time gives the keyframe at or before it: only keyframes
+ * are decoded, and times falling on the same keyframe share one decode.
+ * The exact mode gives the first frame at or after each time, decoding
+ * forward from the previous time instead of seeking when the index says
+ * they share a keyframe.
+ *
+ * A request may be split into segments, contiguous runs of times each
+ * extracted by its own demuxer and decoder on the thread pool.
+ */
+
+#define IJK_THUMBNAIL_EVENT_COMPLETED   1   // arg1: frames delivered, arg2: elapsed microseconds
+#define IJK_THUMBNAIL_EVENT_CANCELLED   2   // arg1: frames delivered
+#define IJK_THUMBNAIL_EVENT_ERROR       3   // arg1: error code
+
+#define IJK_THUMBNAIL_MAX_SEGMENTS      8
+
+typedef struct IjkThumbnailRequest {
+    int64_t start_ms;
+    int64_t end_ms;
+    int     count;      // times from start_ms to end_ms included
+    int     max_width;  // the frame is scaled to fit, keeping its display aspect, 0 for no bound
+    int     max_height;
+    int     exact;
+    int     segments;   // 1 to IJK_THUMBNAIL_MAX_SEGMENTS
+} IjkThumbnailRequest;
+
+typedef struct IjkThumbnailFrame {
+    int            index;       // in [0, count)
+    int64_t        time_ms;     // time asked for
+    int64_t        pts_ms;      // time of the frame, from the start of the media
+    int            width;
+    int            height;
+    int            linesize;
+    const uint8_t *data;        // RGBA
+} IjkThumbnailFrame;
+
+typedef struct IjkThumbnailSink {
+    void  *opaque;
+
+    /**
+     * Called from a worker, at the same time by the segments of a request;
+     * frame->data is only valid during the call.
+     *
+     * @return < 0 to cancel the request
+     */
+    int  (*on_frame)(void *opaque, int64_t task_id, const IjkThumbnailFrame *frame);
+
+    /* the final IJK_THUMBNAIL_EVENT_xxx of a request, nothing is called after it */
+    void (*on_event)(void *opaque, int what, int64_t task_id, int64_t arg1, int64_t arg2);
+} IjkThumbnailSink;
+
+typedef struct IjkThumbnailExtractor IjkThumbnailExtractor;
+
+/**
+ * @param max_threads segments extracted at the same time, the rest wait in
+ *                    FIFO order
+ */
+IjkThumbnailExtractor *ijk_thumbnail_extractor_create(int max_threads);
+
+/**
+ * Cancels every request and waits for the workers to exit. Requests that
+ * did not finish report IJK_THUMBNAIL_EVENT_CANCELLED before this returns.
+ */
+void    ijk_thumbnail_extractor_destroy(IjkThumbnailExtractor *h);
+void    ijk_thumbnail_extractor_destroyp(IjkThumbnailExtractor **ph);
+
+/**
+ * options are passed to avformat_open_input() (user_agent, headers, ...),
+ * the caller keeps ownership. sink is copied.
+ *
+ * @return task id > 0, or a negative error code, in which case the sink is
+ *         never called
+ */
+int64_t ijk_thumbnail_extractor_add(IjkThumbnailExtractor *h, const char *url, const IjkThumbnailRequest *request,
+                                    IjkAVDictionary *options, const IjkThumbnailSink *sink);
+
+/**
+ * @return 0 if task_id was pending or running, < 0 if it is unknown or
+ *         already finished
+ */
+int     ijk_thumbnail_extractor_cancel(IjkThumbnailExtractor *h, int64_t task_id);
+
+#endif
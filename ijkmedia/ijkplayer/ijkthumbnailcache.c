@@ -0,0 +1,504 @@
+/*
+ * ijkthumbnailcache.c
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkthumbnailcache.h"
+
+#include <dirent.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <inttypes.h>
+#include <limits.h>
+#include <pthread.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <unistd.h>
+#include "libavutil/avstring.h"
+#include "libavutil/common.h"
+#include "libavutil/error.h"
+#include "libavutil/intreadwrite.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "ijkavutil/ijkmap.h"
+#include "ijkavformat/ijkiocachekey.h"
+
+#define THUMBNAIL_FILE_HEADER_SIZE  8
+#define THUMBNAIL_MAX_FILE_SIZE     (4 * 1024 * 1024)
+#define THUMBNAIL_FILE_NAME_LEN     16
+#define THUMBNAIL_FILE_SUFFIX       ".thumb"
+
+typedef struct ThumbnailEntry ThumbnailEntry;
+struct ThumbnailEntry {
+    ThumbnailEntry *prev;
+    ThumbnailEntry *next;
+    int64_t         hash;
+    char           *identity;       // name of the file for the disk
+    uint8_t        *data;
+    int             size;
+    int64_t         pts_ms;
+};
+
+typedef struct ThumbnailCache {
+    pthread_mutex_t  mutex;
+    IjkHashMap      *map;           // hash -> entry
+    ThumbnailEntry  *head;          // most recently used first
+    ThumbnailEntry  *tail;
+    int64_t          bytes;
+    int64_t          capacity;
+    char            *dir;           // directory the disk entries are from
+} ThumbnailCache;
+
+typedef struct ThumbnailFile {
+    char    name[THUMBNAIL_FILE_NAME_LEN + 1];
+    int     size;
+    int64_t mtime;
+} ThumbnailFile;
+
+static ThumbnailCache g_thumbnail_cache = {
+    .mutex    = PTHREAD_MUTEX_INITIALIZER,
+    .capacity = IJK_THUMBNAIL_CACHE_DEFAULT_MEMORY,
+};
+
+static ThumbnailCache g_thumbnail_disk = {
+    .mutex    = PTHREAD_MUTEX_INITIALIZER,
+    .capacity = IJK_THUMBNAIL_CACHE_DEFAULT_DISK,
+};
+
+/* everything that tells two thumbnails apart, and its hash as a file name */
+static char *thumbnail_identity(const char *content_key, int64_t time_ms, int width, int height,
+                                char *name, size_t name_size)
+{
+    char *identity = av_asprintf("%s\n%"PRId64"\n%dx%d", content_key, time_ms, width, height);
+    if (identity)
+        ijkio_cache_key_to_name(identity, name, name_size);
+    return identity;
+}
+
+static void entry_free(ThumbnailEntry *entry)
+{
+    if (!entry)
+        return;
+    av_freep(&entry->identity);
+    av_freep(&entry->data);
+    av_free(entry);
+}
+
+static void unlink_entry_l(ThumbnailCache *c, ThumbnailEntry *entry)
+{
+    if (entry->prev)
+        entry->prev->next = entry->next;
+    else
+        c->head = entry->next;
+    if (entry->next)
+        entry->next->prev = entry->prev;
+    else
+        c->tail = entry->prev;
+    entry->prev = NULL;
+    entry->next = NULL;
+}
+
+static void push_front_l(ThumbnailCache *c, ThumbnailEntry *entry)
+{
+    entry->next = c->head;
+    if (c->head)
+        c->head->prev = entry;
+    c->head = entry;
+    if (!c->tail)
+        c->tail = entry;
+}
+
+static void remove_entry_l(ThumbnailCache *c, ThumbnailEntry *entry)
+{
+    unlink_entry_l(c, entry);
+    ijk_hash_map_remove(c->map, entry->hash);
+    c->bytes -= entry->size;
+    entry_free(entry);
+}
+
+static void trim_l(ThumbnailCache *c)
+{
+    while (c->tail && c->bytes > c->capacity)
+        remove_entry_l(c, c->tail);
+}
+
+/* takes identity and data over */
+static void memory_put(int64_t hash, char *identity, uint8_t *data, int size, int64_t pts_ms)
+{
+    ThumbnailCache *c = &g_thumbnail_cache;
+    ThumbnailEntry *entry = NULL;
+
+    pthread_mutex_lock(&c->mutex);
+    if (!identity || !data || size > c->capacity)
+        goto fail;
+
+    if (!c->map) {
+        c->map = ijk_hash_map_create();
+        if (!c->map)
+            goto fail;
+    }
+
+    entry = ijk_hash_map_get(c->map, hash);
+    if (entry)
+        remove_entry_l(c, entry);
+
+    entry = av_mallocz(sizeof(ThumbnailEntry));
+    if (!entry)
+        goto fail;
+    entry->hash     = hash;
+    entry->identity = identity;
+    entry->data     = data;
+    entry->size     = size;
+    entry->pts_ms   = pts_ms;
+    if (ijk_hash_map_put(c->map, hash, entry) < 0) {
+        av_free(entry);
+        goto fail;
+    }
+
+    push_front_l(c, entry);
+    c->bytes += size;
+    trim_l(c);
+    pthread_mutex_unlock(&c->mutex);
+    return;
+fail:
+    pthread_mutex_unlock(&c->mutex);
+    av_free(identity);
+    av_free(data);
+}
+
+static int memory_get(int64_t hash, const char *identity, uint8_t **data, int *size, int64_t *pts_ms)
+{
+    ThumbnailCache *c = &g_thumbnail_cache;
+    ThumbnailEntry *entry = NULL;
+    int ret = AVERROR(ENOENT);
+
+    pthread_mutex_lock(&c->mutex);
+    if (c->map)
+        entry = ijk_hash_map_get(c->map, hash);
+    if (entry && !strcmp(entry->identity, identity)) {
+        *data = av_memdup(entry->data, entry->size);
+        if (*data) {
+            *size   = entry->size;
+            *pts_ms = entry->pts_ms;
+            unlink_entry_l(c, entry);
+            push_front_l(c, entry);
+            ret = 0;
+        } else {
+            ret = AVERROR(ENOMEM);
+        }
+    }
+    pthread_mutex_unlock(&c->mutex);
+    return ret;
+}
+
+/* adds a file, or moves it, as the most recently used one */
+static int disk_add_l(ThumbnailCache *c, const char *name, int size)
+{
+    int64_t         hash  = (int64_t)strtoull(name, NULL, 16);
+    ThumbnailEntry *entry = NULL;
+
+    if (!c->map) {
+        c->map = ijk_hash_map_create();
+        if (!c->map)
+            return AVERROR(ENOMEM);
+    }
+
+    entry = ijk_hash_map_get(c->map, hash);
+    if (entry) {
+        unlink_entry_l(c, entry);
+        push_front_l(c, entry);
+        c->bytes += size - entry->size;
+        entry->size = size;
+        return 0;
+    }
+
+    entry = av_mallocz(sizeof(ThumbnailEntry));
+    if (!entry)
+        return AVERROR(ENOMEM);
+    entry->hash     = hash;
+    entry->identity = av_strdup(name);
+    entry->size     = size;
+    if (!entry->identity || ijk_hash_map_put(c->map, hash, entry) < 0) {
+        entry_free(entry);
+        return AVERROR(ENOMEM);
+    }
+
+    push_front_l(c, entry);
+    c->bytes += size;
+    return 0;
+}
+
+static void disk_remove_l(ThumbnailCache *c, ThumbnailEntry *entry)
+{
+    char *path = av_asprintf("%s/%s"THUMBNAIL_FILE_SUFFIX, c->dir, entry->identity);
+
+    if (path && unlink(path) && errno != ENOENT)
+        av_log(NULL, AV_LOG_WARNING, "thumbnail cache: unlink %s failed %s\n", path, strerror(errno));
+    av_free(path);
+    remove_entry_l(c, entry);
+}
+
+static void disk_trim_l(ThumbnailCache *c)
+{
+    while (c->capacity > 0 && c->tail && c->bytes > c->capacity)
+        disk_remove_l(c, c->tail);
+}
+
+static int compare_file_mtime(const void *a, const void *b)
+{
+    const ThumbnailFile *fa = a;
+    const ThumbnailFile *fb = b;
+
+    return (fa->mtime > fb->mtime) - (fa->mtime < fb->mtime);
+}
+
+/* files of earlier runs are accounted for, the least recently modified is evicted first */
+static void disk_scan_l(ThumbnailCache *c, const char *dir)
+{
+    ThumbnailFile *files    = NULL;
+    unsigned int   nb_files = 0;
+    unsigned int   capacity = 0;
+    struct dirent *de       = NULL;
+    DIR           *d        = NULL;
+
+    while (c->tail)
+        remove_entry_l(c, c->tail);
+    av_freep(&c->dir);
+
+    c->dir = av_strdup(dir);
+    if (!c->dir)
+        return;
+
+    d = opendir(dir);
+    if (!d)
+        return;
+
+    while ((de = readdir(d))) {
+        struct stat st;
+        char       *path;
+        int         ret;
+
+        if (strlen(de->d_name) != THUMBNAIL_FILE_NAME_LEN + strlen(THUMBNAIL_FILE_SUFFIX) ||
+            strcmp(de->d_name + THUMBNAIL_FILE_NAME_LEN, THUMBNAIL_FILE_SUFFIX))
+            continue;
+
+        path = av_asprintf("%s/%s", dir, de->d_name);
+        if (!path)
+            break;
+        ret = stat(path, &st);
+        av_free(path);
+        if (ret || !S_ISREG(st.st_mode))
+            continue;
+
+        if (nb_files >= capacity) {
+            capacity = FFMAX(capacity * 2, 64);
+            if (av_reallocp_array(&files, capacity, sizeof(ThumbnailFile))) {
+                nb_files = 0;
+                break;
+            }
+        }
+        av_strlcpy(files[nb_files].name, de->d_name, THUMBNAIL_FILE_NAME_LEN + 1);
+        files[nb_files].size  = (int)FFMIN(st.st_size, INT_MAX);
+        files[nb_files].mtime = st.st_mtime;
+        nb_files++;
+    }
+    closedir(d);
+
+    if (nb_files > 0)
+        qsort(files, nb_files, sizeof(ThumbnailFile), compare_file_mtime);
+    for (unsigned int i = 0; i < nb_files; i++)
+        disk_add_l(c, files[i].name, files[i].size);
+    av_free(files);
+
+    disk_trim_l(c);
+}
+
+/* a file was read or written, the budget covers the last directory used */
+static void disk_touch(const char *dir, const char *name, int size)
+{
+    ThumbnailCache *c = &g_thumbnail_disk;
+
+    pthread_mutex_lock(&c->mutex);
+    if (!c->dir || strcmp(c->dir, dir))
+        disk_scan_l(c, dir);
+    if (c->dir) {
+        disk_add_l(c, name, size);
+        disk_trim_l(c);
+    }
+    pthread_mutex_unlock(&c->mutex);
+}
+
+static int disk_get(const char *dir, const char *name, uint8_t **data, int *size, int64_t *pts_ms)
+{
+    uint8_t     header[THUMBNAIL_FILE_HEADER_SIZE];
+    struct stat st;
+    char       *path = NULL;
+    uint8_t    *buf  = NULL;
+    int         fd   = -1;
+    int         len  = 0;
+    int         ret  = AVERROR(ENOENT);
+
+    path = av_asprintf("%s/%s"THUMBNAIL_FILE_SUFFIX, dir, name);
+    if (!path)
+        return AVERROR(ENOMEM);
+
+    fd = open(path, O_RDONLY);
+    if (fd < 0)
+        goto end;
+    if (fstat(fd, &st) || st.st_size <= THUMBNAIL_FILE_HEADER_SIZE || st.st_size > THUMBNAIL_MAX_FILE_SIZE)
+        goto end;
+
+    len = (int)st.st_size - THUMBNAIL_FILE_HEADER_SIZE;
+    buf = av_malloc(len);
+    if (!buf) {
+        ret = AVERROR(ENOMEM);
+        goto end;
+    }
+
+    if (read(fd, header, sizeof(header)) != sizeof(header) || read(fd, buf, len) != len)
+        goto end;
+
+    // the modification time orders the files of the next scan
+    futimens(fd, NULL);
+    disk_touch(dir, name, (int)st.st_size);
+
+    *pts_ms = AV_RL64(header);
+    *data   = buf;
+    *size   = len;
+    buf     = NULL;
+    ret     = 0;
+end:
+    if (fd >= 0)
+        close(fd);
+    av_free(buf);
+    av_free(path);
+    return ret;
+}
+
+static void disk_put(const char *dir, const char *name, const uint8_t *data, int size, int64_t pts_ms)
+{
+    uint8_t header[THUMBNAIL_FILE_HEADER_SIZE];
+    char   *path     = NULL;
+    char   *tmp_path = NULL;
+    int     fd       = -1;
+
+    path     = av_asprintf("%s/%s"THUMBNAIL_FILE_SUFFIX, dir, name);
+    tmp_path = av_asprintf("%s/%s"THUMBNAIL_FILE_SUFFIX".tmp", dir, name);
+    if (!path || !tmp_path)
+        goto end;
+
+    fd = open(tmp_path, O_WRONLY | O_TRUNC | O_CREAT, 0600);
+    if (fd < 0) {
+        av_log(NULL, AV_LOG_WARNING, "%s: open %s failed %s\n", __func__, tmp_path, strerror(errno));
+        goto end;
+    }
+
+    AV_WL64(header, pts_ms);
+    if (write(fd, header, sizeof(header)) != sizeof(header) || write(fd, data, size) != size) {
+        av_log(NULL, AV_LOG_WARNING, "%s: write %s failed\n", __func__, tmp_path);
+        close(fd);
+        unlink(tmp_path);
+        goto end;
+    }
+    close(fd);
+
+    // readers never see a partial file
+    if (rename(tmp_path, path))
+        unlink(tmp_path);
+    else
+        disk_touch(dir, name, THUMBNAIL_FILE_HEADER_SIZE + size);
+end:
+    av_free(tmp_path);
+    av_free(path);
+}
+
+void ijk_thumbnail_cache_set_memory_capacity(int64_t bytes)
+{
+    ThumbnailCache *c = &g_thumbnail_cache;
+
+    pthread_mutex_lock(&c->mutex);
+    c->capacity = FFMAX(bytes, 0);
+    trim_l(c);
+    pthread_mutex_unlock(&c->mutex);
+}
+
+void ijk_thumbnail_cache_set_disk_capacity(int64_t bytes)
+{
+    ThumbnailCache *c = &g_thumbnail_disk;
+
+    pthread_mutex_lock(&c->mutex);
+    c->capacity = bytes;
+    if (c->dir)
+        disk_trim_l(c);
+    pthread_mutex_unlock(&c->mutex);
+}
+
+int ijk_thumbnail_cache_get(const char *dir, const char *content_key, int64_t time_ms, int width, int height,
+                            uint8_t **data, int *size, int64_t *pts_ms)
+{
+    char    name[32];
+    char   *identity = NULL;
+    int64_t hash;
+    int     ret;
+
+    identity = thumbnail_identity(content_key, time_ms, width, height, name, sizeof(name));
+    if (!identity)
+        return AVERROR(ENOMEM);
+    hash = (int64_t)strtoull(name, NULL, 16);
+
+    ret = memory_get(hash, identity, data, size, pts_ms);
+    if (ret != AVERROR(ENOENT) || !dir) {
+        av_free(identity);
+        return ret;
+    }
+
+    ret = disk_get(dir, name, data, size, pts_ms);
+    if (ret < 0) {
+        av_free(identity);
+        return ret;
+    }
+
+    // the next visit of the title does not touch the disk
+    memory_put(hash, identity, av_memdup(*data, *size), *size, *pts_ms);
+    return 0;
+}
+
+void ijk_thumbnail_cache_put(const char *dir, const char *content_key, int64_t time_ms, int width, int height,
+                             const uint8_t *data, int size, int64_t pts_ms)
+{
+    char    name[32];
+    char   *identity = NULL;
+    int64_t hash;
+
+    if (!data || size <= 0)
+        return;
+
+    identity = thumbnail_identity(content_key, time_ms, width, height, name, sizeof(name));
+    if (!identity)
+        return;
+    hash = (int64_t)strtoull(name, NULL, 16);
+
+    if (dir)
+        disk_put(dir, name, data, size, pts_ms);
+    memory_put(hash, identity, av_memdup(data, size), size, pts_ms);
+}
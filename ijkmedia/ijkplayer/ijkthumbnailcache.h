@@ -0,0 +1,69 @@
+/*
+ * ijkthumbnailcache.h
+ *
+ * Copyright (c) 2015 Bilibili
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKPLAYER__IJKTHUMBNAILCACHE_H
+#define IJKPLAYER__IJKTHUMBNAILCACHE_H
+
+#include <stdint.h>
+
+/*
+ * Encoded thumbnails of the process, keyed by the content key of the media,
+ * the time asked for and the requested size: a memory LRU in front of an
+ * optional directory.
+ *
+ * Files of the directory are named <16 hex digits of the key>.thumb and
+ * hold the little-endian int64 pts of the frame followed by the image.
+ * The files of the last directory used are kept under a byte budget, the
+ * least recently used are deleted first. Files of earlier runs are found
+ * by a scan, ordered by modification time, which a hit refreshes.
+ */
+
+#define IJK_THUMBNAIL_CACHE_DEFAULT_MEMORY  (4 * 1024 * 1024)
+#define IJK_THUMBNAIL_CACHE_DEFAULT_DISK    (32 * 1024 * 1024)
+
+/**
+ * @param bytes of images kept in memory, 0 to keep none
+ */
+void    ijk_thumbnail_cache_set_memory_capacity(int64_t bytes);
+
+/**
+ * @param bytes of files kept in the directory, <= 0 to keep them all
+ */
+void    ijk_thumbnail_cache_set_disk_capacity(int64_t bytes);
+
+/**
+ * Looks memory up, then dir if not NULL. A hit in dir is kept in memory.
+ *
+ * @param data set to a copy of the image, to be freed with av_free()
+ * @return 0 on a hit, AVERROR(ENOENT) on a miss
+ */
+int     ijk_thumbnail_cache_get(const char *dir, const char *content_key, int64_t time_ms, int width, int height,
+                                uint8_t **data, int *size, int64_t *pts_ms);
+
+/**
+ * Keeps a copy of data in memory, and writes it to dir if not NULL.
+ */
+void    ijk_thumbnail_cache_put(const char *dir, const char *content_key, int64_t time_ms, int width, int height,
+                                const uint8_t *data, int size, int64_t pts_ms);
+
+#endif
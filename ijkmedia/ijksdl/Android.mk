@@ -21,7 +21,7 @@ LOCAL_PATH := $(call my-dir)
 
 include $(CLEAR_VARS)
 LOCAL_CFLAGS += -std=c99
-LOCAL_LDLIBS += -llog -landroid -lOpenSLES -lEGL -lGLESv2
+LOCAL_LDLIBS += -llog -landroid -lOpenSLES -lEGL -lGLESv2 -ldl
 
 LOCAL_C_INCLUDES += $(LOCAL_PATH)
 LOCAL_C_INCLUDES += $(realpath $(LOCAL_PATH)/..)
@@ -59,6 +59,7 @@ LOCAL_SRC_FILES += ffmpeg/abi_all/image_convert.c
 LOCAL_SRC_FILES += android/android_audiotrack.c
 LOCAL_SRC_FILES += android/android_nativewindow.c
 LOCAL_SRC_FILES += android/ijksdl_android_jni.c
+LOCAL_SRC_FILES += android/ijksdl_aout_android_aaudio.c
 LOCAL_SRC_FILES += android/ijksdl_aout_android_audiotrack.c
 LOCAL_SRC_FILES += android/ijksdl_aout_android_opensles.c
 LOCAL_SRC_FILES += android/ijksdl_codec_android_mediacodec_dummy.c
@@ -26,6 +26,7 @@
 
 #include <assert.h>
 #include "j4au/class/android/media/AudioTrack.util.h"
+#include "j4au/class/java/nio/ByteBuffer.util.h"
 #include "ijksdl_android_jni.h"
 #include "../ijksdl_inc_internal.h"
 #include "../ijksdl_audio.h"
@@ -105,6 +106,16 @@ typedef struct SDL_Android_AudioTrack {
 
     jbyteArray  byte_buffer;
     int         byte_buffer_capacity;
+
+    // a ENCODING_PCM_FLOAT track refuses write(byte[])
+    jfloatArray float_buffer;
+    int         float_buffer_capacity;
+
+    // audio is mixed in place, AudioTrack reads it from the buffer position
+    jobject     direct_buffer;
+    uint8_t    *direct_data;
+    int         direct_capacity;
+    int         direct_position;
     int         min_buffer_size;
     float       max_volume;
     float       min_volume;
@@ -166,15 +177,13 @@ SDL_Android_AudioTrack *SDL_Android_AudioTrack_new_from_spec(JNIEnv *env, SDL_An
     case ENCODING_PCM_8BIT:
         ALOGI("SDL_Android_AudioTrack: %s", "ENCODING_PCM_8BIT");
         break;
-#if 0
     case ENCODING_PCM_FLOAT:
         ALOGI("SDL_Android_AudioTrack: %s", "ENCODING_PCM_FLOAT");
-        if (sdk_int < IJK_API_21_LOLLIPOP) {
+        if (SDL_Android_GetApiLevel() < IJK_API_21_LOLLIPOP) {
             ALOGI("SDL_Android_AudioTrack: %s need API 21 or above", "ENCODING_PCM_FLOAT");
             return NULL;
         }
         break;
-#endif
     default:
         ALOGE("%s: invalid format %d", __func__, spec->audio_format);
         return NULL;
@@ -250,6 +259,11 @@ SDL_Android_AudioTrack *SDL_Android_AudioTrack_new_from_sdl_spec(JNIEnv *env, co
     atrack_spec.sample_rate_in_hz = sdl_spec->freq;
     atrack_spec.channel_config = find_android_channel(sdl_spec->channels);
     atrack_spec.audio_format = find_android_format(sdl_spec->format);
+    if (atrack_spec.audio_format == ENCODING_PCM_FLOAT && SDL_Android_GetApiLevel() < IJK_API_21_LOLLIPOP) {
+        // the target spec tells the caller
+        ALOGI("%s: ENCODING_PCM_FLOAT need API 21 or above, fall back to ENCODING_PCM_16BIT", __func__);
+        atrack_spec.audio_format = ENCODING_PCM_16BIT;
+    }
     atrack_spec.buffer_size_in_bytes = sdl_spec->size;
 
     return SDL_Android_AudioTrack_new_from_spec(env, &atrack_spec);
@@ -260,6 +274,13 @@ void SDL_Android_AudioTrack_free(JNIEnv *env, SDL_Android_AudioTrack* atrack)
     J4A_DeleteGlobalRef__p(env, &atrack->byte_buffer);
     atrack->byte_buffer_capacity = 0;
 
+    J4A_DeleteGlobalRef__p(env, &atrack->float_buffer);
+    atrack->float_buffer_capacity = 0;
+
+    J4A_DeleteGlobalRef__p(env, &atrack->direct_buffer);
+    atrack->direct_data     = NULL;
+    atrack->direct_capacity = 0;
+
     if (atrack->thiz) {
         J4AC_AudioTrack__release(env, atrack->thiz);
         J4A_DeleteGlobalRef__p(env, &atrack->thiz);
@@ -326,11 +347,57 @@ int SDL_Android_AudioTrack_reserve_byte_buffer(JNIEnv *env, SDL_Android_AudioTra
     return capacity;
 }
 
+static int SDL_Android_AudioTrack_reserve_float_buffer(JNIEnv *env, SDL_Android_AudioTrack *atrack, int size_in_float)
+{
+    if (atrack->float_buffer && size_in_float <= atrack->float_buffer_capacity)
+        return size_in_float;
+
+    J4A_DeleteGlobalRef__p(env, &atrack->float_buffer);
+    atrack->float_buffer_capacity = 0;
+
+    int capacity = IJKMAX(size_in_float, atrack->min_buffer_size / (int)sizeof(float));
+    jfloatArray local = (*env)->NewFloatArray(env, capacity);
+    if (J4A_ExceptionCheck__catchAll(env) || !local)
+        return -1;
+
+    atrack->float_buffer = (*env)->NewGlobalRef(env, local);
+    J4A_DeleteLocalRef__p(env, (jobject *)&local);
+    if (!atrack->float_buffer)
+        return -1;
+
+    atrack->float_buffer_capacity = capacity;
+    return capacity;
+}
+
+static int SDL_Android_AudioTrack_write_float(JNIEnv *env, SDL_Android_AudioTrack *atrack, uint8_t *data, int size_in_byte)
+{
+    int size_in_float = size_in_byte / (int)sizeof(float);
+
+    int reserved = SDL_Android_AudioTrack_reserve_float_buffer(env, atrack, size_in_float);
+    if (reserved < size_in_float) {
+        ALOGE("%s failed %d < %d\n", __func__, reserved, size_in_float);
+        return -1;
+    }
+
+    (*env)->SetFloatArrayRegion(env, atrack->float_buffer, 0, size_in_float, (jfloat *) data);
+    if (J4A_ExceptionCheck__catchAll(env))
+        return -1;
+
+    int retval = J4AC_AudioTrack__writeFloatArray__catchAll(env, atrack->thiz, atrack->float_buffer, 0, size_in_float, WRITE_BLOCKING);
+    if (retval < 0)
+        return retval;
+
+    return retval * (int)sizeof(float);
+}
+
 int SDL_Android_AudioTrack_write(JNIEnv *env, SDL_Android_AudioTrack *atrack, uint8_t *data, int size_in_byte)
 {
     if (size_in_byte <= 0)
         return size_in_byte;
 
+    if (atrack->spec.audio_format == ENCODING_PCM_FLOAT)
+        return SDL_Android_AudioTrack_write_float(env, atrack, data, size_in_byte);
+
     int reserved = SDL_Android_AudioTrack_reserve_byte_buffer(env, atrack, size_in_byte);
     if (reserved < size_in_byte) {
         ALOGE("%s failed %d < %d\n", __func__, reserved, size_in_byte);
@@ -348,6 +415,69 @@ int SDL_Android_AudioTrack_write(JNIEnv *env, SDL_Android_AudioTrack *atrack, ui
     return retval;
 }
 
+int SDL_Android_AudioTrack_enable_direct_buffer(JNIEnv *env, SDL_Android_AudioTrack *atrack, int capacity)
+{
+    if (SDL_Android_GetApiLevel() < IJK_API_21_LOLLIPOP) {
+        ALOGI("%s: write(ByteBuffer) need API 21 or above", __func__);
+        return -1;
+    }
+
+    if (atrack->direct_buffer)
+        return 0;
+
+    capacity = IJKMAX(capacity, atrack->min_buffer_size);
+    atrack->direct_buffer = J4AC_ByteBuffer__allocateDirect__asGlobalRef__catchAll(env, capacity);
+    if (!atrack->direct_buffer)
+        return -1;
+
+    atrack->direct_data = J4AC_ByteBuffer__getDirectBufferAddress__catchAll(env, atrack->direct_buffer);
+    if (!atrack->direct_data) {
+        J4A_DeleteGlobalRef__p(env, &atrack->direct_buffer);
+        return -1;
+    }
+
+    atrack->direct_capacity = capacity;
+    atrack->direct_position = 0;
+    return 0;
+}
+
+uint8_t *SDL_Android_AudioTrack_get_direct_data(JNIEnv *env, SDL_Android_AudioTrack *atrack, int size_in_byte)
+{
+    if (!atrack->direct_buffer || size_in_byte > atrack->direct_capacity)
+        return NULL;
+
+    // the position only moves forward, rewind it once the end is reached
+    if (atrack->direct_position + size_in_byte > atrack->direct_capacity) {
+        jobject buffer = J4AC_ByteBuffer__clear__catchAll(env, atrack->direct_buffer);
+        if (!buffer)
+            return NULL;
+        J4A_DeleteLocalRef__p(env, &buffer);
+        atrack->direct_position = 0;
+    }
+
+    return atrack->direct_data + atrack->direct_position;
+}
+
+int SDL_Android_AudioTrack_write_direct(JNIEnv *env, SDL_Android_AudioTrack *atrack, int size_in_byte)
+{
+    if (size_in_byte <= 0)
+        return size_in_byte;
+
+    int retval = J4AC_AudioTrack__writeByteBuffer__catchAll(env, atrack->thiz, atrack->direct_buffer, size_in_byte, WRITE_BLOCKING);
+    if (retval > 0)
+        atrack->direct_position += retval;
+
+    return retval;
+}
+
+int SDL_Android_AudioTrack_get_underrun_count(JNIEnv *env, SDL_Android_AudioTrack *atrack)
+{
+    if (SDL_Android_GetApiLevel() < IJK_API_24_N)
+        return -1;
+
+    return J4AC_AudioTrack__getUnderrunCount__catchAll(env, atrack->thiz);
+}
+
 int SDL_Android_AudioTrack_getAudioSessionId(JNIEnv *env, SDL_Android_AudioTrack *atrack)
 {
     SDLTRACE("%s", __func__);
@@ -104,8 +104,20 @@ void SDL_Android_AudioTrack_flush(JNIEnv *env, SDL_Android_AudioTrack *atrack);
 void SDL_Android_AudioTrack_set_volume(JNIEnv *env, SDL_Android_AudioTrack *atrack, float left_volume, float right_volume);
 void SDL_Android_AudioTrack_stop(JNIEnv *env, SDL_Android_AudioTrack *atrack);
 void SDL_Android_AudioTrack_release(JNIEnv *env, SDL_Android_AudioTrack *atrack);
+// write(byte[]), or write(float[]) on a ENCODING_PCM_FLOAT track
 int SDL_Android_AudioTrack_write(JNIEnv *env, SDL_Android_AudioTrack *atrack, uint8_t *data, int size_in_byte);
 
+/*
+ * write(ByteBuffer) on a direct buffer, API 21 or above: the caller mixes
+ * into get_direct_data() and hands it over with write_direct(), no copy.
+ */
+int SDL_Android_AudioTrack_enable_direct_buffer(JNIEnv *env, SDL_Android_AudioTrack *atrack, int capacity);
+uint8_t *SDL_Android_AudioTrack_get_direct_data(JNIEnv *env, SDL_Android_AudioTrack *atrack, int size_in_byte);
+int SDL_Android_AudioTrack_write_direct(JNIEnv *env, SDL_Android_AudioTrack *atrack, int size_in_byte);
+
+// -1 below API 24
+int SDL_Android_AudioTrack_get_underrun_count(JNIEnv *env, SDL_Android_AudioTrack *atrack);
+
 int  SDL_Android_AudioTrack_getAudioSessionId(JNIEnv *env, SDL_Android_AudioTrack *atrack);
 void SDL_Android_AudioTrack_setSpeed(JNIEnv *env, SDL_Android_AudioTrack *atrack, float speed);
 
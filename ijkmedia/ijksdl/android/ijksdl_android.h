@@ -27,6 +27,7 @@
 
 #include "../ijksdl.h"
 
+#include "ijksdl_aout_android_aaudio.h"
 #include "ijksdl_aout_android_audiotrack.h"
 #include "ijksdl_aout_android_opensles.h"
 
@@ -52,6 +52,10 @@
 #define IJK_API_21_LOLLIPOP                 21  // 5.0
 #define IJK_API_22_LOLLIPOP_MR1             22  // 5.1
 #define IJK_API_23_M                        23  // 6.0
+#define IJK_API_24_N                        24  // 7.0
+#define IJK_API_25_N_MR1                    25  // 7.1
+#define IJK_API_26_O                        26  // 8.0
+#define IJK_API_27_O_MR1                    27  // 8.1
 
 JavaVM *SDL_JNI_GetJvm();
 
@@ -0,0 +1,632 @@
+/*****************************************************************************
+ * ijksdl_aout_android_aaudio.c
+ *****************************************************************************
+ *
+ * Copyright (c) 2013 Bilibili
+ * copyright (c) 2013 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijksdl_aout_android_aaudio.h"
+
+#include <stdbool.h>
+#include <assert.h>
+#include <dlfcn.h>
+#include <pthread.h>
+#include <string.h>
+#include <time.h>
+#include "../ijksdl_inc_internal.h"
+#include "../ijksdl_thread.h"
+#include "../ijksdl_aout_internal.h"
+#include "ijksdl_android_jni.h"
+
+#ifdef SDLTRACE
+#undef SDLTRACE
+#define SDLTRACE(...)
+#endif
+
+#define AAUDIO_BUFFER_BURSTS_MAX    64
+#define AAUDIO_TUNE_INTERVAL_MS     100
+#define AAUDIO_REOPEN_TRIES         20      // one every AAUDIO_TUNE_INTERVAL_MS before an error is reported
+#define AAUDIO_PAUSE_TIMEOUT_NS     (100 * 1000 * 1000)
+
+/*
+ * libaaudio.so is looked up at runtime, so the library still loads on
+ * platforms without it. Values below are from <aaudio/AAudio.h>, they are
+ * part of the stable NDK ABI.
+ */
+typedef struct AAudioStreamStruct        AAudioStream;
+typedef struct AAudioStreamBuilderStruct AAudioStreamBuilder;
+typedef int32_t                          aaudio_result_t;
+typedef int32_t                          aaudio_stream_state_t;
+
+#define AAUDIO_OK                           0
+#define AAUDIO_ERROR_DISCONNECTED           (-899)
+#define AAUDIO_DIRECTION_OUTPUT             0
+#define AAUDIO_FORMAT_PCM_I16               1
+#define AAUDIO_FORMAT_PCM_FLOAT             2
+#define AAUDIO_SHARING_MODE_SHARED          1
+#define AAUDIO_PERFORMANCE_MODE_LOW_LATENCY 12
+#define AAUDIO_CALLBACK_RESULT_CONTINUE     0
+#define AAUDIO_SESSION_ID_ALLOCATE          0
+#define AAUDIO_STREAM_STATE_UNKNOWN         1
+#define AAUDIO_STREAM_STATE_PAUSING         7
+
+typedef int32_t (*AAudioStream_dataCallback)(AAudioStream *stream, void *user_data, void *audio_data, int32_t num_frames);
+typedef void    (*AAudioStream_errorCallback)(AAudioStream *stream, void *user_data, aaudio_result_t error);
+
+typedef struct AAudioLib {
+    aaudio_result_t (*createStreamBuilder)(AAudioStreamBuilder **builder);
+    const char     *(*convertResultToText)(aaudio_result_t result);
+
+    void            (*builder_setDirection)(AAudioStreamBuilder *builder, int32_t direction);
+    void            (*builder_setSampleRate)(AAudioStreamBuilder *builder, int32_t sample_rate);
+    void            (*builder_setChannelCount)(AAudioStreamBuilder *builder, int32_t channel_count);
+    void            (*builder_setFormat)(AAudioStreamBuilder *builder, int32_t format);
+    void            (*builder_setSharingMode)(AAudioStreamBuilder *builder, int32_t sharing_mode);
+    void            (*builder_setPerformanceMode)(AAudioStreamBuilder *builder, int32_t mode);
+    void            (*builder_setDataCallback)(AAudioStreamBuilder *builder, AAudioStream_dataCallback callback, void *user_data);
+    void            (*builder_setErrorCallback)(AAudioStreamBuilder *builder, AAudioStream_errorCallback callback, void *user_data);
+    void            (*builder_setSessionId)(AAudioStreamBuilder *builder, int32_t session_id);    // API 28, may be NULL
+    aaudio_result_t (*builder_openStream)(AAudioStreamBuilder *builder, AAudioStream **stream);
+    aaudio_result_t (*builder_delete)(AAudioStreamBuilder *builder);
+
+    aaudio_result_t (*stream_close)(AAudioStream *stream);
+    aaudio_result_t (*stream_requestStart)(AAudioStream *stream);
+    aaudio_result_t (*stream_requestPause)(AAudioStream *stream);
+    aaudio_result_t (*stream_requestFlush)(AAudioStream *stream);
+    aaudio_result_t (*stream_waitForStateChange)(AAudioStream *stream, aaudio_stream_state_t input_state,
+                                                 aaudio_stream_state_t *next_state, int64_t timeout_ns);
+    int32_t         (*stream_getSampleRate)(AAudioStream *stream);
+    int32_t         (*stream_getChannelCount)(AAudioStream *stream);
+    int32_t         (*stream_getFormat)(AAudioStream *stream);
+    int32_t         (*stream_getFramesPerBurst)(AAudioStream *stream);
+    int32_t         (*stream_getBufferSizeInFrames)(AAudioStream *stream);
+    int32_t         (*stream_getBufferCapacityInFrames)(AAudioStream *stream);
+    aaudio_result_t (*stream_setBufferSizeInFrames)(AAudioStream *stream, int32_t num_frames);
+    int32_t         (*stream_getXRunCount)(AAudioStream *stream);
+    int64_t         (*stream_getFramesWritten)(AAudioStream *stream);
+    aaudio_result_t (*stream_getTimestamp)(AAudioStream *stream, clockid_t clockid, int64_t *frame_position, int64_t *time_nanoseconds);
+    int32_t         (*stream_getSessionId)(AAudioStream *stream);     // API 28, may be NULL
+} AAudioLib;
+
+static AAudioLib      g_aaudio;
+static bool           g_aaudio_loaded;
+static pthread_once_t g_aaudio_once = PTHREAD_ONCE_INIT;
+
+#define AAUDIO_LOAD(field__, name__) \
+    do { \
+        *(void **)&g_aaudio.field__ = dlsym(lib, name__); \
+        if (!g_aaudio.field__) { \
+            ALOGE("%s: %s not found\n", __func__, name__); \
+            goto fail; \
+        } \
+    } while (0)
+
+static void aaudio_load_once()
+{
+    void *lib = NULL;
+
+    // AAudio of 8.0 has known glitches, OpenSL ES is preferred there
+    if (SDL_Android_GetApiLevel() < IJK_API_27_O_MR1)
+        return;
+
+    lib = dlopen("libaaudio.so", RTLD_NOW);
+    if (!lib) {
+        ALOGW("%s: dlopen(libaaudio.so) failed: %s\n", __func__, dlerror());
+        return;
+    }
+
+    AAUDIO_LOAD(createStreamBuilder,                "AAudio_createStreamBuilder");
+    AAUDIO_LOAD(convertResultToText,                "AAudio_convertResultToText");
+    AAUDIO_LOAD(builder_setDirection,               "AAudioStreamBuilder_setDirection");
+    AAUDIO_LOAD(builder_setSampleRate,              "AAudioStreamBuilder_setSampleRate");
+    AAUDIO_LOAD(builder_setChannelCount,            "AAudioStreamBuilder_setChannelCount");
+    AAUDIO_LOAD(builder_setFormat,                  "AAudioStreamBuilder_setFormat");
+    AAUDIO_LOAD(builder_setSharingMode,             "AAudioStreamBuilder_setSharingMode");
+    AAUDIO_LOAD(builder_setPerformanceMode,         "AAudioStreamBuilder_setPerformanceMode");
+    AAUDIO_LOAD(builder_setDataCallback,            "AAudioStreamBuilder_setDataCallback");
+    AAUDIO_LOAD(builder_setErrorCallback,           "AAudioStreamBuilder_setErrorCallback");
+    AAUDIO_LOAD(builder_openStream,                 "AAudioStreamBuilder_openStream");
+    AAUDIO_LOAD(builder_delete,                     "AAudioStreamBuilder_delete");
+    AAUDIO_LOAD(stream_close,                       "AAudioStream_close");
+    AAUDIO_LOAD(stream_requestStart,                "AAudioStream_requestStart");
+    AAUDIO_LOAD(stream_requestPause,                "AAudioStream_requestPause");
+    AAUDIO_LOAD(stream_requestFlush,                "AAudioStream_requestFlush");
+    AAUDIO_LOAD(stream_waitForStateChange,          "AAudioStream_waitForStateChange");
+    AAUDIO_LOAD(stream_getSampleRate,               "AAudioStream_getSampleRate");
+    AAUDIO_LOAD(stream_getChannelCount,             "AAudioStream_getChannelCount");
+    AAUDIO_LOAD(stream_getFormat,                   "AAudioStream_getFormat");
+    AAUDIO_LOAD(stream_getFramesPerBurst,           "AAudioStream_getFramesPerBurst");
+    AAUDIO_LOAD(stream_getBufferSizeInFrames,       "AAudioStream_getBufferSizeInFrames");
+    AAUDIO_LOAD(stream_getBufferCapacityInFrames,   "AAudioStream_getBufferCapacityInFrames");
+    AAUDIO_LOAD(stream_setBufferSizeInFrames,       "AAudioStream_setBufferSizeInFrames");
+    AAUDIO_LOAD(stream_getXRunCount,                "AAudioStream_getXRunCount");
+    AAUDIO_LOAD(stream_getFramesWritten,            "AAudioStream_getFramesWritten");
+    AAUDIO_LOAD(stream_getTimestamp,                "AAudioStream_getTimestamp");
+
+    *(void **)&g_aaudio.builder_setSessionId = dlsym(lib, "AAudioStreamBuilder_setSessionId");
+    *(void **)&g_aaudio.stream_getSessionId  = dlsym(lib, "AAudioStream_getSessionId");
+
+    g_aaudio_loaded = true;
+    return;
+fail:
+    memset(&g_aaudio, 0, sizeof(g_aaudio));
+    dlclose(lib);
+}
+
+static SDL_Class g_aaudio_class = {
+    .name = "AAudio",
+};
+
+typedef struct SDL_Aout_Opaque {
+    SDL_cond   *wakeup_cond;
+    SDL_mutex  *wakeup_mutex;
+
+    SDL_Thread *audio_tid;
+    SDL_Thread _audio_tid;
+
+    SDL_AudioSpec spec;
+    int           format;
+    int           bytes_per_frame;
+    int           buffer_bursts;        // initial size of the device buffer
+
+    AAudioStream *stream;
+    int32_t       frames_per_burst;
+    int32_t       last_xruns;
+    bool          started;
+    int           reopen_tries;         // since the stream was lost, 0 while it is open
+
+    volatile int32_t buffer_frames;
+    volatile int64_t latency_us;
+    volatile int64_t underruns;
+    int              audio_session_id;
+
+    volatile float left_volume;
+    volatile float right_volume;
+
+    volatile bool abort_request;
+    volatile bool pause_on;
+    volatile bool need_flush;
+    volatile bool need_reopen;
+} SDL_Aout_Opaque;
+
+static void apply_volume(SDL_Aout_Opaque *opaque, void *audio_data, int32_t num_frames)
+{
+    int   channels = opaque->spec.channels;
+    float left     = opaque->left_volume;
+    float right    = opaque->right_volume;
+    float gain[2]  = { left, right };
+    int   samples  = num_frames * channels;
+
+    if (channels == 1)
+        gain[0] = (left + right) / 2;
+
+    if (opaque->format == AAUDIO_FORMAT_PCM_FLOAT) {
+        float *data = audio_data;
+        for (int i = 0; i < samples; ++i)
+            data[i] *= gain[i % channels];
+    } else {
+        int16_t *data = audio_data;
+        for (int i = 0; i < samples; ++i)
+            data[i] = (int16_t)(data[i] * gain[i % channels]);
+    }
+}
+
+/* runs on the AAudio thread, must not block on anything but the player */
+static int32_t aaudio_data_callback(AAudioStream *stream, void *user_data, void *audio_data, int32_t num_frames)
+{
+    SDL_Aout        *aout   = user_data;
+    SDL_Aout_Opaque *opaque = aout->opaque;
+    int              size   = num_frames * opaque->bytes_per_frame;
+
+    if (opaque->abort_request || opaque->pause_on) {
+        memset(audio_data, 0, size);
+        return AAUDIO_CALLBACK_RESULT_CONTINUE;
+    }
+
+    opaque->spec.callback(opaque->spec.userdata, audio_data, size);
+    if (opaque->left_volume != 1.0f || opaque->right_volume != 1.0f)
+        apply_volume(opaque, audio_data, num_frames);
+
+    return AAUDIO_CALLBACK_RESULT_CONTINUE;
+}
+
+/* runs on an AAudio thread, the stream must be closed from another one */
+static void aaudio_error_callback(AAudioStream *stream, void *user_data, aaudio_result_t error)
+{
+    SDL_Aout        *aout   = user_data;
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    ALOGW("AAudio: error %s\n", g_aaudio.convertResultToText(error));
+    if (error == AAUDIO_ERROR_DISCONNECTED) {
+        opaque->need_reopen = true;
+        SDL_CondSignal(opaque->wakeup_cond);
+    }
+}
+
+static void close_stream_l(SDL_Aout_Opaque *opaque)
+{
+    if (opaque->stream) {
+        g_aaudio.stream_close(opaque->stream);
+        opaque->stream = NULL;
+    }
+    opaque->started = false;
+}
+
+static int open_stream_l(SDL_Aout *aout)
+{
+    SDL_Aout_Opaque     *opaque  = aout->opaque;
+    AAudioStreamBuilder *builder = NULL;
+    AAudioStream        *stream  = NULL;
+    aaudio_result_t      ret     = AAUDIO_OK;
+    int32_t              capacity;
+
+    ret = g_aaudio.createStreamBuilder(&builder);
+    if (ret != AAUDIO_OK) {
+        ALOGE("%s: AAudio_createStreamBuilder() failed %s\n", __func__, g_aaudio.convertResultToText(ret));
+        return -1;
+    }
+
+    g_aaudio.builder_setDirection(builder, AAUDIO_DIRECTION_OUTPUT);
+    g_aaudio.builder_setSampleRate(builder, opaque->spec.freq);
+    g_aaudio.builder_setChannelCount(builder, opaque->spec.channels);
+    g_aaudio.builder_setFormat(builder, opaque->format);
+    g_aaudio.builder_setSharingMode(builder, AAUDIO_SHARING_MODE_SHARED);
+    g_aaudio.builder_setPerformanceMode(builder, AAUDIO_PERFORMANCE_MODE_LOW_LATENCY);
+    g_aaudio.builder_setDataCallback(builder, aaudio_data_callback, aout);
+    g_aaudio.builder_setErrorCallback(builder, aaudio_error_callback, aout);
+    if (g_aaudio.builder_setSessionId)
+        g_aaudio.builder_setSessionId(builder, AAUDIO_SESSION_ID_ALLOCATE);
+
+    ret = g_aaudio.builder_openStream(builder, &stream);
+    g_aaudio.builder_delete(builder);
+    if (ret != AAUDIO_OK) {
+        ALOGE("%s: AAudioStreamBuilder_openStream() failed %s\n", __func__, g_aaudio.convertResultToText(ret));
+        return -1;
+    }
+
+    // the player keeps the spec it was opened with
+    if (g_aaudio.stream_getSampleRate(stream)   != opaque->spec.freq ||
+        g_aaudio.stream_getChannelCount(stream) != opaque->spec.channels ||
+        g_aaudio.stream_getFormat(stream)       != opaque->format) {
+        ALOGE("%s: stream opened as %d Hz, %d channels, format %d\n", __func__,
+              g_aaudio.stream_getSampleRate(stream), g_aaudio.stream_getChannelCount(stream),
+              g_aaudio.stream_getFormat(stream));
+        g_aaudio.stream_close(stream);
+        return -1;
+    }
+
+    opaque->stream           = stream;
+    opaque->started          = false;
+    opaque->last_xruns       = 0;
+    opaque->frames_per_burst = IJKMAX(g_aaudio.stream_getFramesPerBurst(stream), 1);
+
+    capacity = g_aaudio.stream_getBufferCapacityInFrames(stream);
+    ret = g_aaudio.stream_setBufferSizeInFrames(stream, IJKMIN(opaque->frames_per_burst * opaque->buffer_bursts, capacity));
+    opaque->buffer_frames = ret > 0 ? ret : g_aaudio.stream_getBufferSizeInFrames(stream);
+    opaque->latency_us    = (int64_t)opaque->buffer_frames * 1000000 / opaque->spec.freq;
+
+    if (g_aaudio.stream_getSessionId)
+        opaque->audio_session_id = IJKMAX(g_aaudio.stream_getSessionId(stream), 0);
+
+    ALOGI("AAudio: %d Hz, burst %d frames, buffer %d/%d frames\n", opaque->spec.freq,
+          (int)opaque->frames_per_burst, (int)opaque->buffer_frames, (int)capacity);
+    return 0;
+}
+
+/* a flush is only accepted by a paused stream, the caller starts it again */
+static void flush_stream_l(SDL_Aout_Opaque *opaque)
+{
+    aaudio_stream_state_t state = AAUDIO_STREAM_STATE_UNKNOWN;
+    aaudio_result_t       ret   = AAUDIO_OK;
+
+    if (opaque->started) {
+        g_aaudio.stream_requestPause(opaque->stream);
+        g_aaudio.stream_waitForStateChange(opaque->stream, AAUDIO_STREAM_STATE_PAUSING, &state, AAUDIO_PAUSE_TIMEOUT_NS);
+        opaque->started = false;
+    }
+
+    ret = g_aaudio.stream_requestFlush(opaque->stream);
+    if (ret != AAUDIO_OK)
+        ALOGW("%s: AAudioStream_requestFlush() failed %s\n", __func__, g_aaudio.convertResultToText(ret));
+}
+
+/* one more burst for every new underrun, as long as the device allows it */
+static void tune_buffer_l(SDL_Aout_Opaque *opaque)
+{
+    int32_t xruns = g_aaudio.stream_getXRunCount(opaque->stream);
+    if (xruns <= opaque->last_xruns)
+        return;
+
+    opaque->underruns  = IJKMAX(opaque->underruns, 0) + xruns - opaque->last_xruns;
+    opaque->last_xruns = xruns;
+
+    int32_t capacity = g_aaudio.stream_getBufferCapacityInFrames(opaque->stream);
+    if (opaque->buffer_frames >= capacity)
+        return;
+
+    aaudio_result_t ret = g_aaudio.stream_setBufferSizeInFrames(opaque->stream,
+        IJKMIN(opaque->buffer_frames + opaque->frames_per_burst, capacity));
+    if (ret > 0) {
+        ALOGI("AAudio: %d underruns, buffer %d -> %d frames\n", (int)xruns, (int)opaque->buffer_frames, (int)ret);
+        opaque->buffer_frames = ret;
+    }
+}
+
+/* when a frame written now is heard, from the last presented frame */
+static void update_latency_l(SDL_Aout_Opaque *opaque)
+{
+    struct timespec now;
+    int64_t         frame_position = 0;
+    int64_t         time_ns        = 0;
+    int64_t         latency_us     = (int64_t)opaque->buffer_frames * 1000000 / opaque->spec.freq;
+
+    if (opaque->started &&
+        g_aaudio.stream_getTimestamp(opaque->stream, CLOCK_MONOTONIC, &frame_position, &time_ns) == AAUDIO_OK &&
+        !clock_gettime(CLOCK_MONOTONIC, &now)) {
+        int64_t frames_written = g_aaudio.stream_getFramesWritten(opaque->stream);
+        int64_t heard_ns       = time_ns + (frames_written - frame_position) * 1000000000 / opaque->spec.freq;
+        int64_t now_ns         = (int64_t)now.tv_sec * 1000000000 + now.tv_nsec;
+        if (heard_ns > now_ns)
+            latency_us = (heard_ns - now_ns) / 1000;
+    }
+
+    opaque->latency_us = latency_us;
+}
+
+static int aout_thread_n(SDL_Aout *aout)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+    aaudio_result_t  ret    = AAUDIO_OK;
+
+    SDL_LockMutex(opaque->wakeup_mutex);
+    while (!opaque->abort_request) {
+        if (opaque->need_reopen) {
+            opaque->need_reopen = false;
+            ALOGI("AAudio: device changed, reopen\n");
+            close_stream_l(opaque);
+            opaque->reopen_tries = 0;
+        }
+
+        // the new device may not be ready yet, try again on every tick
+        if (!opaque->stream) {
+            if (!open_stream_l(aout)) {
+                opaque->reopen_tries = 0;
+            } else if (++opaque->reopen_tries == AAUDIO_REOPEN_TRIES) {
+                ALOGE("AAudio: no stream after %d tries\n", opaque->reopen_tries);
+                SDL_AoutNotifyError(aout, AAUDIO_ERROR_DISCONNECTED);
+            }
+        }
+
+        if (opaque->stream) {
+            if (opaque->pause_on && opaque->started) {
+                g_aaudio.stream_requestPause(opaque->stream);
+                opaque->started = false;
+            }
+            if (opaque->need_flush) {
+                // audio queued before a seek, a started stream is started again below
+                opaque->need_flush = false;
+                flush_stream_l(opaque);
+            }
+            if (!opaque->pause_on && !opaque->started) {
+                ret = g_aaudio.stream_requestStart(opaque->stream);
+                if (ret != AAUDIO_OK)
+                    ALOGE("%s: AAudioStream_requestStart() failed %s\n", __func__, g_aaudio.convertResultToText(ret));
+                else
+                    opaque->started = true;
+            }
+
+            tune_buffer_l(opaque);
+            update_latency_l(opaque);
+        }
+
+        SDL_CondWaitTimeout(opaque->wakeup_cond, opaque->wakeup_mutex, AAUDIO_TUNE_INTERVAL_MS);
+    }
+    SDL_UnlockMutex(opaque->wakeup_mutex);
+
+    return 0;
+}
+
+static int aout_thread(void *arg)
+{
+    return aout_thread_n(arg);
+}
+
+static void aout_close_audio(SDL_Aout *aout)
+{
+    SDLTRACE("%s\n", __func__);
+    SDL_Aout_Opaque *opaque = aout->opaque;
+    if (!opaque)
+        return;
+
+    SDL_LockMutex(opaque->wakeup_mutex);
+    opaque->abort_request = true;
+    SDL_CondSignal(opaque->wakeup_cond);
+    SDL_UnlockMutex(opaque->wakeup_mutex);
+
+    SDL_WaitThread(opaque->audio_tid, NULL);
+    opaque->audio_tid = NULL;
+
+    // waits for a running callback to return
+    SDL_LockMutex(opaque->wakeup_mutex);
+    close_stream_l(opaque);
+    SDL_UnlockMutex(opaque->wakeup_mutex);
+}
+
+static int aout_open_audio(SDL_Aout *aout, const SDL_AudioSpec *desired, SDL_AudioSpec *obtained)
+{
+    SDLTRACE("%s\n", __func__);
+    assert(desired);
+    SDL_Aout_Opaque *opaque = aout->opaque;
+    int              ret    = 0;
+
+    switch (desired->format) {
+    case AUDIO_S16SYS:
+        opaque->format = AAUDIO_FORMAT_PCM_I16;
+        break;
+    case AUDIO_F32:
+        opaque->format = AAUDIO_FORMAT_PCM_FLOAT;
+        break;
+    default:
+        ALOGE("%s: unsupported format 0x%x\n", __func__, (int)desired->format);
+        return -1;
+    }
+
+    opaque->spec            = *desired;
+    opaque->bytes_per_frame = desired->channels * SDL_AUDIO_BITSIZE(desired->format) / 8;
+
+    SDL_LockMutex(opaque->wakeup_mutex);
+    ret = open_stream_l(aout);
+    SDL_UnlockMutex(opaque->wakeup_mutex);
+    if (ret)
+        return -1;
+
+    opaque->pause_on      = 1;
+    opaque->abort_request = 0;
+    opaque->audio_tid = SDL_CreateThreadEx(&opaque->_audio_tid, aout_thread, aout, "ff_aout_aaudio");
+    if (!opaque->audio_tid) {
+        ALOGE("%s: failed to SDL_CreateThreadEx", __func__);
+        aout_close_audio(aout);
+        return -1;
+    }
+
+    if (obtained) {
+        *obtained      = *desired;
+        obtained->size = opaque->buffer_frames * opaque->bytes_per_frame;
+    }
+
+    return opaque->buffer_frames * opaque->bytes_per_frame;
+}
+
+static void aout_pause_audio(SDL_Aout *aout, int pause_on)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    SDL_LockMutex(opaque->wakeup_mutex);
+    SDLTRACE("aout_pause_audio(%d)", pause_on);
+    opaque->pause_on = pause_on;
+    SDL_CondSignal(opaque->wakeup_cond);
+    SDL_UnlockMutex(opaque->wakeup_mutex);
+}
+
+/* may be called from the data callback, so it does not take the mutex */
+static void aout_flush_audio(SDL_Aout *aout)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    SDLTRACE("aout_flush_audio()");
+    opaque->need_flush = true;
+    SDL_CondSignal(opaque->wakeup_cond);
+}
+
+static void aout_set_volume(SDL_Aout *aout, float left_volume, float right_volume)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    ALOGI("aout_set_volume(%f, %f)", left_volume, right_volume);
+    opaque->left_volume  = left_volume;
+    opaque->right_volume = right_volume;
+}
+
+/* called from the data callback */
+static double aout_get_latency_seconds(SDL_Aout *aout)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    return (double)opaque->latency_us / 1000000;
+}
+
+static int aout_get_audio_session_id(SDL_Aout *aout)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    return opaque->audio_session_id;
+}
+
+static void aout_get_statistic(SDL_Aout *aout, SDL_AoutStatistic *stat)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    stat->underruns  = opaque->underruns;
+    stat->latency_us = opaque->latency_us;
+    if (opaque->spec.freq > 0)
+        stat->buffer_us = (int64_t)opaque->buffer_frames * 1000000 / opaque->spec.freq;
+}
+
+static void aout_free_l(SDL_Aout *aout)
+{
+    SDLTRACE("%s\n", __func__);
+    if (!aout)
+        return;
+
+    aout_close_audio(aout);
+
+    SDL_Aout_Opaque *opaque = aout->opaque;
+    if (opaque) {
+        SDL_DestroyCondP(&opaque->wakeup_cond);
+        SDL_DestroyMutexP(&opaque->wakeup_mutex);
+    }
+
+    SDL_Aout_FreeInternal(aout);
+}
+
+SDL_Aout *SDL_AoutAndroid_CreateForAAudio(int buffer_bursts)
+{
+    SDLTRACE("%s\n", __func__);
+    pthread_once(&g_aaudio_once, aaudio_load_once);
+    if (!g_aaudio_loaded)
+        return NULL;
+
+    SDL_Aout *aout = SDL_Aout_CreateInternal(sizeof(SDL_Aout_Opaque));
+    if (!aout)
+        return NULL;
+
+    SDL_Aout_Opaque *opaque = aout->opaque;
+    opaque->wakeup_cond   = SDL_CreateCond();
+    opaque->wakeup_mutex  = SDL_CreateMutex();
+    opaque->buffer_bursts = IJKMIN(IJKMAX(buffer_bursts, 1), AAUDIO_BUFFER_BURSTS_MAX);
+    opaque->underruns     = 0;
+    opaque->left_volume   = 1.0f;
+    opaque->right_volume  = 1.0f;
+    if (!opaque->wakeup_cond || !opaque->wakeup_mutex) {
+        aout_free_l(aout);
+        return NULL;
+    }
+
+    aout->opaque_class = &g_aaudio_class;
+    aout->free_l       = aout_free_l;
+    aout->open_audio   = aout_open_audio;
+    aout->pause_audio  = aout_pause_audio;
+    aout->flush_audio  = aout_flush_audio;
+    aout->set_volume   = aout_set_volume;
+    aout->close_audio  = aout_close_audio;
+    aout->func_get_latency_seconds  = aout_get_latency_seconds;
+    aout->func_get_audio_session_id = aout_get_audio_session_id;
+    aout->func_get_statistic        = aout_get_statistic;
+
+    return aout;
+}
+
+bool SDL_AoutAndroid_IsObjectOfAAudio(SDL_Aout *aout)
+{
+    if (!aout)
+        return false;
+
+    return aout->opaque_class == &g_aaudio_class;
+}
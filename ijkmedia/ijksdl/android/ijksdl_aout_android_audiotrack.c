@@ -26,9 +26,11 @@
 
 #include <stdbool.h>
 #include <assert.h>
+#include <time.h>
 #include <jni.h>
 #include "../ijksdl_inc_internal.h"
 #include "../ijksdl_thread.h"
+#include "../ijksdl_timer.h"
 #include "../ijksdl_aout_internal.h"
 #include "ijksdl_android_jni.h"
 #include "android_audiotrack.h"
@@ -67,8 +69,24 @@ typedef struct SDL_Aout_Opaque {
 
     volatile float speed;
     volatile bool speed_changed;
+
+    bool direct;                // write(ByteBuffer) on a direct buffer mixed in place
+    volatile int64_t underruns;
+    volatile int64_t cpu_time_us;
 } SDL_Aout_Opaque;
 
+#define AUDIOTRACK_DIRECT_BUFFER_CHUNKS   64
+#define AUDIOTRACK_STATISTIC_INTERVAL_MS  1000
+
+static void update_statistic(JNIEnv *env, SDL_Aout_Opaque *opaque)
+{
+    struct timespec ts;
+
+    if (!clock_gettime(CLOCK_THREAD_CPUTIME_ID, &ts))
+        opaque->cpu_time_us = (int64_t)ts.tv_sec * 1000000 + ts.tv_nsec / 1000;
+    opaque->underruns = SDL_Android_AudioTrack_get_underrun_count(env, opaque->atrack);
+}
+
 static int aout_thread_n(JNIEnv *env, SDL_Aout *aout)
 {
     SDL_Aout_Opaque *opaque = aout->opaque;
@@ -77,6 +95,7 @@ static int aout_thread_n(JNIEnv *env, SDL_Aout *aout)
     void *userdata = opaque->spec.userdata;
     uint8_t *buffer = opaque->buffer;
     int copy_size = 256;
+    Uint64 statistic_time = 0;
 
     assert(atrack);
     assert(buffer);
@@ -115,6 +134,16 @@ static int aout_thread_n(JNIEnv *env, SDL_Aout *aout)
         }
         SDL_UnlockMutex(opaque->wakeup_mutex);
 
+        if (opaque->direct) {
+            buffer = SDL_Android_AudioTrack_get_direct_data(env, atrack, copy_size);
+            if (!buffer) {
+                // a float track goes on with write(float[])
+                ALOGE("AudioTrack: direct buffer lost, fall back to byte[]");
+                opaque->direct = false;
+                buffer = opaque->buffer;
+            }
+        }
+
         audio_cblk(userdata, buffer, copy_size);
         if (opaque->need_flush) {
             SDL_Android_AudioTrack_flush(env, atrack);
@@ -125,12 +154,18 @@ static int aout_thread_n(JNIEnv *env, SDL_Aout *aout)
             opaque->need_flush = 0;
             SDL_Android_AudioTrack_flush(env, atrack);
         } else {
-            int written = SDL_Android_AudioTrack_write(env, atrack, buffer, copy_size);
+            int written = opaque->direct ? SDL_Android_AudioTrack_write_direct(env, atrack, copy_size)
+                                         : SDL_Android_AudioTrack_write(env, atrack, buffer, copy_size);
             if (written != copy_size) {
                 ALOGW("AudioTrack: not all data copied %d/%d", (int)written, (int)copy_size);
             }
         }
 
+        if (SDL_GetTickHR() - statistic_time >= AUDIOTRACK_STATISTIC_INTERVAL_MS) {
+            statistic_time = SDL_GetTickHR();
+            update_statistic(env, opaque);
+        }
+
         // TODO: 1 if callback return -1 or 0
     }
 
@@ -164,6 +199,26 @@ static int aout_open_audio_n(JNIEnv *env, SDL_Aout *aout, const SDL_AudioSpec *d
         return -1;
     }
 
+    if (opaque->direct) {
+        // the buffer position is rewound once every AUDIOTRACK_DIRECT_BUFFER_CHUNKS writes at most
+        if (SDL_Android_AudioTrack_enable_direct_buffer(env, opaque->atrack, 256 * AUDIOTRACK_DIRECT_BUFFER_CHUNKS)) {
+            ALOGW("aout_open_audio_n: no direct buffer, fall back to byte[]");
+            opaque->direct = false;
+        }
+    }
+
+    // float output only comes with the direct buffer, the obtained spec tells the caller
+    if (!opaque->direct && desired->format == AUDIO_F32) {
+        ALOGW("aout_open_audio_n: no direct buffer, fall back to AUDIO_S16SYS");
+        SDL_Android_AudioTrack_free(env, opaque->atrack);
+        opaque->spec.format = AUDIO_S16SYS;
+        opaque->atrack = SDL_Android_AudioTrack_new_from_sdl_spec(env, &opaque->spec);
+        if (!opaque->atrack) {
+            ALOGE("aout_open_audio_n: failed to new AudioTrcak()");
+            return -1;
+        }
+    }
+
     opaque->buffer_size = SDL_Android_AudioTrack_get_min_buffer_size(opaque->atrack);
     if (opaque->buffer_size <= 0) {
         ALOGE("aout_open_audio_n: failed to getMinBufferSize()");
@@ -268,6 +323,14 @@ static int aout_get_audio_session_id(SDL_Aout *aout)
     return opaque->audio_session_id;
 }
 
+static void aout_get_statistic(SDL_Aout *aout, SDL_AoutStatistic *stat)
+{
+    SDL_Aout_Opaque *opaque = aout->opaque;
+
+    stat->underruns   = opaque->underruns;
+    stat->cpu_time_us = opaque->cpu_time_us;
+}
+
 static void aout_free_l(SDL_Aout *aout)
 {
     if (!aout)
@@ -302,7 +365,7 @@ static void func_set_playback_rate(SDL_Aout *aout, float speed)
     SDL_UnlockMutex(opaque->wakeup_mutex);
 }
 
-SDL_Aout *SDL_AoutAndroid_CreateForAudioTrack()
+static SDL_Aout *aout_create(bool direct)
 {
     SDL_Aout *aout = SDL_Aout_CreateInternal(sizeof(SDL_Aout_Opaque));
     if (!aout)
@@ -312,6 +375,9 @@ SDL_Aout *SDL_AoutAndroid_CreateForAudioTrack()
     opaque->wakeup_cond  = SDL_CreateCond();
     opaque->wakeup_mutex = SDL_CreateMutex();
     opaque->speed        = 1.0f;
+    opaque->direct       = direct;
+    opaque->underruns    = -1;
+    opaque->cpu_time_us  = -1;
 
     aout->opaque_class = &g_audiotrack_class;
     aout->free_l       = aout_free_l;
@@ -322,10 +388,21 @@ SDL_Aout *SDL_AoutAndroid_CreateForAudioTrack()
     aout->close_audio  = aout_close_audio;
     aout->func_get_audio_session_id = aout_get_audio_session_id;
     aout->func_set_playback_rate    = func_set_playback_rate;
+    aout->func_get_statistic        = aout_get_statistic;
 
     return aout;
 }
 
+SDL_Aout *SDL_AoutAndroid_CreateForAudioTrack()
+{
+    return aout_create(false);
+}
+
+SDL_Aout *SDL_AoutAndroid_CreateForAudioTrackDirect()
+{
+    return aout_create(true);
+}
+
 bool SDL_AoutAndroid_IsObjectOfAudioTrack(SDL_Aout *aout)
 {
     if (aout)
@@ -28,6 +28,8 @@
 #include "../ijksdl_aout.h"
 
 SDL_Aout *SDL_AoutAndroid_CreateForAudioTrack();
+// AudioTrack.write(ByteBuffer) on API 21 or above, write(byte[]) below
+SDL_Aout *SDL_AoutAndroid_CreateForAudioTrackDirect();
 bool      SDL_AoutAndroid_IsObjectOfAudioTrack(SDL_Aout *aout);
 
 #endif
@@ -137,6 +137,7 @@ sdl_amedia_status_t SDL_AMediaCodec_start(SDL_AMediaCodec* acodec)
     sdl_amedia_status_t amc_ret = acodec->func_start(acodec);
     if (amc_ret == SDL_AMEDIA_OK) {
         acodec->is_started = true;
+        SDL_AMediaCodec_FakeFifo_reset(&acodec->common->fake_fifo);
     }
     return amc_ret;
 }
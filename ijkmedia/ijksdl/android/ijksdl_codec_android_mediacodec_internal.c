@@ -180,6 +180,17 @@ void SDL_AMediaCodec_FakeFifo_flush(SDL_AMediaCodec_FakeFifo *fifo)
     SDL_UnlockMutex(fifo->mutex);
 }
 
+/* undoes abort() for a codec started again after stop() */
+void SDL_AMediaCodec_FakeFifo_reset(SDL_AMediaCodec_FakeFifo *fifo)
+{
+    SDL_LockMutex(fifo->mutex);
+    fifo->should_abort = 0;
+    fifo->begin = 0;
+    fifo->end   = 0;
+    fifo->size  = 0;
+    SDL_UnlockMutex(fifo->mutex);
+}
+
 int SDL_AMediaCodec_FakeFifo_size(SDL_AMediaCodec_FakeFifo *fifo)
 {
     return fifo->size;
@@ -51,6 +51,11 @@ jobject SDL_AMediaCodecJava_getObject(JNIEnv *env, const SDL_AMediaCodec *thiz)
     return opaque->android_media_codec;
 }
 
+bool SDL_AMediaCodecJava_isJavaCodec(const SDL_AMediaCodec *thiz)
+{
+    return thiz && thiz->opaque_class == &g_amediacodec_class;
+}
+
 SDL_AMediaFormat *SDL_AMediaCodecJava_getOutputFormat(SDL_AMediaCodec *thiz)
 {
     if (!thiz || !thiz->opaque)
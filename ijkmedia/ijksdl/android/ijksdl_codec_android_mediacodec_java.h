@@ -31,5 +31,6 @@ typedef struct ASDK_MediaCodec ASDK_MediaCodec;
 
 SDL_AMediaCodec  *SDL_AMediaCodecJava_createByCodecName(JNIEnv *env, const char *codec_name);
 jobject           SDL_AMediaCodecJava_getObject(JNIEnv *env, const SDL_AMediaCodec *thiz);
+bool              SDL_AMediaCodecJava_isJavaCodec(const SDL_AMediaCodec *thiz);
 
 #endif
@@ -114,6 +114,26 @@ void SDL_AoutSetPlaybackVolume(SDL_Aout *aout, float volume)
     }
 }
 
+void SDL_AoutGetStatistic(SDL_Aout *aout, SDL_AoutStatistic *stat)
+{
+    stat->underruns   = -1;
+    stat->cpu_time_us = -1;
+    stat->latency_us  = aout ? (int64_t)(SDL_AoutGetLatencySeconds(aout) * 1000000) : -1;
+    stat->buffer_us   = -1;
+    if (aout) {
+        if (aout->func_get_statistic)
+            aout->func_get_statistic(aout, stat);
+    }
+}
+
+void SDL_AoutSetErrorCallback(SDL_Aout *aout, SDL_AoutErrorCallback callback, void *userdata)
+{
+    if (aout) {
+        aout->error_callback = callback;
+        aout->error_userdata = userdata;
+    }
+}
+
 int SDL_AoutGetAudioSessionId(SDL_Aout *aout)
 {
     if (aout) {
@@ -29,6 +29,16 @@
 #include "ijksdl_class.h"
 #include "ijksdl_mutex.h"
 
+typedef struct SDL_AoutStatistic {
+    int64_t underruns;      // reported by the device, -1 if unknown
+    int64_t cpu_time_us;    // spent by the output thread, -1 if unknown
+    int64_t latency_us;     // until a sample written now is heard
+    int64_t buffer_us;      // size of the device buffer, -1 if unknown
+} SDL_AoutStatistic;
+
+// the output is lost for good, called on a thread of the output
+typedef void (*SDL_AoutErrorCallback)(void *userdata, int error);
+
 typedef struct SDL_Aout_Opaque SDL_Aout_Opaque;
 typedef struct SDL_Aout SDL_Aout;
 struct SDL_Aout {
@@ -51,9 +61,14 @@ struct SDL_Aout {
     void   (*func_set_playback_rate)(SDL_Aout *aout, float playbackRate);
     void   (*func_set_playback_volume)(SDL_Aout *aout, float playbackVolume);
     int    (*func_get_audio_persecond_callbacks)(SDL_Aout *aout);
+    void   (*func_get_statistic)(SDL_Aout *aout, SDL_AoutStatistic *stat);
 
     // Android only
     int    (*func_get_audio_session_id)(SDL_Aout *aout);
+
+    // set by the user
+    SDL_AoutErrorCallback error_callback;
+    void                 *error_userdata;
 };
 
 int SDL_AoutOpenAudio(SDL_Aout *aout, const SDL_AudioSpec *desired, SDL_AudioSpec *obtained);
@@ -71,6 +86,8 @@ int    SDL_AoutGetAudioPerSecondCallBacks(SDL_Aout *aout);
 // optional
 void   SDL_AoutSetPlaybackRate(SDL_Aout *aout, float playbackRate);
 void   SDL_AoutSetPlaybackVolume(SDL_Aout *aout, float volume);
+void   SDL_AoutGetStatistic(SDL_Aout *aout, SDL_AoutStatistic *stat);
+void   SDL_AoutSetErrorCallback(SDL_Aout *aout, SDL_AoutErrorCallback callback, void *userdata);
 
 // android only
 int    SDL_AoutGetAudioSessionId(SDL_Aout *aout);
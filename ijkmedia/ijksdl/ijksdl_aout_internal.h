@@ -50,6 +50,12 @@ inline static SDL_Aout *SDL_Aout_CreateInternal(size_t opaque_size)
     return aout;
 }
 
+inline static void SDL_AoutNotifyError(SDL_Aout *aout, int error)
+{
+    if (aout->error_callback)
+        aout->error_callback(aout->error_userdata, error);
+}
+
 inline static void SDL_Aout_FreeInternal(SDL_Aout *aout)
 {
     if (!aout)